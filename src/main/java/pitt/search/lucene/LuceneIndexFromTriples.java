@@ -10,6 +10,7 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.store.FSDirectory;
 
 import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.PredicationTriples;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 
 import java.io.BufferedReader;
@@ -25,6 +26,10 @@ import java.nio.file.Path;
  * <subject>\t<predicate>\t<object> and produces a Lucene index, in which each 
  * "document" is a single tab-delimited predication (or triple) with the fields subject, 
  * predicate, and object.
+ *
+ * If -triplesfile is set, the predications are also written to that file as
+ * {@link PredicationTriples}, which {@link pitt.search.semanticvectors.PSI} can read faster
+ * than the stored fields of the index.
  */
 public class LuceneIndexFromTriples {
 
@@ -40,6 +45,11 @@ public class LuceneIndexFromTriples {
       System.exit(1);
     }
     FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    args = flagConfig.remainingArgs;
+    if (args.length == 0) {
+      System.err.println("Usage: " + usage);
+      System.exit(1);
+    }
     // Allow for the specification of a directory to write the index to.
     if (flagConfig.luceneindexpath().length() > 0) {
       INDEX_DIR = FileSystems.getDefault().getPath(flagConfig.luceneindexpath());
@@ -62,8 +72,16 @@ public class LuceneIndexFromTriples {
       }
 
       System.out.println("Indexing to directory '" +INDEX_DIR+ "'...");
-      indexDoc(writer, triplesTextFile);
-      writer.close();       
+      PredicationTriples.Builder triplesBuilder = null;
+      if (!flagConfig.triplesfile().isEmpty()) {
+        triplesBuilder = new PredicationTriples.Builder(triplesTextFile.getAbsolutePath());
+      }
+      indexDoc(writer, triplesTextFile, triplesBuilder);
+      writer.close();
+      if (triplesBuilder != null) {
+        System.out.println("Writing predication triples to '" + flagConfig.triplesfile() + "'...");
+        triplesBuilder.build().writeToFile(flagConfig.triplesfile());
+      }
     } catch (IOException e) {
       System.out.println(" caught a " + e.getClass() +
           "\n with message: " + e.getMessage());
@@ -73,10 +91,12 @@ public class LuceneIndexFromTriples {
   /**
    * This class indexes the file passed as a parameter, writing to the index passed as a parameter.
    * Each predication is indexed as an individual document, with the fields "subject", "predicate", and "object"
+   * If triplesBuilder is not null, each predication is also added to it.
 
    * @throws IOException
    */
-  static void indexDoc(IndexWriter fsWriter, File triplesTextFile) throws IOException {
+  static void indexDoc(IndexWriter fsWriter, File triplesTextFile, PredicationTriples.Builder triplesBuilder)
+      throws IOException {
     BufferedReader theReader = new BufferedReader(new FileReader(triplesTextFile));
     int linecnt = 0;
     String lineIn;
@@ -103,6 +123,9 @@ public class LuceneIndexFromTriples {
         doc.add(new TextField("object", object, Field.Store.YES));
         doc.add(new TextField("predication",subject+predicate+object, Field.Store.NO));
         fsWriter.addDocument(doc);
+        if (triplesBuilder != null) {
+          triplesBuilder.add(subject, predicate, object);
+        }
       }
       catch (Exception e) {
         System.out.println(lineIn);
@@ -35,18 +35,26 @@
 
 package pitt.search.semanticvectors;
 
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ConcurrentSuperposition;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 import pitt.search.semanticvectors.vectors.VectorType;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -54,6 +62,11 @@ import java.util.logging.Logger;
  * iterating through all the terms in a term vector store and
  * incrementing document vectors for each of the documents containing
  * that term.
+ *
+ * <p>
+ * Doc vectors are kept in an array indexed by Lucene doc ID, and the external doc IDs are read
+ * from the index once, so that adding a term vector to the documents that contain it involves
+ * no stored field reads or string lookups.
  */
 public class DocVectors implements VectorStore {
 
@@ -86,6 +99,16 @@ public class DocVectors implements VectorStore {
   private VectorStore termVectors;
   private LuceneUtils luceneUtils;
 
+  /** External doc ID of each document, indexed by Lucene doc ID. */
+  private String[] externalDocIds;
+  /** Doc vector of each document, indexed by Lucene doc ID. */
+  private Vector[] docVectorsByDocId;
+  /** Words of the term vectors, and the term vectors themselves, in the order of the store. */
+  private String[] words;
+  private Vector[] wordVectors;
+  /** Global weight of each word in each of the contents fields. */
+  private float[][] globalWeights;
+
   //@Override
   public VectorType getVectorType() { return flagConfig.vectortype(); }
 
@@ -108,59 +131,39 @@ public class DocVectors implements VectorStore {
 
   /**
    * Creates doc vectors, iterating over terms.
+   * 
+   * If {@link FlagConfig#numthreads()} is greater than 1, the documents are divided into that
+   * many ranges of Lucene doc IDs, and each range is trained by its own thread, which goes
+   * through all the terms and adds each term vector to the documents in its range. Each
+   * document gets the same contributions in the same order as from a single thread.
    */
   private void trainDocVectors() throws IOException {
     VerbatimLogger.info("Building document vectors ... ");
+
+    // Look up the term vectors and their global weights once, rather than once per range.
+    List<String> wordList = new ArrayList<String>();
+    List<Vector> wordVectorList = new ArrayList<Vector>();
     Enumeration<ObjectVector> termEnum = termVectors.getAllVectors();
-    try {
-      int tc = 0;
-      while (termEnum.hasMoreElements()) {
-        // Output progress counter.
-        if ((tc % 10000 == 0) || (tc < 10000 && tc % 1000 == 0)) {
-          VerbatimLogger.info("Processed " + tc + " terms ... ");
-        }
-        tc++;
-
-        ObjectVector termVectorObject = termEnum.nextElement();
-        Vector termVector = termVectorObject.getVector();
-        String word = (String) termVectorObject.getObject();
-
-        // Go through checking terms for each fieldName.
-        for (String fieldName : flagConfig.contentsfields()) {
-          Term term = new Term(fieldName, word);
-          float globalweight = luceneUtils.getGlobalTermWeight(term);
-          float fieldweight = 1;
-
-          // Get any docs for this term.
-          DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
-
-          // This may occur frequently if one term vector store is derived from multiple fields
-          if (docsEnum == null)  { continue; }
-
-          while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-            String externalDocID = luceneUtils.getExternalDocId(docsEnum.docID());
-            // Add vector from this term, taking freq into account.
-            Vector docVector = this.docVectors.getVector(externalDocID);
-            float localweight = docsEnum.freq();
-
-            if (flagConfig.fieldweight()) {
-              //field weight: 1/sqrt(number of terms in field)
-              TermsEnum terms = luceneUtils.getTermVector(docsEnum.docID(), fieldName).iterator(null);
-              int numTerms = 0;
-              while (terms.next() != null) {
-                numTerms++;
-              }
-              fieldweight = (float) (1/Math.sqrt(numTerms));
-            }
-
-            docVector.superpose(
-                termVector, localweight * globalweight * fieldweight, null);
-          }
-        }
+    while (termEnum.hasMoreElements()) {
+      ObjectVector termVectorObject = termEnum.nextElement();
+      wordList.add((String) termVectorObject.getObject());
+      wordVectorList.add(termVectorObject.getVector());
+    }
+    words = wordList.toArray(new String[wordList.size()]);
+    wordVectors = wordVectorList.toArray(new Vector[wordVectorList.size()]);
+    globalWeights = new float[flagConfig.contentsfields().length][words.length];
+    for (int fieldNum = 0; fieldNum < flagConfig.contentsfields().length; ++fieldNum) {
+      for (int tc = 0; tc < words.length; ++tc) {
+        globalWeights[fieldNum][tc] = luceneUtils.getGlobalTermWeight(
+            new Term(flagConfig.contentsfields()[fieldNum], words[tc]));
       }
     }
-    catch (IOException e) { // catches from indexReader.
-      e.printStackTrace();
+
+    int numDocs = luceneUtils.getNumDocs();
+    if (flagConfig.numthreads() > 1) {
+      trainDocRangesInParallel(numDocs);
+    } else {
+      trainDocRange(0, numDocs, true);
     }
 
     VerbatimLogger.info("\nNormalizing doc vectors ...\n");
@@ -170,15 +173,120 @@ public class DocVectors implements VectorStore {
     	docEnum.nextElement().getVector().normalize();
   }
 
+  /**
+   * Adds each term vector to the vectors of the documents in the given range of Lucene doc IDs
+   * that contain the term.
+   */
+  private void trainDocRange(int start, int end, boolean logProgress) throws IOException {
+    float[][] fieldWeights = flagConfig.fieldweight() ? getFieldWeights(start, end) : null;
+    for (int tc = 0; tc < words.length; ++tc) {
+      // Output progress counter.
+      if (logProgress && ((tc % 10000 == 0) || (tc < 10000 && tc % 1000 == 0))) {
+        VerbatimLogger.info("Processed " + tc + " terms ... ");
+      }
+
+      // Go through checking terms for each fieldName.
+      for (int fieldNum = 0; fieldNum < flagConfig.contentsfields().length; ++fieldNum) {
+        Term term = new Term(flagConfig.contentsfields()[fieldNum], words[tc]);
+        float globalweight = globalWeights[fieldNum][tc];
+
+        // Get any docs for this term.
+        DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
+
+        // This may occur frequently if one term vector store is derived from multiple fields
+        if (docsEnum == null)  { continue; }
+
+        for (int docID = docsEnum.advance(start); docID < end; docID = docsEnum.nextDoc()) {
+          // Add vector from this term, taking freq into account.
+          float localweight = docsEnum.freq();
+          float fieldweight = fieldWeights == null ? 1 : fieldWeights[fieldNum][docID - start];
+          ConcurrentSuperposition.superpose(flagConfig.concurrentsuperposition(),
+              docVectorsByDocId[docID], wordVectors[tc], localweight * globalweight * fieldweight, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the field weight, 1/sqrt(number of terms in field), of each of the contents fields
+   * of each document in the given range of Lucene doc IDs.
+   */
+  private float[][] getFieldWeights(int start, int end) throws IOException {
+    float[][] fieldWeights = new float[flagConfig.contentsfields().length][end - start];
+    for (int fieldNum = 0; fieldNum < flagConfig.contentsfields().length; ++fieldNum) {
+      for (int docID = start; docID < end; ++docID) {
+        Terms terms = luceneUtils.getTermVector(docID, flagConfig.contentsfields()[fieldNum]);
+        if (terms == null) {
+          fieldWeights[fieldNum][docID - start] = 1;
+          continue;
+        }
+        TermsEnum termsEnum = terms.iterator(null);
+        int numTerms = 0;
+        while (termsEnum.next() != null) {
+          numTerms++;
+        }
+        fieldWeights[fieldNum][docID - start] = (float) (1/Math.sqrt(numTerms));
+      }
+    }
+    return fieldWeights;
+  }
+
+  /**
+   * Trains the documents in {@link FlagConfig#numthreads()} ranges of Lucene doc IDs, one
+   * thread per range.
+   */
+  private void trainDocRangesInParallel(int numDocs) throws IOException {
+    int numThreads = flagConfig.numthreads();
+    VerbatimLogger.info("Processing documents using " + numThreads + " threads.\n");
+    for (Vector docVector : docVectorsByDocId) {
+      ConcurrentSuperposition.prepareTarget(flagConfig.concurrentsuperposition(), docVector);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numThreads; ++i) {
+        final int start = (int) ((long) numDocs * i / numThreads);
+        final int end = (int) ((long) numDocs * (i + 1) / numThreads);
+        final boolean logProgress = (i == 0);
+        ranges.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            trainDocRange(start, end, logProgress);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> range : ranges) {
+        range.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building document vectors.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Allocate doc vectors to zero vectors.
    */
   private void initializeZeroDocVectors() throws IOException {
     VerbatimLogger.info("Initializing new document vector store ... \n");
+    externalDocIds = new String[luceneUtils.getNumDocs()];
     for (int i = 0; i < luceneUtils.getNumDocs(); ++i) {
-      String externalDocId = luceneUtils.getExternalDocId(i);
+      externalDocIds[i] = luceneUtils.getExternalDocId(i);
       Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
-      this.docVectors.putVector(externalDocId, docVector);
+      this.docVectors.putVector(externalDocIds[i], docVector);
+    }
+    // Documents with the same external doc ID share the vector stored last for that ID.
+    docVectorsByDocId = new Vector[externalDocIds.length];
+    for (int i = 0; i < externalDocIds.length; ++i) {
+      docVectorsByDocId[i] = this.docVectors.getVector(externalDocIds[i]);
     }
   }
 
@@ -188,16 +296,8 @@ public class DocVectors implements VectorStore {
   public VectorStore makeWriteableVectorStore() {
     VectorStoreRAM outputVectors = new VectorStoreRAM(flagConfig);
 
-    for (int i = 0; i < this.luceneUtils.getNumDocs(); ++i) {
-      try {
-        String externalDocId = luceneUtils.getExternalDocId(i);
-        Vector docVector = this.docVectors.getVector(externalDocId);
-        outputVectors.putVector(externalDocId, docVector);
-      } catch (CorruptIndexException e) {
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    for (int i = 0; i < externalDocIds.length; ++i) {
+      outputVectors.putVector(externalDocIds[i], docVectorsByDocId[i]);
     }
     return outputVectors;
   }
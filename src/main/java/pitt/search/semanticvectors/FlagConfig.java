@@ -42,6 +42,8 @@ import java.util.Arrays;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.ConcurrentSuperposition;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.RealVector.RealBindMethod;
 /** Imports must include the declarations of all enums used as flag values */
@@ -50,6 +52,7 @@ import pitt.search.semanticvectors.CompoundVectorBuilder.VectorLookupSyntax;
 import pitt.search.semanticvectors.DocVectors.DocIndexingStrategy;
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.LuceneUtils.TermWeight;
+import pitt.search.semanticvectors.NearestNeighborIndex.IndexType;
 import pitt.search.semanticvectors.Search.SearchType;
 import pitt.search.semanticvectors.TermTermVectorsFromLucene.PositionalMethod;
 import pitt.search.semanticvectors.VectorStoreUtils.VectorStoreFormat;
@@ -147,6 +150,47 @@ public class FlagConfig {
   private int numsearchresults = 20;
   /** Number of search results to return, default value 20. */
   public int numsearchresults() { return numsearchresults; }
+
+  private int numthreads = 1;
+  /** Number of threads used to scan the search vector store in
+   * {@link VectorSearcher#getNearestNeighbors}, and to train vectors when building
+   * indexes that support this, such as {@link TermVectorsFromLucene} and
+   * {@link TermTermVectorsFromLucene}. Default value 1. */
+  public int numthreads() { return numthreads; }
+
+  private ConcurrentSuperposition.Method concurrentsuperposition = ConcurrentSuperposition.Method.SYNCHRONIZED;
+  /** How training threads add into shared semantic vectors when {@link #numthreads()} is greater
+   * than 1, default value {@link ConcurrentSuperposition.Method#SYNCHRONIZED}, which locks each
+   * vector. {@link ConcurrentSuperposition.Method#HOGWILD} adds into real and complex vectors
+   * without locking. */
+  public ConcurrentSuperposition.Method concurrentsuperposition() { return concurrentsuperposition; }
+
+  private IndexType annindex = IndexType.NONE;
+  /** Approximate nearest neighbor index used to search the search vector store, default value
+   * {@link IndexType#NONE}, which scores every vector. Indexes are built using
+   * {@link NearestNeighborIndex#main}. */
+  public IndexType annindex() { return annindex; }
+
+  private int hnswm = 16;
+  /** Maximum number of neighbors of each node in the upper layers of an {@link HnswIndex}
+   * (the bottom layer allows twice as many), used when building, default value 16.
+   * Larger values give better recall and bigger indexes. */
+  public int hnswm() { return hnswm; }
+
+  private int hnswefconstruction = 200;
+  /** Number of candidate neighbors considered for each node when building an {@link HnswIndex},
+   * default value 200. Larger values give better recall and slower builds. */
+  public int hnswefconstruction() { return hnswefconstruction; }
+
+  private int hnswefsearch = 100;
+  /** Number of candidates kept when searching an {@link HnswIndex}, default value 100
+   * (or {@link #numsearchresults()} if larger). Larger values give better recall and slower searches. */
+  public int hnswefsearch() { return hnswefsearch; }
+
+  private int mihsubstringbits = 0;
+  /** Number of bits in each substring of a {@link MultiIndexHash}, used when building.
+   * Default value 0 means about log2 of the number of vectors, which is usually fastest. */
+  public int mihsubstringbits() { return mihsubstringbits; }
   
   private int treceval = -1;
   /** Output search results in trec_eval format, with query number = treceval**/
@@ -191,6 +235,13 @@ public class FlagConfig {
   /** Term weighting used when constructing document vectors, default value {@link TermWeight#NONE} */
   public LuceneUtils.TermWeight termweight() { return termweight; }
 
+  private String termweightsfile = "";
+  /** File in which the global weights of all the terms in the Lucene index are stored by
+   * {@link TermWeightTable}. If set, the weights are read from this file, or computed
+   * and written to it if it doesn't exist, default value "", meaning weights are computed
+   * as needed. */
+  public String termweightsfile() { return termweightsfile; }
+
   private boolean porterstemmer = false;
   /** Tells {@link pitt.search.lucene.IndexFilePositions} to stem terms using Porter Stemmer, default value false. */
   public boolean porterstemmer() { return porterstemmer; }
@@ -212,6 +263,34 @@ public class FlagConfig {
   /** Format used for serializing / deserializing vectors from disk, default lucene. */
   public VectorStoreFormat indexfileformat() { return indexfileformat; }
 
+  private ComplexVector.Encoding complexencoding = ComplexVector.Encoding.CARTESIAN;
+  /** How {@link VectorType#COMPLEX} vectors are written in the lucene and mapped formats, default
+   * value {@link ComplexVector.Encoding#CARTESIAN}. {@link ComplexVector.Encoding#PHASE} takes a
+   * quarter of the space. Can be set when a {@code VectorStore} is opened, and is always
+   * {@link ComplexVector.Encoding#CARTESIAN} for other vector types. */
+  public ComplexVector.Encoding complexencoding() { return complexencoding; }
+
+  private int pqsubspaces = 0;
+  /** Number of subspaces, each stored as a one byte code, in the {@link VectorStoreFormat#PQ}
+   * format. Default value 0 means one subspace for every 8 dimensions. */
+  public int pqsubspaces() { return pqsubspaces; }
+
+  private int pqtrainingsample = 10000;
+  /** Number of vectors sampled to train the codebooks when writing the {@link VectorStoreFormat#PQ}
+   * format, default value 10000. */
+  public int pqtrainingsample() { return pqtrainingsample; }
+
+  private String pqrerankvectorfile = "";
+  /** Full precision vectors used to re-rank the results of searching a {@link VectorStoreFormat#PQ}
+   * store, default empty, meaning no re-ranking. Read in the mapped format if the name ends with
+   * ".vec", the text format if it ends with ".txt", and otherwise the Lucene format. */
+  public String pqrerankvectorfile() { return pqrerankvectorfile; }
+
+  private int pqrerank = 100;
+  /** Number of candidates re-ranked when {@link #pqrerankvectorfile()} is set, default value 100
+   * (or {@link #numsearchresults()} if larger). */
+  public int pqrerank() { return pqrerank; }
+
   private String termvectorsfile = "termvectors";
   /** File to which termvectors are written during indexing. */
   public String termvectorsfile() { return termvectorsfile; }
@@ -248,6 +327,11 @@ public class FlagConfig {
   private String predicatevectorfile = "predicatevectors";
   /** Vectors used to represent predicates in PSI. */
   public String predicatevectorfile() { return predicatevectorfile; }
+
+  private String triplesfile = "";
+  /** {@link PredicationTriples} file written by {@link pitt.search.lucene.LuceneIndexFromTriples} and
+   * read by {@link PSI} instead of the stored fields of the Lucene index, default value "", meaning none. */
+  public String triplesfile() { return triplesfile; }
   
   private String permutedvectorfile = "permtermvectors";
   /** "Permuted term vectors, output by -positionalmethod permutation. */
@@ -295,6 +379,17 @@ public class FlagConfig {
   /** Memory management method used for indexing documents. */
   public DocIndexingStrategy docindexing() { return docindexing; }
 
+  private boolean resumedocvectors = false;
+  /** Tells {@link IncrementalDocVectors} to continue from the checkpoint left by an earlier run that
+   * did not finish, if there is one, instead of writing the document vectors from the start,
+   * default value false. */
+  public boolean resumedocvectors() { return resumedocvectors; }
+
+  private int checkpointinterval = 10000;
+  /** Number of documents {@link IncrementalDocVectors} writes between checkpoints, or 0 for
+   * no checkpoints, default value 10000. */
+  public int checkpointinterval() { return checkpointinterval; }
+
   private VectorLookupSyntax vectorlookupsyntax = VectorLookupSyntax.EXACTMATCH;
   /** Method used for looking up vectors in a vector store, default value {@link VectorLookupSyntax#EXACTMATCH}. */
   public VectorLookupSyntax vectorlookupsyntax() { return vectorlookupsyntax; }
@@ -457,7 +552,7 @@ public class FlagConfig {
   }
   
   /**
-   * Sets dimension and vectortype of target to be the same as that of source.
+   * Sets dimension, vectortype and complexencoding of target to be the same as that of source.
    */
   public static void mergeWriteableFlags(FlagConfig source, FlagConfig target) {
     if (target.dimension != source.dimension)
@@ -470,6 +565,11 @@ public class FlagConfig {
       VerbatimLogger.info("Setting vectortype of target config to: " + source.vectortype + "\n");
       target.vectortype = source.vectortype;
     }
+    if (target.complexencoding != source.complexencoding)
+    {
+      VerbatimLogger.info("Setting complexencoding of target config to: " + source.complexencoding + "\n");
+      target.complexencoding = source.complexencoding;
+    }
     target.makeFlagsCompatible();
   }
   
@@ -483,6 +583,8 @@ public class FlagConfig {
    * number.</li>
    * <li>Setting {@link #searchvectorfile()} to {@link #queryvectorfile()} unless explicitly set otherwise.</li>
    * <li>Setting {@link RealVector#setBindType} if directed (this is something of a hack).</li>
+   * <li>Setting {@link #complexencoding()} to {@code cartesian} unless {@link #vectortype()} is
+   * {@code complex}, since only those vectors are compared using their phase angles alone.</li>
    * </ul>
    */
   private void makeFlagsCompatible() {
@@ -510,6 +612,12 @@ public class FlagConfig {
     if (vectortype == VectorType.REAL && realbindmethod == RealVector.RealBindMethod.PERMUTATION) {
       RealVector.setBindType(RealVector.RealBindMethod.PERMUTATION);
     }
+
+    if (vectortype != VectorType.COMPLEX && complexencoding != ComplexVector.Encoding.CARTESIAN) {
+      complexencoding = ComplexVector.Encoding.CARTESIAN;
+      logger.fine("Only complex vectors can be written using their phase angles."
+          + " FlagConfig.complexencoding set to: " + complexencoding + ".");
+    }
   }
   
   //utility method to allow control of this option without
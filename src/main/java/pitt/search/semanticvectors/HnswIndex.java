@@ -0,0 +1,446 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * Approximate nearest neighbor index using a hierarchical navigable small world (HNSW) graph,
+ * as described by Malkov and Yashunin, "Efficient and robust approximate nearest neighbor
+ * search using Hierarchical Navigable Small World graphs" (2016).
+ *
+ * <p>
+ * Each vector is a node in a layered graph. Every node is in the bottom layer, and each
+ * higher layer has exponentially fewer nodes. Searches start at the top, greedily walk
+ * towards the query in each layer, and finish with a wider search of the bottom layer.
+ * Similarity is always {@link Vector#measureOverlap}, so this gives cosine similarity for
+ * real vectors, the usual complex overlap for complex vectors, and 1 - normalized Hamming
+ * distance for binary vectors.
+ *
+ * <p>
+ * The index file holds the graph and the object of each node, but not the vectors. When an
+ * index is read, nodes are matched to the vectors in the store once, so that searches never
+ * look vectors up by object: a {@link RandomAccessVectorStore} (e.g., a memory mapped store) is
+ * read by position using {@link RandomAccessVectorStore#getVectorAt}, and the vectors of any
+ * other store are read into memory.
+ */
+public class HnswIndex extends NearestNeighborIndex {
+  private static final Logger logger = Logger.getLogger(HnswIndex.class.getCanonicalName());
+
+  private static final int FORMAT_VERSION = 1;
+
+  /** Seed for the random layer assignment, so that builds are repeatable. */
+  private static final long RANDOM_SEED = 0;
+
+  private final FlagConfig flagConfig;
+  /** Vectors of the nodes, or null if they are read from {@link #randomAccessStore}. */
+  private List<Vector> vectors;
+  /** Store whose vector at each position is the vector of the node with that number. */
+  private RandomAccessVectorStore randomAccessStore;
+  private final int maxConnections;
+  private final int numNodes;
+  private final Object[] objects;
+  /** The neighbors of each node in each layer it belongs to, i.e., links[node][layer]. */
+  private final int[][][] links;
+  private int entryPoint = -1;
+  private int maxLayer = -1;
+
+  private HnswIndex(FlagConfig flagConfig, int maxConnections, int numNodes) {
+    this.flagConfig = flagConfig;
+    this.maxConnections = maxConnections;
+    this.numNodes = numNodes;
+    this.objects = new Object[numNodes];
+    this.links = new int[numNodes][][];
+  }
+
+  /**
+   * Builds an index for all the vectors in the store, using {@link FlagConfig#hnswm()} and
+   * {@link FlagConfig#hnswefconstruction()}.
+   */
+  public static HnswIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    List<Object> objects = new ArrayList<Object>();
+    List<Vector> vectors = new ArrayList<Vector>();
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      objects.add(objectVector.getObject());
+      vectors.add(objectVector.getVector());
+    }
+
+    HnswIndex index = new HnswIndex(flagConfig, flagConfig.hnswm(), objects.size());
+    index.vectors = vectors;
+    double layerMultiplier = 1 / Math.log(Math.max(2, flagConfig.hnswm()));
+    Random random = new Random(RANDOM_SEED);
+    for (int node = 0; node < index.numNodes; ++node) {
+      index.objects[node] = objects.get(node);
+      int layer = (int) (-Math.log(1 - random.nextDouble()) * layerMultiplier);
+      index.insert(node, layer, flagConfig.hnswefconstruction());
+      if ((node + 1) % 10000 == 0) {
+        VerbatimLogger.info("Indexed " + (node + 1) + " vectors ...\n");
+      }
+    }
+    return index;
+  }
+
+  /** Maximum number of neighbors of a node in the given layer. */
+  private int getMaxConnections(int layer) {
+    return (layer == 0) ? 2 * maxConnections : maxConnections;
+  }
+
+  private Vector getVector(int node) {
+    if (vectors != null) {
+      return vectors.get(node);
+    }
+    return randomAccessStore.getVectorAt(node);
+  }
+
+  /**
+   * Matches the nodes of an index read from file with the vectors in the store, which must
+   * list the objects of the nodes in the same order as when the index was built.
+   *
+   * @return false if the store's objects don't match the nodes
+   */
+  private boolean attachVectors(VectorStore vectorStore) {
+    if (vectorStore instanceof RandomAccessVectorStore) {
+      RandomAccessVectorStore store = (RandomAccessVectorStore) vectorStore;
+      boolean matches = true;
+      for (int node = 0; node < numNodes && matches; ++node) {
+        matches = objects[node].equals(store.getObjectAt(node).toString());
+      }
+      if (matches) {
+        randomAccessStore = store;
+        return true;
+      }
+    }
+    List<Vector> storeVectors = new ArrayList<Vector>(numNodes);
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      int node = storeVectors.size();
+      if (node == numNodes || !objects[node].equals(objectVector.getObject().toString())) {
+        return false;
+      }
+      storeVectors.add(objectVector.getVector());
+    }
+    if (storeVectors.size() != numNodes) {
+      return false;
+    }
+    vectors = storeVectors;
+    return true;
+  }
+
+  private double score(Vector queryVector, int node) {
+    return queryVector.measureOverlap(getVector(node));
+  }
+
+  /** Adds the node to the graph, in all the layers from 0 to {@code layer}. */
+  private void insert(int node, int layer, int efConstruction) {
+    links[node] = new int[layer + 1][];
+    for (int i = 0; i <= layer; ++i) {
+      links[node][i] = new int[0];
+    }
+    if (entryPoint == -1) {
+      entryPoint = node;
+      maxLayer = layer;
+      return;
+    }
+
+    Vector vector = getVector(node);
+    ScoredNode nearest = new ScoredNode(entryPoint, score(vector, entryPoint));
+    for (int i = maxLayer; i > layer; --i) {
+      nearest = searchLayerGreedy(vector, nearest, i);
+    }
+    int[] entryPoints = new int[] {nearest.node};
+    for (int i = Math.min(layer, maxLayer); i >= 0; --i) {
+      TopKCollector candidates = searchLayer(vector, entryPoints, efConstruction, i);
+      int[] neighbors = selectNeighbors(candidates, maxConnections);
+      links[node][i] = neighbors;
+      for (int neighbor : neighbors) {
+        addLink(neighbor, node, i);
+      }
+      entryPoints = new int[candidates.size()];
+      for (int j = 0; j < candidates.size(); ++j) {
+        entryPoints[j] = candidates.getIndex(j);
+      }
+    }
+    if (layer > maxLayer) {
+      entryPoint = node;
+      maxLayer = layer;
+    }
+  }
+
+  /** Adds a link from one node to another, pruning the node's neighbors if there are too many. */
+  private void addLink(int from, int to, int layer) {
+    int[] neighbors = links[from][layer];
+    int[] extended = Arrays.copyOf(neighbors, neighbors.length + 1);
+    extended[neighbors.length] = to;
+    if (extended.length <= getMaxConnections(layer)) {
+      links[from][layer] = extended;
+      return;
+    }
+    Vector fromVector = getVector(from);
+    TopKCollector candidates = new TopKCollector(extended.length);
+    for (int neighbor : extended) {
+      candidates.offer(score(fromVector, neighbor), neighbor);
+    }
+    candidates.sortDescending();
+    links[from][layer] = selectNeighbors(candidates, getMaxConnections(layer));
+  }
+
+  /**
+   * Chooses up to {@code maxNeighbors} neighbors from candidates sorted best first, using the
+   * heuristic from the HNSW paper: a candidate is skipped if it is closer to a neighbor already
+   * chosen than to the node itself, which keeps links spread out in different directions.
+   */
+  private int[] selectNeighbors(TopKCollector candidates, int maxNeighbors) {
+    int[] selected = new int[Math.min(maxNeighbors, candidates.size())];
+    int numSelected = 0;
+    for (int i = 0; i < candidates.size() && numSelected < selected.length; ++i) {
+      int candidate = candidates.getIndex(i);
+      Vector candidateVector = getVector(candidate);
+      boolean keep = true;
+      for (int j = 0; j < numSelected; ++j) {
+        if (score(candidateVector, selected[j]) > candidates.getScore(i)) {
+          keep = false;
+          break;
+        }
+      }
+      if (keep) {
+        selected[numSelected++] = candidate;
+      }
+    }
+    return Arrays.copyOf(selected, numSelected);
+  }
+
+  /** Moves from the given node to better neighbors in the layer until there are none. */
+  private ScoredNode searchLayerGreedy(Vector queryVector, ScoredNode start, int layer) {
+    ScoredNode current = start;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int neighbor : links[current.node][layer]) {
+        double score = score(queryVector, neighbor);
+        if (score > current.score) {
+          current = new ScoredNode(neighbor, score);
+          changed = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Returns the best {@code ef} nodes found by a best first search of the layer from the
+   * given entry points, sorted best first.
+   */
+  private TopKCollector searchLayer(Vector queryVector, int[] entryPoints, int ef, int layer) {
+    TopKCollector results = new TopKCollector(ef);
+    PriorityQueue<ScoredNode> candidates = new PriorityQueue<ScoredNode>();
+    Set<Integer> visited = new HashSet<Integer>();
+    for (int entryPoint : entryPoints) {
+      visited.add(entryPoint);
+      double score = score(queryVector, entryPoint);
+      candidates.add(new ScoredNode(entryPoint, score));
+      results.offer(score, entryPoint);
+    }
+    while (!candidates.isEmpty()) {
+      ScoredNode candidate = candidates.poll();
+      if (results.size() == ef && candidate.score < results.getThreshold()) {
+        break;
+      }
+      for (int neighbor : links[candidate.node][layer]) {
+        if (!visited.add(neighbor)) continue;
+        double score = score(queryVector, neighbor);
+        if (results.offer(score, neighbor)) {
+          candidates.add(new ScoredNode(neighbor, score));
+        }
+      }
+    }
+    results.sortDescending();
+    return results;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Uses {@link FlagConfig#hnswefsearch()} candidates, or {@code numResults} if larger.
+   */
+  @Override
+  public LinkedList<SearchResult> getNearestNeighbors(Vector queryVector, int numResults) {
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    if (entryPoint == -1 || numResults <= 0) {
+      return results;
+    }
+    ScoredNode nearest = new ScoredNode(entryPoint, score(queryVector, entryPoint));
+    for (int i = maxLayer; i > 0; --i) {
+      nearest = searchLayerGreedy(queryVector, nearest, i);
+    }
+    TopKCollector candidates = searchLayer(queryVector, new int[] {nearest.node},
+        Math.max(flagConfig.hnswefsearch(), numResults), 0);
+    for (int i = 0; i < Math.min(numResults, candidates.size()); ++i) {
+      int node = candidates.getIndex(i);
+      results.add(new SearchResult(candidates.getScore(i), new ObjectVector(objects[node], getVector(node))));
+    }
+    return results;
+  }
+
+  @Override
+  public void writeToFile(String indexFileName) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    try {
+      outputStream.writeVInt(FORMAT_VERSION);
+      outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+      outputStream.writeVInt(maxConnections);
+      outputStream.writeVInt(numNodes);
+      outputStream.writeVInt(entryPoint + 1);
+      for (int node = 0; node < numNodes; ++node) {
+        outputStream.writeString(objects[node].toString());
+        outputStream.writeVInt(links[node].length);
+        for (int[] layerLinks : links[node]) {
+          outputStream.writeVInt(layerLinks.length);
+          for (int neighbor : layerLinks) {
+            outputStream.writeVInt(neighbor);
+          }
+        }
+      }
+    } finally {
+      outputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Reads an index written by {@link #writeToFile}, which will read vectors from the given store.
+   *
+   * @return the index, or null if it was built for a store with different vectors
+   */
+  public static HnswIndex readFromFile(String indexFileName, VectorStore vectorStore,
+      FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      if (indexInput.readVInt() != FORMAT_VERSION) {
+        logger.warning("Unsupported HNSW index format in " + indexFileName);
+        return null;
+      }
+      String header = indexInput.readString();
+      if (!header.equals(VectorStoreWriter.generateHeaderString(flagConfig))) {
+        logger.warning("HNSW index " + indexFileName + " was built for vectors with header '"
+            + header + "', ignoring it.");
+        return null;
+      }
+      int maxConnections = indexInput.readVInt();
+      int numNodes = indexInput.readVInt();
+      if (numNodes != vectorStore.getNumVectors()) {
+        logger.warning("HNSW index " + indexFileName + " has " + numNodes + " vectors but the store has "
+            + vectorStore.getNumVectors() + ", ignoring it. Rebuild the index to use it.");
+        return null;
+      }
+      HnswIndex index = new HnswIndex(flagConfig, maxConnections, numNodes);
+      index.entryPoint = indexInput.readVInt() - 1;
+      for (int node = 0; node < numNodes; ++node) {
+        index.objects[node] = indexInput.readString();
+        int numLayers = indexInput.readVInt();
+        index.links[node] = new int[numLayers][];
+        for (int layer = 0; layer < numLayers; ++layer) {
+          int[] layerLinks = new int[indexInput.readVInt()];
+          for (int i = 0; i < layerLinks.length; ++i) {
+            layerLinks[i] = indexInput.readVInt();
+          }
+          index.links[node][layer] = layerLinks;
+        }
+      }
+      if (index.entryPoint >= 0) {
+        index.maxLayer = index.links[index.entryPoint].length - 1;
+      }
+      if (!index.attachVectors(vectorStore)) {
+        logger.warning("HNSW index " + indexFileName + " doesn't list the same objects as the store,"
+            + " ignoring it. Rebuild the index to use it.");
+        return null;
+      }
+      return index;
+    } finally {
+      indexInput.close();
+      fsDirectory.close();
+    }
+  }
+
+  /** A node and its score against the current query, ordered best first. */
+  private static class ScoredNode implements Comparable<ScoredNode> {
+    final int node;
+    final double score;
+
+    ScoredNode(int node, double score) {
+      this.node = node;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(ScoredNode other) {
+      int comparison = Double.compare(other.score, score);
+      return (comparison != 0) ? comparison : Integer.compare(node, other.node);
+    }
+  }
+}
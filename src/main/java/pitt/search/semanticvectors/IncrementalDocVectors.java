@@ -38,14 +38,23 @@ package pitt.search.semanticvectors;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
@@ -59,16 +68,46 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
  * incremental indexing in the sense of being able to add extra documents later after
  * an initial model has been built.   
  *
+ * <p>
+ * If {@link FlagConfig#numthreads()} is greater than 1, batches of documents are built by that
+ * many threads and written in order of doc number, so the file is the same as from a single thread.
+ *
+ * <p>
+ * Every {@link FlagConfig#checkpointinterval()} documents, the number of documents written so far is
+ * recorded in a checkpoint file next to the vector file (see {@link #getCheckpointFileName}),
+ * which is deleted when the vector file is finished. If a run does not finish, it can be
+ * continued from the checkpoint by running again with {@link FlagConfig#resumedocvectors()}.
+ *
  * @author Trevor Cohen, Dominic Widdows
  */
 public class IncrementalDocVectors {
   private static final Logger logger = Logger.getLogger(
       IncrementalDocVectors.class.getCanonicalName());
 
+  /** Number of documents each thread builds at a time when building with several threads. */
+  private static final int DOCUMENT_BATCH_SIZE = 100;
+
+  /** Suffix used for checkpoint files, replacing the ".bin" of the document vector file. */
+  public static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+
+  /** Suffix added to the document vector file while its contents are copied when resuming. */
+  private static final String PARTIAL_FILE_SUFFIX = ".partial";
+
   private FlagConfig flagConfig;
   private VectorStore termVectorData;
   private LuceneUtils luceneUtils;
 
+  private FSDirectory fsDirectory;
+  private String vectorFileName;
+  private IndexOutput outputStream;
+  private VectorStoreOffsetIndex offsetIndex;
+  private String checkpointFileName;
+  /** Output of an earlier run being resumed, kept until the first new checkpoint; null if none. */
+  private String partialFileName;
+  /** Last doc number and vector file length to be recorded at the next checkpoint, if any. */
+  private int pendingCheckpointDoc = -1;
+  private long pendingCheckpointLength;
+
   private IncrementalDocVectors() {};
 
   /**
@@ -97,89 +136,309 @@ public class IncrementalDocVectors {
         VectorStoreUtils.getStoreFileName(flagConfig.docvectorsfile(), flagConfig));
     String parentPath = vectorFile.getParent();
     if (parentPath == null) parentPath = "";
-    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
-
-    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    vectorFileName = vectorFile.getName();
+    checkpointFileName = getCheckpointFileName(vectorFileName);
+
+    int firstDoc = 0;
+    if (flagConfig.resumedocvectors() && fileExists(checkpointFileName)) {
+      firstDoc = resumeFromCheckpoint();
+    } else {
+      if (flagConfig.resumedocvectors()) {
+        VerbatimLogger.info("No checkpoint file " + checkpointFileName + ", writing vectors from the start.\n");
+      } else if (fileExists(checkpointFileName)) {
+        // Left by an earlier run, and no longer describes the vector file.
+        fsDirectory.deleteFile(checkpointFileName);
+      }
+      outputStream = fsDirectory.createOutput(vectorFileName, IOContext.DEFAULT);
+      offsetIndex = new VectorStoreOffsetIndex();
+      // Write header giving number of dimension for all vectors.
+      outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    }
 
     VerbatimLogger.info("Writing vectors incrementally to file " + vectorFile + " ... ");
 
-    // Write header giving number of dimension for all vectors.
-    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
-
     // Iterate through documents.
-    for (int dc = 0; dc < numdocs; dc++) {
-      // Output progress counter.
-      if ((dc > 0) && ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0))) {
-        VerbatimLogger.info("Processed " + dc + " documents ... ");
+    boolean success = false;
+    try {
+      if (flagConfig.numthreads() > 1) {
+        writeDocVectorsInParallel(firstDoc, numdocs);
+      } else {
+        for (int dc = firstDoc; dc < numdocs; dc++) {
+          writeDocVector(dc, buildDocVector(dc));
+        }
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        // Close the vector file so that what has been written can be resumed from the last checkpoint.
+        IOUtils.closeWhileHandlingException(outputStream, fsDirectory);
       }
+    }
 
-      // Get filename and path to be used as document vector ID, defaulting to doc number only if
-      // docidfield is not pupoulated.
-      String docID = luceneUtils.getExternalDocId(dc);
+    VerbatimLogger.info("Finished writing vectors.\n");
+    outputStream.close();
+    offsetIndex.writeToDirectory(fsDirectory, vectorFileName);
+    if (fileExists(checkpointFileName)) {
+      fsDirectory.deleteFile(checkpointFileName);
+    }
+    if (partialFileName != null) {
+      fsDirectory.deleteFile(partialFileName);
+    }
+    fsDirectory.close();
+  }
 
-      Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+  /**
+   * Builds the normalized document vector for the document with the given Lucene doc number,
+   * keyed by its external doc ID. Safe to call from several threads at once, provided that
+   * {@link #termVectorData} is.
+   */
+  private ObjectVector buildDocVector(int dc) throws IOException {
+    // Get filename and path to be used as document vector ID, defaulting to doc number only if
+    // docidfield is not pupoulated.
+    String docID = luceneUtils.getExternalDocId(dc);
+
+    Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+
+    for (String fieldName : flagConfig.contentsfields()) {
+      Terms terms = luceneUtils.getTermVector(dc, fieldName);
+
+      if (terms == null) {
+        VerbatimLogger.fine(
+            String.format(
+                "When building document vectors, no term vector for field: '%s' in document '%s'.",
+                fieldName, docID));
+        continue;
+      }
 
-      for (String fieldName : flagConfig.contentsfields()) {
-        Terms terms = luceneUtils.getTermVector(dc, fieldName);
+      TermsEnum tmp = null;
+      TermsEnum termsEnum = terms.iterator(tmp);
+      BytesRef bytes;
+      while ((bytes = termsEnum.next()) != null) {
+        String termString = bytes.utf8ToString();
+        DocsEnum docs = termsEnum.docs(null, null);
+        docs.nextDoc();
+        int freq = docs.freq();
+
+        try {
+          Vector termVector = termVectorData.getVector(termString);
+          if (termVector != null && termVector.getDimension() > 0) {
+            float localweight = luceneUtils.getLocalTermWeight(freq);
+            float globalweight = luceneUtils.getGlobalTermWeight(fieldName, bytes);
+            float fieldweight = 1;
+
+            if (flagConfig.fieldweight()) {
+              //field weight: 1/sqrt(number of terms in field)
+              fieldweight = (float) (1 / Math.sqrt(terms.size()));
+            }
 
-        if (terms == null) {
-          VerbatimLogger.fine(
-              String.format(
-                  "When building document vectors, no term vector for field: '%s' in document '%s'.",
-                  fieldName, docID));
-          continue;
+            // Add contribution from this term, excluding terms that
+            // are not represented in termVectorData.
+            docVector.superpose(termVector, localweight * globalweight * fieldweight, null);
+          }
+        } catch (NullPointerException npe) {
+          // Don't normally print anything - too much data!
+          logger.finest("term " + termString + " not represented");
         }
+      }
+    }
 
-        TermsEnum tmp = null;
-        TermsEnum termsEnum = terms.iterator(tmp);
-        BytesRef bytes;
-        while ((bytes = termsEnum.next()) != null) {
-          Term term = new Term(fieldName, bytes);
-          String termString = term.text();
-          DocsEnum docs = termsEnum.docs(null, null);
-          docs.nextDoc();
-          int freq = docs.freq();
-
-          try {
-            Vector termVector = termVectorData.getVector(termString);
-            if (termVector != null && termVector.getDimension() > 0) {
-              float localweight = luceneUtils.getLocalTermWeight(freq);
-              float globalweight = luceneUtils.getGlobalTermWeight(new Term(fieldName, termString));
-              float fieldweight = 1;
-
-              if (flagConfig.fieldweight()) {
-                //field weight: 1/sqrt(number of terms in field)
-                fieldweight = (float) (1 / Math.sqrt(terms.size()));
-              }
+    if (docVector.isZeroVector()) {
+      logger.warning(String.format(
+          "Outputting zero vector for document '%s'. This probably means that none of " +
+              "the -contentsfields were populated, or all terms failed the LuceneUtils termsfilter." +
+              " You may want to investigate.",
+          docID));
+    }
 
-              // Add contribution from this term, excluding terms that
-              // are not represented in termVectorData.
-              docVector.superpose(termVector, localweight * globalweight * fieldweight, null);
+    // All fields in document have been processed. Normalize the vector.
+    docVector.normalize();
+    return new ObjectVector(docID, docVector);
+  }
+
+  /**
+   * Writes out the document ID and vector for the document with the given Lucene doc number.
+   * Documents must be written in order of doc number, so that checkpoints are correct.
+   */
+  private void writeDocVector(int dc, ObjectVector docVector) throws IOException {
+    // Output progress counter.
+    if ((dc > 0) && ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0))) {
+      VerbatimLogger.info("Processed " + dc + " documents ... ");
+    }
+
+    String docID = (String) docVector.getObject();
+    offsetIndex.addOffset(docID, outputStream.getFilePointer());
+    outputStream.writeString(docID);
+    VectorFactory.writeToLuceneStream(docVector.getVector(), flagConfig.complexencoding(), outputStream);
+
+    if (flagConfig.checkpointinterval() > 0 && (dc + 1) % flagConfig.checkpointinterval() == 0) {
+      // Record the previous position rather than this one, since the bytes just written may
+      // still be in the output buffer rather than in the file.
+      if (pendingCheckpointDoc >= 0) {
+        writeCheckpoint(pendingCheckpointDoc, pendingCheckpointLength);
+      }
+      pendingCheckpointDoc = dc;
+      pendingCheckpointLength = outputStream.getFilePointer();
+    }
+  }
+
+  /**
+   * Builds and writes the document vectors using {@link FlagConfig#numthreads()} threads, each
+   * building batches of {@link #DOCUMENT_BATCH_SIZE} documents. The calling thread writes the
+   * batches in order of doc number as they are finished. At most two batches per thread are
+   * built ahead of the writer, which keeps memory use bounded.
+   */
+  private void writeDocVectorsInParallel(int firstDoc, final int numdocs) throws IOException {
+    VerbatimLogger.info("Building document vectors using " + flagConfig.numthreads() + " threads.\n");
+    ExecutorService executor = Executors.newFixedThreadPool(flagConfig.numthreads());
+    ArrayDeque<Future<ObjectVector[]>> pendingBatches = new ArrayDeque<Future<ObjectVector[]>>();
+    int maxPendingBatches = 2 * flagConfig.numthreads();
+    try {
+      int nextBatchStart = firstDoc;
+      int nextDocToWrite = firstDoc;
+      while (nextDocToWrite < numdocs) {
+        while (pendingBatches.size() < maxPendingBatches && nextBatchStart < numdocs) {
+          final int batchStart = nextBatchStart;
+          final int batchEnd = Math.min(numdocs, batchStart + DOCUMENT_BATCH_SIZE);
+          pendingBatches.add(executor.submit(new Callable<ObjectVector[]>() {
+            @Override
+            public ObjectVector[] call() throws IOException {
+              ObjectVector[] batch = new ObjectVector[batchEnd - batchStart];
+              for (int dc = batchStart; dc < batchEnd; ++dc) {
+                batch[dc - batchStart] = buildDocVector(dc);
+              }
+              return batch;
             }
-          } catch (NullPointerException npe) {
-            // Don't normally print anything - too much data!
-            logger.finest("term " + termString + " not represented");
-          }
+          }));
+          nextBatchStart = batchEnd;
         }
+        for (ObjectVector docVector : pendingBatches.remove().get()) {
+          writeDocVector(nextDocToWrite, docVector);
+          ++nextDocToWrite;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building document vectors.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the name of the checkpoint file for the given document vector file,
+   * e.g., "docvectors.bin" gives "docvectors.checkpoint".
+   */
+  public static String getCheckpointFileName(String vectorFileName) {
+    if (vectorFileName.endsWith(".bin")) {
+      vectorFileName = vectorFileName.substring(0, vectorFileName.length() - 4);
+    }
+    return vectorFileName + CHECKPOINT_FILE_SUFFIX;
+  }
+
+  /**
+   * Records that all documents up to and including the given doc number have been written,
+   * and that they take up the given length of the vector file. The vector file is synced first,
+   * so that the checkpoint never describes data that is not yet on disk. Writes to a temporary file
+   * and renames it over the old checkpoint, so that a crash while writing leaves the last
+   * checkpoint in place.
+   */
+  private void writeCheckpoint(int lastDocWritten, long storeLength) throws IOException {
+    // FSDirectory.sync only syncs files whose outputs have been closed, so sync the vector file,
+    // which is still being written, directly.
+    IOUtils.fsync(fsDirectory.getDirectory().resolve(vectorFileName), false);
+    String tempFileName = checkpointFileName + ".tmp";
+    if (fileExists(tempFileName)) {
+      fsDirectory.deleteFile(tempFileName);
+    }
+    IndexOutput checkpointOutput = fsDirectory.createOutput(tempFileName, IOContext.DEFAULT);
+    try {
+      checkpointOutput.writeVInt(lastDocWritten);
+      checkpointOutput.writeVLong(storeLength);
+    } finally {
+      checkpointOutput.close();
+    }
+    fsDirectory.sync(Collections.singleton(tempFileName));
+    fsDirectory.renameFile(tempFileName, checkpointFileName);
 
-      if (docVector.isZeroVector()) {
-        logger.warning(String.format(
-            "Outputting zero vector for document '%s'. This probably means that none of " +
-                "the -contentsfields were populated, or all terms failed the LuceneUtils termsfilter." +
-                " You may want to investigate.",
-            docID));
+    // The vector file now holds everything the earlier run wrote, so its output can go.
+    if (partialFileName != null) {
+      fsDirectory.deleteFile(partialFileName);
+      partialFileName = null;
+    }
+  }
+
+  /**
+   * Opens {@link #outputStream} on the vector file containing the documents covered by the
+   * checkpoint file left by an earlier run, copying them from what that run wrote and adding them to
+   * {@link #offsetIndex}. What that run wrote is kept until the next checkpoint, since until then
+   * the checkpoint still describes it.
+   *
+   * @return the doc number of the first document still to be written
+   * @throws IOException if the checkpoint doesn't match the vector file, in which case the
+   *   vectors must be built again without {@link FlagConfig#resumedocvectors()}
+   */
+  private int resumeFromCheckpoint() throws IOException {
+    int lastDocWritten;
+    long storeLength;
+    IndexInput checkpointInput = fsDirectory.openInput(checkpointFileName, IOContext.READONCE);
+    try {
+      lastDocWritten = checkpointInput.readVInt();
+      storeLength = checkpointInput.readVLong();
+    } finally {
+      checkpointInput.close();
+    }
+
+    // Move the earlier output aside, unless this has already been done by an earlier attempt
+    // to resume that did not finish.
+    partialFileName = vectorFileName + PARTIAL_FILE_SUFFIX;
+    if (!fileExists(partialFileName)) {
+      fsDirectory.renameFile(vectorFileName, partialFileName);
+    }
+
+    IndexInput partialInput = fsDirectory.openInput(partialFileName, IOContext.READONCE);
+    try {
+      if (partialInput.length() < storeLength) {
+        throw new IOException("Cannot resume writing '" + vectorFileName + "' since it is shorter than "
+            + "its checkpoint says. Rebuild without -resumedocvectors.");
+      }
+      String header = partialInput.readString();
+      if (!header.equals(VectorStoreWriter.generateHeaderString(flagConfig))) {
+        throw new IOException("Cannot resume writing '" + vectorFileName + "' since it was written with "
+            + "different settings: '" + header + "'.");
+      }
+      outputStream = fsDirectory.createOutput(vectorFileName, IOContext.DEFAULT);
+      outputStream.writeString(header);
+      offsetIndex = new VectorStoreOffsetIndex();
+      int vectorByteSize = VectorFactory.getLuceneByteSize(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.complexencoding());
+      while (partialInput.getFilePointer() < storeLength) {
+        String docID = partialInput.readString();
+        offsetIndex.addOffset(docID, outputStream.getFilePointer());
+        outputStream.writeString(docID);
+        outputStream.copyBytes(partialInput, vectorByteSize);
       }
+      if (partialInput.getFilePointer() != storeLength) {
+        throw new IOException("Cannot resume writing '" + vectorFileName + "' since its checkpoint "
+            + "doesn't end at a document. Rebuild without -resumedocvectors.");
+      }
+    } finally {
+      partialInput.close();
+    }
 
-      // All fields in document have been processed. Write out documentID and normalized vector.
-      docVector.normalize();
-      outputStream.writeString(docID);
-      docVector.writeToLuceneStream(outputStream);
-    } // Finish iterating through documents.
+    pendingCheckpointDoc = lastDocWritten;
+    pendingCheckpointLength = outputStream.getFilePointer();
+    VerbatimLogger.info("Resuming from checkpoint after document " + lastDocWritten + ".\n");
+    return lastDocWritten + 1;
+  }
 
-    VerbatimLogger.info("Finished writing vectors.\n");
-    outputStream.close();
-    fsDirectory.close();
+  private boolean fileExists(String fileName) throws IOException {
+    return Arrays.asList(fsDirectory.listAll()).contains(fileName);
   }
 
   public static void main(String[] args) throws Exception {
@@ -149,7 +149,7 @@ public class IncrementalTermVectors implements VectorStore {
       if (docVectorsInputStream.getFilePointer() < docVectorsInputStream.length() - 1) {
         docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
         docVectorsInputStream.readString(); // ignore document name
-        docVector.readFromLuceneStream(docVectorsInputStream);
+        VectorFactory.readFromLuceneStream(docVector, flagConfig.complexencoding(), docVectorsInputStream);
        
 
       for (String fieldName : this.flagConfig.contentsfields()) {
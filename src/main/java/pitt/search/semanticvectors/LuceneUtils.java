@@ -40,6 +40,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.TreeSet;
@@ -57,6 +58,7 @@ import org.apache.lucene.index.SlowCompositeReaderWrapper;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
 import pitt.search.semanticvectors.utils.StringUtils;
@@ -75,6 +77,8 @@ public class LuceneUtils {
   private LeafReader leafReader;
   private Hashtable<Term, Float> termEntropy = new Hashtable<Term, Float>();
   private Hashtable<Term, Float> termIDF = new Hashtable<>();
+  /** Precomputed global term weights, used if {@link FlagConfig#termweightsfile()} is set. */
+  private TermWeightTable termWeightTable = null;
   private TreeSet<String> stopwords = null;
   private TreeSet<String> startwords = null;
 
@@ -116,6 +120,11 @@ public class LuceneUtils {
     if (!flagConfig.startlistfile().isEmpty())
         loadStartWords(flagConfig.startlistfile());
 
+    if (!flagConfig.termweightsfile().isEmpty()
+        && (flagConfig.termweight() == TermWeight.IDF || flagConfig.termweight() == TermWeight.LOGENTROPY)) {
+      termWeightTable = TermWeightTable.readOrCompute(this, flagConfig);
+    }
+
     VerbatimLogger.info("Initialized LuceneUtils from Lucene index in directory: " + flagConfig.luceneindexpath() + "\n");
   }
 
@@ -212,6 +221,11 @@ public class LuceneUtils {
     }
     return leafReader.terms(field);
   }
+
+  /** Gets the terms for a given field, or null if there are none. */
+  Terms getTermsForFieldOrNull(String field) throws IOException {
+    return leafReader.terms(field);
+  }
   
   public DocsEnum getDocsForTerm(Term term) throws IOException {
     return this.leafReader.termDocsEnum(term);
@@ -276,10 +290,38 @@ public class LuceneUtils {
    * Used in indexing. Used in query weighting if
    * {@link FlagConfig#usetermweightsinsearch} is true.
    *
+   * Looks the weight up in the {@link TermWeightTable} if there is one and it contains the term.
+   *
    * @param term whose frequency you want
    * @return Global term weight, or 1 if unavailable.
    */
   public float getGlobalTermWeight(Term term) {
+    if (termWeightTable != null) {
+      float weight = termWeightTable.getWeight(term);
+      if (!Float.isNaN(weight)) {
+        return weight;
+      }
+    }
+    return getGlobalTermWeightWithoutTable(term);
+  }
+
+  /**
+   * Gets the global term weight of the term with the given bytes in the given field, as
+   * {@link #getGlobalTermWeight(Term)} does, but without allocating a {@link Term} when the
+   * weight is in the {@link TermWeightTable}. For training loops that enumerate terms as bytes.
+   */
+  public float getGlobalTermWeight(String field, BytesRef bytes) {
+    if (termWeightTable != null) {
+      float weight = termWeightTable.getWeight(field, bytes);
+      if (!Float.isNaN(weight)) {
+        return weight;
+      }
+    }
+    // The caller's enumeration may reuse the bytes, so the term gets its own copy.
+    return getGlobalTermWeightWithoutTable(new Term(field, BytesRef.deepCopyOf(bytes)));
+  }
+
+  private float getGlobalTermWeightWithoutTable(Term term) {
     switch (flagConfig.termweight()) {
     case NONE:
     case SQRT:
@@ -324,27 +366,36 @@ public class LuceneUtils {
    */
   public int getNumDocs() { return compositeReader.numDocs(); }
 
+  /**
+   * Returns the version of the Lucene index, which changes whenever changes to the index
+   * are committed.
+   */
+  public long getIndexVersion() { return ((DirectoryReader) compositeReader).getVersion(); }
+
   /**
    * Gets the IDF (i.e. log10(numdocs/doc frequency)) of a term
    *	@param term the term whose IDF you would like
    */
   private float getIDF(Term term) {
-    if (termIDF.containsKey(term)) {
-      return termIDF.get(term);
-    } else { 
-      try {
-        int freq =  compositeReader.docFreq(term);
-        if (freq == 0) { 
-          return 0;
-        }
-        float idf = (float) Math.log10(compositeReader.numDocs()/freq);
-        termIDF.put(term, idf);
-        return idf; 
-      } catch (IOException e) {
-        // Catches IOException from looking up doc frequency, never seen yet in practice.
-        e.printStackTrace();
-        return 1;
+    Float idf = termIDF.get(term);
+    if (idf == null) {
+      idf = computeIDF(term);
+      termIDF.put(term, idf);
+    }
+    return idf;
+  }
+
+  private float computeIDF(Term term) {
+    try {
+      int freq =  compositeReader.docFreq(term);
+      if (freq == 0) { 
+        return 0;
       }
+      return (float) Math.log10(compositeReader.numDocs()/freq);
+    } catch (IOException e) {
+      // Catches IOException from looking up doc frequency, never seen yet in practice.
+      e.printStackTrace();
+      return 1;
     }
   }
 
@@ -361,8 +412,15 @@ public class LuceneUtils {
    * eliminate redundant calculation
    */
   private float getEntropy(Term term){
-    if(termEntropy.containsKey(term))
-      return termEntropy.get(term);
+    Float entropy = termEntropy.get(term);
+    if (entropy == null) {
+      entropy = computeEntropy(term);
+      termEntropy.put(term, entropy);
+    }
+    return entropy;
+  }
+
+  private float computeEntropy(Term term) {
     int gf = getGlobalTermFreq(term);
     double entropy = 0;
     try {
@@ -379,10 +437,24 @@ public class LuceneUtils {
     catch (IOException e) {
       logger.info("Couldn't get term entropy for term " + term.text());
     }
-    termEntropy.put(term, 1 + (float)entropy);
     return (float) (1 + entropy);
   }
 
+  /**
+   * Computes the global term weight of a term as {@link #getGlobalTermWeight} does, but without
+   * using or adding to any cached values. Safe to call from several threads at once.
+   */
+  float computeGlobalTermWeight(Term term) {
+    switch (flagConfig.termweight()) {
+    case IDF:
+      return computeIDF(term);
+    case LOGENTROPY:
+      return computeEntropy(term);
+    default:
+      return 1;
+    }
+  }
+
   /**
    * Public version of {@link #termFilter} that gets all its inputs from the
    * {@link #flagConfig} and the provided term.
@@ -399,6 +471,24 @@ public class LuceneUtils {
         flagConfig.mintermlength());
   }  
 
+  /**
+   * Returns a description of the settings used by {@link #termFilter(Term)}, including the
+   * contents of any stoplist and startlist, so that results computed with one set of settings
+   * are not reused with another.
+   */
+  public String getTermFilterSettings() {
+    return String.format("contentsfields=%s minfrequency=%d maxfrequency=%d maxnonalphabetchars=%d"
+        + " filteroutnumbers=%b mintermlength=%d stoplist=%s startlist=%s",
+        Arrays.toString(flagConfig.contentsfields()), flagConfig.minfrequency(),
+        flagConfig.maxfrequency(), flagConfig.maxnonalphabetchars(), flagConfig.filteroutnumbers(),
+        flagConfig.mintermlength(), describeWordList(stopwords), describeWordList(startwords));
+  }
+
+  private static String describeWordList(TreeSet<String> words) {
+    if (words == null) return "none";
+    return words.size() + " words with hash " + words.hashCode();
+  }
+
   /**
    * Filters out non-alphabetic terms and those of low frequency.
    * 
@@ -0,0 +1,436 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.PackedVectorUtils;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Exact nearest neighbor index for binary vectors using multi-index hashing, as described by
+ * Norouzi, Punjani and Fleet, "Fast Search in Hamming Space with Multi-Index Hashing" (2012).
+ *
+ * <p>
+ * The bits of each vector are split into {@code m} substrings, and each substring is a key in
+ * its own hash table. If two vectors are within Hamming distance {@code m * (r + 1) - 1} of
+ * each other, then by the pigeonhole principle at least one of their substrings are within
+ * distance {@code r}. So a search probes every table with all the keys within distance 0 of
+ * the query's substrings, then distance 1, and so on, scoring each vector found using its full
+ * bits, and stops as soon as the k best vectors found so far are guaranteed to be the k best
+ * in the store. If probing would cost more than scanning, the remaining vectors are scanned
+ * instead, so results are always the same as an exhaustive search.
+ *
+ * <p>
+ * Substrings of about log2(number of vectors) bits work best, so that each key matches a few
+ * vectors. This is the default, and can be changed using {@link FlagConfig#mihsubstringbits()}.
+ * The index file holds the packed bits of every vector as well as the tables, so the vector
+ * store itself is only needed to build the index.
+ */
+public class MultiIndexHash extends NearestNeighborIndex {
+  private static final Logger logger = Logger.getLogger(MultiIndexHash.class.getCanonicalName());
+
+  private static final int FORMAT_VERSION = 1;
+
+  private final FlagConfig flagConfig;
+  private final int dimension;
+  private final int numWords;
+  private final int numNodes;
+  private final Object[] objects;
+  /** Bits of all the vectors, {@link #numWords} longs each. */
+  private final long[] bits;
+  /** Nodes whose vectors are zero vectors, which score 0 against everything. */
+  private final int[] zeroNodes;
+  /** Start of each substring in bits, plus the dimension at the end. */
+  private final int[] substringStarts;
+  /** For each substring, the distinct keys in ascending order. */
+  private final int[][] tableKeys;
+  /** For each substring, where the nodes for each key start in {@link #tableNodes}. */
+  private final int[][] tableOffsets;
+  /** For each substring, the nonzero nodes ordered by key. */
+  private final int[][] tableNodes;
+
+  private MultiIndexHash(FlagConfig flagConfig, int numNodes, int numSubstrings, int numZeroNodes) {
+    this.flagConfig = flagConfig;
+    this.dimension = flagConfig.dimension();
+    this.numWords = dimension / 64;
+    this.numNodes = numNodes;
+    this.objects = new Object[numNodes];
+    this.bits = new long[numNodes * numWords];
+    this.zeroNodes = new int[numZeroNodes];
+    this.substringStarts = new int[numSubstrings + 1];
+    for (int i = 0; i <= numSubstrings; ++i) {
+      substringStarts[i] = (int) ((long) i * dimension / numSubstrings);
+    }
+    this.tableKeys = new int[numSubstrings][];
+    this.tableOffsets = new int[numSubstrings][];
+    this.tableNodes = new int[numSubstrings][];
+  }
+
+  /**
+   * Returns the number of substrings to use for this many vectors: enough to make each
+   * substring about log2(numVectors) bits, or {@link FlagConfig#mihsubstringbits()} if set.
+   */
+  private static int getNumSubstrings(FlagConfig flagConfig, int numVectors) {
+    int substringBits = flagConfig.mihsubstringbits();
+    if (substringBits <= 0) {
+      substringBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, numVectors));
+    }
+    substringBits = Math.max(1, Math.min(32, substringBits));
+    return (flagConfig.dimension() + substringBits - 1) / substringBits;
+  }
+
+  /** Builds an index for all the vectors in a store of {@link VectorType#BINARY} vectors. */
+  public static MultiIndexHash build(VectorStore vectorStore, FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.BINARY) {
+      throw new IllegalArgumentException(
+          "Multi-index hashing only works for binary vectors, not " + flagConfig.vectortype());
+    }
+    int numWords = flagConfig.dimension() / 64;
+    List<Object> objects = new ArrayList<Object>();
+    long[] bits = new long[Math.max(1, vectorStore.getNumVectors()) * numWords];
+    List<Integer> zeroNodes = new ArrayList<Integer>();
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      int node = objects.size();
+      if ((node + 1) * numWords > bits.length) {
+        bits = Arrays.copyOf(bits, 2 * bits.length);
+      }
+      if (!PackedVectorUtils.packBinary((BinaryVector) objectVector.getVector(), bits, node * numWords)) {
+        zeroNodes.add(node);
+      }
+      objects.add(objectVector.getObject());
+    }
+
+    MultiIndexHash index = new MultiIndexHash(flagConfig, objects.size(),
+        getNumSubstrings(flagConfig, objects.size()), zeroNodes.size());
+    System.arraycopy(bits, 0, index.bits, 0, index.bits.length);
+    objects.toArray(index.objects);
+    for (int i = 0; i < index.zeroNodes.length; ++i) {
+      index.zeroNodes[i] = zeroNodes.get(i);
+    }
+    for (int substring = 0; substring < index.tableKeys.length; ++substring) {
+      index.buildTable(substring);
+    }
+    return index;
+  }
+
+  /** Fills in the table for one substring by sorting the nonzero nodes by key. */
+  private void buildTable(int substring) {
+    long[] keyedNodes = new long[numNodes - zeroNodes.length];
+    int numKeyedNodes = 0;
+    int zeroPosition = 0;
+    for (int node = 0; node < numNodes; ++node) {
+      if (zeroPosition < zeroNodes.length && zeroNodes[zeroPosition] == node) {
+        ++zeroPosition;
+        continue;
+      }
+      // Key in the high half and node in the low half, so sorting orders by key then node.
+      long key = getSubstring(bits, node * numWords, substring);
+      keyedNodes[numKeyedNodes++] = (key << 32) | node;
+    }
+    Arrays.sort(keyedNodes);
+
+    int numKeys = 0;
+    int[] keys = new int[keyedNodes.length];
+    int[] offsets = new int[keyedNodes.length + 1];
+    int[] nodes = new int[keyedNodes.length];
+    for (int i = 0; i < keyedNodes.length; ++i) {
+      int key = (int) (keyedNodes[i] >>> 32);
+      if (numKeys == 0 || keys[numKeys - 1] != key) {
+        keys[numKeys] = key;
+        offsets[numKeys] = i;
+        ++numKeys;
+      }
+      nodes[i] = (int) keyedNodes[i];
+    }
+    offsets[numKeys] = keyedNodes.length;
+    tableKeys[substring] = Arrays.copyOf(keys, numKeys);
+    tableOffsets[substring] = Arrays.copyOf(offsets, numKeys + 1);
+    tableNodes[substring] = nodes;
+  }
+
+  /** Returns the bits of the substring of the vector starting at the given offset. */
+  private int getSubstring(long[] vectorBits, int offset, int substring) {
+    int start = substringStarts[substring];
+    int length = substringStarts[substring + 1] - start;
+    int word = start >>> 6;
+    int shift = start & 63;
+    long value = vectorBits[offset + word] >>> shift;
+    if (shift + length > 64) {
+      value |= vectorBits[offset + word + 1] << (64 - shift);
+    }
+    return (int) (value & ((1L << length) - 1));
+  }
+
+  private double score(long[] queryBits, int node) {
+    int position = node * numWords;
+    long hammingDistance = 0;
+    for (int i = 0; i < numWords; ++i) {
+      hammingDistance += Long.bitCount(queryBits[i] ^ bits[position + i]);
+    }
+    // Same calculation as BinaryVector.measureOverlap, so scores are identical.
+    return 2 * (0.5 - (hammingDistance / (double) dimension));
+  }
+
+  /** Number of ways of choosing k of n items, capped at Long.MAX_VALUE. */
+  private static long binomial(int n, int k) {
+    if (k < 0 || k > n) return 0;
+    long result = 1;
+    for (int i = 1; i <= Math.min(k, n - k); ++i) {
+      result = result * (n - k + i) / i;
+      if (result < 0) return Long.MAX_VALUE;
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Results are exact, with ties broken in the order of the vector store that was indexed,
+   * so they are the same as from an exhaustive search.
+   */
+  @Override
+  public LinkedList<SearchResult> getNearestNeighbors(Vector queryVector, int numResults) {
+    if (numResults <= 0 || numNodes == 0) {
+      return new LinkedList<SearchResult>();
+    }
+    TopKCollector collector = new TopKCollector(Math.min(numResults, numNodes));
+    long[] queryBits = new long[numWords];
+    if (!PackedVectorUtils.packBinary((BinaryVector) queryVector, queryBits, 0)) {
+      // Everything scores 0 against a zero vector.
+      for (int node = 0; node < numNodes; ++node) {
+        collector.offer(0, node);
+      }
+      return toSearchResults(collector);
+    }
+
+    int numSubstrings = tableKeys.length;
+    int maxSubstringBits = 0;
+    int[] queryKeys = new int[numSubstrings];
+    for (int substring = 0; substring < numSubstrings; ++substring) {
+      maxSubstringBits = Math.max(maxSubstringBits,
+          substringStarts[substring + 1] - substringStarts[substring]);
+      queryKeys[substring] = getSubstring(queryBits, 0, substring);
+    }
+
+    BitSet visited = new BitSet(numNodes);
+    for (int node : zeroNodes) {
+      visited.set(node);
+      collector.offer(0, node);
+    }
+    long numProbes = 0;
+    boolean exact = false;
+    for (int radius = 0; radius <= maxSubstringBits && !exact; ++radius) {
+      long radiusProbes = numSubstrings * binomial(maxSubstringBits, radius);
+      if (radiusProbes > numNodes - numProbes || radiusProbes < 0) {
+        break;
+      }
+      numProbes += radiusProbes;
+      for (int substring = 0; substring < numSubstrings; ++substring) {
+        int length = substringStarts[substring + 1] - substringStarts[substring];
+        probe(substring, queryKeys[substring], length, 0, radius, queryBits, visited, collector);
+      }
+      // Every vector within this distance of the query has now been scored.
+      int coveredDistance = numSubstrings * (radius + 1) - 1;
+      double coveredScore = 2 * (0.5 - (coveredDistance / (double) dimension));
+      exact = collector.size() == collector.getK() && collector.getThreshold() >= coveredScore;
+    }
+    if (!exact) {
+      // Probing any further would cost more than scoring the rest of the store.
+      for (int node = visited.nextClearBit(0); node < numNodes; node = visited.nextClearBit(node + 1)) {
+        collector.offer(score(queryBits, node), node);
+      }
+    }
+    return toSearchResults(collector);
+  }
+
+  /**
+   * Scores the unvisited nodes in the table for every key that differs from {@code key} in
+   * exactly {@code flips} of the bits from {@code firstBit} onwards.
+   */
+  private void probe(int substring, int key, int length, int firstBit, int flips,
+      long[] queryBits, BitSet visited, TopKCollector collector) {
+    if (flips == 0) {
+      int keyPosition = Arrays.binarySearch(tableKeys[substring], key);
+      if (keyPosition < 0) return;
+      int[] nodes = tableNodes[substring];
+      for (int i = tableOffsets[substring][keyPosition]; i < tableOffsets[substring][keyPosition + 1]; ++i) {
+        int node = nodes[i];
+        if (!visited.get(node)) {
+          visited.set(node);
+          collector.offer(score(queryBits, node), node);
+        }
+      }
+      return;
+    }
+    for (int bit = firstBit; bit <= length - flips; ++bit) {
+      probe(substring, key ^ (1 << bit), length, bit + 1, flips - 1, queryBits, visited, collector);
+    }
+  }
+
+  private LinkedList<SearchResult> toSearchResults(TopKCollector collector) {
+    collector.sortDescending();
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    for (int i = 0; i < collector.size(); ++i) {
+      int node = collector.getIndex(i);
+      results.add(new SearchResult(collector.getScore(i), new ObjectVector(
+          objects[node], PackedVectorUtils.unpackBinary(bits, node * numWords, dimension))));
+    }
+    return results;
+  }
+
+  @Override
+  public void writeToFile(String indexFileName) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    try {
+      outputStream.writeVInt(FORMAT_VERSION);
+      outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+      outputStream.writeVInt(numNodes);
+      outputStream.writeVInt(tableKeys.length);
+      outputStream.writeVInt(zeroNodes.length);
+      for (int node = 0; node < numNodes; ++node) {
+        outputStream.writeString(objects[node].toString());
+      }
+      for (long word : bits) {
+        outputStream.writeLong(word);
+      }
+      for (int node : zeroNodes) {
+        outputStream.writeVInt(node);
+      }
+      for (int substring = 0; substring < tableKeys.length; ++substring) {
+        outputStream.writeVInt(tableKeys[substring].length);
+        for (int i = 0; i < tableKeys[substring].length; ++i) {
+          outputStream.writeInt(tableKeys[substring][i]);
+          outputStream.writeVInt(tableOffsets[substring][i + 1] - tableOffsets[substring][i]);
+        }
+        for (int node : tableNodes[substring]) {
+          outputStream.writeVInt(node);
+        }
+      }
+    } finally {
+      outputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Reads an index written by {@link #writeToFile}, checking that it matches the vector store.
+   *
+   * @return the index, or null if it was built for a store with different vectors
+   */
+  public static MultiIndexHash readFromFile(String indexFileName, VectorStore vectorStore,
+      FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      if (indexInput.readVInt() != FORMAT_VERSION) {
+        logger.warning("Unsupported multi-index hash format in " + indexFileName);
+        return null;
+      }
+      String header = indexInput.readString();
+      if (!header.equals(VectorStoreWriter.generateHeaderString(flagConfig))) {
+        logger.warning("Multi-index hash " + indexFileName + " was built for vectors with header '"
+            + header + "', ignoring it.");
+        return null;
+      }
+      int numNodes = indexInput.readVInt();
+      if (numNodes != vectorStore.getNumVectors()) {
+        logger.warning("Multi-index hash " + indexFileName + " has " + numNodes
+            + " vectors but the store has " + vectorStore.getNumVectors()
+            + ", ignoring it. Rebuild the index to use it.");
+        return null;
+      }
+      int numSubstrings = indexInput.readVInt();
+      MultiIndexHash index = new MultiIndexHash(flagConfig, numNodes, numSubstrings, indexInput.readVInt());
+      for (int node = 0; node < numNodes; ++node) {
+        index.objects[node] = indexInput.readString();
+      }
+      for (int i = 0; i < index.bits.length; ++i) {
+        index.bits[i] = indexInput.readLong();
+      }
+      for (int i = 0; i < index.zeroNodes.length; ++i) {
+        index.zeroNodes[i] = indexInput.readVInt();
+      }
+      for (int substring = 0; substring < numSubstrings; ++substring) {
+        int numKeys = indexInput.readVInt();
+        int[] keys = new int[numKeys];
+        int[] offsets = new int[numKeys + 1];
+        for (int i = 0; i < numKeys; ++i) {
+          keys[i] = indexInput.readInt();
+          offsets[i + 1] = offsets[i] + indexInput.readVInt();
+        }
+        int[] nodes = new int[offsets[numKeys]];
+        for (int i = 0; i < nodes.length; ++i) {
+          nodes[i] = indexInput.readVInt();
+        }
+        index.tableKeys[substring] = keys;
+        index.tableOffsets[substring] = offsets;
+        index.tableNodes[substring] = nodes;
+      }
+      return index;
+    } finally {
+      indexInput.close();
+      fsDirectory.close();
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.logging.Logger;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * An index over a vector store that finds (approximate) nearest neighbors of a query
+ * vector without scoring every vector in the store.
+ *
+ * <p>
+ * Indexes are built from a vector store file using {@link #main}, and written to a file
+ * next to the vector store (see {@link #getIndexFileName}). When {@link FlagConfig#annindex()}
+ * is set, {@link Search} opens the index for the search vector store and passes it to
+ * {@link VectorSearcher#setNearestNeighborIndex}. It is only used for searchers that score
+ * by overlap with a single query vector (see {@link VectorSearcher#getOverlapQueryVector}).
+ */
+public abstract class NearestNeighborIndex {
+  private static final Logger logger = Logger.getLogger(
+      NearestNeighborIndex.class.getCanonicalName());
+
+  /** Types of index, set using {@link FlagConfig#annindex()}. */
+  public enum IndexType {
+    /** No index: searches score every vector in the store. */
+    NONE,
+    /**
+     * Hierarchical navigable small world graph, see {@link HnswIndex}. Works for all vector
+     * types, using {@link Vector#measureOverlap} as the similarity.
+     */
+    HNSW,
+    /**
+     * Multi-index hashing, see {@link MultiIndexHash}. Exact search, for binary vectors only.
+     */
+    MULTIINDEXHASH
+  }
+
+  public static String usageMessage = "\nNearestNeighborIndex class in package pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.NearestNeighborIndex -annindex TYPE VECTORFILE"
+      + "\nBuilds an approximate nearest neighbor index for the vector store VECTORFILE,"
+      + "\n    and writes it to a file alongside. TYPE can be HNSW or MULTIINDEXHASH."
+      + "\nHNSW indexes are tuned using -hnswm and -hnswefconstruction when building"
+      + "\n    and -hnswefsearch when searching."
+      + "\nMULTIINDEXHASH indexes are for binary vectors, and are tuned using -mihsubstringbits.";
+
+  /**
+   * Returns up to {@code numResults} vectors from the indexed store with the highest overlap
+   * with the query vector, best first, scored using {@link Vector#measureOverlap}.
+   * Results may be approximate, depending on the type of index: some of the true nearest
+   * neighbors may be missing.
+   */
+  public abstract LinkedList<SearchResult> getNearestNeighbors(Vector queryVector, int numResults);
+
+  /** Writes this index to the given file. */
+  public abstract void writeToFile(String indexFileName) throws IOException;
+
+  /**
+   * Returns the name of the index file of this type for the given vector store file,
+   * e.g., "termvectors.bin" gives "termvectors.hnsw".
+   */
+  public static String getIndexFileName(String vectorFileName, IndexType indexType) {
+    int dot = vectorFileName.lastIndexOf('.');
+    if (dot > vectorFileName.lastIndexOf(File.separatorChar)) {
+      vectorFileName = vectorFileName.substring(0, dot);
+    }
+    return vectorFileName + "." + indexType.toString().toLowerCase();
+  }
+
+  /**
+   * Builds an index of the type given by {@link FlagConfig#annindex()} for the vector store.
+   */
+  public static NearestNeighborIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    switch (flagConfig.annindex()) {
+    case HNSW:
+      return HnswIndex.build(vectorStore, flagConfig);
+    case MULTIINDEXHASH:
+      return MultiIndexHash.build(vectorStore, flagConfig);
+    default:
+      throw new IllegalArgumentException("Can't build index of type: " + flagConfig.annindex());
+    }
+  }
+
+  /**
+   * Opens the index of the type given by {@link FlagConfig#annindex()} for the vector store
+   * read from the given file.
+   *
+   * @return the index, or null if there is no index, or it is out of date, in which case
+   *   searches should fall back to scanning the whole store
+   */
+  public static NearestNeighborIndex openIndex(
+      String vectorFileName, VectorStore vectorStore, FlagConfig flagConfig) throws IOException {
+    String indexFileName = getIndexFileName(
+        VectorStoreUtils.getStoreFileName(vectorFileName, flagConfig), flagConfig.annindex());
+    if (!new File(indexFileName).exists()) {
+      logger.warning("No nearest neighbor index found at " + indexFileName
+          + ", searches will be exhaustive.");
+      return null;
+    }
+    switch (flagConfig.annindex()) {
+    case HNSW:
+      return HnswIndex.readFromFile(indexFileName, vectorStore, flagConfig);
+    case MULTIINDEXHASH:
+      return MultiIndexHash.readFromFile(indexFileName, vectorStore, flagConfig);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Builds an index for a vector store file and writes it alongside.
+   * @param args See {@link #usageMessage}
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig;
+    try {
+      flagConfig = FlagConfig.getFlagConfig(args);
+      if (flagConfig.remainingArgs.length != 1 || flagConfig.annindex() == IndexType.NONE) {
+        throw new IllegalArgumentException("Expected an index type and one vector store file.");
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(usageMessage);
+      throw e;
+    }
+    String vectorFileName = flagConfig.remainingArgs[0];
+    CloseableVectorStore vectorStore = VectorStoreReader.openVectorStore(vectorFileName, flagConfig);
+    VerbatimLogger.info("Building " + flagConfig.annindex() + " index for "
+        + vectorStore.getNumVectors() + " vectors ...\n");
+    NearestNeighborIndex index = build(vectorStore, flagConfig);
+    String indexFileName = getIndexFileName(
+        VectorStoreUtils.getStoreFileName(vectorFileName, flagConfig), flagConfig.annindex());
+    index.writeToFile(indexFileName);
+    vectorStore.close();
+    VerbatimLogger.info("Wrote index to " + indexFileName + "\n");
+  }
+}
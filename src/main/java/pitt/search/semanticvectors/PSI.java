@@ -36,8 +36,16 @@
 package pitt.search.semanticvectors;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -45,6 +53,8 @@ import org.apache.lucene.index.*;
 import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ConcurrentSuperposition;
+import pitt.search.semanticvectors.vectors.RealVectorUtils;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 
@@ -54,6 +64,13 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
  * 
  * Produces as output the files: elementalvectors.bin, predicatevectors.bin and semanticvectors.bin
  * 
+ * If {@link FlagConfig#numthreads()} is greater than 1, predications are processed in batches
+ * by that many threads.
+ * 
+ * If {@link FlagConfig#triplesfile()} is set, the predications are read from a
+ * {@link PredicationTriples} file instead of from the stored fields of the Lucene index, which
+ * is still used for filtering terms and for term weights.
+ * 
  * @author Trevor Cohen, Dominic Widdows
  */
 public class PSI {
@@ -67,6 +84,16 @@ public class PSI {
   private static final String PREDICATION_FIELD = "predication";
   private String[] itemFields = {SUBJECT_FIELD, OBJECT_FIELD};
   private LuceneUtils luceneUtils;
+  /**
+   * Global weight of each concept in each of the {@link #itemFields} it passes the term filter in,
+   * or NaN for the others. Filled in once when the concepts are enumerated.
+   */
+  private HashMap<String, float[]> conceptWeights = new HashMap<String, float[]>();
+
+  /** Number of predications each thread takes at a time when training with several threads. */
+  private static final int PREDICATION_BATCH_SIZE = 1000;
+  /** Number of batches of predications that may be waiting for a thread at once. */
+  private static final int MAX_PENDING_BATCHES = 100;
 
   private PSI() {};
 
@@ -91,7 +118,8 @@ public class PSI {
 
     HashSet<String> addedConcepts = new HashSet<String>();
 
-    for (String fieldName : itemFields) {
+    for (int fieldNum = 0; fieldNum < itemFields.length; ++fieldNum) {
+      String fieldName = itemFields[fieldNum];
       Terms terms = luceneUtils.getTermsForField(fieldName);
 
       if (terms == null) {
@@ -115,7 +143,11 @@ public class PSI {
           elementalItemVectors.getVector(term.text());  // Causes vector to be created.
           semanticItemVectors.putVector(term.text(), VectorFactory.createZeroVector(
               flagConfig.vectortype(), flagConfig.dimension()));
+          float[] weights = new float[itemFields.length];
+          Arrays.fill(weights, Float.NaN);
+          conceptWeights.put(term.text(), weights);
         }
+        conceptWeights.get(term.text())[fieldNum] = luceneUtils.getGlobalTermWeight(term);
       }
     }
 
@@ -137,59 +169,27 @@ public class PSI {
       predicateVectors.getVector(term.text().trim()+"-INV");
     }
 
-    String fieldName = PREDICATION_FIELD; 
     // Iterate through documents (each document = one predication).
-    Terms allTerms = luceneUtils.getTermsForField(fieldName);
-    termsEnum = allTerms.iterator(null);
-    while((bytes = termsEnum.next()) != null) {
+    if (!flagConfig.triplesfile().isEmpty()) {
+      processPredicationTriples(PredicationTriples.readFromFile(flagConfig.triplesfile()));
+    } else if (flagConfig.numthreads() > 1) {
+      processPredicationsInParallel();
+    } else {
+      Terms allTerms = luceneUtils.getTermsForField(PREDICATION_FIELD);
+      termsEnum = allTerms.iterator(null);
       int pc = 0;
-      Term term = new Term(fieldName, bytes);
-      pc++;
-
-      // Output progress counter.
-      if ((pc > 0) && ((pc % 10000 == 0) || ( pc < 10000 && pc % 1000 == 0 ))) {
-        VerbatimLogger.info("Processed " + pc + " unique predications ... ");
-      }
-
-      DocsEnum termDocs = luceneUtils.getDocsForTerm(term);
-      termDocs.nextDoc();
-      Document document = luceneUtils.getDoc(termDocs.docID());
-
-      String subject = document.get(SUBJECT_FIELD);
-      String predicate = document.get(PREDICATE_FIELD);
-      String object = document.get(OBJECT_FIELD);
-
-      if (!(elementalItemVectors.containsVector(object)
-          && elementalItemVectors.containsVector(subject)
-          && predicateVectors.containsVector(predicate))) {	  
-          logger.info("skipping predication " + subject + " " + predicate + " " + object);
-          continue;
+      while((bytes = termsEnum.next()) != null) {
+        pc++;
+        // Output progress counter.
+        if ((pc > 0) && ((pc % 10000 == 0) || ( pc < 10000 && pc % 1000 == 0 ))) {
+          VerbatimLogger.info("Processed " + pc + " unique predications ... ");
         }
-      
-      float sWeight = 1;
-      float oWeight = 1;
-      float pWeight = 1;
-
-      sWeight = luceneUtils.getGlobalTermWeight(new Term(SUBJECT_FIELD, subject));
-      oWeight = luceneUtils.getGlobalTermWeight(new Term(OBJECT_FIELD, object));
-      // TODO: Explain different weighting for predicates, log(occurrences of predication)
-      pWeight = luceneUtils.getLocalTermWeight(luceneUtils.getGlobalTermFreq(term));
-
-      Vector subjectSemanticvector = semanticItemVectors.getVector(subject);
-      Vector objectSemanticvector = semanticItemVectors.getVector(object);
-      Vector subjectElementalvector = elementalItemVectors.getVector(subject);
-      Vector objectElementalvector = elementalItemVectors.getVector(object);
-      Vector predicateVector = predicateVectors.getVector(predicate);
-      Vector predicateVectorInv = predicateVectors.getVector(predicate+"-INV");
-
-      Vector objToAdd = objectElementalvector.copy();
-      objToAdd.bind(predicateVector);
-      subjectSemanticvector.superpose(objToAdd, pWeight*oWeight, null);
-
-      Vector subjToAdd = subjectElementalvector.copy();
-      subjToAdd.bind(predicateVectorInv);
-      objectSemanticvector.superpose(subjToAdd, pWeight*sWeight, null);
-    } // Finish iterating through predications.
+        processPredication(new Term(PREDICATION_FIELD, bytes));
+      } // Finish iterating through predications.
+    }
+    // Worker threads have finished and release their own workspaces, but this thread may have
+    // run batches itself.
+    RealVectorUtils.clearSpectrumCache();
 
     //Normalize semantic vectors
     Enumeration<ObjectVector> e = semanticItemVectors.getAllVectors();
@@ -204,6 +204,325 @@ public class PSI {
     VerbatimLogger.info("Finished writing vectors.\n");
   }
 
+  /**
+   * Returns the global weight of the concept in the item field with the given number, usually
+   * from {@link #conceptWeights}. Safe to call from several threads at once.
+   */
+  private float getConceptWeight(String concept, int fieldNum) {
+    float[] weights = conceptWeights.get(concept);
+    if (weights != null && !Float.isNaN(weights[fieldNum])) {
+      return weights[fieldNum];
+    }
+    return luceneUtils.getGlobalTermWeight(new Term(itemFields[fieldNum], concept));
+  }
+
+  /**
+   * Adds the elemental vector of the object bound to the predicate to the semantic vector
+   * of the subject, and the elemental vector of the subject bound to the inverse predicate to
+   * the semantic vector of the object. Safe to call from several threads at once.
+   */
+  private void processPredication(Term term) throws IOException {
+    DocsEnum termDocs = luceneUtils.getDocsForTerm(term);
+    termDocs.nextDoc();
+    Document document = luceneUtils.getDoc(termDocs.docID());
+
+    String subject = document.get(SUBJECT_FIELD);
+    String predicate = document.get(PREDICATE_FIELD);
+    String object = document.get(OBJECT_FIELD);
+
+    if (!(elementalItemVectors.containsVector(object)
+        && elementalItemVectors.containsVector(subject)
+        && predicateVectors.containsVector(predicate))) {
+      logger.info("skipping predication " + subject + " " + predicate + " " + object);
+      return;
+    }
+
+    float sWeight = 1;
+    float oWeight = 1;
+    float pWeight = 1;
+
+    sWeight = getConceptWeight(subject, 0);
+    oWeight = getConceptWeight(object, 1);
+    // TODO: Explain different weighting for predicates, log(occurrences of predication)
+    pWeight = luceneUtils.getLocalTermWeight(luceneUtils.getGlobalTermFreq(term));
+
+    Vector subjectSemanticvector = semanticItemVectors.getVector(subject);
+    Vector objectSemanticvector = semanticItemVectors.getVector(object);
+    Vector subjectElementalvector = elementalItemVectors.getVector(subject);
+    Vector objectElementalvector = elementalItemVectors.getVector(object);
+    Vector predicateVector = predicateVectors.getVector(predicate);
+    Vector predicateVectorInv = predicateVectors.getVector(predicate+"-INV");
+
+    ConcurrentSuperposition.superposeBound(flagConfig.concurrentsuperposition(),
+        subjectSemanticvector, objectElementalvector, predicateVector, pWeight*oWeight);
+
+    ConcurrentSuperposition.superposeBound(flagConfig.concurrentsuperposition(),
+        objectSemanticvector, subjectElementalvector, predicateVectorInv, pWeight*sWeight);
+  }
+
+  /**
+   * Processes all the predications using {@link FlagConfig#numthreads()} worker threads. The
+   * calling thread reads the predication terms in batches of {@link #PREDICATION_BATCH_SIZE},
+   * and runs a batch itself whenever {@link #MAX_PENDING_BATCHES} are already waiting.
+   * By default each semantic vector is locked while it is being added to, so the results are
+   * the same as from a single thread, apart from differences in floating point rounding caused
+   * by adding the same contributions in a different order. See also
+   * {@link FlagConfig#concurrentsuperposition()}.
+   */
+  private void processPredicationsInParallel() throws IOException {
+    VerbatimLogger.info("Processing predications using " + flagConfig.numthreads() + " threads.\n");
+    ThreadPoolExecutor workers = createWorkers();
+    AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    try {
+      TermsEnum termsEnum = luceneUtils.getTermsForField(PREDICATION_FIELD).iterator(null);
+      BytesRef bytes;
+      int pc = 0;
+      List<Term> batch = new ArrayList<Term>(PREDICATION_BATCH_SIZE);
+      while ((bytes = termsEnum.next()) != null && failure.get() == null) {
+        pc++;
+        // Output progress counter.
+        if ((pc > 0) && ((pc % 10000 == 0) || ( pc < 10000 && pc % 1000 == 0 ))) {
+          VerbatimLogger.info("Read " + pc + " unique predications ... ");
+        }
+        // The terms enum reuses its bytes, so they must be copied before being passed on.
+        batch.add(new Term(PREDICATION_FIELD, BytesRef.deepCopyOf(bytes)));
+        if (batch.size() == PREDICATION_BATCH_SIZE) {
+          workers.execute(new TermBatch(batch, failure));
+          batch = new ArrayList<Term>(PREDICATION_BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        workers.execute(new TermBatch(batch, failure));
+      }
+    } finally {
+      finishWorkers(workers, failure);
+    }
+  }
+
+  /**
+   * Processes the predications read from a {@link PredicationTriples} file, using
+   * {@link FlagConfig#numthreads()} threads, after checking that the file was written
+   * along with the Lucene index.
+   */
+  private void processPredicationTriples(PredicationTriples triples) throws IOException {
+    // Each predication read from the triples text file was indexed as one document, so a
+    // mismatch means the triples file was written with a different index.
+    if (triples.getNumOccurrences() != luceneUtils.getNumDocs()) {
+      throw new IOException("Predication triples file '" + flagConfig.triplesfile() + "' has "
+          + triples.getNumOccurrences() + " predications read from '" + triples.getSourceFile()
+          + "', but the Lucene index has " + luceneUtils.getNumDocs() + " documents. "
+          + "Rebuild both with LuceneIndexFromTriples -triplesfile.");
+    }
+    VerbatimLogger.info("Read " + triples.getNumPredications() + " unique predications from "
+        + flagConfig.triplesfile() + "\n");
+    IndexedPredications predications = new IndexedPredications(triples);
+    if (flagConfig.numthreads() <= 1) {
+      for (int pc = 0; pc < triples.getNumPredications(); ++pc) {
+        // Output progress counter.
+        if ((pc > 0) && ((pc % 10000 == 0) || ( pc < 10000 && pc % 1000 == 0 ))) {
+          VerbatimLogger.info("Processed " + pc + " unique predications ... ");
+        }
+        predications.processPredication(pc);
+      }
+      return;
+    }
+
+    VerbatimLogger.info("Processing predications using " + flagConfig.numthreads() + " threads.\n");
+    ThreadPoolExecutor workers = createWorkers();
+    AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    try {
+      for (int start = 0; start < triples.getNumPredications() && failure.get() == null;
+          start += PREDICATION_BATCH_SIZE) {
+        int end = Math.min(triples.getNumPredications(), start + PREDICATION_BATCH_SIZE);
+        workers.execute(new TripleBatch(predications, start, end, failure));
+      }
+    } finally {
+      finishWorkers(workers, failure);
+    }
+  }
+
+  /**
+   * The predications in a {@link PredicationTriples}, with the vectors and weights of their
+   * concepts and predicates looked up once and indexed by ID, so that processing a predication
+   * involves no string hashing.
+   */
+  private class IndexedPredications {
+    private final PredicationTriples triples;
+    private final Vector[] elementalConceptVectors;
+    private final Vector[] semanticConceptVectors;
+    private final float[] subjectWeights;
+    private final float[] objectWeights;
+    private final Vector[] predicateVectorsById;
+    private final Vector[] inversePredicateVectorsById;
+
+    IndexedPredications(PredicationTriples triples) {
+      this.triples = triples;
+      elementalConceptVectors = new Vector[triples.getNumConcepts()];
+      semanticConceptVectors = new Vector[triples.getNumConcepts()];
+      for (int id = 0; id < triples.getNumConcepts(); ++id) {
+        String concept = triples.getConcept(id);
+        // Concepts without vectors were filtered out, and their predications are skipped.
+        if (elementalItemVectors.containsVector(concept)) {
+          elementalConceptVectors[id] = elementalItemVectors.getVector(concept);
+          semanticConceptVectors[id] = semanticItemVectors.getVector(concept);
+        }
+      }
+
+      predicateVectorsById = new Vector[triples.getNumPredicates()];
+      inversePredicateVectorsById = new Vector[triples.getNumPredicates()];
+      for (int id = 0; id < triples.getNumPredicates(); ++id) {
+        String predicate = triples.getPredicate(id);
+        if (predicateVectors.containsVector(predicate)) {
+          predicateVectorsById[id] = predicateVectors.getVector(predicate);
+          inversePredicateVectorsById[id] = predicateVectors.getVector(predicate + "-INV");
+        }
+      }
+
+      // Weights are only needed for the fields each concept actually occurs in.
+      subjectWeights = new float[triples.getNumConcepts()];
+      objectWeights = new float[triples.getNumConcepts()];
+      Arrays.fill(subjectWeights, Float.NaN);
+      Arrays.fill(objectWeights, Float.NaN);
+      for (int pc = 0; pc < triples.getNumPredications(); ++pc) {
+        int subjectId = triples.getSubjectId(pc);
+        int objectId = triples.getObjectId(pc);
+        if (Float.isNaN(subjectWeights[subjectId])) {
+          subjectWeights[subjectId] = getConceptWeight(triples.getConcept(subjectId), 0);
+        }
+        if (Float.isNaN(objectWeights[objectId])) {
+          objectWeights[objectId] = getConceptWeight(triples.getConcept(objectId), 1);
+        }
+      }
+    }
+
+    /**
+     * Does the same as {@link PSI#processPredication} for the predication with the given index.
+     * Safe to call from several threads at once.
+     */
+    void processPredication(int pc) {
+      int subjectId = triples.getSubjectId(pc);
+      int predicateId = triples.getPredicateId(pc);
+      int objectId = triples.getObjectId(pc);
+
+      if (elementalConceptVectors[objectId] == null
+          || elementalConceptVectors[subjectId] == null
+          || predicateVectorsById[predicateId] == null) {
+        logger.info("skipping predication " + triples.getConcept(subjectId) + " "
+            + triples.getPredicate(predicateId) + " " + triples.getConcept(objectId));
+        return;
+      }
+
+      float pWeight = luceneUtils.getLocalTermWeight(triples.getCount(pc));
+
+      ConcurrentSuperposition.superposeBound(flagConfig.concurrentsuperposition(),
+          semanticConceptVectors[subjectId], elementalConceptVectors[objectId],
+          predicateVectorsById[predicateId], pWeight * objectWeights[objectId]);
+
+      ConcurrentSuperposition.superposeBound(flagConfig.concurrentsuperposition(),
+          semanticConceptVectors[objectId], elementalConceptVectors[subjectId],
+          inversePredicateVectorsById[predicateId], pWeight * subjectWeights[subjectId]);
+    }
+  }
+
+  /**
+   * Creates a pool of {@link FlagConfig#numthreads()} threads with a bounded queue of batches,
+   * after preparing the semantic vectors to be added to by several threads.
+   */
+  private ThreadPoolExecutor createWorkers() {
+    Enumeration<ObjectVector> semanticVectors = semanticItemVectors.getAllVectors();
+    while (semanticVectors.hasMoreElements()) {
+      ConcurrentSuperposition.prepareTarget(
+          flagConfig.concurrentsuperposition(), semanticVectors.nextElement().getVector());
+    }
+    return new ThreadPoolExecutor(
+        flagConfig.numthreads(), flagConfig.numthreads(), 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_PENDING_BATCHES), new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Waits for all the batches given to the workers to finish, and rethrows the first exception
+   * thrown by any of them.
+   */
+  private void finishWorkers(ThreadPoolExecutor workers, AtomicReference<Exception> failure)
+      throws IOException {
+    try {
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing predications.", e);
+    } finally {
+      workers.shutdownNow();
+    }
+
+    Exception e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e != null) {
+      throw (RuntimeException) e;
+    }
+  }
+
+  /** Processes a batch of predications, recording the first exception thrown by any batch. */
+  private abstract static class PredicationBatch implements Runnable {
+    private final AtomicReference<Exception> failure;
+
+    PredicationBatch(AtomicReference<Exception> failure) {
+      this.failure = failure;
+    }
+
+    abstract void processBatch() throws IOException;
+
+    @Override
+    public void run() {
+      try {
+        processBatch();
+      } catch (IOException | RuntimeException e) {
+        failure.compareAndSet(null, e);
+      }
+    }
+  }
+
+  /** A batch of predications given by their terms in the "predication" field. */
+  private class TermBatch extends PredicationBatch {
+    private final List<Term> predications;
+
+    TermBatch(List<Term> predications, AtomicReference<Exception> failure) {
+      super(failure);
+      this.predications = predications;
+    }
+
+    @Override
+    void processBatch() throws IOException {
+      for (Term term : predications) {
+        processPredication(term);
+      }
+    }
+  }
+
+  /** A batch of predications given by a range of indexes into {@link IndexedPredications}. */
+  private static class TripleBatch extends PredicationBatch {
+    private final IndexedPredications predications;
+    private final int start;
+    private final int end;
+
+    TripleBatch(IndexedPredications predications, int start, int end,
+        AtomicReference<Exception> failure) {
+      super(failure);
+      this.predications = predications;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    void processBatch() {
+      for (int pc = start; pc < end; ++pc) {
+        predications.processPredication(pc);
+      }
+    }
+  }
+
   public static void main(String[] args) throws IllegalArgumentException, IOException {
     FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
     args = flagConfig.remainingArgs;
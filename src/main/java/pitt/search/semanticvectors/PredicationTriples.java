@@ -0,0 +1,302 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * The distinct predications (subject, predicate, object triples) used to build a {@link PSI}
+ * model, with concepts and predicates replaced by dense integer IDs.
+ *
+ * <p>
+ * This lets {@link PSI} read all the predications in one sequential pass over a compact file,
+ * instead of looking up the stored fields of a Lucene document for every predication, and
+ * address its vectors by ID rather than by string. The file is written as a side output by
+ * {@link pitt.search.lucene.LuceneIndexFromTriples} when {@link FlagConfig#triplesfile()} is set.
+ *
+ * <p>
+ * The file format is a version header, the path of the triples text file the predications were
+ * read from, the total number of predications read counting repeats, the concept strings in ID
+ * order, the predicate strings in ID order, the number of distinct predications, and then four
+ * columns of that length: subject IDs, predicate IDs, object IDs, and the number of times each
+ * predication occurred. Since each predication read is also indexed as a Lucene document, the
+ * total number of predications lets {@link PSI} check that the file goes with its index.
+ */
+public class PredicationTriples {
+
+  /** Header written at the start of the file, used to check that the format is as expected. */
+  public static final String HEADER = "-predicationtriples 2";
+
+  private final String sourceFile;
+  private final long numOccurrences;
+  private final String[] concepts;
+  private final String[] predicates;
+  private final int[] subjectIds;
+  private final int[] predicateIds;
+  private final int[] objectIds;
+  private final int[] counts;
+
+  private PredicationTriples(String sourceFile, String[] concepts, String[] predicates,
+      int[] subjectIds, int[] predicateIds, int[] objectIds, int[] counts) {
+    this.sourceFile = sourceFile;
+    long total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+    this.numOccurrences = total;
+    this.concepts = concepts;
+    this.predicates = predicates;
+    this.subjectIds = subjectIds;
+    this.predicateIds = predicateIds;
+    this.objectIds = objectIds;
+    this.counts = counts;
+  }
+
+  /** Returns the path of the triples text file the predications were read from, or "" if unknown. */
+  public String getSourceFile() { return sourceFile; }
+
+  /**
+   * Returns the total number of predications read, counting repeats. This is the number of
+   * documents in the Lucene index built from the same triples text file.
+   */
+  public long getNumOccurrences() { return numOccurrences; }
+
+  /** Returns the number of concepts, which are numbered from 0. */
+  public int getNumConcepts() { return concepts.length; }
+
+  /** Returns the concept with the given ID. */
+  public String getConcept(int conceptId) { return concepts[conceptId]; }
+
+  /** Returns the number of predicates, which are numbered from 0. */
+  public int getNumPredicates() { return predicates.length; }
+
+  /** Returns the predicate with the given ID. */
+  public String getPredicate(int predicateId) { return predicates[predicateId]; }
+
+  /** Returns the number of distinct predications. */
+  public int getNumPredications() { return subjectIds.length; }
+
+  /** Returns the concept ID of the subject of the given predication. */
+  public int getSubjectId(int predication) { return subjectIds[predication]; }
+
+  /** Returns the predicate ID of the given predication. */
+  public int getPredicateId(int predication) { return predicateIds[predication]; }
+
+  /** Returns the concept ID of the object of the given predication. */
+  public int getObjectId(int predication) { return objectIds[predication]; }
+
+  /** Returns the number of times the given predication occurred. */
+  public int getCount(int predication) { return counts[predication]; }
+
+  /**
+   * Collects predications one at a time, assigning IDs to concepts and predicates in the order
+   * they are first seen. Predications are distinct if the concatenation of their subject,
+   * predicate and object is distinct, matching the "predication" field of the Lucene index.
+   */
+  public static class Builder {
+    private final String sourceFile;
+    private final Map<String, Integer> conceptIds = new HashMap<String, Integer>();
+    private final Map<String, Integer> predicateIds = new HashMap<String, Integer>();
+    private final Map<String, Integer> predicationIndexes = new HashMap<String, Integer>();
+    private int[] subjectIds = new int[1024];
+    private int[] predicateIdColumn = new int[1024];
+    private int[] objectIds = new int[1024];
+    private int[] counts = new int[1024];
+    private int numPredications = 0;
+
+    /** Creates a builder for predications whose source is not recorded. */
+    public Builder() {
+      this("");
+    }
+
+    /** Creates a builder for predications read from the given triples text file. */
+    public Builder(String sourceFile) {
+      this.sourceFile = sourceFile;
+    }
+
+    /** Adds one occurrence of the given predication. */
+    public void add(String subject, String predicate, String object) {
+      String predication = subject + predicate + object;
+      Integer index = predicationIndexes.get(predication);
+      if (index != null) {
+        ++counts[index];
+        return;
+      }
+      if (numPredications == subjectIds.length) {
+        int newLength = 2 * numPredications;
+        subjectIds = Arrays.copyOf(subjectIds, newLength);
+        predicateIdColumn = Arrays.copyOf(predicateIdColumn, newLength);
+        objectIds = Arrays.copyOf(objectIds, newLength);
+        counts = Arrays.copyOf(counts, newLength);
+      }
+      predicationIndexes.put(predication, numPredications);
+      subjectIds[numPredications] = getId(conceptIds, subject);
+      predicateIdColumn[numPredications] = getId(predicateIds, predicate);
+      objectIds[numPredications] = getId(conceptIds, object);
+      counts[numPredications] = 1;
+      ++numPredications;
+    }
+
+    /** Returns the predications added so far. */
+    public PredicationTriples build() {
+      return new PredicationTriples(sourceFile, toArray(conceptIds), toArray(predicateIds),
+          Arrays.copyOf(subjectIds, numPredications), Arrays.copyOf(predicateIdColumn, numPredications),
+          Arrays.copyOf(objectIds, numPredications), Arrays.copyOf(counts, numPredications));
+    }
+
+    private static int getId(Map<String, Integer> ids, String string) {
+      Integer id = ids.get(string);
+      if (id == null) {
+        id = ids.size();
+        ids.put(string, id);
+      }
+      return id;
+    }
+
+    private static String[] toArray(Map<String, Integer> ids) {
+      String[] strings = new String[ids.size()];
+      for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+        strings[entry.getValue()] = entry.getKey();
+      }
+      return strings;
+    }
+  }
+
+  /** Writes the predications to the named file. */
+  public void writeToFile(String fileName) throws IOException {
+    File file = new File(fileName);
+    FSDirectory directory = openParentDirectory(file);
+    IndexOutput outputStream = directory.createOutput(file.getName(), IOContext.DEFAULT);
+    try {
+      outputStream.writeString(HEADER);
+      outputStream.writeString(sourceFile);
+      outputStream.writeVLong(numOccurrences);
+      writeStrings(outputStream, concepts);
+      writeStrings(outputStream, predicates);
+      outputStream.writeVInt(getNumPredications());
+      writeColumn(outputStream, subjectIds);
+      writeColumn(outputStream, predicateIds);
+      writeColumn(outputStream, objectIds);
+      writeColumn(outputStream, counts);
+    } finally {
+      outputStream.close();
+      directory.close();
+    }
+  }
+
+  /**
+   * Reads the predications from the named file.
+   *
+   * @throws IOException if the file cannot be read, does not start with {@link #HEADER}, or
+   *     its counts do not add up to the total number of predications recorded in it
+   */
+  public static PredicationTriples readFromFile(String fileName) throws IOException {
+    File file = new File(fileName);
+    FSDirectory directory = openParentDirectory(file);
+    IndexInput inputStream = directory.openInput(file.getName(), IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      if (!header.equals(HEADER)) {
+        throw new IOException("File '" + fileName + "' is not a predication triples file, "
+            + "or was written by a different version: header is '" + header + "'.");
+      }
+      String sourceFile = inputStream.readString();
+      long numOccurrences = inputStream.readVLong();
+      String[] concepts = readStrings(inputStream);
+      String[] predicates = readStrings(inputStream);
+      int numPredications = inputStream.readVInt();
+      int[] subjectIds = readColumn(inputStream, numPredications);
+      int[] predicateIds = readColumn(inputStream, numPredications);
+      int[] objectIds = readColumn(inputStream, numPredications);
+      int[] counts = readColumn(inputStream, numPredications);
+      PredicationTriples triples = new PredicationTriples(
+          sourceFile, concepts, predicates, subjectIds, predicateIds, objectIds, counts);
+      if (triples.getNumOccurrences() != numOccurrences) {
+        throw new IOException("File '" + fileName + "' is corrupt: it records " + numOccurrences
+            + " predications but its counts add up to " + triples.getNumOccurrences() + ".");
+      }
+      return triples;
+    } finally {
+      inputStream.close();
+      directory.close();
+    }
+  }
+
+  private static FSDirectory openParentDirectory(File file) throws IOException {
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    return FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+  }
+
+  private static void writeStrings(IndexOutput outputStream, String[] strings) throws IOException {
+    outputStream.writeVInt(strings.length);
+    for (String string : strings) {
+      outputStream.writeString(string);
+    }
+  }
+
+  private static String[] readStrings(IndexInput inputStream) throws IOException {
+    String[] strings = new String[inputStream.readVInt()];
+    for (int i = 0; i < strings.length; ++i) {
+      strings[i] = inputStream.readString();
+    }
+    return strings;
+  }
+
+  private static void writeColumn(IndexOutput outputStream, int[] column) throws IOException {
+    for (int value : column) {
+      outputStream.writeVInt(value);
+    }
+  }
+
+  private static int[] readColumn(IndexInput inputStream, int length) throws IOException {
+    int[] column = new int[length];
+    for (int i = 0; i < length; ++i) {
+      column[i] = inputStream.readVInt();
+    }
+    return column;
+  }
+}
@@ -0,0 +1,88 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * A vector store whose entries are numbered 0 to {@code getNumVectors() - 1}, and which
+ * can score a range of its entries against a query vector without creating an
+ * {@link ObjectVector} for each one.
+ *
+ * <p>
+ * {@link VectorSearcher} uses this interface to scan such stores directly whenever its
+ * scoring function is just the overlap with a single query vector.
+ */
+public interface RandomAccessVectorStore extends VectorStore {
+
+  /**
+   * Returns the object (usually a String) stored at the given position.
+   */
+  public Object getObjectAt(int index);
+
+  /**
+   * Returns the vector stored at the given position.
+   */
+  public Vector getVectorAt(int index);
+
+  /**
+   * Measures the overlap of the query vector with each of the vectors from
+   * {@code fromIndex} (inclusive) to {@code toIndex} (exclusive), writing the results to
+   * {@code scores[0]} to {@code scores[toIndex - fromIndex - 1]}. Each score must be the
+   * same as {@code queryVector.measureOverlap(getVectorAt(i))}.
+   */
+  public void measureOverlaps(Vector queryVector, int fromIndex, int toIndex, double[] scores);
+
+  /**
+   * Returns a scorer for the query vector, which does any work that depends only on the query
+   * once rather than on every call to {@link OverlapScorer#measureOverlaps}. Searches get one
+   * scorer for each query and use it for every block of the store they score.
+   */
+  public OverlapScorer getOverlapScorer(Vector queryVector);
+
+  /**
+   * Scores a single query vector against ranges of a {@link RandomAccessVectorStore}.
+   * Once it has scored a range, a scorer may be used from several threads at once.
+   */
+  public interface OverlapScorer {
+    /**
+     * Measures the overlap of the query vector with each of the vectors from
+     * {@code fromIndex} (inclusive) to {@code toIndex} (exclusive), as in
+     * {@link RandomAccessVectorStore#measureOverlaps}.
+     */
+    public void measureOverlaps(int fromIndex, int toIndex, double[] scores);
+  }
+}
@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
+import pitt.search.semanticvectors.NearestNeighborIndex.IndexType;
 import pitt.search.semanticvectors.utils.PsiUtils;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.BinaryVector;
@@ -402,6 +403,18 @@ public class Search {
       return new LinkedList<>();
     }
 
+    if (flagConfig.annindex() != IndexType.NONE && searchVecReader != null) {
+      String searchFileName = (searchVecReader == queryVecReader)
+          ? flagConfig.queryvectorfile() : flagConfig.searchvectorfile();
+      try {
+        vecSearcher.setNearestNeighborIndex(
+            NearestNeighborIndex.openIndex(searchFileName, searchVecReader, flagConfig));
+      } catch (IOException e) {
+        logger.warning("Couldn't open nearest neighbor index for " + searchFileName
+            + ". Will continue with exhaustive search.");
+      }
+    }
+
     results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
 
     // Optional: Release filesystem resources. Temporarily removed because of errors in
@@ -43,6 +43,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.lucene.analysis.TokenStream;
@@ -167,6 +168,9 @@ public class SearchBatch {
 
   private static LuceneUtils luceneUtils;
 
+  /** Maximum number of queries searched together, see {@link VectorSearcher#getNearestNeighbors(List, int)}. */
+  private static final int QUERY_BATCH_SIZE = 1024;
+
   public static String usageMessage = "\nSearch class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.Search [-queryvectorfile query_vector_file]"
       + "\n                                               [-searchvectorfile search_vector_file]"
@@ -256,8 +260,7 @@ public class SearchBatch {
         			else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         		}
         		else 
-        		{queryVecReader = new VectorStoreRAM(flagConfig);
-        	((VectorStoreRAM) queryVecReader).initFromFile(flagConfig.queryvectorfile());
+        		{queryVecReader = VectorStoreDenseMatrix.readFromFile(flagConfig, flagConfig.queryvectorfile());
         		}
         	}
       
@@ -277,8 +280,7 @@ public class SearchBatch {
         searchVecReader = queryVecReader;
       } else {
         VerbatimLogger.info("Opening search vector store from file: " + flagConfig.searchvectorfile() + "\n");
-        searchVecReader = new VectorStoreRAM(flagConfig);
-        ((VectorStoreRAM) searchVecReader).initFromFile(flagConfig.searchvectorfile());
+        searchVecReader = VectorStoreDenseMatrix.readFromFile(flagConfig, flagConfig.searchvectorfile());
 
       }
 
@@ -299,6 +301,7 @@ public class SearchBatch {
 		BufferedReader queryReader = new BufferedReader(new FileReader(new File(queryArgs[0])));
 		String queryString = queryReader.readLine();
 		int qcnt = 0;
+		List<VectorSearcher> pendingSearchers = new ArrayList<VectorSearcher>();
 		
 	while (queryString != null)
 	{
@@ -333,7 +336,6 @@ public class SearchBatch {
     // Stage iii. Perform search according to which searchType was selected.
     // Most options have corresponding dedicated VectorSearcher subclasses.
     VectorSearcher vecSearcher = null;
-    LinkedList<SearchResult> results;
     VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype() + "\n");
 
     try {
@@ -408,16 +410,71 @@ public class SearchBatch {
       logger.info(zve.getMessage());
         }
 
-    results = new LinkedList<SearchResult>();
-    
+    // Searches are run in batches, so that each pass through the search store serves many queries.
+    pendingSearchers.add(vecSearcher);
+    queryString = queryReader.readLine();
+    if (pendingSearchers.size() == QUERY_BATCH_SIZE || queryString == null) {
+      printBatchResults(pendingSearchers, qcnt - pendingSearchers.size() + 1, flagConfig);
+      pendingSearchers.clear();
+    }
+	}
+    queryReader.close();
+    }
+    catch (FileNotFoundException e1) {
+ 		// TODO Auto-generated catch block
+ 		e1.printStackTrace();
+ 	} catch (IOException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	}
+   
+
+  
+
+  }
+
+
+
+  /**
+   * Searches for each of the searchers together, using
+   * {@link VectorSearcher#getNearestNeighbors(List, int)}, and prints out the results.
+   * Null searchers (for queries that could not be built) have no results.
+   * @param firstQueryNumber the number of the query for the first searcher, counting from 1
+   */
+  private static void printBatchResults(
+      List<VectorSearcher> searchers, int firstQueryNumber, FlagConfig flagConfig) {
+    List<VectorSearcher> validSearchers = new ArrayList<VectorSearcher>();
+    for (VectorSearcher searcher : searchers) {
+      if (searcher != null) validSearchers.add(searcher);
+    }
+    List<LinkedList<SearchResult>> batchResults = null;
     try {
-    results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
-    	}
-    catch (Exception e)
-    	{
-    	//no search results returned
-    	}
-    
+      batchResults = VectorSearcher.getNearestNeighbors(validSearchers, flagConfig.numsearchresults());
+    } catch (Exception e) {
+      logger.info("Batch search failed, searching for each query separately: " + e.getMessage());
+    }
+
+    int validIndex = 0;
+    for (int i = 0; i < searchers.size(); ++i) {
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      if (searchers.get(i) != null) {
+        if (batchResults != null) {
+          results = batchResults.get(validIndex);
+        } else {
+          try {
+            results = searchers.get(i).getNearestNeighbors(flagConfig.numsearchresults());
+          }
+          catch (Exception e) {
+            //no search results returned
+          }
+        }
+        ++validIndex;
+      }
+      printResults(results, firstQueryNumber + i, flagConfig);
+    }
+  }
+
+  private static void printResults(LinkedList<SearchResult> results, int qcnt, FlagConfig flagConfig) {
     int cnt = 0;
     // Print out results.
     if (results.size() > 0) {
@@ -441,26 +498,8 @@ public class SearchBatch {
     			  			result.getObjectVector().getObject().toString()));
       									}
     }
-   queryString = queryReader.readLine();
-    
-	}
-    queryReader.close();
-    }
-    catch (FileNotFoundException e1) {
- 		// TODO Auto-generated catch block
- 		e1.printStackTrace();
- 	} catch (IOException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	}
-   
-
-  
-
   }
 
-
-
   /**
    * Takes a user's query, creates a query vector, and searches a vector store.
    * @param args See {@link #usageMessage}
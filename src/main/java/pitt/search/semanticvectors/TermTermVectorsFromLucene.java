@@ -37,8 +37,18 @@ package pitt.search.semanticvectors;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.Term;
@@ -48,7 +58,9 @@ import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.orthography.NumberRepresentation;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ConcurrentSuperposition;
 import pitt.search.semanticvectors.vectors.PermutationUtils;
+import pitt.search.semanticvectors.vectors.RealVectorUtils;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 
@@ -61,6 +73,15 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
  * which saves considerable space for collections with many individual
  * documents.
  *
+ * <p>
+ * If {@link FlagConfig#numthreads()} is greater than 1, documents are processed by that many
+ * threads, each taking the next chunk of documents as it finishes the last. By default each
+ * semantic term vector is locked while it is being added to, so the results are the same as
+ * from a single thread, apart from differences in floating point rounding caused by adding
+ * the same contributions in a different order. With {@code -concurrentsuperposition hogwild},
+ * real and complex term vectors are added to without locking; see
+ * {@link ConcurrentSuperposition.Method#HOGWILD}.
+ *
  * @author Trevor Cohen, Dominic Widdows.
  */
 public class TermTermVectorsFromLucene { //implements VectorStore {
@@ -86,6 +107,26 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
   private LuceneUtils luceneUtils;
   /** Used only with {@link PositionalMethod#PROXIMITY}. */
   private VectorStoreRAM positionalNumberVectors;
+  /**
+   * The vectors in {@link #positionalNumberVectors} indexed by offset from the focus term
+   * plus {@link FlagConfig#windowradius()}. Used only with {@link PositionalMethod#PROXIMITY}.
+   */
+  private Vector[] positionalNumberVectorsByOffset;
+
+  /**
+   * Dense IDs of the terms with semantic vectors, and their semantic and elemental vectors
+   * indexed by ID, so that the sliding window loop needs no string lookups.
+   */
+  private HashMap<String, Integer> termIds;
+  private String[] termsById;
+  private Vector[] semanticVectorsById;
+  private Vector[] elementalVectorsById;
+  /**
+   * Global weight of each term in each of the contents fields, indexed by field number and
+   * term ID, or NaN if not yet looked up. Several threads may look up the same weight at once,
+   * which is harmless since they all get the same value.
+   */
+  private float[][] globalWeightsById;
 
   /**
    * Used to store permutations we'll use in training.  If positional method is one of the
@@ -94,6 +135,9 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
   private int[][] permutationCache;
 
   static final short NONEXISTENT = -1;
+
+  /** Number of documents each thread takes at a time when training with several threads. */
+  private static final int DOCUMENT_CHUNK_SIZE = 100;
   
   /** Returns the semantic (learned) vectors. */
   public VectorStore getSemanticTermVectors() { return this.semanticTermVectors; }
@@ -211,6 +255,8 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     }
 
     this.semanticTermVectors = new VectorStoreRAM(flagConfig);
+    this.termIds = new HashMap<String, Integer>();
+    ArrayList<Vector> semanticVectorList = new ArrayList<Vector>();
 
     // Iterate through an enumeration of terms and allocate initial term vectors.
     // If not retraining, create random elemental vectors as well.
@@ -224,33 +270,52 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
         if (!luceneUtils.termFilter(term)) continue;
 
         tc++;
+        // The same term text in several fields shares a single vector.
+        if (termIds.containsKey(term.text())) continue;
         Vector termVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
         // Place each term vector in the vector store.
         this.semanticTermVectors.putVector(term.text(), termVector);
+        termIds.put(term.text(), semanticVectorList.size());
+        semanticVectorList.add(termVector);
         // Do the same for random index vectors unless retraining with trained term vectors
         if (!retraining) {
           this.elementalTermVectors.getVector(term.text());
         }
       }
     }
+
+    semanticVectorsById = semanticVectorList.toArray(new Vector[semanticVectorList.size()]);
+    termsById = new String[semanticVectorsById.length];
+    elementalVectorsById = new Vector[semanticVectorsById.length];
+    for (Map.Entry<String, Integer> entry : termIds.entrySet()) {
+      termsById[entry.getValue()] = entry.getKey();
+      elementalVectorsById[entry.getValue()] = elementalTermVectors.getVector(entry.getKey());
+    }
+    globalWeightsById = new float[flagConfig.contentsfields().length][semanticVectorsById.length];
+    for (float[] fieldWeights : globalWeightsById) {
+      Arrays.fill(fieldWeights, Float.NaN);
+    }
+    if (flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
+      positionalNumberVectorsByOffset = new Vector[2 * flagConfig.windowradius() + 1];
+      for (int offset = -flagConfig.windowradius(); offset <= flagConfig.windowradius(); ++offset) {
+        if (offset == 0) continue;
+        positionalNumberVectorsByOffset[offset + flagConfig.windowradius()] =
+            positionalNumberVectors.getVector(offset);
+      }
+    }
     VerbatimLogger.info("There are now elemental term vectors for " + tc + " terms (and "
         + luceneUtils.getNumDocs() + " docs).\n");
 
     // Iterate through documents.
     int numdocs = luceneUtils.getNumDocs();
-
-    for (int dc = 0; dc < numdocs; ++dc) {
-      // Output progress counter.
-      if ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0)) {
-        VerbatimLogger.info("Processed " + dc + " documents ... ");
-      }
-
-      for (String field: flagConfig.contentsfields()) {
-        Terms terms = luceneUtils.getTermVector(dc, field);
-        if (terms == null) {VerbatimLogger.severe("No term vector for document "+dc); continue; }
-        processTermPositionVector(terms, field);
+    if (flagConfig.numthreads() > 1) {
+      processDocumentsInParallel(numdocs);
+    } else {
+      for (int dc = 0; dc < numdocs; ++dc) {
+        processDocument(dc);
       }
     }
+    RealVectorUtils.clearSpectrumCache();
 
     VerbatimLogger.info("Created " + semanticTermVectors.getNumVectors() + " term vectors ...\n");
     VerbatimLogger.info("Normalizing term vectors.\n");
@@ -275,6 +340,75 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     }
   }
 
+  /**
+   * Processes the term position vectors of each of the contents fields of the document.
+   */
+  private void processDocument(int dc) throws IOException {
+    // Output progress counter.
+    if ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0)) {
+      VerbatimLogger.info("Processed " + dc + " documents ... ");
+    }
+
+    for (int fieldNum = 0; fieldNum < flagConfig.contentsfields().length; ++fieldNum) {
+      Terms terms = luceneUtils.getTermVector(dc, flagConfig.contentsfields()[fieldNum]);
+      if (terms == null) {VerbatimLogger.severe("No term vector for document "+dc); continue; }
+      processTermPositionVector(terms, fieldNum);
+    }
+  }
+
+  /**
+   * Processes all the documents using {@link FlagConfig#numthreads()} threads, which take
+   * chunks of {@link #DOCUMENT_CHUNK_SIZE} documents at a time until there are none left.
+   */
+  private void processDocumentsInParallel(final int numdocs) throws IOException {
+    VerbatimLogger.info("Processing documents using " + flagConfig.numthreads() + " threads.\n");
+    for (Vector semanticVector : semanticVectorsById) {
+      ConcurrentSuperposition.prepareTarget(flagConfig.concurrentsuperposition(), semanticVector);
+    }
+    final AtomicInteger nextChunkStart = new AtomicInteger(0);
+    ExecutorService executor = Executors.newFixedThreadPool(flagConfig.numthreads());
+    try {
+      List<Future<Void>> workers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < flagConfig.numthreads(); ++i) {
+        workers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            int chunkStart;
+            while ((chunkStart = nextChunkStart.getAndAdd(DOCUMENT_CHUNK_SIZE)) < numdocs) {
+              int chunkEnd = Math.min(numdocs, chunkStart + DOCUMENT_CHUNK_SIZE);
+              for (int dc = chunkStart; dc < chunkEnd; ++dc) {
+                processDocument(dc);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing documents.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Adds the other vector to the focus term's vector, guarding against other threads adding
+   * to it at the same time as set by {@link FlagConfig#concurrentsuperposition()}.
+   */
+  private void superposeIntoTermVector(Vector focusVector, Vector other, float weight, int[] permutation) {
+    ConcurrentSuperposition.superpose(
+        flagConfig.concurrentsuperposition(), focusVector, other, weight, permutation);
+  }
+
   /**
    * For each term, add term index vector
    * for any term occurring within a window of size windowSize such
@@ -289,74 +423,106 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
    * will be referred to as the 'local index' in comments.
    * @throws IOException 
    */
-  private void processTermPositionVector(Terms terms, String field)
+  private void processTermPositionVector(Terms terms, int fieldNum)
       throws ArrayIndexOutOfBoundsException, IOException {
     if (terms == null) return;
 
-    ArrayList<String> localTerms = new ArrayList<String>();
-    ArrayList<Integer> freqs = new ArrayList<Integer>();
-    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
+    // Map each term in the document to a local index, and record the local index at each
+    // position, so that the sliding window only needs array lookups.
+    int[] localTermIds = new int[(int) Math.max(terms.size(), 0)];
+    float[] localWeights = new float[localTermIds.length];
+    int[] positionTerms = new int[16];
+    Arrays.fill(positionTerms, NONEXISTENT);
+    int numPositions = 0;
 
     TermsEnum termsEnum = terms.iterator(null);
     BytesRef text;
     int termcount = 0;
 
     while((text = termsEnum.next()) != null) {
-      String theTerm = text.utf8ToString();
-      if (!semanticTermVectors.containsVector(theTerm)) continue;
+      Integer termId = termIds.get(text.utf8ToString());
+      if (termId == null) continue;
       DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
       if (docsAndPositions == null) return;
       docsAndPositions.nextDoc();
-      freqs.add(docsAndPositions.freq());
-      localTerms.add(theTerm); 
+
+      if (termcount == localTermIds.length) {
+        localTermIds = Arrays.copyOf(localTermIds, 2 * termcount + 1);
+        localWeights = Arrays.copyOf(localWeights, localTermIds.length);
+      }
+      localTermIds[termcount] = termId;
+      localWeights[termcount] = getGlobalTermWeight(fieldNum, termId);
 
       for (int x = 0; x < docsAndPositions.freq(); x++) {
-        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
+        int position = docsAndPositions.nextPosition();
+        if (position >= positionTerms.length) {
+          int oldLength = positionTerms.length;
+          positionTerms = Arrays.copyOf(positionTerms, Math.max(2 * oldLength, position + 1));
+          Arrays.fill(positionTerms, oldLength, positionTerms.length, NONEXISTENT);
+        }
+        if (positionTerms[position] == NONEXISTENT) ++numPositions;
+        positionTerms[position] = termcount;
       }
 
       termcount++;
     }
 
     // Iterate through positions adding index vectors of terms
-    // occurring within window to term vector for focus term
-    for (int focusposn = 0; focusposn < localTermPositions.size(); ++focusposn) {
-      if (localTermPositions.get(focusposn) == null) continue;
-      String focusterm = localTerms.get(localTermPositions.get(focusposn));
+    // occurring within window to term vector for focus term.
+    // As before, only the first numPositions positions are used.
+    for (int focusposn = 0; focusposn < numPositions; ++focusposn) {
+      if (positionTerms[focusposn] == NONEXISTENT) continue;
+      Vector focusVector = semanticVectorsById[localTermIds[positionTerms[focusposn]]];
       int windowstart = Math.max(0, focusposn - flagConfig.windowradius());
-      int windowend = Math.min(focusposn + flagConfig.windowradius(), localTermPositions.size() - 1);
+      int windowend = Math.min(focusposn + flagConfig.windowradius(), numPositions - 1);
 
       for (int cursor = windowstart; cursor <= windowend; cursor++) {
-    	   if (cursor == focusposn) continue;
-        if (localTermPositions.get(cursor) == null) continue;
-        String coterm = localTerms.get(localTermPositions.get(cursor));
-        if (coterm == null) continue;
-        Vector toSuperpose = elementalTermVectors.getVector(coterm);
-        
-        float globalweight = luceneUtils.getGlobalTermWeight(new Term(field, coterm));
- 
+        if (cursor == focusposn) continue;
+        int colocal = positionTerms[cursor];
+        if (colocal == NONEXISTENT) continue;
+        Vector toSuperpose = elementalVectorsById[localTermIds[colocal]];
+        if (toSuperpose == null) continue;
+
+        float globalweight = localWeights[colocal];
+
         // bind to appropriate position vector
         if (flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-            toSuperpose =  elementalTermVectors.getVector(coterm).copy();
-            toSuperpose.bind(positionalNumberVectors.getVector(cursor-focusposn));
-             }
+          ConcurrentSuperposition.superposeBound(flagConfig.concurrentsuperposition(), focusVector,
+              toSuperpose, positionalNumberVectorsByOffset[cursor - focusposn + flagConfig.windowradius()],
+              globalweight);
+          continue;
+        }
 
         // calculate permutation required for either Sahlgren (2008) implementation
         // encoding word order, or encoding direction as in Burgess and Lund's HAL
         if (flagConfig.positionalmethod() == PositionalMethod.BASIC
-            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC
-            	||flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, null);
+            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC) {
+          superposeIntoTermVector(focusVector, toSuperpose, globalweight, null);
         }
         if (flagConfig.positionalmethod() == PositionalMethod.PERMUTATION
             || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC) {
           int[] permutation = permutationCache[cursor - focusposn + flagConfig.windowradius()];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, permutation);
+          superposeIntoTermVector(focusVector, toSuperpose, globalweight, permutation);
         } else if (flagConfig.positionalmethod() == PositionalMethod.DIRECTIONAL) {
           int[] permutation = permutationCache[(int) Math.max(0,Math.signum(cursor - focusposn))];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, permutation);
+          superposeIntoTermVector(focusVector, toSuperpose, globalweight, permutation);
 
            }
       } //end of current sliding window   
     } //end of all sliding windows
   }
+
+  /**
+   * Returns the global weight of the term with the given ID in the contents field with the
+   * given number, looking it up the first time it is needed.
+   */
+  private float getGlobalTermWeight(int fieldNum, int termId) {
+    float weight = globalWeightsById[fieldNum][termId];
+    if (Float.isNaN(weight)) {
+      weight = luceneUtils.getGlobalTermWeight(
+          new Term(flagConfig.contentsfields()[fieldNum], termsById[termId]));
+      globalWeightsById[fieldNum][termId] = weight;
+    }
+    return weight;
+  }
 }
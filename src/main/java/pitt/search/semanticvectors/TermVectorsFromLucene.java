@@ -36,7 +36,13 @@
 package pitt.search.semanticvectors;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +62,13 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
  * representation for the basic document vectors, which saves
  * considerable space for collections with many individual documents.
  *
+ * <p>
+ * If {@link FlagConfig#numthreads()} is greater than 1, the terms and their postings are
+ * enumerated on the calling thread, and the term vectors are superposed and normalized by that
+ * many worker threads. Each term vector is still built by a single thread from postings in the
+ * same order, and the vectors are put into the term vector store in the same order as a serial
+ * run, so the results are the same as from a serial run.
+ *
  * @author Dominic Widdows, Trevor Cohen.
  */
 public class TermVectorsFromLucene {
@@ -67,6 +80,19 @@ public class TermVectorsFromLucene {
   private LuceneUtils luceneUtils;
   private VectorStore elementalDocVectors;
 
+  /** Number of terms that may be waiting for a worker thread when training in parallel. */
+  private static final int MAX_PENDING_TERMS = 1000;
+
+  /** A term whose vector is being trained by a worker thread. */
+  private static class TrainedTerm {
+    final String termText;
+    Vector termVector;
+
+    TrainedTerm(String termText) {
+      this.termText = termText;
+    }
+  }
+
   private TermVectorsFromLucene(FlagConfig flagConfig) throws IOException {
     this.flagConfig = flagConfig;
     // Create LuceneUtils Class to filter terms.
@@ -132,6 +158,12 @@ public class TermVectorsFromLucene {
       VerbatimLogger.info("There are " + tc + " terms (and " + luceneUtils.getNumDocs() + " docs).\n");
     }
 
+    if (flagConfig.numthreads() > 1) {
+      trainTermVectorsInParallel();
+      VerbatimLogger.info("\nCreated " + termVectors.getNumVectors() + " term vectors.\n");
+      return;
+    }
+
     for(String fieldName : flagConfig.contentsfields()) {
       VerbatimLogger.info("Training term vectors for field " + fieldName + "\n");
       int tc = 0;
@@ -166,6 +198,118 @@ public class TermVectorsFromLucene {
     VerbatimLogger.info("\nCreated " + termVectors.getNumVectors() + " term vectors.\n");
   }
 
+  /**
+   * Trains term vectors using {@link FlagConfig#numthreads()} worker threads. The calling thread
+   * enumerates the terms and looks up the elemental vectors of the documents in their postings,
+   * and the workers superpose and normalize each term vector. The calling thread runs a term
+   * itself whenever {@link #MAX_PENDING_TERMS} terms are already waiting, which keeps memory
+   * use bounded. Once all the workers have finished, the vectors are put into
+   * {@link #termVectors} field by field in the order of {@link FlagConfig#contentsfields()},
+   * so that where the same term occurs in several fields, the last field wins as in a serial run.
+   */
+  private void trainTermVectorsInParallel() throws IOException {
+    VerbatimLogger.info("Training term vectors using " + flagConfig.numthreads() + " threads.\n");
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        flagConfig.numthreads(), flagConfig.numthreads(), 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_PENDING_TERMS), new ThreadPoolExecutor.CallerRunsPolicy());
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    // Elemental vectors indexed by Lucene doc number, so that each external doc ID is read
+    // from the stored fields only once.
+    Vector[] elementalVectorsByDocNum = new Vector[luceneUtils.getNumDocs()];
+    // The terms of each field in turn, in the order they were enumerated.
+    List<List<TrainedTerm>> trainedTermsByField = new ArrayList<List<TrainedTerm>>();
+
+    try {
+      for (String fieldName : flagConfig.contentsfields()) {
+        VerbatimLogger.info("Training term vectors for field " + fieldName + "\n");
+        List<TrainedTerm> trainedTerms = new ArrayList<TrainedTerm>();
+        trainedTermsByField.add(trainedTerms);
+        int tc = 0;
+        TermsEnum terms = this.luceneUtils.getTermsForField(fieldName).iterator(null);
+        BytesRef bytes;
+        while ((bytes = terms.next()) != null) {
+          if (failure.get() != null) {
+            throw failure.get();
+          }
+          // Output progress counter.
+          if (( tc % 10000 == 0 ) || ( tc < 10000 && tc % 1000 == 0 )) {
+            VerbatimLogger.info("Processed " + tc + " terms ... ");
+          }
+          tc++;
+
+          Term term = new Term(fieldName, bytes);
+          // Skip terms that don't pass the filter.
+          if (!luceneUtils.termFilter(term)) {
+            continue;
+          }
+
+          final TrainedTerm trainedTerm = new TrainedTerm(term.text());
+          trainedTerms.add(trainedTerm);
+          final Vector[] docVectors = new Vector[terms.docFreq()];
+          final int[] freqs = new int[terms.docFreq()];
+          int numPostings = 0;
+          DocsEnum docsEnum = luceneUtils.getDocsForTerm(term);
+          while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+            docVectors[numPostings] = getElementalDocVector(docsEnum.docID(), elementalVectorsByDocNum);
+            freqs[numPostings] = docsEnum.freq();
+            ++numPostings;
+          }
+          final int finalNumPostings = numPostings;
+
+          workers.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                Vector termVector = VectorFactory.createZeroVector(
+                    flagConfig.vectortype(), flagConfig.dimension());
+                for (int i = 0; i < finalNumPostings; ++i) {
+                  termVector.superpose(docVectors[i], freqs[i], null);
+                }
+                termVector.normalize();
+                trainedTerm.termVector = termVector;
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              }
+            }
+          });
+        }
+      }
+
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while training term vectors.", e);
+    } finally {
+      workers.shutdownNow();
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    // Termination of the workers makes their results visible to this thread.
+    for (List<TrainedTerm> trainedTerms : trainedTermsByField) {
+      for (TrainedTerm trainedTerm : trainedTerms) {
+        ((VectorStoreRAM) termVectors).putVector(trainedTerm.termText, trainedTerm.termVector);
+      }
+    }
+  }
+
+  /**
+   * Returns the elemental vector for the document with the given Lucene doc number, caching it
+   * in {@code elementalVectorsByDocNum} if the doc number is within its range.
+   */
+  private Vector getElementalDocVector(int docNum, Vector[] elementalVectorsByDocNum)
+      throws IOException {
+    if (docNum >= elementalVectorsByDocNum.length) {
+      return elementalDocVectors.getVector(luceneUtils.getExternalDocId(docNum));
+    }
+    if (elementalVectorsByDocNum[docNum] == null) {
+      elementalVectorsByDocNum[docNum] =
+          elementalDocVectors.getVector(luceneUtils.getExternalDocId(docNum));
+    }
+    return elementalVectorsByDocNum[docNum];
+  }
+
   /**
    * Generates an elemental vector for each
    * term. These elemental (random index) vectors will be used to
@@ -0,0 +1,331 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+
+import pitt.search.semanticvectors.LuceneUtils.TermWeight;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+ * The global weights of all the terms in the contents fields that pass the term filter,
+ * computed once up front so that {@link LuceneUtils#getGlobalTermWeight} can look them up
+ * without allocating or locking.
+ *
+ * <p>
+ * For each field, the terms are kept in index order with their weights in a parallel
+ * {@code float[]}, indexed by the term's ordinal in that order. Lookups binary search the
+ * terms, so the table is safe to read from several threads at once.
+ *
+ * <p>
+ * The table can be written to a sidecar file named by {@link FlagConfig#termweightsfile()}
+ * and read back by later runs on the same index. The file records the term weighting method,
+ * the settings of the term filter (see {@link LuceneUtils#getTermFilterSettings}), and the
+ * version and number of documents of the index, and is only used if these all still match.
+ */
+public class TermWeightTable {
+
+  /** Header written at the start of the file, used to check that the format is as expected. */
+  public static final String HEADER = "-termweighttable 2";
+
+  /** Number of terms each thread weights at a time when computing the table. */
+  private static final int TERM_CHUNK_SIZE = 1000;
+
+  private final TermWeight termWeight;
+  private final String termFilterSettings;
+  private final long indexVersion;
+  private final int numDocs;
+  private final String[] fields;
+  /** Terms in each field, in index order. */
+  private final BytesRef[][] terms;
+  /** Weights of the terms in each field, indexed by their ordinal in {@link #terms}. */
+  private final float[][] weights;
+
+  private TermWeightTable(TermWeight termWeight, String termFilterSettings, long indexVersion,
+      int numDocs, String[] fields, BytesRef[][] terms, float[][] weights) {
+    this.termWeight = termWeight;
+    this.termFilterSettings = termFilterSettings;
+    this.indexVersion = indexVersion;
+    this.numDocs = numDocs;
+    this.fields = fields;
+    this.terms = terms;
+    this.weights = weights;
+  }
+
+  /**
+   * Returns the weight of the given term, or NaN if the term is not in the table,
+   * either because it is not in a contents field or because it failed the term filter.
+   */
+  public float getWeight(Term term) {
+    return getWeight(term.field(), term.bytes());
+  }
+
+  /**
+   * Returns the weight of the term with the given bytes in the given field, as
+   * {@link #getWeight(Term)} does, without needing a {@link Term}.
+   */
+  public float getWeight(String field, BytesRef term) {
+    for (int i = 0; i < fields.length; ++i) {
+      if (fields[i].equals(field)) {
+        int ordinal = findOrdinal(terms[i], term);
+        return ordinal < 0 ? Float.NaN : weights[i][ordinal];
+      }
+    }
+    return Float.NaN;
+  }
+
+  /** Returns the total number of terms in the table. */
+  public int getNumTerms() {
+    int numTerms = 0;
+    for (BytesRef[] fieldTerms : terms) {
+      numTerms += fieldTerms.length;
+    }
+    return numTerms;
+  }
+
+  private static int findOrdinal(BytesRef[] fieldTerms, BytesRef term) {
+    int low = 0;
+    int high = fieldTerms.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = fieldTerms[mid].compareTo(term);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Computes the weights of all the terms in {@link FlagConfig#contentsfields()} that pass
+   * {@link LuceneUtils#termFilter}, using {@link FlagConfig#numthreads()} threads.
+   */
+  public static TermWeightTable compute(final LuceneUtils luceneUtils, FlagConfig flagConfig)
+      throws IOException {
+    VerbatimLogger.info("Computing global term weights using " + flagConfig.numthreads() + " threads ... ");
+    List<String> fields = new ArrayList<String>();
+    List<BytesRef[]> terms = new ArrayList<BytesRef[]>();
+    for (String field : flagConfig.contentsfields()) {
+      Terms fieldTerms = luceneUtils.getTermsForFieldOrNull(field);
+      if (fieldTerms == null) continue;
+      List<BytesRef> filteredTerms = new ArrayList<BytesRef>();
+      TermsEnum termsEnum = fieldTerms.iterator(null);
+      BytesRef bytes;
+      while ((bytes = termsEnum.next()) != null) {
+        if (luceneUtils.termFilter(new Term(field, bytes))) {
+          filteredTerms.add(BytesRef.deepCopyOf(bytes));
+        }
+      }
+      fields.add(field);
+      terms.add(filteredTerms.toArray(new BytesRef[filteredTerms.size()]));
+    }
+
+    final float[][] weights = new float[terms.size()][];
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, flagConfig.numthreads()));
+    try {
+      List<Future<Void>> chunks = new ArrayList<Future<Void>>();
+      for (int i = 0; i < terms.size(); ++i) {
+        final String field = fields.get(i);
+        final BytesRef[] fieldTerms = terms.get(i);
+        final float[] fieldWeights = new float[fieldTerms.length];
+        weights[i] = fieldWeights;
+        for (int chunkStart = 0; chunkStart < fieldTerms.length; chunkStart += TERM_CHUNK_SIZE) {
+          final int start = chunkStart;
+          final int end = Math.min(fieldTerms.length, chunkStart + TERM_CHUNK_SIZE);
+          chunks.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+              for (int ordinal = start; ordinal < end; ++ordinal) {
+                fieldWeights[ordinal] =
+                    luceneUtils.computeGlobalTermWeight(new Term(field, fieldTerms[ordinal]));
+              }
+              return null;
+            }
+          }));
+        }
+      }
+      for (Future<Void> chunk : chunks) {
+        chunk.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing term weights.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    TermWeightTable table = new TermWeightTable(flagConfig.termweight(),
+        luceneUtils.getTermFilterSettings(), luceneUtils.getIndexVersion(), luceneUtils.getNumDocs(),
+        fields.toArray(new String[fields.size()]), terms.toArray(new BytesRef[terms.size()][]), weights);
+    VerbatimLogger.info("computed weights for " + table.getNumTerms() + " terms.\n");
+    return table;
+  }
+
+  /**
+   * Reads the table from {@link FlagConfig#termweightsfile()} if it exists and matches the
+   * index, weighting method and term filter, otherwise computes it and writes it to that file.
+   */
+  public static TermWeightTable readOrCompute(LuceneUtils luceneUtils, FlagConfig flagConfig)
+      throws IOException {
+    File file = new File(flagConfig.termweightsfile());
+    if (file.isFile()) {
+      try {
+        TermWeightTable table = readFromFile(file.getPath());
+        if (table.termWeight == flagConfig.termweight()
+            && table.termFilterSettings.equals(luceneUtils.getTermFilterSettings())
+            && table.indexVersion == luceneUtils.getIndexVersion()
+            && table.numDocs == luceneUtils.getNumDocs()) {
+          VerbatimLogger.info("Read global weights for " + table.getNumTerms() + " terms from "
+              + file.getPath() + "\n");
+          return table;
+        }
+        VerbatimLogger.info("Term weights in " + file.getPath() + " are for a different index, "
+            + "weighting method or term filter, recomputing.\n");
+      } catch (IOException e) {
+        // For example, a table written by an earlier version.
+        VerbatimLogger.info("Cannot read term weights from " + file.getPath() + ", recomputing: "
+            + e.getMessage() + "\n");
+      }
+    }
+    TermWeightTable table = compute(luceneUtils, flagConfig);
+    table.writeToFile(file.getPath());
+    return table;
+  }
+
+  /** Writes the table to the named file. */
+  public void writeToFile(String fileName) throws IOException {
+    File file = new File(fileName);
+    Files.deleteIfExists(file.toPath());
+    FSDirectory directory = openParentDirectory(file);
+    IndexOutput outputStream = directory.createOutput(file.getName(), IOContext.DEFAULT);
+    try {
+      outputStream.writeString(HEADER);
+      outputStream.writeString(termWeight.toString());
+      outputStream.writeString(termFilterSettings);
+      outputStream.writeVLong(indexVersion);
+      outputStream.writeVInt(numDocs);
+      outputStream.writeVInt(fields.length);
+      for (int i = 0; i < fields.length; ++i) {
+        outputStream.writeString(fields[i]);
+        outputStream.writeVInt(terms[i].length);
+        for (BytesRef term : terms[i]) {
+          outputStream.writeVInt(term.length);
+          outputStream.writeBytes(term.bytes, term.offset, term.length);
+        }
+        for (float weight : weights[i]) {
+          outputStream.writeInt(Float.floatToIntBits(weight));
+        }
+      }
+    } finally {
+      outputStream.close();
+      directory.close();
+    }
+  }
+
+  /**
+   * Reads a table from the named file.
+   *
+   * @throws IOException if the file cannot be read or does not start with {@link #HEADER}
+   */
+  public static TermWeightTable readFromFile(String fileName) throws IOException {
+    File file = new File(fileName);
+    FSDirectory directory = openParentDirectory(file);
+    IndexInput inputStream = directory.openInput(file.getName(), IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      if (!header.equals(HEADER)) {
+        throw new IOException("File '" + fileName + "' is not a term weight table, "
+            + "or was written by a different version: header is '" + header + "'.");
+      }
+      TermWeight termWeight = TermWeight.valueOf(inputStream.readString());
+      String termFilterSettings = inputStream.readString();
+      long indexVersion = inputStream.readVLong();
+      int numDocs = inputStream.readVInt();
+      String[] fields = new String[inputStream.readVInt()];
+      BytesRef[][] terms = new BytesRef[fields.length][];
+      float[][] weights = new float[fields.length][];
+      for (int i = 0; i < fields.length; ++i) {
+        fields[i] = inputStream.readString();
+        terms[i] = new BytesRef[inputStream.readVInt()];
+        for (int j = 0; j < terms[i].length; ++j) {
+          byte[] bytes = new byte[inputStream.readVInt()];
+          inputStream.readBytes(bytes, 0, bytes.length);
+          terms[i][j] = new BytesRef(bytes);
+        }
+        weights[i] = new float[terms[i].length];
+        for (int j = 0; j < weights[i].length; ++j) {
+          weights[i][j] = Float.intBitsToFloat(inputStream.readInt());
+        }
+      }
+      return new TermWeightTable(
+          termWeight, termFilterSettings, indexVersion, numDocs, fields, terms, weights);
+    } finally {
+      inputStream.close();
+      directory.close();
+    }
+  }
+
+  private static FSDirectory openParentDirectory(File file) throws IOException {
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    return FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+  }
+}
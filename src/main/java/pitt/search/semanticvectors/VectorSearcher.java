@@ -45,6 +45,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -60,7 +65,9 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import pitt.search.semanticvectors.LuceneUtils;
+import pitt.search.semanticvectors.RandomAccessVectorStore.OverlapScorer;
 import pitt.search.semanticvectors.VectorStore;
+import pitt.search.semanticvectors.utils.TopKCollector;
 import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
 import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
@@ -81,6 +88,7 @@ abstract public class VectorSearcher {
   private FlagConfig flagConfig;
   private VectorStore searchVecStore;
   private LuceneUtils luceneUtils;
+  private NearestNeighborIndex nearestNeighborIndex;
 
   /**
    * Expand search space for dual-predicate searches
@@ -124,6 +132,17 @@ abstract public class VectorSearcher {
    */
   public abstract double getScore(Vector testVector);
 
+  /**
+   * Returns the query vector if the score given by this searcher is just the overlap of
+   * each test vector with this query vector, and null otherwise. Searchers that return a
+   * query vector here let {@link #getNearestNeighbors} score whole blocks of a
+   * {@link RandomAccessVectorStore} at once, instead of calling {@link #getScore} for each
+   * vector.
+   */
+  public Vector getOverlapQueryVector() {
+    return null;
+  }
+
   /**
    * Performs basic initialization; subclasses should normally call super() to use this.
    * @param queryVecStore Vector store to use for query generation.
@@ -151,76 +170,592 @@ abstract public class VectorSearcher {
    * @param numResults the number of results / length of the result list.
    */
   public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-    final double unsetScore = -Math.PI;
-    final int bufferSize = 1000;
-    final int indexSize = numResults + bufferSize;
+    if (getRerankVectorStore() != null) {
+      return rerank(findNearestNeighbors(getNumCandidates(numResults)), numResults);
+    }
+    return findNearestNeighbors(numResults);
+  }
+
+  private LinkedList<SearchResult> findNearestNeighbors(int numResults) {
+    if (canUseNearestNeighborIndex()) {
+      return getNearestNeighborsFromIndex(numResults);
+    }
+    if (flagConfig.numthreads() > 1) {
+      return getNearestNeighborsInParallel(numResults);
+    }
+    PartialResults results = new PartialResults(numResults);
+    results.scan(getScoredCandidates());
+    return results.toSearchResults();
+  }
+
+  /**
+   * Returns the full precision vectors to re-rank results with if the search store is a
+   * {@link VectorStoreProductQuantized} with {@link FlagConfig#pqrerankvectorfile()} set,
+   * and null otherwise. Results are not re-ranked when {@link FlagConfig#stdev()} is set,
+   * since their scores are then relative to the whole store.
+   */
+  private VectorStore getRerankVectorStore() {
+    if (flagConfig.stdev() || !(searchVecStore instanceof VectorStoreProductQuantized)) {
+      return null;
+    }
+    return ((VectorStoreProductQuantized) searchVecStore).getRerankVectorStore();
+  }
+
+  /** Returns the number of candidates to find for {@code numResults} results. */
+  private int getNumCandidates(int numResults) {
+    return (getRerankVectorStore() == null) ? numResults : Math.max(numResults, flagConfig.pqrerank());
+  }
+
+  /**
+   * Scores the candidates again using their full precision vectors, returning the best
+   * {@code numResults} of them. Candidates missing from the full precision store are dropped.
+   */
+  private LinkedList<SearchResult> rerank(LinkedList<SearchResult> candidates, int numResults) {
+    VectorStore rerankVectorStore = getRerankVectorStore();
+    ArrayList<SearchResult> rescored = new ArrayList<SearchResult>(candidates.size());
+    for (SearchResult candidate : candidates) {
+      Object object = candidate.getObjectVector().getObject();
+      Vector vector = rerankVectorStore.getVector(object);
+      if (vector == null) {
+        logger.fine("No full precision vector for '" + object + "', dropping it from results.");
+        continue;
+      }
+      double score = getScore(vector);
+      if (luceneUtils != null && flagConfig.usetermweightsinsearch()) {
+        score = score * luceneUtils.getGlobalTermWeightFromString(object.toString());
+      }
+      if (score > flagConfig.searchresultsminscore()) {
+        rescored.add(new SearchResult(score, new ObjectVector(object, vector)));
+      }
+    }
+    // Stable sort, so ties keep their order from the first pass.
+    Collections.sort(rescored);
+    return new LinkedList<SearchResult>(rescored.subList(0, Math.min(numResults, rescored.size())));
+  }
+
+  /**
+   * Sets an approximate nearest neighbor index over the search vectors, which
+   * {@link #getNearestNeighbors} then uses instead of scanning the whole store.
+   * The index is only used by searchers that have an {@link #getOverlapQueryVector}, and not
+   * for searches that need to score the whole store, that is with {@link FlagConfig#stdev()}
+   * or {@link FlagConfig#usetermweightsinsearch()}.
+   */
+  public void setNearestNeighborIndex(NearestNeighborIndex nearestNeighborIndex) {
+    this.nearestNeighborIndex = nearestNeighborIndex;
+  }
+
+  private boolean canUseNearestNeighborIndex() {
+    return nearestNeighborIndex != null
+        && !flagConfig.stdev()
+        && !(luceneUtils != null && flagConfig.usetermweightsinsearch())
+        && getOverlapQueryVector() != null;
+  }
+
+  private LinkedList<SearchResult> getNearestNeighborsFromIndex(int numResults) {
     LinkedList<SearchResult> results = new LinkedList<SearchResult>();
-    List<SearchResult> tmpResults = new ArrayList<SearchResult>(indexSize);
-    double score = -1;
-    double threshold = flagConfig.searchresultsminscore();
-    if (flagConfig.stdev()) threshold = 0;
-    //Counters for statistics to calculate standard deviation
-    double sum=0, sumsquared=0;
-    int count=0;
-    int pos = 0;
-    for(int i=0; i < indexSize; i++)
-    {
-      tmpResults.add(new SearchResult(unsetScore, null));
+    for (SearchResult result : nearestNeighborIndex.getNearestNeighbors(getOverlapQueryVector(), numResults)) {
+      if (result.getScore() > flagConfig.searchresultsminscore()) {
+        results.add(result);
+      }
     }
+    return results;
+  }
 
-    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
-    while (vecEnum.hasMoreElements()) {
-      // Test this element.
-      ObjectVector testElement = vecEnum.nextElement();
-      score = getScore(testElement.getVector());
-
-      // This is a way of using the Lucene Index to get term and
-      // document frequency information to reweight all results. It
-      // seems to be good at moving excessively common terms further
-      // down the results. Note that using this means that scores
-      // returned are no longer just cosine similarities.
-      if (this.luceneUtils != null && flagConfig.usetermweightsinsearch()) {
-        score = score *
-            luceneUtils.getGlobalTermWeightFromString((String) testElement.getObject());
+  /**
+   * Parallel version of {@link #getNearestNeighbors}, used when {@link FlagConfig#numthreads()}
+   * is greater than 1. The search store is split into chunks which are scored on a
+   * {@link ForkJoinPool}, each task keeping its own best results and statistics, and these
+   * are merged at the end. Results are the same as for the serial search.
+   *
+   * <p>
+   * The first candidate is scored on the calling thread before any tasks start, so that
+   * any lazy conversion of the query representation in {@link #getScore} happens only once.
+   * Beyond that, {@link #getScore} must be safe to call from several threads at once.
+   */
+  private LinkedList<SearchResult> getNearestNeighborsInParallel(int numResults) {
+    ForkJoinPool pool = getSearchPool(flagConfig.numthreads());
+    PartialResults results = new PartialResults(numResults);
+    Vector overlapQueryVector = getOverlapQueryVector();
+    if (overlapQueryVector != null && searchVecStore instanceof RandomAccessVectorStore) {
+      RandomAccessVectorStore randomAccessStore = (RandomAccessVectorStore) searchVecStore;
+      int numVectors = randomAccessStore.getNumVectors();
+      if (numVectors > 0) {
+        OverlapScorer scorer = randomAccessStore.getOverlapScorer(overlapQueryVector);
+        scorer.measureOverlaps(0, 1, new double[1]);
+        results = pool.invoke(new RangeScanTask(randomAccessStore, scorer, 0, numVectors, numResults));
       }
+    } else {
+      // Read blocks of vectors on this thread and hand them out to the pool, keeping a
+      // bounded number of blocks in flight so that stores on disk are not read into memory.
+      Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+      LinkedList<ForkJoinTask<PartialResults>> pendingTasks = new LinkedList<ForkJoinTask<PartialResults>>();
+      int blockStart = 0;
+      while (vecEnum.hasMoreElements()) {
+        List<ObjectVector> block = new ArrayList<ObjectVector>(PARALLEL_CHUNK_SIZE);
+        while (vecEnum.hasMoreElements() && block.size() < PARALLEL_CHUNK_SIZE) {
+          block.add(vecEnum.nextElement());
+        }
+        if (blockStart == 0) {
+          getScore(block.get(0).getVector());
+        }
+        pendingTasks.add(pool.submit(new BlockScanTask(block, blockStart, numResults)));
+        blockStart += block.size();
+        if (pendingTasks.size() > 2 * flagConfig.numthreads()) {
+          results.merge(pendingTasks.removeFirst().join());
+        }
+      }
+      for (ForkJoinTask<PartialResults> task : pendingTasks) {
+        results.merge(task.join());
+      }
+    }
+    return results.toSearchResults();
+  }
 
-      if (flagConfig.stdev()) {
-        count++;
-        sum += score;
-        sumsquared += Math.pow(score, 2);
+  /** Number of vectors scored by each task in a parallel search. */
+  private static final int PARALLEL_CHUNK_SIZE = 4096;
+
+  /**
+   * Shared pools for parallel searches, one for each number of threads asked for. Pools are
+   * never shut down, since searches started by other callers may still be using them.
+   */
+  private static final ConcurrentHashMap<Integer, ForkJoinPool> searchPools =
+      new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+  /** Returns a shared pool with the given number of threads for parallel searches. */
+  private static ForkJoinPool getSearchPool(int numThreads) {
+    ForkJoinPool pool = searchPools.get(numThreads);
+    if (pool == null) {
+      ForkJoinPool newPool = new ForkJoinPool(numThreads);
+      pool = searchPools.putIfAbsent(numThreads, newPool);
+      if (pool == null) {
+        pool = newPool;
+      } else {
+        newPool.shutdown();
       }
+    }
+    return pool;
+  }
 
-      if (score > threshold) {
-        // set existing object in buffer space
-        tmpResults.get(numResults+pos++).set(score, testElement);
+  /**
+   * The best results from all or part of a search, along with the counts needed
+   * by {@link #transformToStats}.
+   */
+  private class PartialResults {
+    final TopKCollector bestResults;
+    int count = 0;
+    double sum = 0, sumsquared = 0;
+
+    PartialResults(int numResults) {
+      this.bestResults = new TopKCollector(
+          numResults, flagConfig.stdev() ? 0 : flagConfig.searchresultsminscore());
+    }
+
+    /**
+     * Scores all the candidates, keeping the best. Candidates from random access stores
+     * are kept without a payload, and their vectors are only read in {@link #toSearchResults}.
+     */
+    void scan(ScoredCandidates candidates) {
+      while (candidates.next()) {
+        // Test this element.
+        double score = candidates.score();
+
+        // This is a way of using the Lucene Index to get term and
+        // document frequency information to reweight all results. It
+        // seems to be good at moving excessively common terms further
+        // down the results. Note that using this means that scores
+        // returned are no longer just cosine similarities.
+        if (luceneUtils != null && flagConfig.usetermweightsinsearch()) {
+          score = score * luceneUtils.getGlobalTermWeightFromString((String) candidates.object());
+        }
+
+        if (flagConfig.stdev()) {
+          count++;
+          sum += score;
+          sumsquared += Math.pow(score, 2);
+        }
+
+        if (score > bestResults.getThreshold()) {
+          bestResults.offer(score, candidates.index(), candidates.payload());
+        }
       }
+    }
 
-      if(pos == bufferSize)
-      {
-        pos = 0;
-        Collections.sort(tmpResults);
-        threshold = tmpResults.get(indexSize - 1).getScore();
+    void merge(PartialResults other) {
+      count += other.count;
+      sum += other.sum;
+      sumsquared += other.sumsquared;
+      bestResults.merge(other.bestResults);
+    }
+
+    LinkedList<SearchResult> toSearchResults() {
+      bestResults.sortDescending();
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      for (int i = 0; i < bestResults.size(); ++i) {
+        ObjectVector objectVector = (ObjectVector) bestResults.getPayload(i);
+        if (objectVector == null) {
+          RandomAccessVectorStore randomAccessStore = (RandomAccessVectorStore) searchVecStore;
+          int index = bestResults.getIndex(i);
+          objectVector = new ObjectVector(randomAccessStore.getObjectAt(index), randomAccessStore.getVectorAt(index));
+        }
+        results.add(new SearchResult(bestResults.getScore(i), objectVector));
       }
+      if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+      return results;
     }
-    
-    Collections.sort(tmpResults);
-    
-    for(int i = 0; i < numResults; i++)
-    {
-      SearchResult sr = tmpResults.get(i);
-      if(sr.getScore() == unsetScore)
-      {
-        break;
+  }
+
+  /** Scores a range of a random access store, splitting it into smaller ranges as needed. */
+  private class RangeScanTask extends RecursiveTask<PartialResults> {
+    private static final long serialVersionUID = 1L;
+    private final RandomAccessVectorStore store;
+    private final OverlapScorer scorer;
+    private final int fromIndex, toIndex, numResults;
+
+    RangeScanTask(RandomAccessVectorStore store, OverlapScorer scorer, int fromIndex, int toIndex, int numResults) {
+      this.store = store;
+      this.scorer = scorer;
+      this.fromIndex = fromIndex;
+      this.toIndex = toIndex;
+      this.numResults = numResults;
+    }
+
+    @Override
+    protected PartialResults compute() {
+      if (toIndex - fromIndex > PARALLEL_CHUNK_SIZE) {
+        int middle = (fromIndex + toIndex) >>> 1;
+        RangeScanTask left = new RangeScanTask(store, scorer, fromIndex, middle, numResults);
+        left.fork();
+        PartialResults results =
+            new RangeScanTask(store, scorer, middle, toIndex, numResults).compute();
+        results.merge(left.join());
+        return results;
       }
-      results.add(sr);
+      PartialResults results = new PartialResults(numResults);
+      results.scan(new RandomAccessCandidates(store, scorer, fromIndex, toIndex));
+      return results;
     }
-    
-    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+  }
 
-    
+  /** Scores a block of vectors read from the search store's enumeration. */
+  private class BlockScanTask extends RecursiveTask<PartialResults> {
+    private static final long serialVersionUID = 1L;
+    private final List<ObjectVector> block;
+    private final int blockStart;
+    private final int numResults;
+
+    BlockScanTask(List<ObjectVector> block, int blockStart, int numResults) {
+      this.block = block;
+      this.blockStart = blockStart;
+      this.numResults = numResults;
+    }
+
+    @Override
+    protected PartialResults compute() {
+      PartialResults results = new PartialResults(numResults);
+      results.scan(new EnumerationCandidates(Collections.enumeration(block), blockStart));
+      return results;
+    }
+  }
+
+  /** Number of queries scored together against each block of the store in a batch search. */
+  private static final int BATCH_QUERY_BLOCK_SIZE = 64;
+
+  /** Number of store vectors scored together against each block of queries in a batch search. */
+  private static final int BATCH_STORE_BLOCK_SIZE = 1024;
+
+  /**
+   * Runs the searches for several searchers together, returning a list of results for each
+   * searcher in the same order. The results are the same as calling
+   * {@link #getNearestNeighbors(int)} for each searcher in turn.
+   *
+   * <p>
+   * Searchers that search the same vector store as the first one are batched: the store is
+   * read in blocks, and each block is scored against a block of queries at a time, so that
+   * both stay in cache. A {@link RandomAccessVectorStore} is scanned once per block of
+   * {@link #BATCH_QUERY_BLOCK_SIZE} queries, and other stores are read only once. If
+   * {@link FlagConfig#numthreads()} is greater than 1 (for the first searcher), blocks of
+   * queries are scored in parallel, each against its own copy of the vectors read from the
+   * store, since scoring may change the representation of the vectors it compares with.
+   * Other searchers are searched one at a time.
+   */
+  public static List<LinkedList<SearchResult>> getNearestNeighbors(
+      List<? extends VectorSearcher> searchers, int numResults) {
+    VectorStore batchStore = null;
+    int numThreads = 1;
+    List<VectorSearcher> batch = new ArrayList<VectorSearcher>();
+    for (VectorSearcher searcher : searchers) {
+      if (batchStore == null && searcher.supportsBatchSearch()) {
+        batchStore = searcher.searchVecStore;
+        numThreads = searcher.flagConfig.numthreads();
+      }
+      if (searcher.supportsBatchSearch() && searcher.searchVecStore == batchStore) {
+        batch.add(searcher);
+      }
+    }
+
+    PartialResults[] partialResults = new PartialResults[batch.size()];
+    for (int i = 0; i < batch.size(); ++i) {
+      partialResults[i] = batch.get(i).new PartialResults(batch.get(i).getNumCandidates(numResults));
+    }
+    if (batchStore instanceof RandomAccessVectorStore) {
+      runBatchScan(new BatchScanTask(batch, partialResults, 0, batch.size(), null, 0, false),
+          numThreads);
+    } else if (batchStore != null) {
+      boolean copyBlocks = numThreads > 1 && batch.size() > BATCH_QUERY_BLOCK_SIZE;
+      Enumeration<ObjectVector> vecEnum = batchStore.getAllVectors();
+      int blockStart = 0;
+      while (vecEnum.hasMoreElements()) {
+        List<ObjectVector> block = new ArrayList<ObjectVector>(BATCH_STORE_BLOCK_SIZE);
+        while (vecEnum.hasMoreElements() && block.size() < BATCH_STORE_BLOCK_SIZE) {
+          block.add(vecEnum.nextElement());
+        }
+        runBatchScan(new BatchScanTask(
+            batch, partialResults, 0, batch.size(), block, blockStart, copyBlocks), numThreads);
+        blockStart += block.size();
+      }
+    }
+
+    List<LinkedList<SearchResult>> results = new ArrayList<LinkedList<SearchResult>>(searchers.size());
+    int batchIndex = 0;
+    for (VectorSearcher searcher : searchers) {
+      if (batchIndex < batch.size() && batch.get(batchIndex) == searcher) {
+        LinkedList<SearchResult> searcherResults = partialResults[batchIndex++].toSearchResults();
+        if (searcher.getRerankVectorStore() != null) {
+          searcherResults = searcher.rerank(searcherResults, numResults);
+        }
+        results.add(searcherResults);
+      } else {
+        results.add(searcher.getNearestNeighbors(numResults));
+      }
+    }
     return results;
   }
 
+  private static void runBatchScan(BatchScanTask task, int numThreads) {
+    if (numThreads > 1) {
+      getSearchPool(numThreads).invoke(task);
+    } else {
+      task.compute();
+    }
+  }
+
+  /**
+   * Returns true if this searcher's results come from {@link #getScore} or
+   * {@link #getOverlapQueryVector}, so that it can be searched in a batch by
+   * {@link #getNearestNeighbors(List, int)}. Searchers that override
+   * {@link #getNearestNeighbors(int)} should return false.
+   */
+  protected boolean supportsBatchSearch() {
+    return true;
+  }
+
+  /**
+   * Scores a range of the searchers in a batch against either a block of vectors read
+   * from the store's enumeration or, if the block is null, the whole of a random access
+   * store, splitting the range into blocks of {@link #BATCH_QUERY_BLOCK_SIZE} searchers.
+   * If copyBlock is true, each block of searchers apart from the first is scored against its
+   * own copy of the vectors, so that blocks of searchers can be scored on different threads.
+   */
+  private static class BatchScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final List<VectorSearcher> batch;
+    private final PartialResults[] partialResults;
+    private final int fromQuery, toQuery;
+    private final List<ObjectVector> block;
+    private final int blockStart;
+    private final boolean copyBlock;
+
+    BatchScanTask(List<VectorSearcher> batch, PartialResults[] partialResults,
+        int fromQuery, int toQuery, List<ObjectVector> block, int blockStart, boolean copyBlock) {
+      this.batch = batch;
+      this.partialResults = partialResults;
+      this.fromQuery = fromQuery;
+      this.toQuery = toQuery;
+      this.block = block;
+      this.blockStart = blockStart;
+      this.copyBlock = copyBlock;
+    }
+
+    @Override
+    protected void compute() {
+      if (toQuery - fromQuery > BATCH_QUERY_BLOCK_SIZE) {
+        // Split at a multiple of the block size, so that blocks are full where possible.
+        int numBlocks = (toQuery - fromQuery + BATCH_QUERY_BLOCK_SIZE - 1) / BATCH_QUERY_BLOCK_SIZE;
+        int middle = fromQuery + BATCH_QUERY_BLOCK_SIZE * (numBlocks / 2);
+        invokeAll(
+            new BatchScanTask(batch, partialResults, fromQuery, middle, block, blockStart, copyBlock),
+            new BatchScanTask(batch, partialResults, middle, toQuery, block, blockStart, copyBlock));
+        return;
+      }
+      if (block != null) {
+        List<ObjectVector> taskBlock = block;
+        if (copyBlock && fromQuery > 0) {
+          taskBlock = new ArrayList<ObjectVector>(block.size());
+          for (ObjectVector objectVector : block) {
+            taskBlock.add(new ObjectVector(objectVector.getObject(), objectVector.getVector().copy()));
+          }
+        }
+        for (int q = fromQuery; q < toQuery; ++q) {
+          partialResults[q].scan(
+              batch.get(q).new EnumerationCandidates(Collections.enumeration(taskBlock), blockStart));
+        }
+        return;
+      }
+      RandomAccessVectorStore store = (RandomAccessVectorStore) batch.get(fromQuery).searchVecStore;
+      double[] blockScores = new double[RandomAccessCandidates.BLOCK_SIZE];
+      // Get each query's scorer once, so that anything the store precomputes for a query
+      // is reused for every block of the store.
+      OverlapScorer[] scorers = new OverlapScorer[toQuery - fromQuery];
+      for (int q = fromQuery; q < toQuery; ++q) {
+        Vector overlapQueryVector = batch.get(q).getOverlapQueryVector();
+        if (overlapQueryVector != null) {
+          scorers[q - fromQuery] = store.getOverlapScorer(overlapQueryVector);
+        }
+      }
+      int numVectors = store.getNumVectors();
+      for (int from = 0; from < numVectors; from += BATCH_STORE_BLOCK_SIZE) {
+        int to = Math.min(from + BATCH_STORE_BLOCK_SIZE, numVectors);
+        List<ObjectVector> materializedBlock = null;
+        for (int q = fromQuery; q < toQuery; ++q) {
+          VectorSearcher searcher = batch.get(q);
+          OverlapScorer scorer = scorers[q - fromQuery];
+          if (scorer != null) {
+            partialResults[q].scan(new RandomAccessCandidates(store, scorer, from, to, blockScores));
+          } else {
+            if (materializedBlock == null) {
+              materializedBlock = new ArrayList<ObjectVector>(to - from);
+              for (int i = from; i < to; ++i) {
+                materializedBlock.add(new ObjectVector(store.getObjectAt(i), store.getVectorAt(i)));
+              }
+            }
+            partialResults[q].scan(
+                searcher.new EnumerationCandidates(Collections.enumeration(materializedBlock), from));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the candidates for a search of the whole search vector store, scored in bulk if
+   * the store is a {@link RandomAccessVectorStore} and this searcher has an
+   * {@link #getOverlapQueryVector}, and using {@link #getScore} otherwise.
+   */
+  private ScoredCandidates getScoredCandidates() {
+    Vector overlapQueryVector = getOverlapQueryVector();
+    if (overlapQueryVector != null && searchVecStore instanceof RandomAccessVectorStore) {
+      RandomAccessVectorStore randomAccessStore = (RandomAccessVectorStore) searchVecStore;
+      return new RandomAccessCandidates(randomAccessStore,
+          randomAccessStore.getOverlapScorer(overlapQueryVector), 0, randomAccessStore.getNumVectors());
+    }
+    return new EnumerationCandidates(searchVecStore.getAllVectors(), 0);
+  }
+
+  /**
+   * Iterates through the candidates for a search, scoring each one along the way.
+   */
+  private abstract static class ScoredCandidates {
+    /** Moves to the next candidate, returning false if there are no more. */
+    abstract boolean next();
+    /** Returns the score of the current candidate. */
+    abstract double score();
+    /** Returns the position of the current candidate in the search store. */
+    abstract int index();
+    /** Returns the object of the current candidate. */
+    abstract Object object();
+    /**
+     * Returns the object and vector of the current candidate, or null if these
+     * should be read from the {@link RandomAccessVectorStore} at {@link #index}.
+     */
+    abstract ObjectVector payload();
+  }
+
+  /**
+   * Candidates from an enumeration of object vectors, scored using {@link #getScore}.
+   */
+  private class EnumerationCandidates extends ScoredCandidates {
+    private final Enumeration<ObjectVector> vecEnum;
+    private ObjectVector current;
+    private int index;
+
+    EnumerationCandidates(Enumeration<ObjectVector> vecEnum, int startIndex) {
+      this.vecEnum = vecEnum;
+      this.index = startIndex - 1;
+    }
+
+    @Override
+    boolean next() {
+      if (!vecEnum.hasMoreElements()) return false;
+      current = vecEnum.nextElement();
+      ++index;
+      return true;
+    }
+
+    @Override
+    double score() { return getScore(current.getVector()); }
+
+    @Override
+    int index() { return index; }
+
+    @Override
+    Object object() { return current.getObject(); }
+
+    @Override
+    ObjectVector payload() { return current; }
+  }
+
+  /**
+   * Candidates from a range of a random access store, scored a block at a time using
+   * the query's {@link OverlapScorer}.
+   */
+  private static class RandomAccessCandidates extends ScoredCandidates {
+    static final int BLOCK_SIZE = 1024;
+    private final RandomAccessVectorStore store;
+    private final OverlapScorer scorer;
+    private final int toIndex;
+    private final double[] blockScores;
+    private int blockStart;
+    private int index;
+
+    RandomAccessCandidates(RandomAccessVectorStore store, OverlapScorer scorer, int fromIndex, int toIndex) {
+      this(store, scorer, fromIndex, toIndex, new double[BLOCK_SIZE]);
+    }
+
+    /** Uses the given array, of length at least {@link #BLOCK_SIZE}, to hold scores. */
+    RandomAccessCandidates(RandomAccessVectorStore store, OverlapScorer scorer, int fromIndex, int toIndex,
+        double[] blockScores) {
+      this.blockScores = blockScores;
+      this.store = store;
+      this.scorer = scorer;
+      this.toIndex = toIndex;
+      this.index = fromIndex - 1;
+      this.blockStart = fromIndex - BLOCK_SIZE;
+    }
+
+    @Override
+    boolean next() {
+      ++index;
+      if (index >= toIndex) return false;
+      if (index >= blockStart + BLOCK_SIZE) {
+        blockStart = index;
+        scorer.measureOverlaps(blockStart, Math.min(blockStart + BLOCK_SIZE, toIndex), blockScores);
+      }
+      return true;
+    }
+
+    @Override
+    double score() { return blockScores[index - blockStart]; }
+
+    @Override
+    int index() { return index; }
+
+    @Override
+    Object object() { return store.getObjectAt(index); }
+
+    @Override
+    ObjectVector payload() { return null; }
+  }
+
   /**
    * This search is implemented in the abstract
    * VectorSearcher class itself: this enables all subclasses to reuse
@@ -276,6 +811,11 @@ abstract public class VectorSearcher {
       this.queryVector = queryVector;
     }
 
+    @Override
+    public Vector getOverlapQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
@@ -327,6 +867,11 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    public Vector getOverlapQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
@@ -409,6 +954,11 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    public Vector getOverlapQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
@@ -534,6 +1084,11 @@ abstract public class VectorSearcher {
 	    }
   
   
+  @Override
+  public Vector getOverlapQueryVector() {
+    return this.intersection;
+  }
+
   public double getScore(Vector testVector) {
  
   	return this.intersection.measureOverlap(testVector);
@@ -804,6 +1359,11 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    public Vector getOverlapQueryVector() {
+      return theAvg;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return theAvg.measureOverlap(testVector);
@@ -833,6 +1393,11 @@ abstract public class VectorSearcher {
       this.queryVector.release(relationVec);
     }
 
+    @Override
+    public Vector getOverlapQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
@@ -871,6 +1436,8 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig, String[] queryTerms)
             throws IllegalArgumentException, ZeroVectorException {
       super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this.queryVecStore = queryVecStore;
+      this.searchVecStore = searchVecStore;
       specialFlagConfig = flagConfig;
       specialLuceneUtils = luceneUtils;
       try {
@@ -888,6 +1455,11 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    protected boolean supportsBatchSearch() {
+      return false;
+    }
+
     /**
      * This overrides the nearest neighbor class implemented in the abstract
      * {@code VectorSearcher} class.
@@ -899,11 +1471,9 @@ abstract public class VectorSearcher {
      */
     @Override
     public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
       double score, score1, score2 = -1;
-      double threshold = specialFlagConfig.searchresultsminscore();
-      if (specialFlagConfig.stdev())
-        threshold = 0;
+      TopKCollector bestResults = new TopKCollector(
+          numResults, specialFlagConfig.stdev() ? 0 : specialFlagConfig.searchresultsminscore());
 
       // Counters for statistics to calculate standard deviation
       double sum=0, sumsquared=0;
@@ -911,7 +1481,7 @@ abstract public class VectorSearcher {
 
       Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
       Enumeration<ObjectVector> vecEnum2 = queryVecStore.getAllVectors();
-      while (vecEnum.hasMoreElements()) {
+      for (int index = 0; vecEnum.hasMoreElements(); ++index) {
         // Test this element.
         ObjectVector testElement = vecEnum.nextElement();
         ObjectVector testElement2 = vecEnum2.nextElement();
@@ -929,31 +1499,18 @@ abstract public class VectorSearcher {
         }
 
         if (specialFlagConfig.stdev()) {
-        System.out.println("STDEV");
           count++;
           sum += score;
           sumsquared += Math.pow(score, 2);
         }
 
-        if (score > threshold) {
-          boolean added = false;
-          for (int i = 0; i < results.size(); ++i) {
-            // Add to list if this is right place.
-            if (score > results.get(i).getScore() && added == false) {
-              results.add(i, new SearchResult(score, testElement));
-              added = true;
-            }
-          }
-          // Prune list if there are already numResults.
-          if (results.size() > numResults) {
-            results.removeLast();
-            threshold = results.getLast().getScore();
-          } else {
-            if (added == false) {
-              results.add(new SearchResult(score, testElement));
-            }
-          }
-        }
+        bestResults.offer(score, index, testElement);
+      }
+
+      bestResults.sortDescending();
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      for (int i = 0; i < bestResults.size(); ++i) {
+        results.add(new SearchResult(bestResults.getScore(i), (ObjectVector) bestResults.getPayload(i)));
       }
       if (specialFlagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
       return results;
@@ -1013,6 +1570,11 @@ abstract public class VectorSearcher {
 	  
   }
 
+  @Override
+  protected boolean supportsBatchSearch() {
+    return false;
+  }
+
   /**
    * This overrides the nearest neighbor class implemented in the abstract
    * {@code VectorSearcher} class.
@@ -0,0 +1,337 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.PackedVectorUtils;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * An in-memory vector store that packs all of its vectors into one large primitive array,
+ * instead of keeping an {@link ObjectVector} for each one as {@link VectorStoreRAM} does.
+ * This saves the per-object overhead of millions of small arrays, and lets searches scan
+ * the coordinates in order through {@link #measureOverlaps}.
+ *
+ * <p>
+ * Supports {@link VectorType#REAL}, {@link VectorType#BINARY}, {@link VectorType#COMPLEX}
+ * and {@link VectorType#COMPLEXFLAT}; see {@link PackedVectorUtils} for the layouts.
+ * Norms of real vectors are computed once when they are added.
+ *
+ * <p>
+ * Vectors returned by {@link #getVector} and {@link #getAllVectors} are copies, so changing
+ * them does not change the store: use {@link #putVector} instead. Searches may run
+ * concurrently, but not at the same time as calls to {@link #putVector}.
+ *
+ * @see VectorStoreRAM
+ */
+public class VectorStoreDenseMatrix implements RandomAccessVectorStore {
+  private static final Logger logger =
+      Logger.getLogger(VectorStoreDenseMatrix.class.getCanonicalName());
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private FlagConfig flagConfig;
+  private VectorType vectorType;
+  private int dimension;
+  private int stride;
+  /** Used for checking compatibility of new vectors. */
+  private Vector zeroVector;
+
+  private int numVectors = 0;
+  private Object[] objects;
+  private HashMap<Object, Integer> objectIndices = new HashMap<Object, Integer>();
+  private boolean[] nonZero;
+  /** Coordinates of real and cartesian complex vectors. */
+  private float[] floatSlab;
+  /** Bits of binary vectors. */
+  private long[] longSlab;
+  /** Phase angles of polar complex vectors. */
+  private short[] shortSlab;
+  /** Sums of squares of coordinates of real vectors. */
+  private double[] squaredNorms;
+
+  public VectorStoreDenseMatrix(FlagConfig flagConfig) {
+    this.flagConfig = flagConfig;
+    this.vectorType = flagConfig.vectortype();
+    this.dimension = flagConfig.dimension();
+    this.stride = PackedVectorUtils.getStride(vectorType, dimension);
+    this.zeroVector = VectorFactory.createZeroVector(vectorType, dimension);
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Returns a new vector store, initialized from disk with the given vectorFile.
+   *
+   * Dimension and vector type from store on disk may overwrite any previous values in flagConfig.
+   */
+  public static VectorStoreDenseMatrix readFromFile(FlagConfig flagConfig, String vectorFile)
+      throws IOException {
+    if (vectorFile.isEmpty()) {
+      throw new IllegalArgumentException("vectorFile argument cannot be empty.");
+    }
+    CloseableVectorStore vectorReaderDisk = VectorStoreReader.openVectorStore(vectorFile, flagConfig);
+    VectorStoreDenseMatrix store = new VectorStoreDenseMatrix(flagConfig);
+    logger.fine("Reading vectors from store on disk into dense matrix ...");
+    store.putAllVectors(vectorReaderDisk);
+    vectorReaderDisk.close();
+    logger.log(Level.FINE, "Cached {0} vectors.", store.getNumVectors());
+    return store;
+  }
+
+  /**
+   * Adds all the vectors from the given store, overwriting any existing vectors with the same keys.
+   */
+  public void putAllVectors(VectorStore vectorStore) {
+    Enumeration<ObjectVector> vectorEnumeration = vectorStore.getAllVectors();
+    while (vectorEnumeration.hasMoreElements()) {
+      ObjectVector objectVector = vectorEnumeration.nextElement();
+      putVector(objectVector.getObject().toString(), objectVector.getVector());
+    }
+  }
+
+  /**
+   * Adds a single vector with the given key and value, copying its coordinates into the store.
+   * Overwrites any existing vector with this key.
+   */
+  public void putVector(Object key, Vector vector) {
+    IncompatibleVectorsException.checkVectorsCompatible(zeroVector, vector);
+    Integer existingIndex = objectIndices.get(key);
+    int index;
+    if (existingIndex != null) {
+      index = existingIndex;
+    } else {
+      if (numVectors == objects.length) {
+        allocate(getGrownCapacity());
+      }
+      index = numVectors++;
+      objects[index] = key;
+      objectIndices.put(key, index);
+    }
+    int offset = PackedVectorUtils.getOffset(index, stride);
+    switch (vectorType) {
+    case REAL:
+      squaredNorms[index] = PackedVectorUtils.packReal((RealVector) vector, floatSlab, offset);
+      nonZero[index] = !vector.isZeroVector();
+      break;
+    case BINARY:
+      nonZero[index] = PackedVectorUtils.packBinary((BinaryVector) vector, longSlab, offset);
+      break;
+    case COMPLEX:
+      nonZero[index] = PackedVectorUtils.packComplexPolar(
+          (ComplexVector) vector, shortSlab, offset);
+      break;
+    case COMPLEXFLAT:
+      nonZero[index] = PackedVectorUtils.packComplexCartesian(
+          (ComplexVector) vector, floatSlab, offset);
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported vector type: " + vectorType);
+    }
+  }
+
+  /**
+   * Returns the capacity to grow to when the arrays are full: double the current capacity,
+   * or as many vectors as fit in a single slab if that is fewer.
+   *
+   * @throws IllegalStateException if the slab is already as large as it can be
+   */
+  private int getGrownCapacity() {
+    int maxCapacity = PackedVectorUtils.MAX_SLAB_LENGTH / stride;
+    if (objects.length >= maxCapacity) {
+      throw new IllegalStateException(String.format(
+          "Cannot store more than %d vectors of type %s and dimension %d in a dense matrix,"
+          + " since their coordinates must fit in a single array.",
+          maxCapacity, vectorType, dimension));
+    }
+    return (int) Math.min(2L * objects.length, maxCapacity);
+  }
+
+  /** Grows (or initially creates) the arrays to hold this many vectors. */
+  private void allocate(int capacity) {
+    int slabLength = PackedVectorUtils.getOffset(capacity, stride);
+    objects = (objects == null) ? new Object[capacity] : Arrays.copyOf(objects, capacity);
+    nonZero = (nonZero == null) ? new boolean[capacity] : Arrays.copyOf(nonZero, capacity);
+    switch (vectorType) {
+    case REAL:
+      squaredNorms = (squaredNorms == null)
+          ? new double[capacity] : Arrays.copyOf(squaredNorms, capacity);
+      // Fall through: real vectors also use the float slab.
+    case COMPLEXFLAT:
+      floatSlab = (floatSlab == null)
+          ? new float[slabLength] : Arrays.copyOf(floatSlab, slabLength);
+      break;
+    case BINARY:
+      longSlab = (longSlab == null)
+          ? new long[slabLength] : Arrays.copyOf(longSlab, slabLength);
+      break;
+    case COMPLEX:
+      shortSlab = (shortSlab == null)
+          ? new short[slabLength] : Arrays.copyOf(shortSlab, slabLength);
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported vector type: " + vectorType);
+    }
+  }
+
+  @Override
+  public Object getObjectAt(int index) {
+    return objects[index];
+  }
+
+  @Override
+  public Vector getVectorAt(int index) {
+    if (!nonZero[index]) {
+      return VectorFactory.createZeroVector(vectorType, dimension);
+    }
+    int offset = PackedVectorUtils.getOffset(index, stride);
+    switch (vectorType) {
+    case REAL:
+      return PackedVectorUtils.unpackReal(floatSlab, offset, dimension);
+    case BINARY:
+      return PackedVectorUtils.unpackBinary(longSlab, offset, dimension);
+    case COMPLEX:
+      return PackedVectorUtils.unpackComplexPolar(shortSlab, offset, dimension);
+    case COMPLEXFLAT:
+      return PackedVectorUtils.unpackComplexCartesian(floatSlab, offset, dimension);
+    default:
+      throw new IllegalArgumentException("Unsupported vector type: " + vectorType);
+    }
+  }
+
+  /** Returns a scorer that calls {@link #measureOverlaps}, since there is nothing to precompute. */
+  @Override
+  public OverlapScorer getOverlapScorer(final Vector queryVector) {
+    return new OverlapScorer() {
+      @Override
+      public void measureOverlaps(int fromIndex, int toIndex, double[] scores) {
+        VectorStoreDenseMatrix.this.measureOverlaps(queryVector, fromIndex, toIndex, scores);
+      }
+    };
+  }
+
+  @Override
+  public void measureOverlaps(Vector queryVector, int fromIndex, int toIndex, double[] scores) {
+    IncompatibleVectorsException.checkVectorsCompatible(zeroVector, queryVector);
+    switch (vectorType) {
+    case REAL:
+      PackedVectorUtils.measureRealOverlaps((RealVector) queryVector, floatSlab, squaredNorms,
+          nonZero, fromIndex, toIndex, scores);
+      return;
+    case BINARY:
+      PackedVectorUtils.measureBinaryOverlaps((BinaryVector) queryVector, longSlab,
+          nonZero, fromIndex, toIndex, scores);
+      return;
+    case COMPLEX:
+      if (ComplexVector.getDominantMode() == ComplexVector.Mode.POLAR_DENSE) {
+        PackedVectorUtils.measureComplexPolarOverlaps((ComplexVector) queryVector, shortSlab,
+            nonZero, fromIndex, toIndex, scores);
+        return;
+      }
+      break;
+    case COMPLEXFLAT:
+      if (ComplexVector.getDominantMode() == ComplexVector.Mode.CARTESIAN) {
+        PackedVectorUtils.measureComplexCartesianOverlaps((ComplexVector) queryVector, floatSlab,
+            nonZero, fromIndex, toIndex, scores);
+        return;
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported vector type: " + vectorType);
+    }
+    // The complex dominant mode doesn't match the layout, so compare vectors one at a time.
+    for (int i = fromIndex; i < toIndex; ++i) {
+      scores[i - fromIndex] = queryVector.measureOverlap(getVectorAt(i));
+    }
+  }
+
+  /**
+   * Given an object, get its corresponding vector.
+   *
+   * @return a copy of the vector from the store, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object desiredObject) {
+    Integer index = objectIndices.get(desiredObject);
+    if (index == null) {
+      return null;
+    }
+    return getVectorAt(index);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return objectIndices.containsKey(object);
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /**
+   * Returns an enumeration of copies of the object vectors in the store, in the order
+   * they were first added.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new Enumeration<ObjectVector>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return index < numVectors;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        ObjectVector objectVector = new ObjectVector(getObjectAt(index), getVectorAt(index));
+        ++index;
+        return objectVector;
+      }
+    };
+  }
+}
@@ -0,0 +1,276 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Maps each object in a Lucene format vector store to the file offset at which its
+ * entry starts, so that {@link VectorStoreReaderLucene#getVector} can seek straight
+ * to a vector instead of scanning the whole file.
+ *
+ * <p>
+ * The index is written by {@link VectorStoreWriter} as a sidecar file next to the
+ * vector store (see {@link #getIndexFileName}). Its format is a magic number and version,
+ * a fingerprint of the vector store file it was built for, the number of entries, each
+ * object string followed by the (delta encoded) offset of that object's entry in the store
+ * file, and a checksum of these entries. The fingerprint is the store's header and length
+ * and a checksum of the bytes at each end of the store, so it can be checked without reading
+ * the whole store.
+ * If the sidecar is missing or out of date, the reader builds the same index in memory
+ * with a single pass over the store.
+ *
+ * <p>
+ * Offsets point at the object string rather than the vector, so readers can check
+ * that the entry they land on is the one they expected.
+ */
+public class VectorStoreOffsetIndex {
+
+  /** Suffix used for index files, replacing the ".bin" of the vector store file. */
+  public static final String INDEX_FILE_SUFFIX = ".idx";
+
+  /** Written at the start of index files, to tell them from files in an earlier format. */
+  private static final int MAGIC = 0x53564958;
+
+  private static final int FORMAT_VERSION = 2;
+
+  /** Number of bytes at each end of the store included in its fingerprint. */
+  private static final int FINGERPRINT_SAMPLE_BYTES = 4096;
+
+  private final Map<String, Long> offsets;
+  private int numVectors;
+
+  public VectorStoreOffsetIndex() {
+    this.offsets = new HashMap<String, Long>();
+  }
+
+  /**
+   * Returns the name of the index file for the given vector store file,
+   * e.g., "termvectors.bin" gives "termvectors.idx".
+   */
+  public static String getIndexFileName(String vectorFileName) {
+    if (vectorFileName.endsWith(".bin")) {
+      vectorFileName = vectorFileName.substring(0, vectorFileName.length() - 4);
+    }
+    return vectorFileName + INDEX_FILE_SUFFIX;
+  }
+
+  /**
+   * Records the offset of the entry for the given object. If the object is already present,
+   * the first offset is kept, matching the behavior of a linear scan.
+   */
+  public void addOffset(String object, long offset) {
+    ++numVectors;
+    if (!offsets.containsKey(object)) {
+      offsets.put(object, offset);
+    }
+  }
+
+  /**
+   * Returns the offset of the entry for the given object, or null if there is no such entry.
+   */
+  public Long getOffset(String object) {
+    return offsets.get(object);
+  }
+
+  /**
+   * Returns the number of entries in the vector store, which is the number of calls to
+   * {@link #addOffset} and may include duplicate objects.
+   */
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /**
+   * Builds an index by scanning a Lucene format vector store.
+   *
+   * @param indexInput input positioned just after the header of the vector store
+   * @param vectorByteSize the number of bytes taken up by each serialized vector
+   */
+  public static VectorStoreOffsetIndex buildFromIndexInput(IndexInput indexInput, int vectorByteSize)
+      throws IOException {
+    VectorStoreOffsetIndex offsetIndex = new VectorStoreOffsetIndex();
+    long length = indexInput.length();
+    while (indexInput.getFilePointer() < length) {
+      long offset = indexInput.getFilePointer();
+      offsetIndex.addOffset(indexInput.readString(), offset);
+      indexInput.seek(indexInput.getFilePointer() + vectorByteSize);
+    }
+    return offsetIndex;
+  }
+
+  /**
+   * Writes this index to the index file for the named vector store file in the given directory.
+   * The vector store file must already have been written and closed.
+   */
+  public void writeToDirectory(Directory directory, String vectorFileName) throws IOException {
+    String fingerprint;
+    IndexInput storeInput = directory.openInput(vectorFileName, IOContext.READONCE);
+    try {
+      fingerprint = getStoreFingerprint(storeInput);
+    } finally {
+      storeInput.close();
+    }
+
+    IndexOutput outputStream = directory.createOutput(getIndexFileName(vectorFileName), IOContext.DEFAULT);
+    try {
+      outputStream.writeInt(MAGIC);
+      outputStream.writeVInt(FORMAT_VERSION);
+      outputStream.writeString(fingerprint);
+      outputStream.writeVInt(numVectors);
+      outputStream.writeVInt(offsets.size());
+      CRC32 checksum = new CRC32();
+      long lastOffset = 0;
+      for (Map.Entry<String, Long> entry : sortedEntries()) {
+        outputStream.writeString(entry.getKey());
+        outputStream.writeVLong(entry.getValue() - lastOffset);
+        lastOffset = entry.getValue();
+        updateChecksum(checksum, entry.getKey(), lastOffset);
+      }
+      outputStream.writeLong(checksum.getValue());
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Reads an index from the named file in the given directory.
+   *
+   * @param storeInput input for the vector store file the index should describe, whose position
+   *   is left unchanged
+   * @return the index, or null if the file doesn't exist, can't be read, or was built for a
+   *   different store
+   */
+  public static VectorStoreOffsetIndex readFromDirectory(
+      Directory directory, String indexFileName, IndexInput storeInput) throws IOException {
+    if (!fileExists(directory, indexFileName)) {
+      return null;
+    }
+    String fingerprint = getStoreFingerprint(storeInput);
+    IndexInput indexInput = directory.openInput(indexFileName, IOContext.READONCE);
+    try {
+      if (indexInput.length() < 4 || indexInput.readInt() != MAGIC
+          || indexInput.readVInt() != FORMAT_VERSION || !indexInput.readString().equals(fingerprint)) {
+        return null;
+      }
+      VectorStoreOffsetIndex offsetIndex = new VectorStoreOffsetIndex();
+      offsetIndex.numVectors = indexInput.readVInt();
+      int numEntries = indexInput.readVInt();
+      CRC32 checksum = new CRC32();
+      long offset = 0;
+      for (int i = 0; i < numEntries; ++i) {
+        String object = indexInput.readString();
+        offset += indexInput.readVLong();
+        offsetIndex.offsets.put(object, offset);
+        updateChecksum(checksum, object, offset);
+      }
+      if (indexInput.readLong() != checksum.getValue()) {
+        return null;
+      }
+      return offsetIndex;
+    } catch (IOException | RuntimeException e) {
+      // An index file in an earlier format, or a damaged one, is treated as out of date.
+      return null;
+    } finally {
+      indexInput.close();
+    }
+  }
+
+  /**
+   * Returns a string identifying the contents of a vector store file: its header and length,
+   * and a checksum of up to {@link #FINGERPRINT_SAMPLE_BYTES} bytes at each end.
+   */
+  private static String getStoreFingerprint(IndexInput storeInput) throws IOException {
+    long position = storeInput.getFilePointer();
+    try {
+      long length = storeInput.length();
+      storeInput.seek(0);
+      String header = storeInput.readString();
+      CRC32 checksum = new CRC32();
+      byte[] sample = new byte[(int) Math.min(length, FINGERPRINT_SAMPLE_BYTES)];
+      storeInput.seek(0);
+      storeInput.readBytes(sample, 0, sample.length);
+      checksum.update(sample);
+      storeInput.seek(length - sample.length);
+      storeInput.readBytes(sample, 0, sample.length);
+      checksum.update(sample);
+      return header + " -storelength " + length + " -storechecksum " + checksum.getValue();
+    } finally {
+      storeInput.seek(position);
+    }
+  }
+
+  private static void updateChecksum(CRC32 checksum, String object, long offset) {
+    checksum.update(object.getBytes(StandardCharsets.UTF_8));
+    for (int shift = 0; shift < 64; shift += 8) {
+      checksum.update((int) (offset >>> shift));
+    }
+  }
+
+  private static boolean fileExists(Directory directory, String fileName) throws IOException {
+    for (String existing : directory.listAll()) {
+      if (existing.equals(fileName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Entries in increasing order of offset, so that offsets can be delta encoded. */
+  private Iterable<Map.Entry<String, Long>> sortedEntries() {
+    List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(offsets.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> first, Map.Entry<String, Long> second) {
+        return first.getValue().compareTo(second.getValue());
+      }
+    });
+    return entries;
+  }
+}
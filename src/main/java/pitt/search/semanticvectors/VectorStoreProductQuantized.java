@@ -0,0 +1,521 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * An in-memory store of {@link VectorType#REAL} vectors compressed using product quantization,
+ * as described by Jégou, Douze and Schmid, "Product quantization for nearest neighbor search"
+ * (2011). This is the {@link VectorStoreUtils.VectorStoreFormat#PQ} format.
+ *
+ * <p>
+ * The dimensions are split into {@link FlagConfig#pqsubspaces()} subspaces, and a codebook of
+ * up to 256 centroids is trained for each subspace using k-means on a sample of the vectors.
+ * Each vector is stored as the number of its nearest centroid in each subspace, that is one
+ * byte per subspace instead of four bytes per dimension. Vectors returned by
+ * {@link #getVector} are the reconstructions made of these centroids.
+ *
+ * <p>
+ * {@link #measureOverlaps} uses asymmetric distance computation: the query is not quantized,
+ * and its products with every centroid are computed once per query by {@link #getOverlapScorer},
+ * after which each stored vector is scored by adding up one entry of this table per subspace.
+ * Scores are the cosine similarities with the reconstructed vectors, the same as from
+ * {@link Vector#measureOverlap} up to rounding error.
+ *
+ * <p>
+ * If {@link FlagConfig#pqrerankvectorfile()} is set, {@link VectorSearcher} opens the full
+ * precision vectors from that file using {@link #getRerankVectorStore}, and re-ranks the best
+ * {@link FlagConfig#pqrerank()} candidates from each search using these.
+ */
+public class VectorStoreProductQuantized implements CloseableVectorStore, RandomAccessVectorStore {
+  private static final Logger logger = Logger.getLogger(
+      VectorStoreProductQuantized.class.getCanonicalName());
+
+  /** Maximum number of centroids in each subspace, so that codes fit in a byte. */
+  public static final int MAX_CENTROIDS = 256;
+
+  private static final int KMEANS_ITERATIONS = 12;
+
+  private final FlagConfig flagConfig;
+  private int dimension;
+  private int numVectors;
+  private int numCentroids;
+  /** Start of each subspace, plus the dimension at the end. */
+  private int[] subspaceStarts;
+  /** For each subspace, the coordinates of its centroids one after another. */
+  private float[][] codebooks;
+  private Object[] objects;
+  private HashMap<Object, Integer> objectIndices;
+  /** Code of each vector in each subspace, one vector after another. */
+  private byte[] codes;
+  /** Squared norm of the reconstruction of each vector, 0 for zero vectors. */
+  private double[] squaredNorms;
+  private CloseableVectorStore rerankVectorStore;
+
+  /**
+   * Reads a store written by {@link #writeToIndexOutput} into memory.
+   */
+  public VectorStoreProductQuantized(String vectorFileName, FlagConfig flagConfig) throws IOException {
+    this.flagConfig = flagConfig;
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = null;
+    try {
+      indexInput = fsDirectory.openInput(vectorFile.getName(), IOContext.READONCE);
+      readFromIndexInput(indexInput);
+    } catch (IOException e) {
+      logger.warning("Cannot open file: " + vectorFileName + "\n" + e.getMessage());
+      throw e;
+    } finally {
+      if (indexInput != null) indexInput.close();
+      fsDirectory.close();
+    }
+  }
+
+  private void readFromIndexInput(IndexInput indexInput) throws IOException {
+    FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IOException("Product quantized stores must have real vectors, not "
+          + flagConfig.vectortype());
+    }
+    dimension = flagConfig.dimension();
+    int numSubspaces = indexInput.readVInt();
+    numCentroids = indexInput.readVInt();
+    subspaceStarts = getSubspaceStarts(dimension, numSubspaces);
+    codebooks = new float[numSubspaces][];
+    for (int subspace = 0; subspace < numSubspaces; ++subspace) {
+      codebooks[subspace] = new float[numCentroids * getSubspaceLength(subspace)];
+      for (int i = 0; i < codebooks[subspace].length; ++i) {
+        codebooks[subspace][i] = Float.intBitsToFloat(indexInput.readInt());
+      }
+    }
+    double[][] centroidSquaredNorms = getCentroidSquaredNorms();
+
+    numVectors = indexInput.readVInt();
+    checkCodesFit(numVectors, numSubspaces);
+    objects = new Object[numVectors];
+    objectIndices = new HashMap<Object, Integer>();
+    codes = new byte[numVectors * numSubspaces];
+    squaredNorms = new double[numVectors];
+    for (int index = 0; index < numVectors; ++index) {
+      objects[index] = indexInput.readString();
+      objectIndices.put(objects[index], index);
+      boolean nonZero = indexInput.readByte() != 0;
+      indexInput.readBytes(codes, index * numSubspaces, numSubspaces);
+      if (nonZero) {
+        for (int subspace = 0; subspace < numSubspaces; ++subspace) {
+          squaredNorms[index] += centroidSquaredNorms[subspace][codes[index * numSubspaces + subspace] & 0xFF];
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens the full precision store used for re-ranking, in the mapped format if the file
+   * name ends with ".vec", the text format if it ends with ".txt", and the Lucene format otherwise.
+   */
+  private static CloseableVectorStore openRerankVectorStore(String vectorFileName, FlagConfig flagConfig)
+      throws IOException {
+    VerbatimLogger.info("Opening full precision vectors for re-ranking from file: " + vectorFileName + "\n");
+    if (vectorFileName.endsWith(".vec")) {
+      return new VectorStoreReaderMapped(vectorFileName, flagConfig);
+    } else if (vectorFileName.endsWith(".txt")) {
+      return new VectorStoreReaderText(vectorFileName, flagConfig);
+    } else {
+      return new VectorStoreReaderLucene(vectorFileName, flagConfig);
+    }
+  }
+
+  /**
+   * Returns the full precision vectors from {@link FlagConfig#pqrerankvectorfile()}, opening
+   * them the first time this is called, or null if this is not set.
+   */
+  public synchronized VectorStore getRerankVectorStore() {
+    if (rerankVectorStore == null && !flagConfig.pqrerankvectorfile().isEmpty()) {
+      try {
+        rerankVectorStore = openRerankVectorStore(flagConfig.pqrerankvectorfile(), flagConfig);
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+    return rerankVectorStore;
+  }
+
+  private static int[] getSubspaceStarts(int dimension, int numSubspaces) {
+    int[] subspaceStarts = new int[numSubspaces + 1];
+    for (int i = 0; i <= numSubspaces; ++i) {
+      subspaceStarts[i] = (int) ((long) i * dimension / numSubspaces);
+    }
+    return subspaceStarts;
+  }
+
+  private int getSubspaceLength(int subspace) {
+    return subspaceStarts[subspace + 1] - subspaceStarts[subspace];
+  }
+
+  private double[][] getCentroidSquaredNorms() {
+    double[][] centroidSquaredNorms = new double[codebooks.length][numCentroids];
+    for (int subspace = 0; subspace < codebooks.length; ++subspace) {
+      int length = getSubspaceLength(subspace);
+      for (int centroid = 0; centroid < numCentroids; ++centroid) {
+        for (int i = 0; i < length; ++i) {
+          float coordinate = codebooks[subspace][centroid * length + i];
+          centroidSquaredNorms[subspace][centroid] += coordinate * coordinate;
+        }
+      }
+    }
+    return centroidSquaredNorms;
+  }
+
+  /**
+   * Checks that the codes of this many vectors fit in a single array, so that the offsets of
+   * the codes can be computed in int arithmetic.
+   *
+   * @throws IllegalArgumentException if they do not
+   */
+  private static void checkCodesFit(int numVectors, int numSubspaces) {
+    long codesLength = (long) numVectors * numSubspaces;
+    if (codesLength > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException(String.format(
+          "Cannot hold the codes of %d vectors with %d subspaces each in a product quantized store,"
+          + " since that needs %d bytes and the limit is %d. Use fewer subspaces (-pqsubspaces).",
+          numVectors, numSubspaces, codesLength, Integer.MAX_VALUE - 8));
+    }
+  }
+
+  /**
+   * Returns the number of subspaces to use: {@link FlagConfig#pqsubspaces()} if set,
+   * otherwise one for every 8 dimensions.
+   */
+  private static int getNumSubspaces(FlagConfig flagConfig) {
+    int numSubspaces = flagConfig.pqsubspaces();
+    if (numSubspaces <= 0) {
+      numSubspaces = (flagConfig.dimension() + 7) / 8;
+    }
+    return Math.min(numSubspaces, flagConfig.dimension());
+  }
+
+  /**
+   * Trains codebooks on a sample of the object vectors, then writes the codebooks and the code
+   * of each vector to this Lucene output stream in the format read by this class.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig,
+      IndexOutput outputStream) throws IOException {
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IllegalArgumentException("Product quantization is only supported for real vectors, not "
+          + flagConfig.vectortype());
+    }
+    int dimension = flagConfig.dimension();
+    int numSubspaces = getNumSubspaces(flagConfig);
+    checkCodesFit(objectVectors.getNumVectors(), numSubspaces);
+    int[] subspaceStarts = getSubspaceStarts(dimension, numSubspaces);
+
+    // Reservoir sample of the nonzero vectors, so that every vector is equally likely to be used.
+    Random random = new Random(0);
+    float[][] sample = new float[Math.max(1, flagConfig.pqtrainingsample())][];
+    int numSeen = 0;
+    Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      Vector vector = vecEnum.nextElement().getVector();
+      if (vector.isZeroVector()) continue;
+      int position = (numSeen < sample.length) ? numSeen : random.nextInt(numSeen + 1);
+      if (position < sample.length) {
+        sample[position] = ((RealVector) vector).getCoordinates().clone();
+      }
+      ++numSeen;
+    }
+    int sampleSize = Math.min(numSeen, sample.length);
+    int numCentroids = Math.min(MAX_CENTROIDS, sampleSize);
+
+    VerbatimLogger.info("Training " + numSubspaces + " codebooks of " + numCentroids
+        + " centroids on " + sampleSize + " vectors ...\n");
+    float[][] codebooks = new float[numSubspaces][];
+    for (int subspace = 0; subspace < numSubspaces; ++subspace) {
+      codebooks[subspace] = trainCodebook(sample, sampleSize, subspaceStarts[subspace],
+          subspaceStarts[subspace + 1] - subspaceStarts[subspace], numCentroids, random);
+    }
+
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    outputStream.writeVInt(numSubspaces);
+    outputStream.writeVInt(numCentroids);
+    for (float[] codebook : codebooks) {
+      for (float coordinate : codebook) {
+        outputStream.writeInt(Float.floatToIntBits(coordinate));
+      }
+    }
+    outputStream.writeVInt(objectVectors.getNumVectors());
+    byte[] vectorCodes = new byte[numSubspaces];
+    vecEnum = objectVectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      outputStream.writeString(objectVector.getObject().toString());
+      boolean nonZero = !objectVector.getVector().isZeroVector() && numCentroids > 0;
+      outputStream.writeByte(nonZero ? (byte) 1 : (byte) 0);
+      Arrays.fill(vectorCodes, (byte) 0);
+      if (nonZero) {
+        float[] coordinates = ((RealVector) objectVector.getVector()).getCoordinates();
+        for (int subspace = 0; subspace < numSubspaces; ++subspace) {
+          vectorCodes[subspace] = (byte) getNearestCentroid(coordinates, subspaceStarts[subspace],
+              subspaceStarts[subspace + 1] - subspaceStarts[subspace], codebooks[subspace], numCentroids);
+        }
+      }
+      outputStream.writeBytes(vectorCodes, numSubspaces);
+    }
+  }
+
+  /**
+   * Returns {@code numCentroids} centroids for the given range of coordinates of the sample
+   * vectors, found by k-means starting from randomly chosen sample vectors.
+   */
+  private static float[] trainCodebook(float[][] sample, int sampleSize, int start, int length,
+      int numCentroids, Random random) {
+    float[] codebook = new float[numCentroids * length];
+    int[] initial = new int[sampleSize];
+    for (int i = 0; i < sampleSize; ++i) {
+      initial[i] = i;
+    }
+    for (int centroid = 0; centroid < numCentroids; ++centroid) {
+      int chosen = centroid + random.nextInt(sampleSize - centroid);
+      int swap = initial[chosen];
+      initial[chosen] = initial[centroid];
+      initial[centroid] = swap;
+      System.arraycopy(sample[initial[centroid]], start, codebook, centroid * length, length);
+    }
+
+    double[] sums = new double[numCentroids * length];
+    int[] counts = new int[numCentroids];
+    for (int iteration = 0; iteration < KMEANS_ITERATIONS; ++iteration) {
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < sampleSize; ++i) {
+        int centroid = getNearestCentroid(sample[i], start, length, codebook, numCentroids);
+        ++counts[centroid];
+        for (int j = 0; j < length; ++j) {
+          sums[centroid * length + j] += sample[i][start + j];
+        }
+      }
+      for (int centroid = 0; centroid < numCentroids; ++centroid) {
+        if (counts[centroid] == 0) {
+          // Restart an empty cluster at a random sample vector.
+          System.arraycopy(sample[random.nextInt(sampleSize)], start, codebook, centroid * length, length);
+          continue;
+        }
+        for (int j = 0; j < length; ++j) {
+          codebook[centroid * length + j] = (float) (sums[centroid * length + j] / counts[centroid]);
+        }
+      }
+    }
+    return codebook;
+  }
+
+  /** Returns the centroid nearest in Euclidean distance to the given range of coordinates. */
+  private static int getNearestCentroid(float[] coordinates, int start, int length,
+      float[] codebook, int numCentroids) {
+    int nearest = 0;
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    for (int centroid = 0; centroid < numCentroids; ++centroid) {
+      double distance = 0;
+      int position = centroid * length;
+      for (int j = 0; j < length; ++j) {
+        double difference = coordinates[start + j] - codebook[position + j];
+        distance += difference * difference;
+      }
+      if (distance < nearestDistance) {
+        nearest = centroid;
+        nearestDistance = distance;
+      }
+    }
+    return nearest;
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  @Override
+  public Object getObjectAt(int index) {
+    return objects[index];
+  }
+
+  /** Returns the reconstruction of the vector at this position from its centroids. */
+  @Override
+  public Vector getVectorAt(int index) {
+    float[] coordinates = new float[dimension];
+    if (squaredNorms[index] != 0) {
+      for (int subspace = 0; subspace < codebooks.length; ++subspace) {
+        int length = getSubspaceLength(subspace);
+        int centroid = codes[index * codebooks.length + subspace] & 0xFF;
+        System.arraycopy(codebooks[subspace], centroid * length, coordinates, subspaceStarts[subspace], length);
+      }
+    }
+    return new RealVector(coordinates);
+  }
+
+  @Override
+  public void measureOverlaps(Vector queryVector, int fromIndex, int toIndex, double[] scores) {
+    getOverlapScorer(queryVector).measureOverlaps(fromIndex, toIndex, scores);
+  }
+
+  /** Returns a scorer holding the distance table for this query vector. */
+  @Override
+  public OverlapScorer getOverlapScorer(Vector queryVector) {
+    if (queryVector.getVectorType() != VectorType.REAL || queryVector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Cannot score " + queryVector.getVectorType()
+          + " vector of dimension " + queryVector.getDimension() + " against store of "
+          + VectorStoreWriter.generateHeaderString(flagConfig));
+    }
+    return new DistanceTableScorer((RealVector) queryVector);
+  }
+
+  /**
+   * Scores one query using its products with every centroid, which are computed when the
+   * scorer is created and only read afterwards.
+   */
+  private class DistanceTableScorer implements OverlapScorer {
+    private final boolean queryIsZero;
+    private final double[] products;
+    private final double squaredNorm;
+
+    DistanceTableScorer(RealVector queryVector) {
+      queryIsZero = queryVector.isZeroVector();
+      products = new double[codebooks.length * numCentroids];
+      double norm = 0;
+      if (!queryIsZero) {
+        float[] query = queryVector.getCoordinates();
+        for (int i = 0; i < dimension; ++i) {
+          norm += query[i] * query[i];
+        }
+        for (int subspace = 0; subspace < codebooks.length; ++subspace) {
+          int start = subspaceStarts[subspace];
+          int length = getSubspaceLength(subspace);
+          for (int centroid = 0; centroid < numCentroids; ++centroid) {
+            double product = 0;
+            for (int j = 0; j < length; ++j) {
+              product += query[start + j] * codebooks[subspace][centroid * length + j];
+            }
+            products[subspace * numCentroids + centroid] = product;
+          }
+        }
+      }
+      squaredNorm = norm;
+    }
+
+    @Override
+    public void measureOverlaps(int fromIndex, int toIndex, double[] scores) {
+      if (queryIsZero) {
+        Arrays.fill(scores, 0, toIndex - fromIndex, 0);
+        return;
+      }
+      int numSubspaces = codebooks.length;
+      for (int index = fromIndex; index < toIndex; ++index) {
+        if (squaredNorms[index] == 0) {
+          scores[index - fromIndex] = 0;
+          continue;
+        }
+        double result = 0;
+        int position = index * numSubspaces;
+        for (int subspace = 0, tableStart = 0; subspace < numSubspaces; ++subspace, tableStart += numCentroids) {
+          result += products[tableStart + (codes[position + subspace] & 0xFF)];
+        }
+        scores[index - fromIndex] = result / Math.sqrt(squaredNorm * squaredNorms[index]);
+      }
+    }
+  }
+
+  @Override
+  public Vector getVector(Object object) {
+    Integer index = objectIndices.get(object);
+    return (index == null) ? null : getVectorAt(index);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return objectIndices.containsKey(object);
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new Enumeration<ObjectVector>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return index < numVectors;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (index >= numVectors) {
+          throw new NoSuchElementException();
+        }
+        ObjectVector objectVector = new ObjectVector(objects[index], getVectorAt(index));
+        ++index;
+        return objectVector;
+      }
+    };
+  }
+
+  @Override
+  public synchronized void close() {
+    if (rerankVectorStore != null) {
+      rerankVectorStore.close();
+    }
+  }
+}
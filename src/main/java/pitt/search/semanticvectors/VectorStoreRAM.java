@@ -43,6 +43,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
 import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
@@ -92,7 +93,13 @@ public class VectorStoreRAM implements VectorStore {
     return store;
   }
   
-  /** Initializes a vector store from disk. */
+  /**
+   * Initializes a vector store from disk.
+   *
+   * {@link VectorType#COMPLEX} vectors are transformed to dense polar form as they are read,
+   * since they are compared in that form and comparisons leave the vectors they are compared
+   * with unchanged.
+   */
   public void initFromFile(String vectorFile) throws IOException {
     CloseableVectorStore vectorReaderDisk = VectorStoreReader.openVectorStore(vectorFile, flagConfig);
     Enumeration<ObjectVector> vectorEnumeration = vectorReaderDisk.getAllVectors();
@@ -100,6 +107,9 @@ public class VectorStoreRAM implements VectorStore {
     logger.fine("Reading vectors from store on disk into memory cache  ...");
     while (vectorEnumeration.hasMoreElements()) {
       ObjectVector objectVector = vectorEnumeration.nextElement();
+      if (flagConfig.vectortype() == VectorType.COMPLEX) {
+        ((ComplexVector) objectVector.getVector()).toDensePolar();
+      }
       this.objectVectors.put(objectVector.getObject().toString(), objectVector);
     }
     vectorReaderDisk.close();
@@ -62,6 +62,14 @@ public class VectorStoreReader {
     case TEXT:
       vectorStore = new VectorStoreReaderText(storeName, flagConfig);
       break;
+    case MAPPED:
+    case INT8:
+    case FLOAT16:
+      vectorStore = new VectorStoreReaderMapped(storeName, flagConfig);
+      break;
+    case PQ:
+      vectorStore = new VectorStoreProductQuantized(storeName, flagConfig);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
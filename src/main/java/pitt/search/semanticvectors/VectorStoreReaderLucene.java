@@ -48,6 +48,7 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorType;
 import pitt.search.semanticvectors.vectors.VectorFactory;
@@ -61,6 +62,10 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
    The implementation uses Lucene's I/O package, which proved much faster
    than the native java.io.DataOutputStream.
    
+   Lookups by object use a {@link VectorStoreOffsetIndex}, read from the index file
+   written alongside the vector store if there is an up-to-date one, and otherwise built
+   with a single pass through the store the first time it is needed.
+
    Attempts to be thread-safe but this is not fully tested.
    
    @see ObjectVector
@@ -73,8 +78,17 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   private File vectorFile;
   private Directory directory;
   private FlagConfig flagConfig;
+  /**
+   * Vector type, dimension and complex encoding from this store's header. These are kept here
+   * because the same flagConfig may later be changed by opening another store.
+   */
+  private final VectorType vectorType;
+  private final int dimension;
+  private final ComplexVector.Encoding complexEncoding;
   
   private ThreadLocal<IndexInput> threadLocalIndexInput;
+  private volatile VectorStoreOffsetIndex offsetIndex;
+  private long dataStartOffset;
 
   public IndexInput getIndexInput() {
     return threadLocalIndexInput.get();
@@ -100,6 +114,9 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
         }
       };
       readHeadersFromIndexInput(flagConfig);
+      this.vectorType = flagConfig.vectortype();
+      this.dimension = flagConfig.dimension();
+      this.complexEncoding = flagConfig.complexencoding();
     } catch (IOException e) {
       logger.warning("Cannot open file: " + this.vectorFileName + "\n" + e.getMessage());
       throw e;
@@ -115,6 +132,9 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
     this.threadLocalIndexInput = threadLocalIndexInput;
     this.flagConfig = flagConfig;
     readHeadersFromIndexInput(flagConfig);
+    this.vectorType = flagConfig.vectortype();
+    this.dimension = flagConfig.dimension();
+    this.complexEncoding = flagConfig.complexencoding();
   }
 
   /**
@@ -125,6 +145,82 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   public void readHeadersFromIndexInput(FlagConfig flagConfig) throws IOException {
     String header = threadLocalIndexInput.get().readString();
     FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    dataStartOffset = threadLocalIndexInput.get().getFilePointer();
+  }
+
+  /**
+   * Returns the offset index for this store, reading it from the index file if there is
+   * an up-to-date one, or else building it by scanning the store.
+   */
+  private VectorStoreOffsetIndex getOffsetIndex() throws IOException {
+    if (offsetIndex == null) {
+      synchronized (this) {
+        if (offsetIndex == null) {
+          offsetIndex = loadOrBuildOffsetIndex();
+        }
+      }
+    }
+    return offsetIndex;
+  }
+
+  private VectorStoreOffsetIndex loadOrBuildOffsetIndex() throws IOException {
+    if (directory != null) {
+      VectorStoreOffsetIndex loadedIndex = VectorStoreOffsetIndex.readFromDirectory(
+          directory, VectorStoreOffsetIndex.getIndexFileName(vectorFile.getName()), getIndexInput());
+      if (loadedIndex != null) {
+        return loadedIndex;
+      }
+    }
+    return buildOffsetIndex();
+  }
+
+  private synchronized VectorStoreOffsetIndex buildOffsetIndex() throws IOException {
+    VerbatimLogger.info("Building offset index for vector store " + vectorFileName + " ... ");
+    getIndexInput().seek(dataStartOffset);
+    VectorStoreOffsetIndex builtIndex = VectorStoreOffsetIndex.buildFromIndexInput(
+        getIndexInput(), VectorFactory.getLuceneByteSize(
+            vectorType, dimension, complexEncoding));
+    VerbatimLogger.info("indexed " + builtIndex.getNumVectors() + " vectors.\n");
+    return builtIndex;
+  }
+
+  /**
+   * Positions this thread's input at the start of the vector for the given object.
+   *
+   * @return true if the store contains the object, false otherwise
+   */
+  private boolean seekToVector(String stringTarget) throws IOException {
+    for (int attempt = 0; attempt < 2; ++attempt) {
+      Long offset = getOffsetIndex().getOffset(stringTarget);
+      if (offset == null) {
+        return false;
+      }
+      if (stringTarget.equals(readObjectAt(offset))) {
+        return true;
+      }
+      // The index file doesn't describe this store after all, so rebuild the index from the store.
+      logger.warning("Offset index for " + vectorFileName + " is out of date, rebuilding.");
+      offsetIndex = buildOffsetIndex();
+    }
+    return false;
+  }
+
+  /**
+   * Positions this thread's input just after the object string of the entry at the given offset.
+   *
+   * @return the object, or null if there is no entry at the offset
+   */
+  private String readObjectAt(long offset) {
+    IndexInput indexInput = getIndexInput();
+    if (offset < dataStartOffset || offset >= indexInput.length()) {
+      return null;
+    }
+    try {
+      indexInput.seek(offset);
+      return indexInput.readString();
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
   }
 
   public void close() {
@@ -166,24 +262,13 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
    * @return vector from the VectorStore, or null if not found.
    */
   public Vector getVector(Object desiredObject) {
+    String stringTarget = desiredObject.toString();
     try {
-      String stringTarget = desiredObject.toString();
-      getIndexInput().seek(0);
-      // Skip header line.
-      getIndexInput().readString();
-      while (getIndexInput().getFilePointer() < getIndexInput().length() - 1) {
-        String objectString = getIndexInput().readString();
-        if (objectString.equals(stringTarget)) {
-          VerbatimLogger.info("Found vector for '" + stringTarget + "'\n");
-          Vector vector = VectorFactory.createZeroVector(
-              flagConfig.vectortype(), flagConfig.dimension());
-          vector.readFromLuceneStream(getIndexInput());
-          return vector;
-        }
-        else{
-          getIndexInput().seek(getIndexInput().getFilePointer()
-              + VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension()));
-        }
+      if (seekToVector(stringTarget)) {
+        VerbatimLogger.info("Found vector for '" + stringTarget + "'\n");
+        Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
+        VectorFactory.readFromLuceneStream(vector, complexEncoding, getIndexInput());
+        return vector;
       }
     }
     catch (IOException e) {
@@ -194,16 +279,15 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   }
 
   /**
-   * Trivial (costly) implementation of getNumVectors that iterates and counts vectors.
+   * Returns the number of vectors in the store, as counted by the offset index.
    */
   public int getNumVectors() {
-    Enumeration<ObjectVector> allVectors = this.getAllVectors();
-    int i = 0;
-    while (allVectors.hasMoreElements()) {
-      allVectors.nextElement();
-      ++i;
+    try {
+      return getOffsetIndex().getNumVectors();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 0;
     }
-    return i;
   }
   
   /**
@@ -223,10 +307,10 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
 
     public ObjectVector nextElement() {
       String object = null;
-      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
       try {
         object = indexInput.readString();
-        vector.readFromLuceneStream(indexInput);
+        VectorFactory.readFromLuceneStream(vector, complexEncoding, indexInput);
       }
       catch (IOException e) {
         e.printStackTrace();
@@ -237,7 +321,12 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   
   @Override
   public boolean containsVector(Object object) {
-	  return this.getVector(object) != null;
+    try {
+      return seekToVector(object.toString());
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
   }
 
 }
@@ -0,0 +1,433 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.QuantizedVectorUtils;
+import pitt.search.semanticvectors.vectors.QuantizedVectorUtils.Encoding;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.SerializedVectorUtils;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Reads vector stores written in the {@link VectorStoreUtils.VectorStoreFormat#MAPPED} format,
+ * serving them straight from memory mapped files.
+ *
+ * <p>
+ * The format (see {@link #writeToIndexOutput}) is the usual header string, followed by a
+ * block of vectors, each serialized exactly as by {@link Vector#writeToLuceneStream}, or by
+ * {@link ComplexVector#writePhaseAnglesToLuceneStream} if the header gives that
+ * {@link FlagConfig#complexencoding()}, so every vector takes up the same number of bytes.
+ * The object strings and a table of their offsets come after the vectors, and the file ends
+ * with the position of that table and the number of vectors. Opening a store therefore only reads the header and trailer, however large the
+ * store is, and since the operating system shares mapped pages, several processes can search
+ * the same store using one copy in memory.
+ *
+ * <p>
+ * Search scans use {@link #measureOverlaps}, which scores real and binary vectors, and complex
+ * vectors written with {@link ComplexVector.Encoding#PHASE}, directly from the mapped bytes.
+ *
+ * <p>
+ * The {@link VectorStoreUtils.VectorStoreFormat#INT8} and
+ * {@link VectorStoreUtils.VectorStoreFormat#FLOAT16} formats use the same layout for real
+ * vectors, but encode each vector using fewer bytes as described in {@link QuantizedVectorUtils}.
+ * Which of these a file uses is given by {@link FlagConfig#indexfileformat()} when it is
+ * opened, as for other formats.
+ */
+public class VectorStoreReaderMapped implements CloseableVectorStore, RandomAccessVectorStore {
+  private static final Logger logger = Logger.getLogger(
+      VectorStoreReaderMapped.class.getCanonicalName());
+
+  /** The vector block starts at a multiple of this many bytes from the start of the file. */
+  public static final int VECTOR_BLOCK_ALIGNMENT = 64;
+
+  /** Length of the trailer giving the string table position and number of vectors. */
+  private static final int TRAILER_LENGTH = 12;
+
+  private final String vectorFileName;
+  private final File vectorFile;
+  private final FlagConfig flagConfig;
+  private final Directory directory;
+  private final ThreadLocal<IndexInput> threadLocalIndexInput;
+  /** Encoding of quantized vectors, or null for vectors written by {@link Vector#writeToLuceneStream}. */
+  private final Encoding encoding;
+  /**
+   * Vector type, dimension and complex encoding from this store's header. These are kept here
+   * because the same flagConfig may later be changed by opening another store.
+   */
+  private final VectorType vectorType;
+  private final int dimension;
+  private final ComplexVector.Encoding complexEncoding;
+
+  private int numVectors;
+  private int vectorByteSize;
+  private long vectorBlockStart;
+  private long stringOffsetsStart;
+
+  /** Mapped views of the vector block, each holding a whole number of vectors. */
+  private MappedByteBuffer[] vectorBuffers;
+  private int vectorsPerBuffer;
+
+  private volatile Map<String, Integer> objectIndex;
+
+  public VectorStoreReaderMapped(String vectorFileName, FlagConfig flagConfig) throws IOException {
+    this.flagConfig = flagConfig;
+    this.vectorFileName = vectorFileName;
+    this.vectorFile = new File(vectorFileName);
+    this.encoding = getEncoding(flagConfig);
+    String parentPath = this.vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    try {
+      this.directory = new MMapDirectory(FileSystems.getDefault().getPath(parentPath));
+      this.threadLocalIndexInput = new ThreadLocal<IndexInput>() {
+        @Override
+        protected IndexInput initialValue() {
+          try {
+            return directory.openInput(vectorFile.getName(), IOContext.READ);
+          } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+          }
+        }
+      };
+      readHeadersAndTrailer();
+      this.vectorType = flagConfig.vectortype();
+      this.dimension = flagConfig.dimension();
+      this.complexEncoding = flagConfig.complexencoding();
+      mapVectorBlock();
+    } catch (IOException e) {
+      logger.warning("Cannot open file: " + this.vectorFileName + "\n" + e.getMessage());
+      throw e;
+    }
+  }
+
+  private IndexInput getIndexInput() {
+    return threadLocalIndexInput.get();
+  }
+
+  private void readHeadersAndTrailer() throws IOException {
+    IndexInput indexInput = getIndexInput();
+    String header = indexInput.readString();
+    FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    vectorByteSize = getVectorByteSize(encoding, flagConfig);
+    vectorBlockStart = alignedPosition(indexInput.getFilePointer());
+    indexInput.seek(indexInput.length() - TRAILER_LENGTH);
+    stringOffsetsStart = indexInput.readLong();
+    numVectors = indexInput.readInt();
+  }
+
+  private void mapVectorBlock() throws IOException {
+    vectorsPerBuffer = Math.max(1, Integer.MAX_VALUE / vectorByteSize);
+    int numBuffers = (numVectors + vectorsPerBuffer - 1) / vectorsPerBuffer;
+    vectorBuffers = new MappedByteBuffer[numBuffers];
+    RandomAccessFile randomAccessFile = new RandomAccessFile(vectorFile, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      for (int i = 0; i < numBuffers; ++i) {
+        int vectorsInBuffer = Math.min(vectorsPerBuffer, numVectors - i * vectorsPerBuffer);
+        vectorBuffers[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            vectorBlockStart + (long) i * vectorsPerBuffer * vectorByteSize,
+            (long) vectorsInBuffer * vectorByteSize);
+      }
+    } finally {
+      // Mappings remain valid after the channel is closed.
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Returns the encoding used for the vectors in files of the format given by
+   * {@link FlagConfig#indexfileformat()}, or null if they are not quantized.
+   */
+  private static Encoding getEncoding(FlagConfig flagConfig) {
+    switch (flagConfig.indexfileformat()) {
+    case INT8:
+      return Encoding.INT8;
+    case FLOAT16:
+      return Encoding.FLOAT16;
+    default:
+      return null;
+    }
+  }
+
+  private static int getVectorByteSize(Encoding encoding, FlagConfig flagConfig) throws IOException {
+    if (encoding == null) {
+      return VectorFactory.getLuceneByteSize(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.complexencoding());
+    }
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IOException("The " + flagConfig.indexfileformat() + " format is only supported for "
+          + "real vectors, not " + flagConfig.vectortype());
+    }
+    return QuantizedVectorUtils.getByteSize(encoding, flagConfig.dimension());
+  }
+
+  private static long alignedPosition(long position) {
+    long remainder = position % VECTOR_BLOCK_ALIGNMENT;
+    return (remainder == 0) ? position : position + VECTOR_BLOCK_ALIGNMENT - remainder;
+  }
+
+  /**
+   * Writes the object vectors to this Lucene output stream in the format read by this class,
+   * quantizing them if {@link FlagConfig#indexfileformat()} is
+   * {@link VectorStoreUtils.VectorStoreFormat#INT8} or {@link VectorStoreUtils.VectorStoreFormat#FLOAT16}.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig,
+      IndexOutput outputStream) throws IOException {
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    long vectorBlockStart = alignedPosition(outputStream.getFilePointer());
+    while (outputStream.getFilePointer() < vectorBlockStart) {
+      outputStream.writeByte((byte) 0);
+    }
+
+    // Write the vectors, keeping the objects to write afterwards.
+    Encoding encoding = getEncoding(flagConfig);
+    int vectorByteSize;
+    try {
+      vectorByteSize = getVectorByteSize(encoding, flagConfig);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage());
+    }
+    ArrayList<String> objects = new ArrayList<String>();
+    Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      long expectedPosition = outputStream.getFilePointer() + vectorByteSize;
+      if (encoding == null) {
+        VectorFactory.writeToLuceneStream(objectVector.getVector(), flagConfig.complexencoding(), outputStream);
+      } else {
+        QuantizedVectorUtils.writeVector(encoding, (RealVector) objectVector.getVector(), outputStream);
+      }
+      if (outputStream.getFilePointer() != expectedPosition) {
+        throw new IllegalStateException("Vector for '" + objectVector.getObject()
+            + "' did not serialize to " + vectorByteSize + " bytes.");
+      }
+      objects.add(objectVector.getObject().toString());
+    }
+
+    // Write the string table, then the offsets of the strings, then the trailer.
+    long[] stringOffsets = new long[objects.size()];
+    for (int i = 0; i < objects.size(); ++i) {
+      stringOffsets[i] = outputStream.getFilePointer();
+      outputStream.writeString(objects.get(i));
+    }
+    long stringOffsetsStart = outputStream.getFilePointer();
+    for (long stringOffset : stringOffsets) {
+      outputStream.writeLong(stringOffset);
+    }
+    outputStream.writeLong(stringOffsetsStart);
+    outputStream.writeInt(objects.size());
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  @Override
+  public Object getObjectAt(int index) {
+    try {
+      IndexInput indexInput = getIndexInput();
+      indexInput.seek(stringOffsetsStart + 8L * index);
+      indexInput.seek(indexInput.readLong());
+      return indexInput.readString();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public Vector getVectorAt(int index) {
+    try {
+      IndexInput indexInput = getIndexInput();
+      indexInput.seek(vectorBlockStart + (long) index * vectorByteSize);
+      if (encoding != null) {
+        return QuantizedVectorUtils.readVector(encoding, dimension, indexInput);
+      }
+      Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
+      VectorFactory.readFromLuceneStream(vector, complexEncoding, indexInput);
+      return vector;
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /** Returns a scorer that calls {@link #measureOverlaps}, since there is nothing to precompute. */
+  @Override
+  public OverlapScorer getOverlapScorer(final Vector queryVector) {
+    return new OverlapScorer() {
+      @Override
+      public void measureOverlaps(int fromIndex, int toIndex, double[] scores) {
+        VectorStoreReaderMapped.this.measureOverlaps(queryVector, fromIndex, toIndex, scores);
+      }
+    };
+  }
+
+  @Override
+  public void measureOverlaps(Vector queryVector, int fromIndex, int toIndex, double[] scores) {
+    boolean quantized = encoding != null && queryVector.getVectorType() == VectorType.REAL;
+    boolean phaseAngles = complexEncoding == ComplexVector.Encoding.PHASE
+        && SerializedVectorUtils.supportsSerializedPhaseOverlap(queryVector);
+    if (!quantized && !phaseAngles
+        && !SerializedVectorUtils.supportsSerializedOverlap(queryVector.getVectorType())) {
+      for (int i = fromIndex; i < toIndex; ++i) {
+        scores[i - fromIndex] = queryVector.measureOverlap(getVectorAt(i));
+      }
+      return;
+    }
+    int index = fromIndex;
+    while (index < toIndex) {
+      int bufferNumber = index / vectorsPerBuffer;
+      int indexInBuffer = index % vectorsPerBuffer;
+      int count = Math.min(toIndex - index, vectorsPerBuffer - indexInBuffer);
+      // Duplicate so that concurrent searches don't share buffer state.
+      if (quantized) {
+        QuantizedVectorUtils.measureOverlaps(encoding, (RealVector) queryVector,
+            vectorBuffers[bufferNumber].duplicate(), indexInBuffer * vectorByteSize, vectorByteSize,
+            count, scores, index - fromIndex);
+      } else if (phaseAngles) {
+        SerializedVectorUtils.measurePhaseOverlaps((ComplexVector) queryVector,
+            vectorBuffers[bufferNumber].duplicate(), indexInBuffer * vectorByteSize, vectorByteSize,
+            count, scores, index - fromIndex);
+      } else {
+        SerializedVectorUtils.measureOverlaps(queryVector, vectorBuffers[bufferNumber].duplicate(),
+            indexInBuffer * vectorByteSize, vectorByteSize, count, scores, index - fromIndex);
+      }
+      index += count;
+    }
+  }
+
+  /**
+   * Returns the position of each object in the store, reading all the object strings
+   * the first time it is called.
+   */
+  private Map<String, Integer> getObjectIndex() {
+    if (objectIndex == null) {
+      synchronized (this) {
+        if (objectIndex == null) {
+          Map<String, Integer> newIndex = new HashMap<String, Integer>();
+          try {
+            IndexInput indexInput = getIndexInput();
+            if (numVectors > 0) {
+              indexInput.seek(stringOffsetsStart);
+              indexInput.seek(indexInput.readLong());
+            }
+            for (int i = 0; i < numVectors; ++i) {
+              String object = indexInput.readString();
+              if (!newIndex.containsKey(object)) {
+                newIndex.put(object, i);
+              }
+            }
+          } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+          }
+          objectIndex = newIndex;
+        }
+      }
+    }
+    return objectIndex;
+  }
+
+  @Override
+  public Vector getVector(Object object) {
+    Integer index = getObjectIndex().get(object.toString());
+    if (index == null) {
+      return null;
+    }
+    return getVectorAt(index);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getObjectIndex().containsKey(object.toString());
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new Enumeration<ObjectVector>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return index < numVectors;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (index >= numVectors) {
+          throw new NoSuchElementException();
+        }
+        ObjectVector objectVector = new ObjectVector(getObjectAt(index), getVectorAt(index));
+        ++index;
+        return objectVector;
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    try {
+      getIndexInput().close();
+      directory.close();
+    } catch (IOException e) {
+      logger.severe("Failed to close() directory resources: have they already been destroyed?");
+      e.printStackTrace();
+    }
+    // The mappings themselves are released when the buffers are garbage collected.
+    vectorBuffers = null;
+  }
+}
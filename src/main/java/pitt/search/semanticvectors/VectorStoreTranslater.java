@@ -37,17 +37,23 @@ import java.io.IOException;
 import java.lang.IllegalArgumentException;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.VectorType;
 
 /**
  * Class providing command-line interface for transforming vector
- * store between the optimized Lucene format and plain text.
+ * store between the optimized Lucene format and plain text, or from the
+ * Lucene format to the memory mapped format. Stores of complex vectors can
+ * also be rewritten in the Lucene format using the other
+ * {@link FlagConfig#complexencoding()}.
  */
 public class VectorStoreTranslater {
   public static String usageMessage = "VectorStoreTranslater class in pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvector.VectorStoreTranslater -option INFILE OUTFILE"
-      + "\n -option can be: -lucenetotext or -texttolucene";
+      + "\n -option can be: -lucenetotext, -texttolucene, -lucenetomapped, -lucenetopq,"
+      + "\n     -lucenetoint8, -lucenetofloat16, -lucenetophase or -lucenetocartesian";
 
-  private enum Options { LUCENE_TO_TEXT, TEXT_TO_LUCENE }
+  private enum Options { LUCENE_TO_TEXT, TEXT_TO_LUCENE, LUCENE_TO_MAPPED, LUCENE_TO_PQ,
+    LUCENE_TO_INT8, LUCENE_TO_FLOAT16, LUCENE_TO_PHASE, LUCENE_TO_CARTESIAN }
 
   /**
    * Command line method for performing index translation.
@@ -64,6 +70,12 @@ public class VectorStoreTranslater {
     Options option = null;
     if (args[0].equalsIgnoreCase("-lucenetotext")) { option = Options.LUCENE_TO_TEXT; }
     else if (args[0].equalsIgnoreCase("-texttolucene")) { option = Options.TEXT_TO_LUCENE; }
+    else if (args[0].equalsIgnoreCase("-lucenetomapped")) { option = Options.LUCENE_TO_MAPPED; }
+    else if (args[0].equalsIgnoreCase("-lucenetopq")) { option = Options.LUCENE_TO_PQ; }
+    else if (args[0].equalsIgnoreCase("-lucenetoint8")) { option = Options.LUCENE_TO_INT8; }
+    else if (args[0].equalsIgnoreCase("-lucenetofloat16")) { option = Options.LUCENE_TO_FLOAT16; }
+    else if (args[0].equalsIgnoreCase("-lucenetophase")) { option = Options.LUCENE_TO_PHASE; }
+    else if (args[0].equalsIgnoreCase("-lucenetocartesian")) { option = Options.LUCENE_TO_CARTESIAN; }
     else {
       System.err.println(usageMessage);
       throw new IllegalArgumentException();
@@ -100,5 +112,49 @@ public class VectorStoreTranslater {
       VectorStoreWriter.writeVectorsInLuceneFormat(outfile, flagConfig, vecReader);
       vecReader.close();
     }
+
+    // Convert Lucene-style index to memory mapped format.
+    if (option == Options.LUCENE_TO_MAPPED) {
+      VectorStoreReaderLucene vecReader = new VectorStoreReaderLucene(infile, flagConfig);
+      VerbatimLogger.info("Writing term vectors to " + outfile + "\n");
+      VectorStoreWriter.writeVectorsInMappedFormat(outfile, flagConfig, vecReader);
+      vecReader.close();
+    }
+
+    // Convert Lucene-style index to product quantized format, with default codebook sizes.
+    if (option == Options.LUCENE_TO_PQ) {
+      VectorStoreReaderLucene vecReader = new VectorStoreReaderLucene(infile, flagConfig);
+      VerbatimLogger.info("Writing term vectors to " + outfile + "\n");
+      VectorStoreWriter.writeVectorsInProductQuantizedFormat(outfile, flagConfig, vecReader);
+      vecReader.close();
+    }
+
+    // Convert Lucene-style index to mapped format with quantized real vectors.
+    if (option == Options.LUCENE_TO_INT8 || option == Options.LUCENE_TO_FLOAT16) {
+      FlagConfig quantizedFlagConfig = FlagConfig.getFlagConfig(new String[] {"-indexfileformat",
+          (option == Options.LUCENE_TO_INT8) ? "int8" : "float16"});
+      VectorStoreReaderLucene vecReader = new VectorStoreReaderLucene(infile, quantizedFlagConfig);
+      VerbatimLogger.info("Writing term vectors to " + outfile + "\n");
+      VectorStoreWriter.writeVectorsInMappedFormat(outfile, quantizedFlagConfig, vecReader);
+      vecReader.close();
+    }
+
+    // Rewrite Lucene-style index of complex vectors with phase angle or cartesian encoding.
+    // The encoding of the input is given by its header.
+    if (option == Options.LUCENE_TO_PHASE || option == Options.LUCENE_TO_CARTESIAN) {
+      VectorStoreReaderLucene vecReader = new VectorStoreReaderLucene(infile, flagConfig);
+      if (flagConfig.vectortype() != VectorType.COMPLEX) {
+        vecReader.close();
+        throw new IllegalArgumentException("Only stores of complex vectors can be written with "
+            + "a different encoding, not: " + flagConfig.vectortype());
+      }
+      FlagConfig encodedFlagConfig = FlagConfig.getFlagConfig(new String[] {
+          "-vectortype", flagConfig.vectortype().toString(),
+          "-dimension", Integer.toString(flagConfig.dimension()),
+          "-complexencoding", (option == Options.LUCENE_TO_PHASE) ? "phase" : "cartesian"});
+      VerbatimLogger.info("Writing term vectors to " + outfile + "\n");
+      VectorStoreWriter.writeVectorsInLuceneFormat(outfile, encodedFlagConfig, vecReader);
+      vecReader.close();
+    }
   }
 }
@@ -40,14 +40,30 @@
      LUCENE,
 
      /** Plan text format, used for interchange with external systems. */
-     TEXT
+     TEXT,
+
+     /** Fixed-stride binary format that is memory mapped, see {@link VectorStoreReaderMapped}. */
+     MAPPED,
+
+     /** Product quantized real vectors, see {@link VectorStoreProductQuantized}. */
+     PQ,
+
+     /** Mapped format with real vectors stored as one byte per coordinate, see {@link VectorStoreReaderMapped}. */
+     INT8,
+
+     /** Mapped format with real vectors stored as half precision floats, see {@link VectorStoreReaderMapped}. */
+     FLOAT16
    }
 
    /**
     * Returns "$storeName.bin" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#LUCENE}.
     * Returns "$storeName.txt" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#TEXT}.
+    * Returns "$storeName.vec" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#MAPPED}.
+    * Returns "$storeName.pq" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#PQ}.
+    * Returns "$storeName.i8" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#INT8}.
+    * Returns "$storeName.f16" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#FLOAT16}.
     * 
-    * Method is idempotent: if file already ends with ".bin" or ".txt" as appropriate, input
+    * Method is idempotent: if file already ends with the appropriate extension, input
     * is returned unchanged.
     */
    public static String getStoreFileName(String storeName, FlagConfig flagConfig) {
@@ -66,6 +82,34 @@
        else {
          return storeName + ".txt";
        }
+     case MAPPED:
+       if (storeName.endsWith(".vec")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".vec";
+       }
+     case PQ:
+       if (storeName.endsWith(".pq")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".pq";
+       }
+     case INT8:
+       if (storeName.endsWith(".i8")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".i8";
+       }
+     case FLOAT16:
+       if (storeName.endsWith(".f16")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".f16";
+       }
      default:
        throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
      }
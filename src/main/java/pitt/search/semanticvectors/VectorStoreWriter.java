@@ -40,6 +40,8 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -71,12 +73,19 @@ public class VectorStoreWriter {
    * "-vectortype real -dimension 100".
    */
   public static String generateHeaderString(FlagConfig flagConfig) {
-    return "-vectortype " + flagConfig.vectortype().toString()
+    String header = "-vectortype " + flagConfig.vectortype().toString()
         + " -dimension " + Integer.toString(flagConfig.dimension());
+    // Only written when needed, so that stores in the default encoding can still be read by
+    // versions that don't know about this flag, and those that can't be aren't misread.
+    if (flagConfig.complexencoding() != ComplexVector.Encoding.CARTESIAN) {
+      header += " -complexencoding " + flagConfig.complexencoding().toString();
+    }
+    return header;
   }
 
   /**
-   * Writes vectors in text or lucene format depending on {@link FlagConfig#indexfileformat}.
+   * Writes vectors in text, lucene, mapped or product quantized format depending on
+   * {@link FlagConfig#indexfileformat}.
    * 
    * @param storeName The name of the vector store to write to
    * @param objectVectors The vector store to be written to disk
@@ -91,6 +100,14 @@ public class VectorStoreWriter {
     case TEXT:
       writeVectorsInTextFormat(vectorFileName, flagConfig, objectVectors);
       break;
+    case MAPPED:
+    case INT8:
+    case FLOAT16:
+      writeVectorsInMappedFormat(vectorFileName, flagConfig, objectVectors);
+      break;
+    case PQ:
+      writeVectorsInProductQuantizedFormat(vectorFileName, flagConfig, objectVectors);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
@@ -111,17 +128,74 @@ public class VectorStoreWriter {
     if (parentPath == null) parentPath = "";
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
     IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
-    writeToIndexOutput(objectVectors, flagConfig, outputStream);
+    VectorStoreOffsetIndex offsetIndex = new VectorStoreOffsetIndex();
+    writeToIndexOutput(objectVectors, flagConfig, outputStream, offsetIndex);
     outputStream.close();
+    // Write the offset index alongside, so that readers can seek directly to each vector.
+    offsetIndex.writeToDirectory(fsDirectory, vectorFile.getName());
     fsDirectory.close();
   }
 
+  /**
+   * Outputs a vector store in the fixed-stride format read by {@link VectorStoreReaderMapped},
+   * with vectors quantized if {@link FlagConfig#indexfileformat()} asks for this.
+   * 
+   * @param vectorFileName The name of the file to write to
+   * @param objectVectors The vector store to be written to disk
+   */
+  public static void writeVectorsInMappedFormat(String vectorFileName, FlagConfig flagConfig, VectorStore objectVectors)
+      throws IOException {
+    VerbatimLogger.info("About to write " + objectVectors.getNumVectors() + " vectors of dimension "
+        + flagConfig.dimension() + " to " + flagConfig.indexfileformat().toString().toLowerCase()
+        + " format file: " + vectorFileName + " ... ");
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    VectorStoreReaderMapped.writeToIndexOutput(objectVectors, flagConfig, outputStream);
+    outputStream.close();
+    fsDirectory.close();
+    VerbatimLogger.info("finished writing vectors.\n");
+  }
+
+  /**
+   * Outputs a vector store in the compressed format read by {@link VectorStoreProductQuantized}.
+   * 
+   * @param vectorFileName The name of the file to write to
+   * @param objectVectors The vector store to be written to disk
+   */
+  public static void writeVectorsInProductQuantizedFormat(String vectorFileName, FlagConfig flagConfig,
+      VectorStore objectVectors) throws IOException {
+    VerbatimLogger.info("About to write " + objectVectors.getNumVectors() + " vectors of dimension "
+        + flagConfig.dimension() + " to product quantized format file: " + vectorFileName + " ... ");
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    VectorStoreProductQuantized.writeToIndexOutput(objectVectors, flagConfig, outputStream);
+    outputStream.close();
+    fsDirectory.close();
+    VerbatimLogger.info("finished writing vectors.\n");
+  }
+
   /**
    * Writes the object vectors to this Lucene output stream.
    * Caller is responsible for opening and closing stream output stream.
    */
   public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig, IndexOutput outputStream)
       throws IOException {
+    writeToIndexOutput(objectVectors, flagConfig, outputStream, null);
+  }
+
+  /**
+   * Writes the object vectors to this Lucene output stream, recording the offset of each
+   * entry in {@code offsetIndex} if this is not null.
+   * Caller is responsible for opening and closing stream output stream.
+   */
+  public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig,
+      IndexOutput outputStream, VectorStoreOffsetIndex offsetIndex) throws IOException {
     // Write header giving vector type and dimension for all vectors.
     outputStream.writeString(generateHeaderString(flagConfig));
     Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
@@ -129,8 +203,12 @@ public class VectorStoreWriter {
     // Write each vector.
     while (vecEnum.hasMoreElements()) {
       ObjectVector objectVector = vecEnum.nextElement();
-      outputStream.writeString(objectVector.getObject().toString());
-      objectVector.getVector().writeToLuceneStream(outputStream);
+      String object = objectVector.getObject().toString();
+      if (offsetIndex != null) {
+        offsetIndex.addOffset(object, outputStream.getFilePointer());
+      }
+      outputStream.writeString(object);
+      VectorFactory.writeToLuceneStream(objectVector.getVector(), flagConfig.complexencoding(), outputStream);
     }
     VerbatimLogger.info("finished writing vectors.\n");
   }
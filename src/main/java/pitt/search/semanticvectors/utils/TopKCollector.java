@@ -0,0 +1,202 @@
+package pitt.search.semanticvectors.utils;
+
+/**
+ * Keeps the k best-scoring candidates offered to it, using a min-heap stored in
+ * primitive arrays, so that offering a candidate allocates nothing.
+ *
+ * <p>
+ * Each candidate has a score, an integer index (for example its position in a vector store)
+ * and optionally a payload object. Candidates are ranked by descending score, and
+ * candidates with equal scores by ascending index, so the results don't depend on the
+ * order in which candidates are offered, or on how collectors are merged.
+ *
+ * <p>
+ * Typical use is to {@link #offer} all candidates, then call {@link #sortDescending} and read
+ * the results with {@link #getScore}, {@link #getIndex} and {@link #getPayload}.
+ * Not thread-safe: concurrent searches should use a collector each and {@link #merge} them.
+ */
+public class TopKCollector {
+  private final int k;
+  private final double minScore;
+  private final double[] scores;
+  private final int[] indices;
+  private final Object[] payloads;
+  private int size;
+  private boolean sorted;
+
+  /**
+   * Creates a collector for the best k candidates, whatever their scores.
+   */
+  public TopKCollector(int k) {
+    this(k, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Creates a collector for the best k candidates that score strictly more than {@code minScore}.
+   */
+  public TopKCollector(int k, double minScore) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Number of results must not be negative: " + k);
+    }
+    this.k = k;
+    this.minScore = minScore;
+    this.scores = new double[k];
+    this.indices = new int[k];
+    this.payloads = new Object[k];
+  }
+
+  /** Returns the maximum number of candidates kept. */
+  public int getK() {
+    return k;
+  }
+
+  /** Returns the number of candidates currently kept. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the score a new candidate must beat to be kept. Candidates scoring exactly this
+   * much may still be kept if they have a lower index than the current worst candidate.
+   */
+  public double getThreshold() {
+    if (size < k) {
+      return minScore;
+    }
+    return Math.max(minScore, scores[0]);
+  }
+
+  /**
+   * Offers a candidate without a payload.
+   *
+   * @return true if the candidate was kept
+   */
+  public boolean offer(double score, int index) {
+    return offer(score, index, null);
+  }
+
+  /**
+   * Offers a candidate, which is kept if it scores more than the minimum score and is better
+   * than the worst of the k candidates kept so far.
+   *
+   * @return true if the candidate was kept
+   */
+  public boolean offer(double score, int index, Object payload) {
+    if (sorted) {
+      throw new IllegalStateException("Cannot offer candidates after sortDescending().");
+    }
+    if (!(score > minScore) || k == 0) {
+      return false;
+    }
+    if (size < k) {
+      scores[size] = score;
+      indices[size] = index;
+      payloads[size] = payload;
+      siftUp(size);
+      ++size;
+      return true;
+    }
+    if (!isBetter(score, index, scores[0], indices[0])) {
+      return false;
+    }
+    scores[0] = score;
+    indices[0] = index;
+    payloads[0] = payload;
+    siftDown(0, size);
+    return true;
+  }
+
+  /**
+   * Offers all of the candidates kept by the other collector to this one.
+   */
+  public void merge(TopKCollector other) {
+    for (int i = 0; i < other.size; ++i) {
+      offer(other.scores[i], other.indices[i], other.payloads[i]);
+    }
+  }
+
+  /**
+   * Sorts the candidates kept into rank order, best first. After this, no more candidates
+   * can be offered.
+   */
+  public void sortDescending() {
+    if (sorted) return;
+    // Heap sort: repeatedly move the worst remaining candidate to the end.
+    for (int end = size - 1; end > 0; --end) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    sorted = true;
+  }
+
+  /** Returns the score of the candidate at this rank, see {@link #sortDescending}. */
+  public double getScore(int rank) {
+    checkSorted();
+    return scores[rank];
+  }
+
+  /** Returns the index of the candidate at this rank, see {@link #sortDescending}. */
+  public int getIndex(int rank) {
+    checkSorted();
+    return indices[rank];
+  }
+
+  /** Returns the payload of the candidate at this rank, see {@link #sortDescending}. */
+  public Object getPayload(int rank) {
+    checkSorted();
+    return payloads[rank];
+  }
+
+  private void checkSorted() {
+    if (!sorted) {
+      throw new IllegalStateException("Call sortDescending() before reading results.");
+    }
+  }
+
+  /** True if the first candidate ranks above the second. */
+  private static boolean isBetter(double score, int index, double otherScore, int otherIndex) {
+    return score > otherScore || (score == otherScore && index < otherIndex);
+  }
+
+  private void siftUp(int position) {
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (!isBetter(scores[parent], indices[parent], scores[position], indices[position])) {
+        return;
+      }
+      swap(parent, position);
+      position = parent;
+    }
+  }
+
+  private void siftDown(int position, int heapSize) {
+    while (true) {
+      int worst = position;
+      int left = 2 * position + 1;
+      int right = left + 1;
+      if (left < heapSize && isBetter(scores[worst], indices[worst], scores[left], indices[left])) {
+        worst = left;
+      }
+      if (right < heapSize && isBetter(scores[worst], indices[worst], scores[right], indices[right])) {
+        worst = right;
+      }
+      if (worst == position) {
+        return;
+      }
+      swap(position, worst);
+      position = worst;
+    }
+  }
+
+  private void swap(int i, int j) {
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+    int index = indices[i];
+    indices[i] = indices[j];
+    indices[j] = index;
+    Object payload = payloads[i];
+    payloads[i] = payloads[j];
+    payloads[j] = payload;
+  }
+}
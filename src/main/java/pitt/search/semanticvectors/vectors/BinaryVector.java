@@ -2,6 +2,7 @@ package pitt.search.semanticvectors.vectors;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -70,6 +71,12 @@ public class BinaryVector implements Vector {
   // Used only for temporary internal storage.
   private FixedBitSet tempSet;
 
+  /**
+   * Holds the bits of a permuted or bound vector while it is added to the voting record, so that
+   * {@link #superpose} and {@link #superposeBound} don't create a new vector every time.
+   */
+  private static final ThreadLocal<long[]> INCOMING_BITS = new ThreadLocal<long[]>();
+
   public BinaryVector(int dimension) {
     // Check "multiple-of-64" constraint, to facilitate permutation of 64-bit chunks
     if (dimension % 64 != 0) {
@@ -254,16 +261,63 @@ public class BinaryVector implements Vector {
             + " must have permutation of length " + dimension / 64
             + " not " + permutation.length);
       }
-      //TODO permute in place and reverse, to avoid creating a new BinaryVector here
-      BinaryVector temp = binaryOther.copy();
-      temp.permute(permutation);
-      superposeBitSet(temp.bitSet, weight);
+      // Permutes the words as permute() does, without changing the other vector.
+      long[] otherBits = binaryOther.bitSet.getBits();
+      long[] permutedBits = getIncomingBits(otherBits.length);
+      for (int i = 0; i < permutedBits.length; ++i) {
+        permutedBits[i] = otherBits[permutation[i]];
+      }
+      superposeBits(permutedBits, weight);
     }
     else {
       superposeBitSet(binaryOther.bitSet, weight);
     }
   }
 
+  @Override
+  /**
+   * Adds the binding of elemental with binder to this vector, as in {@link #superpose}. The
+   * bound bits are worked out into a buffer kept for the current thread, rather than a copy of
+   * elemental.
+   */
+  public void superposeBound(Vector elemental, Vector binder, double weight) {
+    IncompatibleVectorsException.checkVectorsCompatible(this, elemental);
+    IncompatibleVectorsException.checkVectorsCompatible(this, binder);
+    if (BINARY_BINDING_WITH_PERMUTE) {
+      BinaryVector bound = (BinaryVector) elemental.copy();
+      bound.bind(binder);
+      superpose(bound, weight, null);
+      return;
+    }
+    if (weight == 0d) return;
+    long[] elementalBits = ((BinaryVector) elemental).bitSet.getBits();
+    long[] binderBits = ((BinaryVector) binder).bitSet.getBits();
+    long[] boundBits = getIncomingBits(elementalBits.length);
+    long anyBits = 0;
+    for (int i = 0; i < boundBits.length; ++i) {
+      boundBits[i] = elementalBits[i] ^ binderBits[i];
+      anyBits |= boundBits[i];
+    }
+    if (anyBits == 0) return;
+    if (isSparse) {
+      if (Math.round(weight) != weight) {
+        decimalPlaces = BINARY_VECTOR_DECIMAL_PLACES; 
+      }
+      elementalToSemantic();
+    }
+    superposeBits(boundBits, weight);
+  }
+
+  /** Returns the buffer for incoming bits for the current thread, with the given length. */
+  private static long[] getIncomingBits(int numWords) {
+    long[] incomingBits = INCOMING_BITS.get();
+    if (incomingBits == null || incomingBits.length != numWords) {
+      incomingBits = new long[numWords];
+      INCOMING_BITS.set(incomingBits);
+    }
+    return incomingBits;
+  }
+
   /**
    * This method is the first of two required to facilitate superposition. The underlying representation
    * (i.e. the voting record) is an ArrayList of FixedBitSet, each with dimension "dimension", which can
@@ -279,29 +333,51 @@ public class BinaryVector implements Vector {
    * @param weight
    */
   protected void superposeBitSet(FixedBitSet incomingBitSet, double weight) {
+    superposeBits(incomingBitSet.getBits(), weight);
+  }
+
+  /** Does the work of {@link #superposeBitSet} on the words of the incoming bitset. */
+  private void superposeBits(long[] incomingBits, double weight) {
     // If fractional weights are used, encode all weights as integers (1000 x double value).
     weight = (int) Math.round(weight * Math.pow(10, decimalPlaces));
     if (weight == 0) return;
 
     // Keep track of number (or cumulative weight) of votes.
     totalNumberOfVotes += weight;
+    if (weight < 0) return;
+
+    trimSharedWeight();
+
+    // If some dimension has no votes and gets none from the incoming bitset, no weight can be
+    // shared by all dimensions until it has been added, so the steps below would never trim
+    // anything after the first. Adding all the weight at once gives the same voting record.
+    if (hasDimensionWithNoVotes(incomingBits)) {
+      addToVotingRecord(incomingBits, (int) weight, 0);
+      return;
+    }
 
     // Decompose superposition task such that addition of some power of 2 (e.g. 64) is accomplished
     // by beginning the process at the relevant row (e.g. 7) instead of starting multiple (e.g. 64)
-    // superposition processes at the first row.
+    // superposition processes at the first row. Shared weight is trimmed before each step.
+    boolean trimmed = true;
     int logFloorOfWeight = (int) (Math.floor(Math.log(weight)/Math.log(2)));
 
     if (logFloorOfWeight < votingRecord.size() - 1) {
       while (logFloorOfWeight > 0) {
-        superposeBitSetFromRowFloor(incomingBitSet, logFloorOfWeight);	
+        if (!trimmed) trimSharedWeight();
+        trimmed = false;
+        addToVotingRecord(incomingBits, 1, logFloorOfWeight);
         weight = weight - (int) Math.pow(2,logFloorOfWeight);
         logFloorOfWeight = (int) (Math.floor(Math.log(weight)/Math.log(2)));	
       }
     }
 
     // Add remaining component of weight incrementally.
-    for (int x = 0; x < weight; x++)
-      superposeBitSetFromRowFloor(incomingBitSet, 0);
+    for (int x = 0; x < weight; x++) {
+      if (!trimmed) trimSharedWeight();
+      trimmed = false;
+      addToVotingRecord(incomingBits, 1, 0);
+    }
   }
 
   /**
@@ -314,42 +390,91 @@ public class BinaryVector implements Vector {
    * @param rowfloor the index of the place in the voting record to start the sweep at
    */
   protected void superposeBitSetFromRowFloor(FixedBitSet incomingBitSet, int rowfloor) {
-    // Attempt to save space when minimum value across all columns > 0
-    // by decrementing across the board and raising the minimum where possible.
-    int max = getMaximumSharedWeight();	
+    trimSharedWeight();
+    addToVotingRecord(incomingBitSet.getBits(), 1, rowfloor);
+  }
 
+  /**
+   * Attempts to save space when minimum value across all columns > 0
+   * by decrementing across the board and raising the minimum where possible.
+   */
+  private void trimSharedWeight() {
+    int max = getMaximumSharedWeight();	
     if (max > 0) {	
       decrement(max);
     }
+  }
 
-    // Handle overflow: if any column that will be incremented
-    // contains all 1's, add a new row to the voting record.
-    tempSet.xor(tempSet);
-    tempSet.xor(incomingBitSet);
-
-    for (int x = rowfloor; x < votingRecord.size() && tempSet.cardinality() > 0; x++) {
-      tempSet.and(votingRecord.get(x));
+  /**
+   * Adds weight * 2^rowfloor to the count of every dimension in which the incoming bits contain
+   * a '1', adding rows to the voting record when a count overflows the top row.
+   * 
+   * The voting record is treated as 64 binary counters per word, all incremented at once: each
+   * bit of the weight is added into successive rows starting at rowfloor, with a word of carries
+   * passed up from each row to the next, using {@link #tempSet} to hold the carries. The sweep
+   * stops as soon as there is nothing left to carry, which for small weights is usually
+   * within a few rows, rather than always sweeping every row of the voting record.
+   */
+  private void addToVotingRecord(long[] incomingBits, int weight, int rowfloor) {
+    long[][] rows = getVotingRecordBits();
+    long[] carries = tempSet.getBits();
+    Arrays.fill(carries, 0L);
+    long anyCarries = 0;
+    for (int bit = 0; (weight >>> bit) != 0 || anyCarries != 0; ++bit) {
+      int row = rowfloor + bit;
+      if (row == rows.length) {
+        votingRecord.add(new FixedBitSet(dimension));
+        rows = getVotingRecordBits();
+      }
+      long[] rowBits = rows[row];
+      anyCarries = 0;
+      if (((weight >>> bit) & 1) != 0) {
+        for (int word = 0; word < rowBits.length; ++word) {
+          long old = rowBits[word];
+          long addend = incomingBits[word];
+          long carry = carries[word];
+          rowBits[word] = old ^ addend ^ carry;
+          carry = (old & addend) | (carry & (old ^ addend));
+          carries[word] = carry;
+          anyCarries |= carry;
+        }
+      } else {
+        for (int word = 0; word < rowBits.length; ++word) {
+          long old = rowBits[word];
+          long carry = carries[word];
+          rowBits[word] = old ^ carry;
+          carry &= old;
+          carries[word] = carry;
+          anyCarries |= carry;
+        }
+      }
     }
+  }
 
-    if (tempSet.cardinality() > 0) {
-      votingRecord.add(new FixedBitSet(dimension));
+  /**
+   * Returns true if some dimension has no votes in the voting record and no '1' in the
+   * incoming bits (which may be null). This is decided by the first word that has such a
+   * dimension, so it is usually much quicker than counting the votes.
+   */
+  private boolean hasDimensionWithNoVotes(long[] incomingBits) {
+    long[][] rows = getVotingRecordBits();
+    for (int word = 0; word < rows[0].length; ++word) {
+      long anyVotes = incomingBits == null ? 0 : incomingBits[word];
+      for (int x = 0; x < rows.length && anyVotes != -1L; x++) {
+        anyVotes |= rows[x][word];
+      }
+      if (anyVotes != -1L) return true;
     }
+    return false;
+  }
 
-    // Sweep copy of bitset to be added across rows of voting record.
-    // If a new '1' is added, this position in the copy is changed to zero
-    // and will not affect future rows.
-    // The xor step will transform 1's to 0's or vice versa for 
-    // dimension in which the temporary bitset contains a '1'.
-    votingRecord.get(rowfloor).xor(incomingBitSet);
-
-    tempSet.xor(tempSet);
-    tempSet.xor(incomingBitSet);
-
-    for (int x = rowfloor + 1; x < votingRecord.size(); x++) {	
-      tempSet.andNot(votingRecord.get(x-1)); //if 1 already added, eliminate dimension from tempSet
-      votingRecord.get(x).xor(tempSet);	
-      // votingRecord.get(x).trimTrailingZeros(); //attempt to save in sparsely populated rows
+  /** Returns the words of each row of the voting record, for working on them directly. */
+  private long[][] getVotingRecordBits() {
+    long[][] rows = new long[votingRecord.size()][];
+    for (int x = 0; x < rows.length; x++) {
+      rows[x] = votingRecord.get(x).getBits();
     }
+    return rows;
   }
 
   /**
@@ -497,19 +622,25 @@ public class BinaryVector implements Vector {
     if (weight == 0) return;
     minimum+= weight;
 
-    int logfloor = (int) (Math.floor(Math.log(weight)/Math.log(2)));
-
-    if (logfloor < votingRecord.size() - 1) {
-      while (logfloor > 0) {
-        selectedDecrement(logfloor);	
-        weight = weight - (int) Math.pow(2,logfloor);
-        logfloor = (int) (Math.floor(Math.log(weight)/Math.log(2)));
+    // Subtracts the weight from all the counters at once, passing a word of borrows up from
+    // each row to the next, in the same way that addToVotingRecord adds.
+    long[][] rows = getVotingRecordBits();
+    long[] borrows = tempSet.getBits();
+    Arrays.fill(borrows, 0L);
+    long anyBorrows = 0;
+    for (int bit = 0; bit < rows.length && ((weight >>> bit) != 0 || anyBorrows != 0); ++bit) {
+      long subtrahend = ((weight >>> bit) & 1) != 0 ? -1L : 0;
+      long[] rowBits = rows[bit];
+      anyBorrows = 0;
+      for (int word = 0; word < rowBits.length; ++word) {
+        long old = rowBits[word];
+        long borrow = borrows[word];
+        rowBits[word] = old ^ subtrahend ^ borrow;
+        borrow = (~old & subtrahend) | (~(old ^ subtrahend) & borrow);
+        borrows[word] = borrow;
+        anyBorrows |= borrow;
       }
     }
-
-    for (int x = 0; x < weight; x++) {
-      decrement();
-    }
   }
 
   public void selectedDecrement(int floor) {
@@ -524,11 +655,13 @@ public class BinaryVector implements Vector {
    * Returns the highest value shared by all dimensions.
    */
   protected int getMaximumSharedWeight() {
+    // Nothing is shared by all dimensions if any dimension has no votes.
+    if (hasDimensionWithNoVotes(null)) return 0;
     int thismaximum = 0;
     tempSet.xor(tempSet);  // Reset tempset to zeros.
     for (int x = votingRecord.size() - 1; x >= 0; x--) {
       tempSet.or(votingRecord.get(x));
-      if (tempSet.cardinality() == dimension) {
+      if (isAllOnes(tempSet)) {
         thismaximum += (int) Math.pow(2, x);
         tempSet.xor(tempSet);
       }
@@ -536,6 +669,14 @@ public class BinaryVector implements Vector {
     return thismaximum;	
   }
 
+  /** Returns true if every bit is set, stopping at the first word with a bit that is not. */
+  private static boolean isAllOnes(FixedBitSet bits) {
+    for (long word : bits.getBits()) {
+      if (word != -1L) return false;
+    }
+    return true;
+  }
+
   /**
    * Implements binding using permutations and XOR. 
    */
@@ -629,36 +770,36 @@ public class BinaryVector implements Vector {
     for (int q=0; q < votingRecord.size(); q++)
       maxpossiblevotesonrecord += Math.pow(2, q);  
 
-    //For each possible value on the record, get a BitSet with a "1" in the 
-    //position of the dimensions that match this value
-    for (int x = 1; x <= maxpossiblevotesonrecord; x++) {
-      this.setTempSetToExactMatches(x);
-
-      //no exact matches
-      if (this.tempSet.cardinality() == 0) continue;
+    //For each possible value on the record, in increasing order, visit the dimensions
+    //that match this value in increasing order. Sorting the dimensions by their value
+    //visits them in the same order as testing every possible value in turn, but reads
+    //the voting record only once
+    long[] dimensionsByValue = getDimensionsSortedByValue();
+    int previousValue = 0;
+    double proportion = 0;
+    for (long valueAndDimension : dimensionsByValue) {
+      int x = (int) (valueAndDimension >>> 32);
+      int y = (int) valueAndDimension;
+      if (x == 0 || x > maxpossiblevotesonrecord) continue;
 
-      //For each y==1 on said BitSet (indicating votes in dimension[y] == x)
-      int y = tempSet.nextSetBit(0);
+      if (x != previousValue) {
+        previousValue = x;
 
-      //determine total number of votes 
-      double votes = minimum+x;
+        //determine total number of votes 
+        double votes = minimum+x;
 
-      //calculate standard deviations above/below the mean of max/2 
-      double z = (votes - (max/2)) / (Math.sqrt(max)/2);
+        //calculate standard deviations above/below the mean of max/2 
+        double z = (votes - (max/2)) / (Math.sqrt(max)/2);
 
-      //find proportion of data points anticipated within z standard deviations of the mean (assuming approximately normal distribution)
-      double proportion = erf(z/Math.sqrt(2));
+        //find proportion of data points anticipated within z standard deviations of the mean (assuming approximately normal distribution)
+        proportion = erf(z/Math.sqrt(2));
 
-      //convert into a value between 0 and 1 (i.e. centered on 0.5 rather than centered on 0)
-      proportion = (1+proportion) /2;
-
-      while (y != DocIdSetIterator.NO_MORE_DOCS) {
-        //probabilistic normalization
-        if ((random.nextDouble()) <= proportion) this.bitSet.set(y);
-        y++;
-        if (y == this.dimension) break;
-        y = tempSet.nextSetBit(y);
+        //convert into a value between 0 and 1 (i.e. centered on 0.5 rather than centered on 0)
+        proportion = (1+proportion) /2;
       }
+
+      //probabilistic normalization
+      if ((random.nextDouble()) <= proportion) this.bitSet.set(y);
     }
 
     //housekeeping
@@ -670,6 +811,24 @@ public class BinaryVector implements Vector {
   }
 
 
+  /**
+   * Returns the dimensions ordered by their value on the voting record, and then by dimension,
+   * each encoded as value << 32 | dimension.
+   */
+  private long[] getDimensionsSortedByValue() {
+    long[][] rows = getVotingRecordBits();
+    long[] dimensionsByValue = new long[dimension];
+    for (int y = 0; y < dimension; ++y) {
+      long value = 0;
+      for (int x = 0; x < rows.length; ++x) {
+        value |= ((rows[x][y >>> 6] >>> y) & 1L) << x;
+      }
+      dimensionsByValue[y] = (value << 32) | y;
+    }
+    Arrays.sort(dimensionsByValue);
+    return dimensionsByValue;
+  }
+
   /**
    * approximation of error function, equation 7.1.27 from
    * Abramowitz, M. and Stegun, I. A. (Eds.). "Repeated Integrals of the Error Function." S 7.2 
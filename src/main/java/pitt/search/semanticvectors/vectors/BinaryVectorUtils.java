@@ -189,8 +189,9 @@ public class BinaryVectorUtils {
     return conclusion;
   }
 
-  // Have not checked that this is optimal.
+  /** Returns the number of bits that differ between the two bit sets, which must be the same length. */
   public static long xorCount(FixedBitSet first, FixedBitSet second) {
-    return FixedBitSet.andNotCount(first, second) + FixedBitSet.andNotCount(second, first);
+    return VectorKernels.get().xorCount(
+        first.getBits(), second.getBits(), FixedBitSet.bits2words(first.length()));
   }
 }
@@ -38,32 +38,16 @@ package pitt.search.semanticvectors.vectors;
 import java.util.logging.Logger;
 
 /**
- * Singleton class for caching trig values for optimizing speed of complex vector operations.
+ * Class for caching trig values for optimizing speed of complex vector operations.
+ * The tables are built when the class is loaded, so lookups need no checks and are safe
+ * from any number of threads.
  * 
  * @author Lance De Vine, Dominic Widdows
  */
 public final class CircleLookupTable {
   public static Logger logger = Logger.getLogger(CircleLookupTable.class.getCanonicalName());
-  static CircleLookupTable singletonInstance = null;
-  
-  private CircleLookupTable() {
-    realLUT = new float[PHASE_RESOLUTION];
-    imagLUT = new float[PHASE_RESOLUTION];
-  };
-  
-  /**
-   * Initialize the {@code singletonInstance} with its lookup tables.
-   */
-  private static void initialize() {
-    singletonInstance = new CircleLookupTable();
-    singletonInstance.realLUT[0] = 0;
-    singletonInstance.imagLUT[0] = 0;
-    for (short i = 0; i < PHASE_RESOLUTION; i++) {
-      double theta = i * RADIANS_PER_STEP;
-      singletonInstance.realLUT[i] = (float)Math.cos(theta);
-      singletonInstance.imagLUT[i] = (float)Math.sin(theta);
-    } 
-  }
+
+  private CircleLookupTable() {}
 
   /**
    * Resolution at which we discretise the phase angle. This is fixed at 2^14 since we are
@@ -81,23 +65,43 @@ public final class CircleLookupTable {
   /**
    * Lookup Table for mapping phase angle to cartesian coordinates.
    */
-  private float[] realLUT = null;
-  private float[] imagLUT = null;
+  private static final float[] realLUT = new float[PHASE_RESOLUTION];
+  private static final float[] imagLUT = new float[PHASE_RESOLUTION];
+
+  /**
+   * Cosine of the difference between two phase angles, indexed by the difference plus
+   * {@code PHASE_RESOLUTION - 1}, so that it can be looked up without taking the absolute value.
+   * Entries are the same as in {@link #realLUT} for the absolute difference.
+   */
+  private static final float[] cosineOfDifferenceLUT = new float[2 * PHASE_RESOLUTION - 1];
+
+  static {
+    for (int i = 0; i < PHASE_RESOLUTION; i++) {
+      double theta = i * RADIANS_PER_STEP;
+      realLUT[i] = (float)Math.cos(theta);
+      imagLUT[i] = (float)Math.sin(theta);
+    }
+    for (int difference = 1 - PHASE_RESOLUTION; difference < PHASE_RESOLUTION; difference++) {
+      cosineOfDifferenceLUT[difference + PHASE_RESOLUTION - 1] = realLUT[Math.abs(difference)];
+    }
+  }
   
   public static float getRealEntry(short i) {
     if (i == ZERO_INDEX) return 0;
-    if (singletonInstance == null) {
-      initialize();
-    }
-    return singletonInstance.realLUT[i];
+    return realLUT[i];
   }
   
   public static float getImagEntry(short i) {
     if (i == ZERO_INDEX) return 0;
-    if (singletonInstance == null) {
-      initialize();
-    }
-    return singletonInstance.imagLUT[i];
+    return imagLUT[i];
+  }
+
+  /**
+   * Returns the cosine of the difference between two phase angles, neither of which may be
+   * {@link #ZERO_INDEX}. Equal to {@code getRealEntry((short) Math.abs(phaseAngle1 - phaseAngle2))}.
+   */
+  public static float getCosineOfDifference(short phaseAngle1, short phaseAngle2) {
+    return cosineOfDifferenceLUT[phaseAngle1 - phaseAngle2 + PHASE_RESOLUTION - 1];
   }
 
   /**
@@ -96,6 +96,19 @@ public class ComplexVector implements Vector {
       return DOMINANT_MODE;
     }
 
+    /**
+     * Ways of writing complex vectors to Lucene streams, chosen by
+     * {@link pitt.search.semanticvectors.FlagConfig#complexencoding()}.
+     */
+    public static enum Encoding {
+      /** Two 32 bit floats for each (real, imaginary) coordinate, as written by
+       * {@link ComplexVector#writeToLuceneStream}. */
+      CARTESIAN,
+      /** One 16 bit short for each phase angle, as in {@link Mode#POLAR_DENSE}, written by
+       * {@link ComplexVector#writePhaseAnglesToLuceneStream}. Amplitudes are not kept, so this
+       * is only suitable for vectors that are normalized in {@link Mode#POLAR_DENSE}. */
+      PHASE };
+
     /**
      * The actual number of float coordinates is 'dimension' X 2 because of real and
      * imaginary components.
@@ -122,6 +135,13 @@ public class ComplexVector implements Vector {
     private short[] sparseOffsets;
     private Mode opMode;
 
+    /**
+     * Hold the phase angles of vectors that are not in {@link Mode#POLAR_DENSE} while
+     * {@link #superposeBound} works on them, so that it doesn't convert or copy them.
+     */
+    private static final ThreadLocal<short[]> ELEMENTAL_ANGLES = new ThreadLocal<short[]>();
+    private static final ThreadLocal<short[]> BINDER_ANGLES = new ThreadLocal<short[]>();
+
     protected ComplexVector(int dimension, Mode opMode) {
       this.opMode = opMode;
       this.dimension = dimension;
@@ -287,15 +307,7 @@ public class ComplexVector implements Vector {
      */
     protected double measureHermitianOverlap(ComplexVector other) {
       other.toCartesian();
-      double result = 0;
-      double norm1 = 0;
-      double norm2 = 0;
-      for (int i = 0; i < dimension*2; ++i) {
-        result += coordinates[i] * other.coordinates[i];
-        norm1 += coordinates[i] * coordinates[i];
-        norm2 += other.coordinates[i] * other.coordinates[i];
-      }
-      return result / Math.sqrt(norm1 * norm2);
+      return VectorKernels.get().cosine(coordinates, other.coordinates, dimension * 2);
     }
 
     /**
@@ -306,27 +318,7 @@ public class ComplexVector implements Vector {
     protected double measureCartesianAngularOverlap(ComplexVector other) {
       toCartesian();
       other.toCartesian();
-      double cumulativeCosine = 0;
-      int nonZeroDimensionPairs = 0;
-      for (int i = 0; i < dimension*2; i+=2) {  
-        double resultThisPair = coordinates[i] * other.coordinates[i];
-        resultThisPair += coordinates[i+1] * other.coordinates[i+1];
-
-        double norm1 = coordinates[i] * coordinates[i];
-        norm1 += coordinates[i+1] * coordinates[i+1];
-
-        double norm2 = other.coordinates[i] * other.coordinates[i];
-        norm2  += other.coordinates[i+1] * other.coordinates[i+1];
-
-        norm1 = Math.sqrt(norm1);
-        norm2 = Math.sqrt(norm2);
-
-        if (norm1 > 0 && norm2 > 0) {
-          cumulativeCosine += resultThisPair / (norm1 * norm2);
-          ++nonZeroDimensionPairs;
-        }
-      }
-      return (nonZeroDimensionPairs != 0) ? (cumulativeCosine / nonZeroDimensionPairs) : 0;
+      return VectorKernels.get().complexAngularOverlap(coordinates, other.coordinates, dimension);
     }
 
 
@@ -339,21 +331,53 @@ public class ComplexVector implements Vector {
      * number of counted dimensions is unchanged (this is so that sparse vectors
      * are self-similar).
      *
-     * Transforms this and other vector to POLAR_DENSE representations.
+     * Transforms this vector to POLAR_DENSE representation, which for a query vector compared
+     * with many others happens only on the first comparison. The other vector is only read, in
+     * whatever mode it is in, so that stored vectors can be compared with from several threads
+     * at once. Nothing is allocated.
      */
     protected double measurePolarDenseOverlap(ComplexVector other) {
       toDensePolar();
-      other.toDensePolar();
       int nonZeroEntries = 0;
-      short[] phaseAnglesOther = other.getPhaseAngles();
       float sum = 0.0f;
-      for (short i=0; i < dimension; i++) {
-        if (phaseAngles[i] != CircleLookupTable.ZERO_INDEX) {
-          ++nonZeroEntries;
-          if (phaseAnglesOther[i] != CircleLookupTable.ZERO_INDEX) {
-            sum += CircleLookupTable.getRealEntry((short) Math.abs(phaseAngles[i] - phaseAnglesOther[i]));
+      switch (other.opMode) {
+      case POLAR_DENSE:
+        short[] phaseAnglesOther = other.phaseAngles;
+        for (int i = 0; i < dimension; i++) {
+          if (phaseAngles[i] != CircleLookupTable.ZERO_INDEX) {
+            ++nonZeroEntries;
+            if (phaseAnglesOther[i] != CircleLookupTable.ZERO_INDEX) {
+              sum += CircleLookupTable.getCosineOfDifference(phaseAngles[i], phaseAnglesOther[i]);
+            }
+          }
+        }
+        break;
+      case CARTESIAN:
+        float[] coordinatesOther = other.coordinates;
+        for (int i = 0; i < dimension; i++) {
+          if (phaseAngles[i] != CircleLookupTable.ZERO_INDEX) {
+            ++nonZeroEntries;
+            short phaseAngleOther = CircleLookupTable.phaseAngleFromCartesianTrig(
+                coordinatesOther[2*i], coordinatesOther[2*i + 1]);
+            if (phaseAngleOther != CircleLookupTable.ZERO_INDEX) {
+              sum += CircleLookupTable.getCosineOfDifference(phaseAngles[i], phaseAngleOther);
+            }
           }
         }
+        break;
+      case POLAR_SPARSE:
+        for (int i = 0; i < dimension; i++) {
+          if (phaseAngles[i] != CircleLookupTable.ZERO_INDEX) ++nonZeroEntries;
+        }
+        short[] sparseOffsetsOther = other.sparseOffsets;
+        for (int i = 0; sparseOffsetsOther != null && i < sparseOffsetsOther.length; i += 2) {
+          short phaseAngle = phaseAngles[sparseOffsetsOther[i]];
+          short phaseAngleOther = sparseOffsetsOther[i + 1];
+          if (phaseAngle != CircleLookupTable.ZERO_INDEX && phaseAngleOther != CircleLookupTable.ZERO_INDEX) {
+            sum += CircleLookupTable.getCosineOfDifference(phaseAngle, phaseAngleOther);
+          }
+        }
+        break;
       }
       return sum / nonZeroEntries;
     }
@@ -428,6 +452,68 @@ public class ComplexVector implements Vector {
       }
     }
 
+    @Override
+    /**
+     * Adds the binding of elemental with binder to this vector, putting this vector into
+     * cartesian mode. The phase angle of the binding in each dimension is worked out as in
+     * {@link #convolve}, and added as in {@link #superpose}.
+     */
+    public void superposeBound(Vector elemental, Vector binder, double weight) {
+      IncompatibleVectorsException.checkVectorsCompatible(this, elemental);
+      IncompatibleVectorsException.checkVectorsCompatible(this, binder);
+      ComplexVector complexElemental = (ComplexVector) elemental;
+      ComplexVector complexBinder = (ComplexVector) binder;
+      if (hermitian && complexElemental.opMode == Mode.CARTESIAN
+          && complexBinder.opMode == Mode.CARTESIAN) {
+        ComplexVector bound = complexElemental.copy();
+        bound.bind(complexBinder);
+        superpose(bound, weight, null);
+        return;
+      }
+      if (opMode != Mode.CARTESIAN) { toCartesian(); }
+
+      short[] elementalAngles = getDensePolarAngles(complexElemental, ELEMENTAL_ANGLES);
+      short[] binderAngles = getDensePolarAngles(complexBinder, BINDER_ANGLES);
+      float floatWeight = (float) weight;
+      for (int i = 0; i < dimension; i++) {
+        short boundAngle = elementalAngles[i];
+        if (binderAngles[i] != CircleLookupTable.ZERO_INDEX) {
+          if (boundAngle == CircleLookupTable.ZERO_INDEX) {
+            boundAngle = binderAngles[i];
+          } else {
+            boundAngle = (short) ((boundAngle + binderAngles[i]) % CircleLookupTable.PHASE_RESOLUTION);
+          }
+        }
+        coordinates[2*i] += CircleLookupTable.getRealEntry(boundAngle) * floatWeight;
+        coordinates[2*i + 1] += CircleLookupTable.getImagEntry(boundAngle) * floatWeight;
+      }
+    }
+
+    /**
+     * Returns the phase angles of the vector in {@link Mode#POLAR_DENSE}, using the buffer for
+     * the current thread if the vector is in another mode. Doesn't change the vector.
+     */
+    private static short[] getDensePolarAngles(ComplexVector vector, ThreadLocal<short[]> buffer) {
+      if (vector.opMode == Mode.POLAR_DENSE) return vector.phaseAngles;
+      short[] angles = buffer.get();
+      if (angles == null || angles.length != vector.dimension) {
+        angles = new short[vector.dimension];
+        buffer.set(angles);
+      }
+      if (vector.opMode == Mode.POLAR_SPARSE) {
+        for (int i = 0; i < angles.length; ++i) angles[i] = CircleLookupTable.ZERO_INDEX;
+        for (int i = 0; i < vector.sparseOffsets.length; i += 2) {
+          angles[vector.sparseOffsets[i]] = vector.sparseOffsets[i + 1];
+        }
+      } else {
+        for (int i = 0; i < angles.length; ++i) {
+          angles[i] = CircleLookupTable.phaseAngleFromCartesianTrig(
+              vector.coordinates[2*i], vector.coordinates[2*i + 1]);
+        }
+      }
+      return angles;
+    }
+
     /**
      * Transform from any mode to cartesian coordinates.
      */
@@ -477,12 +563,12 @@ public class ComplexVector implements Vector {
 
     private void cartesianToDensePolar() {
       assert(opMode == Mode.CARTESIAN);
-      opMode = Mode.POLAR_DENSE;
       phaseAngles = new short[dimension];
       for (int i = 0; i < dimension; i++) {
         phaseAngles[i] = CircleLookupTable.phaseAngleFromCartesianTrig(
         coordinates[2*i], coordinates[2*i + 1]);
       }
+      opMode = Mode.POLAR_DENSE;
       coordinates = null;  // Reclaim memory.
     }
 
@@ -641,20 +727,6 @@ public class ComplexVector implements Vector {
           e.printStackTrace();
         }
       }
-
-      /* DORMANT CODE!
-    assert(opMode != MODE.POLAR_SPARSE);
-    if (opMode == MODE.CARTESIAN) {
-      cartesianToDensePolar();
-    }
-    for (int i = 0; i < dimension; ++i) {
-      try {
-        outputStream.writeInt((int)(phaseAngles[i]));
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-       */
     }
 
     @Override
@@ -673,20 +745,47 @@ public class ComplexVector implements Vector {
           e.printStackTrace();
         }
       }
+    }
 
-      /* DORMANT CODE!
-    phaseAngles = new short[dimension];
-    coordinates = null;
-    for (int i = 0; i < dimension; ++i) {
-      try {
-        phaseAngles[i] = (short) inputStream.readInt();
-      } catch (IOException e) {
-        logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
-            + "programming or runtime error, e.g., a dimension mismatch.");
-        e.printStackTrace();
+    /**
+     * Writes the phase angles of the vector, one short for each dimension, as read by
+     * {@link #readPhaseAnglesFromLuceneStream}. A vector in {@link Mode#POLAR_DENSE} is written
+     * as it is. Other vectors are left unchanged and written as if transformed to that mode,
+     * which for {@link Mode#CARTESIAN} loses their amplitudes.
+     */
+    public void writePhaseAnglesToLuceneStream(IndexOutput outputStream) throws IOException {
+      switch (opMode) {
+      case POLAR_DENSE:
+        for (int i = 0; i < dimension; ++i) {
+          outputStream.writeShort(phaseAngles[i]);
+        }
+        return;
+      case CARTESIAN:
+        for (int i = 0; i < dimension; ++i) {
+          outputStream.writeShort(CircleLookupTable.phaseAngleFromCartesianTrig(
+              coordinates[2*i], coordinates[2*i + 1]));
+        }
+        return;
+      case POLAR_SPARSE:
+        ComplexVector densePolar = copy();
+        densePolar.toDensePolar();
+        densePolar.writePhaseAnglesToLuceneStream(outputStream);
       }
     }
-       */
+
+    /**
+     * Reads a vector written by {@link #writePhaseAnglesToLuceneStream}, leaving it in
+     * {@link Mode#POLAR_DENSE}.
+     */
+    public void readPhaseAnglesFromLuceneStream(IndexInput inputStream) throws IOException {
+      short[] newPhaseAngles = new short[dimension];
+      for (int i = 0; i < dimension; ++i) {
+        newPhaseAngles[i] = inputStream.readShort();
+      }
+      phaseAngles = newPhaseAngles;
+      coordinates = null;
+      sparseOffsets = null;
+      opMode = Mode.POLAR_DENSE;
     }
 
     @Override
@@ -123,6 +123,10 @@ public class ComplexVectorUtils {
     float[] coordinates1 = vec1.getCoordinates();
     float[] coordinates2 = vec2.getCoordinates();
 
+    if (permutation == null) {
+      VectorKernels.get().addScaled(coordinates1, coordinates2, weight, 2 * vec1.getDimension());
+      return;
+    }
     for (int i = 0; i < vec1.getDimension(); i++) {
       if (permutation == null) positionToAdd = i;
       else positionToAdd = permutation[i];
@@ -0,0 +1,123 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+
+package pitt.search.semanticvectors.vectors;
+
+/**
+ * Ways of adding vectors into vectors that are shared between several training threads.
+ *
+ * <p>
+ * Trainers that run on {@link pitt.search.semanticvectors.FlagConfig#numthreads()} threads call
+ * {@link #prepareTarget} on each of their semantic vectors before starting the threads, and then
+ * add to them using {@link #superpose} with the method given by
+ * {@link pitt.search.semanticvectors.FlagConfig#concurrentsuperposition()}.
+ */
+public class ConcurrentSuperposition {
+
+  /** How to add into a vector that other threads may be adding into at the same time. */
+  public enum Method {
+    /**
+     * Locks the target vector while adding to it. The results are the same as from a single
+     * thread, apart from floating point rounding caused by adding in a different order.
+     */
+    SYNCHRONIZED,
+    /**
+     * Adds into the coordinates of REAL and COMPLEX vectors without locking, as in Hogwild!
+     * stochastic gradient descent. If two threads update the same coordinate at the same
+     * moment, one of the updates can be lost. Training updates are spread thinly over many
+     * vectors, so this is rare and makes little difference to the trained vectors, and threads
+     * never wait for one another. BINARY vectors are still locked, since their voting
+     * records are not safe to update without locking.
+     */
+    HOGWILD
+  }
+
+  private ConcurrentSuperposition() {}
+
+  /** Returns true if vectors of this type can be added to by {@link Method#HOGWILD} without locking. */
+  public static boolean supportsLockFree(Vector vector) {
+    return vector.getVectorType() == VectorType.REAL || vector.getVectorType() == VectorType.COMPLEX;
+  }
+
+  /**
+   * Puts the target into the dense form that it is added into, so that adding to it from several
+   * threads never replaces its coordinate array. Must be called on every target vector before
+   * the threads that use {@link #superpose} with {@link Method#HOGWILD} are started.
+   */
+  public static void prepareTarget(Method method, Vector target) {
+    if (method != Method.HOGWILD) return;
+    switch (target.getVectorType()) {
+    case REAL:
+      ((RealVector) target).sparseToDense();
+      break;
+    case COMPLEX:
+      ((ComplexVector) target).toCartesian();
+      break;
+    default:
+      break;
+    }
+  }
+
+  /**
+   * Adds the other vector to the target, as in {@link Vector#superpose}, using the given method
+   * to guard against other threads adding to the target at the same time.
+   */
+  public static void superpose(
+      Method method, Vector target, Vector other, double weight, int[] permutation) {
+    if (method == Method.HOGWILD && supportsLockFree(target)) {
+      target.superpose(other, weight, permutation);
+    } else {
+      synchronized (target) {
+        target.superpose(other, weight, permutation);
+      }
+    }
+  }
+
+  /**
+   * Adds the binding of elemental with binder to the target, as in {@link Vector#superposeBound},
+   * using the given method to guard against other threads adding to the target at the same time.
+   */
+  public static void superposeBound(
+      Method method, Vector target, Vector elemental, Vector binder, double weight) {
+    if (method == Method.HOGWILD && supportsLockFree(target)) {
+      target.superposeBound(elemental, binder, weight);
+    } else {
+      synchronized (target) {
+        target.superposeBound(elemental, binder, weight);
+      }
+    }
+  }
+}
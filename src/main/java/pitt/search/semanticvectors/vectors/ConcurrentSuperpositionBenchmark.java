@@ -0,0 +1,244 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import pitt.search.semanticvectors.FlagConfig;
+
+/**
+ * Compares ways of adding random elemental vectors into shared target vectors from
+ * {@link FlagConfig#numthreads()} threads, in the pattern used by the trainers: frequent
+ * targets receive many more additions than rare ones.
+ *
+ * <p>
+ * For each method, prints the number of additions per second, and the mean and minimum cosine
+ * similarity between the resulting target vectors and those from adding the same vectors on
+ * a single thread. The methods are:
+ * <ul>
+ * <li>{@code synchronized}: locks each target vector, as {@link ConcurrentSuperposition.Method#SYNCHRONIZED}.
+ * <li>{@code striped}: locks one of {@link #NUM_STRIPES} locks chosen by target.
+ * <li>{@code perthread}: each thread adds into its own copies of the targets, which are then
+ * added together on one thread.
+ * <li>{@code hogwild}: no locking, as {@link ConcurrentSuperposition.Method#HOGWILD}.
+ * </ul>
+ *
+ * <p>
+ * Usage: ConcurrentSuperpositionBenchmark -vectortype real -dimension 200 -numthreads 8
+ * [numtargets] [numadditions]
+ */
+public class ConcurrentSuperpositionBenchmark {
+
+  private static final int NUM_STRIPES = 64;
+
+  private enum Strategy { SYNCHRONIZED, STRIPED, PERTHREAD, HOGWILD }
+
+  private final FlagConfig flagConfig;
+  private final Vector[] elementalVectors;
+  /** For each addition, the target to add to and the elemental vector to add. */
+  private final int[] targetIds;
+  private final int[] elementalIds;
+  private final float[] weights;
+  private final int numTargets;
+
+  private ConcurrentSuperpositionBenchmark(FlagConfig flagConfig, int numTargets, int numAdditions) {
+    this.flagConfig = flagConfig;
+    this.numTargets = numTargets;
+    Random random = new Random(0);
+    elementalVectors = new Vector[numTargets];
+    for (int i = 0; i < numTargets; ++i) {
+      elementalVectors[i] = VectorFactory.generateRandomVector(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random);
+    }
+    targetIds = new int[numAdditions];
+    elementalIds = new int[numAdditions];
+    weights = new float[numAdditions];
+    for (int i = 0; i < numAdditions; ++i) {
+      // Squaring skews the choice towards low IDs, so that some targets are much more frequent
+      // than others, as with the terms in a corpus.
+      double r = random.nextDouble();
+      targetIds[i] = (int) (numTargets * r * r);
+      elementalIds[i] = random.nextInt(numTargets);
+      weights[i] = random.nextFloat();
+    }
+  }
+
+  private Vector[] createTargets() {
+    Vector[] targets = new Vector[numTargets];
+    for (int i = 0; i < numTargets; ++i) {
+      targets[i] = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      ConcurrentSuperposition.prepareTarget(ConcurrentSuperposition.Method.HOGWILD, targets[i]);
+    }
+    return targets;
+  }
+
+  private Vector[] runSerial() {
+    Vector[] targets = createTargets();
+    for (int i = 0; i < targetIds.length; ++i) {
+      targets[targetIds[i]].superpose(elementalVectors[elementalIds[i]], weights[i], null);
+    }
+    return targets;
+  }
+
+  private Vector[] run(final Strategy strategy) throws InterruptedException, ExecutionException {
+    final Vector[] targets = createTargets();
+    final Object[] stripes = new Object[NUM_STRIPES];
+    for (int i = 0; i < NUM_STRIPES; ++i) {
+      stripes[i] = new Object();
+    }
+    final int numThreads = flagConfig.numthreads();
+    final Vector[][] threadTargets = new Vector[numThreads][];
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> workers = new ArrayList<Future<Void>>();
+      for (int t = 0; t < numThreads; ++t) {
+        final int thread = t;
+        final int start = (int) ((long) targetIds.length * t / numThreads);
+        final int end = (int) ((long) targetIds.length * (t + 1) / numThreads);
+        workers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            Vector[] localTargets = null;
+            if (strategy == Strategy.PERTHREAD) {
+              localTargets = new Vector[numTargets];
+              threadTargets[thread] = localTargets;
+            }
+            for (int i = start; i < end; ++i) {
+              Vector target = targets[targetIds[i]];
+              Vector elemental = elementalVectors[elementalIds[i]];
+              switch (strategy) {
+              case SYNCHRONIZED:
+                ConcurrentSuperposition.superpose(ConcurrentSuperposition.Method.SYNCHRONIZED,
+                    target, elemental, weights[i], null);
+                break;
+              case STRIPED:
+                synchronized (stripes[targetIds[i] % NUM_STRIPES]) {
+                  target.superpose(elemental, weights[i], null);
+                }
+                break;
+              case PERTHREAD:
+                if (localTargets[targetIds[i]] == null) {
+                  localTargets[targetIds[i]] = VectorFactory.createZeroVector(
+                      flagConfig.vectortype(), flagConfig.dimension());
+                }
+                localTargets[targetIds[i]].superpose(elemental, weights[i], null);
+                break;
+              case HOGWILD:
+                ConcurrentSuperposition.superpose(ConcurrentSuperposition.Method.HOGWILD,
+                    target, elemental, weights[i], null);
+                break;
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (strategy == Strategy.PERTHREAD) {
+      for (Vector[] localTargets : threadTargets) {
+        for (int i = 0; i < numTargets; ++i) {
+          if (localTargets[i] != null) targets[i].superpose(localTargets[i], 1, null);
+        }
+      }
+    }
+    return targets;
+  }
+
+  /** Describes the mean and minimum cosine similarity of the targets to the reference targets. */
+  private static String compare(Vector[] targets, Vector[] referenceTargets) {
+    double sum = 0;
+    double min = 1;
+    int count = 0;
+    for (int i = 0; i < targets.length; ++i) {
+      if (referenceTargets[i].isZeroVector()) continue;
+      // Measuring overlap can change the representation of both vectors, so use a copy of the
+      // reference to leave it the same for the next comparison.
+      double overlap = targets[i].measureOverlap(referenceTargets[i].copy());
+      sum += overlap;
+      min = Math.min(min, overlap);
+      ++count;
+    }
+    return String.format("mean cosine %.6f, min cosine %.6f", sum / count, min);
+  }
+
+  public static void main(String[] args) throws InterruptedException, ExecutionException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    args = flagConfig.remainingArgs;
+    if (flagConfig.vectortype() != VectorType.REAL && flagConfig.vectortype() != VectorType.COMPLEX) {
+      throw new IllegalArgumentException(
+          "Only real and complex vectors can be added to without locking, not: " + flagConfig.vectortype());
+    }
+    int numTargets = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int numAdditions = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+    System.out.println("Vector type " + flagConfig.vectortype());
+    System.out.println("Dimension " + flagConfig.dimension());
+    System.out.println("Threads " + flagConfig.numthreads());
+    System.out.println("Targets " + numTargets + ", additions " + numAdditions);
+
+    ConcurrentSuperpositionBenchmark benchmark =
+        new ConcurrentSuperpositionBenchmark(flagConfig, numTargets, numAdditions);
+    long start = System.nanoTime();
+    Vector[] referenceTargets = benchmark.runSerial();
+    System.out.println(String.format("serial: %.0f additions/s",
+        numAdditions / ((System.nanoTime() - start) / 1e9)));
+
+    for (Strategy strategy : Strategy.values()) {
+      // Run once to warm up, and time the second run.
+      benchmark.run(strategy);
+      start = System.nanoTime();
+      Vector[] targets = benchmark.run(strategy);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%s: %.0f additions/s, %s", strategy.toString().toLowerCase(),
+          numAdditions / seconds, compare(targets, referenceTargets)));
+    }
+  }
+}
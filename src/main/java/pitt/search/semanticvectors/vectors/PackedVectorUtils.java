@@ -0,0 +1,323 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Methods for packing vectors into large primitive arrays, one vector after another at a
+ * fixed stride, and for measuring overlap with vectors while they are packed. This lets
+ * in-memory vector stores keep all their coordinates in a single array instead of an
+ * object per vector.
+ *
+ * <p>
+ * Scores are the same as from {@link Vector#measureOverlap}, with the query vector as the
+ * vector whose method is called. The layouts are:
+ * <ul>
+ * <li>{@link VectorType#REAL}: {@code dimension} floats per vector.</li>
+ * <li>{@link VectorType#BINARY}: {@code dimension / 64} longs per vector.</li>
+ * <li>{@link VectorType#COMPLEX}: {@code dimension} phase angles as shorts per vector, since
+ * these vectors are normalized and compared in {@link ComplexVector.Mode#POLAR_DENSE}.</li>
+ * <li>{@link VectorType#COMPLEXFLAT}: {@code 2 * dimension} cartesian floats per vector, since
+ * these vectors are compared in {@link ComplexVector.Mode#CARTESIAN}.</li>
+ * </ul>
+ */
+public class PackedVectorUtils {
+
+  private PackedVectorUtils() {}
+
+  /**
+   * Returns the number of floats, longs or shorts that each vector of this type and
+   * dimension takes up when packed.
+   */
+  public static int getStride(VectorType vectorType, int dimension) {
+    switch (vectorType) {
+    case REAL:
+      return dimension;
+    case BINARY:
+      return dimension / 64;
+    case COMPLEX:
+      return dimension;
+    case COMPLEXFLAT:
+      return 2 * dimension;
+    default:
+      throw new IllegalArgumentException("Packing not supported for vector type " + vectorType);
+    }
+  }
+
+  /**
+   * Largest slab length that is allowed, leaving room for the array header that some
+   * virtual machines count against the maximum array size.
+   */
+  public static final int MAX_SLAB_LENGTH = Integer.MAX_VALUE - 8;
+
+  /**
+   * Returns the offset in a slab of the vector with the given index. The product is
+   * computed in long arithmetic, so that stores too large for a single array fail with
+   * a clear message instead of wrapping around to a negative or wrong offset.
+   *
+   * @throws IllegalArgumentException if the offset does not fit in a slab
+   */
+  public static int getOffset(int index, int stride) {
+    long offset = (long) index * stride;
+    if (offset > MAX_SLAB_LENGTH) {
+      throw new IllegalArgumentException(String.format(
+          "Cannot pack %d vectors of %d entries each in a single array. The limit is %d entries;"
+          + " use a smaller dimension or fewer vectors.", index, stride, MAX_SLAB_LENGTH));
+    }
+    return (int) offset;
+  }
+
+  /**
+   * Copies the coordinates of a real vector into the slab at the given offset.
+   *
+   * @return the sum of the squares of the coordinates, as used by {@link #measureRealOverlaps}
+   */
+  public static double packReal(RealVector vector, float[] slab, int offset) {
+    float[] coordinates = vector.getCoordinates();
+    double norm = 0;
+    for (int i = 0; i < coordinates.length; ++i) {
+      slab[offset + i] = coordinates[i];
+      norm += coordinates[i] * coordinates[i];
+    }
+    return norm;
+  }
+
+  /** Returns a new real vector with a copy of the packed coordinates. */
+  public static RealVector unpackReal(float[] slab, int offset, int dimension) {
+    return new RealVector(Arrays.copyOfRange(slab, offset, offset + dimension));
+  }
+
+  /**
+   * Cosine similarity with the packed vectors from {@code fromIndex} to {@code toIndex}, as
+   * in {@link RealVector#measureOverlap}. The squared norms are those returned by
+   * {@link #packReal}, and vectors whose entry in {@code nonZero} is false score 0.
+   */
+  public static void measureRealOverlaps(RealVector queryVector, float[] slab,
+      double[] squaredNorms, boolean[] nonZero, int fromIndex, int toIndex, double[] scores) {
+    float[] query = queryVector.getCoordinates();
+    int dimension = query.length;
+    boolean queryIsZero = queryVector.isZeroVector();
+    double queryNorm = 0;
+    for (int i = 0; i < dimension; ++i) {
+      queryNorm += query[i] * query[i];
+    }
+    for (int j = fromIndex; j < toIndex; ++j) {
+      if (queryIsZero || !nonZero[j]) {
+        scores[j - fromIndex] = 0;
+        continue;
+      }
+      int position = getOffset(j, dimension);
+      double result = 0;
+      for (int i = 0; i < dimension; ++i) {
+        result += query[i] * slab[position + i];
+      }
+      scores[j - fromIndex] = result / Math.sqrt(queryNorm * squaredNorms[j]);
+    }
+  }
+
+  /**
+   * Copies the bits of a binary vector into the slab at the given offset.
+   *
+   * @return true if any bits are set, false for a zero vector
+   */
+  public static boolean packBinary(BinaryVector vector, long[] slab, int offset) {
+    long[] bits = vector.getCoordinates().getBits();
+    int numWords = vector.getDimension() / 64;
+    long anyBitsSet = 0;
+    for (int i = 0; i < numWords; ++i) {
+      slab[offset + i] = bits[i];
+      anyBitsSet |= bits[i];
+    }
+    return anyBitsSet != 0;
+  }
+
+  /** Returns a new binary vector with a copy of the packed bits. */
+  public static BinaryVector unpackBinary(long[] slab, int offset, int dimension) {
+    BinaryVector vector = new BinaryVector(dimension);
+    vector.bitSet = new FixedBitSet(Arrays.copyOfRange(slab, offset, offset + dimension / 64), dimension);
+    return vector;
+  }
+
+  /**
+   * Normalized Hamming similarity with the packed vectors from {@code fromIndex} to
+   * {@code toIndex}, as in {@link BinaryVector#measureOverlap}. Vectors whose entry in
+   * {@code nonZero} is false score 0.
+   */
+  public static void measureBinaryOverlaps(BinaryVector queryVector, long[] slab,
+      boolean[] nonZero, int fromIndex, int toIndex, double[] scores) {
+    long[] query = queryVector.getCoordinates().getBits();
+    int dimension = queryVector.getDimension();
+    int numWords = dimension / 64;
+    boolean queryIsZero = queryVector.isZeroVector();
+    for (int j = fromIndex; j < toIndex; ++j) {
+      if (queryIsZero || !nonZero[j]) {
+        scores[j - fromIndex] = 0;
+        continue;
+      }
+      int position = getOffset(j, numWords);
+      long hammingDistance = 0;
+      for (int i = 0; i < numWords; ++i) {
+        hammingDistance += Long.bitCount(query[i] ^ slab[position + i]);
+      }
+      scores[j - fromIndex] = 2 * (0.5 - (hammingDistance / (double) dimension));
+    }
+  }
+
+  /**
+   * Copies the cartesian coordinates of a complex vector into the slab at the given offset.
+   * The vector itself is left unchanged.
+   *
+   * @return true unless the vector is a zero vector
+   */
+  public static boolean packComplexCartesian(ComplexVector vector, float[] slab, int offset) {
+    if (vector.isZeroVector()) {
+      Arrays.fill(slab, offset, offset + 2 * vector.getDimension(), 0);
+      return false;
+    }
+    ComplexVector cartesian = vector.copy();
+    cartesian.toCartesian();
+    System.arraycopy(cartesian.getCoordinates(), 0, slab, offset, 2 * vector.getDimension());
+    return true;
+  }
+
+  /** Returns a new complex vector with a copy of the packed cartesian coordinates. */
+  public static ComplexVector unpackComplexCartesian(float[] slab, int offset, int dimension) {
+    return new ComplexVector(Arrays.copyOfRange(slab, offset, offset + 2 * dimension));
+  }
+
+  /**
+   * Copies the phase angles of a complex vector into the slab at the given offset.
+   * The vector itself is left unchanged.
+   *
+   * @return true unless the vector is a zero vector
+   */
+  public static boolean packComplexPolar(ComplexVector vector, short[] slab, int offset) {
+    if (vector.isZeroVector()) {
+      Arrays.fill(slab, offset, offset + vector.getDimension(), CircleLookupTable.ZERO_INDEX);
+      return false;
+    }
+    ComplexVector polar = vector.copy();
+    polar.toDensePolar();
+    System.arraycopy(polar.getPhaseAngles(), 0, slab, offset, vector.getDimension());
+    return true;
+  }
+
+  /** Returns a new complex vector with a copy of the packed phase angles. */
+  public static ComplexVector unpackComplexPolar(short[] slab, int offset, int dimension) {
+    return new ComplexVector(Arrays.copyOfRange(slab, offset, offset + dimension));
+  }
+
+  /**
+   * Mean cosine of the angles between corresponding coordinates of the query and the packed
+   * cartesian vectors from {@code fromIndex} to {@code toIndex}, as in
+   * {@link ComplexVector#measureOverlap} when the dominant mode is
+   * {@link ComplexVector.Mode#CARTESIAN}. Converts the query vector to cartesian form.
+   */
+  public static void measureComplexCartesianOverlaps(ComplexVector queryVector, float[] slab,
+      boolean[] nonZero, int fromIndex, int toIndex, double[] scores) {
+    boolean queryIsZero = queryVector.isZeroVector();
+    if (!queryIsZero) queryVector.toCartesian();
+    float[] query = queryVector.getCoordinates();
+    int length = 2 * queryVector.getDimension();
+    for (int j = fromIndex; j < toIndex; ++j) {
+      if (queryIsZero || !nonZero[j]) {
+        scores[j - fromIndex] = 0;
+        continue;
+      }
+      int position = getOffset(j, length);
+      double cumulativeCosine = 0;
+      int nonZeroDimensionPairs = 0;
+      for (int i = 0; i < length; i += 2) {
+        float real = slab[position + i];
+        float imag = slab[position + i + 1];
+        double resultThisPair = query[i] * real;
+        resultThisPair += query[i + 1] * imag;
+
+        double norm1 = query[i] * query[i];
+        norm1 += query[i + 1] * query[i + 1];
+
+        double norm2 = real * real;
+        norm2 += imag * imag;
+
+        norm1 = Math.sqrt(norm1);
+        norm2 = Math.sqrt(norm2);
+
+        if (norm1 > 0 && norm2 > 0) {
+          cumulativeCosine += resultThisPair / (norm1 * norm2);
+          ++nonZeroDimensionPairs;
+        }
+      }
+      scores[j - fromIndex] =
+          (nonZeroDimensionPairs != 0) ? (cumulativeCosine / nonZeroDimensionPairs) : 0;
+    }
+  }
+
+  /**
+   * Mean cosine of the difference of phase angles between the query and the packed
+   * vectors from {@code fromIndex} to {@code toIndex}, as in
+   * {@link ComplexVector#measureOverlap} when the dominant mode is
+   * {@link ComplexVector.Mode#POLAR_DENSE}. Converts the query vector to dense polar form.
+   */
+  public static void measureComplexPolarOverlaps(ComplexVector queryVector, short[] slab,
+      boolean[] nonZero, int fromIndex, int toIndex, double[] scores) {
+    boolean queryIsZero = queryVector.isZeroVector();
+    if (!queryIsZero) queryVector.toDensePolar();
+    short[] query = queryVector.getPhaseAngles();
+    int dimension = queryVector.getDimension();
+    int nonZeroEntries = 0;
+    for (int i = 0; !queryIsZero && i < dimension; ++i) {
+      if (query[i] != CircleLookupTable.ZERO_INDEX) ++nonZeroEntries;
+    }
+    for (int j = fromIndex; j < toIndex; ++j) {
+      if (queryIsZero || !nonZero[j]) {
+        scores[j - fromIndex] = 0;
+        continue;
+      }
+      int position = getOffset(j, dimension);
+      float sum = 0.0f;
+      for (int i = 0; i < dimension; ++i) {
+        short other = slab[position + i];
+        if (query[i] != CircleLookupTable.ZERO_INDEX && other != CircleLookupTable.ZERO_INDEX) {
+          sum += CircleLookupTable.getCosineOfDifference(query[i], other);
+        }
+      }
+      scores[j - fromIndex] = sum / nonZeroEntries;
+    }
+  }
+}
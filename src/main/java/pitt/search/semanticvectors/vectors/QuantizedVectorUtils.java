@@ -0,0 +1,245 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+
+/**
+ * Methods for writing {@link RealVector}s with fewer bits per coordinate, and for measuring
+ * overlap with them while they are serialized, as in {@link SerializedVectorUtils}.
+ * The encodings are:
+ * <ul>
+ * <li>{@link Encoding#INT8}: a float scale, then one signed byte per coordinate, each
+ * coordinate being the byte times the scale. The scale is the largest absolute coordinate
+ * divided by 127, so each vector uses the full range of bytes.</li>
+ * <li>{@link Encoding#FLOAT16}: an IEEE 754 half precision float per coordinate.</li>
+ * </ul>
+ * Cosine similarities are computed directly from the bytes and the query coordinates, and are
+ * the same as measuring overlap with the decoded vectors, up to rounding error.
+ */
+public class QuantizedVectorUtils {
+
+  private QuantizedVectorUtils() {}
+
+  /** Ways of encoding real vectors. */
+  public enum Encoding {
+    /** One byte per coordinate, plus a scale for each vector. */
+    INT8,
+    /** Two bytes per coordinate. */
+    FLOAT16
+  }
+
+  /** Values of all the half precision floats, so that decoding them is a lookup. */
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+  static {
+    for (int i = 0; i < HALF_TO_FLOAT.length; ++i) {
+      HALF_TO_FLOAT[i] = decodeHalf((short) i);
+    }
+  }
+
+  /** Returns the number of bytes used to write each vector of this dimension. */
+  public static int getByteSize(Encoding encoding, int dimension) {
+    switch (encoding) {
+    case INT8:
+      return 4 + dimension;
+    case FLOAT16:
+      return 2 * dimension;
+    default:
+      throw new IllegalArgumentException("Unrecognized encoding: " + encoding);
+    }
+  }
+
+  /** Writes the vector using exactly {@link #getByteSize} bytes. */
+  public static void writeVector(Encoding encoding, RealVector vector, DataOutput outputStream)
+      throws IOException {
+    float[] coordinates = vector.getCoordinates();
+    switch (encoding) {
+    case INT8:
+      float maxAbs = 0;
+      for (float coordinate : coordinates) {
+        maxAbs = Math.max(maxAbs, Math.abs(coordinate));
+      }
+      float scale = maxAbs / 127;
+      outputStream.writeInt(Float.floatToIntBits(scale));
+      for (float coordinate : coordinates) {
+        outputStream.writeByte((scale == 0) ? 0 : (byte) Math.round(coordinate / scale));
+      }
+      return;
+    case FLOAT16:
+      for (float coordinate : coordinates) {
+        outputStream.writeShort(floatToHalf(coordinate));
+      }
+      return;
+    default:
+      throw new IllegalArgumentException("Unrecognized encoding: " + encoding);
+    }
+  }
+
+  /** Reads a vector written by {@link #writeVector}. */
+  public static RealVector readVector(Encoding encoding, int dimension, DataInput inputStream)
+      throws IOException {
+    float[] coordinates = new float[dimension];
+    switch (encoding) {
+    case INT8:
+      float scale = Float.intBitsToFloat(inputStream.readInt());
+      for (int i = 0; i < dimension; ++i) {
+        coordinates[i] = inputStream.readByte() * scale;
+      }
+      break;
+    case FLOAT16:
+      for (int i = 0; i < dimension; ++i) {
+        coordinates[i] = HALF_TO_FLOAT[inputStream.readShort() & 0xFFFF];
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unrecognized encoding: " + encoding);
+    }
+    return new RealVector(coordinates);
+  }
+
+  /**
+   * Measures the cosine similarity of the query vector with {@code count} consecutive
+   * encoded vectors, the first starting at {@code offset} bytes into the buffer and each
+   * subsequent one {@code stride} bytes after the last.
+   *
+   * @param scores results are written to {@code scores[scoresOffset]} onwards
+   */
+  public static void measureOverlaps(Encoding encoding, RealVector queryVector, ByteBuffer buffer,
+      int offset, int stride, int count, double[] scores, int scoresOffset) {
+    float[] query = queryVector.getCoordinates();
+    double queryNorm = 0;
+    for (int i = 0; i < query.length; ++i) {
+      queryNorm += query[i] * query[i];
+    }
+    if (queryNorm == 0) {
+      for (int j = 0; j < count; ++j) scores[scoresOffset + j] = 0;
+      return;
+    }
+    for (int j = 0; j < count; ++j) {
+      int position = offset + j * stride;
+      double result = 0;
+      double norm = 0;
+      switch (encoding) {
+      case INT8:
+        // The scale cancels out of the cosine, so only the bytes are needed.
+        position += 4;
+        for (int i = 0; i < query.length; ++i) {
+          int coordinate = buffer.get(position + i);
+          result += query[i] * coordinate;
+          norm += coordinate * coordinate;
+        }
+        break;
+      case FLOAT16:
+        for (int i = 0; i < query.length; ++i) {
+          float coordinate = HALF_TO_FLOAT[buffer.getShort(position) & 0xFFFF];
+          result += query[i] * coordinate;
+          norm += coordinate * coordinate;
+          position += 2;
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized encoding: " + encoding);
+      }
+      scores[scoresOffset + j] = (norm == 0) ? 0 : result / Math.sqrt(queryNorm * norm);
+    }
+  }
+
+  /**
+   * Returns the half precision float nearest to the given float, rounding ties to even.
+   * Values too large for half precision become infinite, and very small values become
+   * subnormal or zero.
+   */
+  public static short floatToHalf(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int exponent = (bits >>> 23) & 0xFF;
+    int mantissa = bits & 0x7FFFFF;
+    if (exponent == 0xFF) {
+      // Infinity or NaN, keeping NaNs as NaNs.
+      return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int halfExponent = exponent - 127 + 15;
+    if (halfExponent >= 0x1F) {
+      return (short) (sign | 0x7C00);
+    }
+    if (halfExponent <= 0) {
+      if (halfExponent < -10) {
+        return (short) sign;
+      }
+      // Subnormal: shift in the implicit leading bit, then round.
+      mantissa |= 0x800000;
+      int shift = 14 - halfExponent;
+      int halfMantissa = mantissa >>> shift;
+      int remainder = mantissa & ((1 << shift) - 1);
+      int halfway = 1 << (shift - 1);
+      if (remainder > halfway || (remainder == halfway && (halfMantissa & 1) != 0)) {
+        ++halfMantissa;
+      }
+      return (short) (sign | halfMantissa);
+    }
+    int half = (halfExponent << 10) | (mantissa >>> 13);
+    int remainder = mantissa & 0x1FFF;
+    if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+      // Carries into the exponent where necessary, giving infinity on overflow.
+      ++half;
+    }
+    return (short) (sign | half);
+  }
+
+  /** Returns the value of a half precision float. */
+  public static float halfToFloat(short half) {
+    return HALF_TO_FLOAT[half & 0xFFFF];
+  }
+
+  private static float decodeHalf(short half) {
+    int sign = (half & 0x8000) << 16;
+    int exponent = (half >>> 10) & 0x1F;
+    int mantissa = half & 0x3FF;
+    if (exponent == 0x1F) {
+      return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      // Zero or subnormal.
+      float value = mantissa * (1.0f / (1 << 24));
+      return (sign != 0) ? -value : value;
+    }
+    return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+  }
+}
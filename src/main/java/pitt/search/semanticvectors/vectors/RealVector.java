@@ -36,6 +36,7 @@
 package pitt.search.semanticvectors.vectors;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -95,6 +96,11 @@ public class RealVector implements Vector {
    */ 
   private short[] sparseOffsets;
   private boolean isSparse;
+  /**
+   * Number of times the coordinates have been changed, so that results worked out from them,
+   * such as the spectra cached by {@link RealVectorUtils}, can tell if they are out of date.
+   */
+  private int modificationCount = 0;
 
   protected RealVector(int dimension) {
     this.dimension = dimension;
@@ -256,15 +262,7 @@ public class RealVector implements Vector {
     if (realOther.isSparse) {
       realOther.sparseToDense();
     }
-    double result = 0;
-    double norm1 = 0;
-    double norm2 = 0;
-    for (int i = 0; i < dimension; ++i) {
-      result += coordinates[i] * realOther.coordinates[i];
-      norm1 += coordinates[i] * coordinates[i];
-      norm2 += realOther.coordinates[i] * realOther.coordinates[i];
-    }
-    return result / Math.sqrt(norm1 * norm2);
+    return VectorKernels.get().cosine(coordinates, realOther.coordinates, dimension);
   }
 
   @Override
@@ -277,6 +275,7 @@ public class RealVector implements Vector {
     RealVector realOther = (RealVector) other;
 
     if (isSparse) sparseToDense();
+    ++modificationCount;
     if (realOther.isSparse) {
       for (int i = 0; i < realOther.sparseOffsets.length; ++i) {
         int entry = Integer.signum(realOther.sparseOffsets[i]);
@@ -295,6 +294,10 @@ public class RealVector implements Vector {
         }
       }
       if (anyNans) return;
+      if (permutation == null) {
+        VectorKernels.get().addScaled(coordinates, realOther.coordinates, weight, dimension);
+        return;
+      }
       for (int i = 0; i < dimension; ++i) {
         int positionToAdd = i;
         if (permutation != null) {
@@ -305,6 +308,48 @@ public class RealVector implements Vector {
     }
   }
 
+  @Override
+  /**
+   * Adds the binding of elemental with binder to this vector, binding as in {@link #bind}.
+   * With {@link RealBindMethod#PERMUTATION}, the two shifted vectors are added straight into
+   * this one. With {@link RealBindMethod#CONVOLUTION}, the convolution is added.
+   */
+  public void superposeBound(Vector elemental, Vector binder, double weight) {
+    IncompatibleVectorsException.checkVectorsCompatible(this, elemental);
+    IncompatibleVectorsException.checkVectorsCompatible(this, binder);
+    RealVector realElemental = (RealVector) elemental;
+    RealVector realBinder = (RealVector) binder;
+    if (isSparse) sparseToDense();
+    ++modificationCount;
+    switch(BIND_METHOD) {
+    case PERMUTATION:
+      superposeShifted(realBinder, weight, 1);
+      superposeShifted(realElemental, weight, -1);
+      return;
+    case CONVOLUTION:
+      RealVectorUtils.superposeConvolution(coordinates, realElemental, realBinder, weight);
+      return;
+    }
+  }
+
+  /**
+   * Adds the other vector to this dense vector with its coordinates shifted, as by
+   * {@link #superpose} with the permutation from {@link PermutationUtils#getShiftPermutation}.
+   */
+  private void superposeShifted(RealVector other, double weight, int shift) {
+    if (other.isSparse) {
+      for (int i = 0; i < other.sparseOffsets.length; ++i) {
+        int entry = Integer.signum(other.sparseOffsets[i]);
+        int positionToAdd = (Math.abs(other.sparseOffsets[i]) - 1 + shift + dimension) % dimension;
+        coordinates[positionToAdd] += entry * weight;
+      }
+    } else {
+      for (int i = 0; i < dimension; ++i) {
+        coordinates[(i + shift + dimension) % dimension] += other.coordinates[i] * weight;
+      }
+    }
+  }
+
   @Override
   /**
    * Implements binding depending on {@link #BIND_TYPE}
@@ -344,6 +389,7 @@ public class RealVector implements Vector {
   public void bindWithConvolution(RealVector realOther) {
     RealVector result = RealVectorUtils.fftConvolution(this, realOther);
     this.coordinates = result.coordinates;
+    ++modificationCount;
   }
 
   /**
@@ -352,6 +398,7 @@ public class RealVector implements Vector {
   public void releaseWithConvolution(RealVector other) {
     RealVector result = RealVectorUtils.fftApproxInvConvolution(other, this);
     this.coordinates = result.coordinates;
+    ++modificationCount;
   }
 
   /**
@@ -365,6 +412,7 @@ public class RealVector implements Vector {
     result.superpose(
         this, 1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, -1));
     this.coordinates = result.coordinates;
+    ++modificationCount;
   }
 
   /**
@@ -377,6 +425,7 @@ public class RealVector implements Vector {
     result.superpose(
         this, 1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, 1));
     this.coordinates = result.coordinates;
+    ++modificationCount;
   }
 
   @Override
@@ -387,14 +436,12 @@ public class RealVector implements Vector {
     if (this.isSparse) {
       this.sparseToDense();
     }
-    double normSq = 0;
-    for (int i = 0; i < dimension; ++i) {
-      normSq += coordinates[i] * coordinates[i];
-    }
+    double normSq = VectorKernels.get().squaredNorm(coordinates, dimension);
     float norm = (float) Math.sqrt(normSq);
     for (int i = 0; i < dimension; ++i) {
       coordinates[i] = coordinates[i] / norm;
     }
+    ++modificationCount;
   }
 
   @Override
@@ -430,6 +477,7 @@ public class RealVector implements Vector {
       sparseOffsets = null;
       isSparse = false;
     }
+    ++modificationCount;
     for (int i = 0; i < dimension; ++i) {
       try {
         coordinates[i] = Float.intBitsToFloat(inputStream.readInt());
@@ -474,6 +522,7 @@ public class RealVector implements Vector {
       sparseOffsets = null;
       isSparse = false;
     }
+    ++modificationCount;
     for (int i = 0; i < dimension; ++i) {
       coordinates[i] = Float.parseFloat(entries[i]);
     }
@@ -501,6 +550,26 @@ public class RealVector implements Vector {
     isSparse = false;
   }
 
+  /**
+   * Returns the number of times the coordinates of this vector have been changed by its methods.
+   * Changes made directly to the array returned by {@link #getCoordinates} are not counted.
+   */
+  int getModificationCount() {
+    return modificationCount;
+  }
+
+  /** Writes the dense coordinates into the target array, without changing this vector. */
+  void copyCoordinatesTo(float[] target) {
+    if (isSparse) {
+      Arrays.fill(target, 0, dimension, 0);
+      for (int i = 0; i < sparseOffsets.length; ++i) {
+        target[Math.abs(sparseOffsets[i]) - 1] = Math.signum(sparseOffsets[i]);
+      }
+    } else {
+      System.arraycopy(coordinates, 0, target, 0, dimension);
+    }
+  }
+
   /**
    * Available to support access to coordinates for legacy operations.  Try not to use in new code!
    */
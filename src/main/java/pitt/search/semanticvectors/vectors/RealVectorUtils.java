@@ -35,7 +35,9 @@
 
 package pitt.search.semanticvectors.vectors;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import cern.colt.matrix.tfcomplex.impl.DenseFComplexMatrix1D;
@@ -80,31 +82,171 @@ public class RealVectorUtils {
     return true;
   }
   
+  /** System property used to set the number of spectra kept by each thread. */
+  public static final String SPECTRUM_CACHE_SIZE_PROPERTY = "semanticvectors.spectrumcache";
+
+  /** Number of spectra kept by each thread if {@link #SPECTRUM_CACHE_SIZE_PROPERTY} isn't set. */
+  public static final int DEFAULT_SPECTRUM_CACHE_SIZE = 64;
+
+  /**
+   * Maximum number of spectra kept by each thread for {@link #getSpectrum}. Each takes up
+   * 2 x dimension floats, and they are held until {@link #clearSpectrumCache} is called.
+   */
+  public static final int SPECTRUM_CACHE_SIZE = chooseSpectrumCacheSize();
+
+  private static int chooseSpectrumCacheSize() {
+    String property = System.getProperty(
+        SPECTRUM_CACHE_SIZE_PROPERTY, Integer.toString(DEFAULT_SPECTRUM_CACHE_SIZE));
+    try {
+      int size = Integer.parseInt(property.trim());
+      if (size >= 0) {
+        return size;
+      }
+    } catch (NumberFormatException e) {
+      // Handled below.
+    }
+    logger.warning("Unrecognized value '" + property + "' for -D" + SPECTRUM_CACHE_SIZE_PROPERTY
+        + ", using " + DEFAULT_SPECTRUM_CACHE_SIZE);
+    return DEFAULT_SPECTRUM_CACHE_SIZE;
+  }
+
+  /** A spectrum cached for a vector, valid while the vector's modification count is unchanged. */
+  private static class CachedSpectrum {
+    final int modificationCount;
+    final float[] spectrum;
+
+    CachedSpectrum(int modificationCount, float[] spectrum) {
+      this.modificationCount = modificationCount;
+      this.spectrum = spectrum;
+    }
+  }
+
+  /**
+   * Matrices reused by each thread for convolutions of a given dimension, so that their FFT
+   * plans are only worked out once, and the most recently used spectra keyed by vector.
+   * RealVector doesn't override equals, so vectors are compared by identity.
+   */
+  private static class ConvolutionWorkspace {
+    final DenseFloatMatrix1D input;
+    final DenseFComplexMatrix1D product;
+    final LinkedHashMap<RealVector, CachedSpectrum> spectra =
+        new LinkedHashMap<RealVector, CachedSpectrum>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<RealVector, CachedSpectrum> eldest) {
+        return size() > SPECTRUM_CACHE_SIZE;
+      }
+    };
+
+    ConvolutionWorkspace(int dimension) {
+      input = new DenseFloatMatrix1D(dimension);
+      product = new DenseFComplexMatrix1D(dimension);
+    }
+  }
+
+  private static final ThreadLocal<ConvolutionWorkspace> WORKSPACE =
+      new ThreadLocal<ConvolutionWorkspace>();
+
+  private static ConvolutionWorkspace getWorkspace(int dimension) {
+    ConvolutionWorkspace workspace = WORKSPACE.get();
+    if (workspace == null || workspace.input.size() != dimension) {
+      workspace = new ConvolutionWorkspace(dimension);
+      WORKSPACE.set(workspace);
+    }
+    return workspace;
+  }
+
+  /**
+   * Releases the convolution workspace of the current thread, including its cached spectra.
+   * Should be called by each thread that has done convolutions once it has finished with them,
+   * e.g., at the end of training.
+   */
+  public static void clearSpectrumCache() {
+    WORKSPACE.remove();
+  }
+
+  /**
+   * Returns the discrete Fourier transform of the vector, as interleaved (real, imaginary)
+   * pairs. If {@code cache} is true, the spectrum is kept for the current thread until the
+   * vector is changed or {@link #SPECTRUM_CACHE_SIZE} other spectra have been used since.
+   * The returned array must not be changed.
+   */
+  private static float[] getSpectrum(
+      ConvolutionWorkspace workspace, RealVector vector, boolean cache) {
+    CachedSpectrum cached = cache ? workspace.spectra.get(vector) : null;
+    if (cached != null && cached.modificationCount == vector.getModificationCount()) {
+      return cached.spectrum;
+    }
+    vector.copyCoordinatesTo(workspace.input.elements());
+    float[] spectrum = workspace.input.getFft().elements();
+    if (cache) {
+      workspace.spectra.put(vector, new CachedSpectrum(vector.getModificationCount(), spectrum));
+    }
+    return spectrum;
+  }
+
+  /**
+   * Multiplies the first {@code numPairs} complex numbers in the two arrays of interleaved
+   * (real, imaginary) pairs, writing the products into the result, which may be either of them.
+   * Gives the same results as {@link FComplex#mult}, without creating an array for each product.
+   */
+  public static void multiplyComplex(float[] first, float[] second, float[] result, int numPairs) {
+    for (int i = 0; i < 2 * numPairs; i += 2) {
+      float real = first[i] * second[i] - first[i + 1] * second[i + 1];
+      float imag = first[i + 1] * second[i] + first[i] * second[i + 1];
+      result[i] = real;
+      result[i + 1] = imag;
+    }
+  }
+
+  /**
+   * Works out the circular convolution of the two vectors in the workspace for the current
+   * thread, returning interleaved (real, imaginary) pairs whose real parts are the coordinates
+   * of the convolution. The returned array is overwritten by the next convolution.
+   */
+  private static float[] convolve(
+      RealVector first, boolean cacheFirst, RealVector second, boolean cacheSecond) {
+    IncompatibleVectorsException.checkVectorsCompatible(first, second);
+    int dimension = first.getDimension();
+    ConvolutionWorkspace workspace = getWorkspace(dimension);
+    float[] firstSpectrum = getSpectrum(workspace, first, cacheFirst);
+    float[] secondSpectrum = getSpectrum(workspace, second, cacheSecond);
+    float[] product = workspace.product.elements();
+    multiplyComplex(firstSpectrum, secondSpectrum, product, dimension);
+    workspace.product.ifft(true);
+    return product;
+  }
+
   /**
    * Returns the circular convolution of the two input vectors.
    * 
    * See Plate, Holographic Reduced Representations, Section 3.1
+   *
+   * The spectrum of the second vector, usually the one that many vectors are bound to, is
+   * cached as in {@link #getSpectrum}.
    */
   public static RealVector fftConvolution(RealVector first, RealVector second) {
-    IncompatibleVectorsException.checkVectorsCompatible(first, second);
-    DenseFloatMatrix1D coltVec1 = new DenseFloatMatrix1D(first.getCoordinates());
-    DenseFloatMatrix1D coltVec2 = new DenseFloatMatrix1D(second.getCoordinates());
-    int dimension = first.getDimension();
-
-    
-    DenseFComplexMatrix1D fft1 = coltVec1.getFft();
-    DenseFComplexMatrix1D fft2 = coltVec2.getFft();
+    return new RealVector(getRealParts(convolve(first, false, second, true), first.getDimension()));
+  }
 
-    for (int i = 0; i < dimension; i++ ) {
-      fft1.setQuick(i, FComplex.mult(fft1.getQuick(i), fft2.getQuick(i)));
+  /**
+   * Adds the circular convolution of the two input vectors, multiplied by the weight, to the
+   * coordinates. Neither input vector is changed, and the spectra of both are cached as in
+   * {@link #getSpectrum}, so once they have been used only the inverse FFT is needed.
+   */
+  static void superposeConvolution(
+      float[] coordinates, RealVector first, RealVector second, double weight) {
+    float[] convolution = convolve(first, true, second, true);
+    for (int i = 0; i < first.getDimension(); ++i) {
+      coordinates[i] += convolution[2 * i] * weight;
     }
+  }
 
-    fft1.ifft(true);
-
-    DenseFloatMatrix1D coltResult = ((DenseFloatMatrix1D)(fft1.getRealPart()));
-    float[] coordinates = coltResult.elements();
-    RealVector result = new RealVector(coordinates);
-    return result;
+  private static float[] getRealParts(float[] complex, int dimension) {
+    float[] realParts = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      realParts[i] = complex[2 * i];
+    }
+    return realParts;
   }
   
   /**
@@ -144,6 +286,7 @@ public class RealVectorUtils {
    * See Plate, Holographic Reduced Representations, Section 3.1.3
    */
   public static RealVector fftApproxInvConvolution(RealVector first, RealVector second) {
-    return fftConvolution(getInvolution(first), second);
+    return new RealVector(getRealParts(
+        convolve(getInvolution(first), false, second, false), first.getDimension()));
   }
 }
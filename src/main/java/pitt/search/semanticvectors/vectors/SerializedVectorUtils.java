@@ -0,0 +1,176 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Methods for measuring overlap with vectors while they are still in serialized form,
+ * that is, laid out in a {@link ByteBuffer} exactly as written by
+ * {@link Vector#writeToLuceneStream}. This lets memory mapped vector stores be searched
+ * without creating a {@link Vector} object for each entry.
+ *
+ * <p>
+ * Results are the same as from {@link Vector#measureOverlap}, with the query vector as the
+ * vector whose method is called. Only {@link VectorType#REAL} and {@link VectorType#BINARY}
+ * are supported so far, see {@link #supportsSerializedOverlap}, together with
+ * {@link VectorType#COMPLEX} vectors written using
+ * {@link ComplexVector#writePhaseAnglesToLuceneStream}, see {@link #measurePhaseOverlaps}.
+ */
+public class SerializedVectorUtils {
+
+  private SerializedVectorUtils() {}
+
+  /**
+   * Returns true if vectors of this type can be scored using
+   * {@link #measureOverlaps(Vector, ByteBuffer, int, int, int, double[], int)}.
+   */
+  public static boolean supportsSerializedOverlap(VectorType vectorType) {
+    return vectorType == VectorType.REAL || vectorType == VectorType.BINARY;
+  }
+
+  /**
+   * Returns true if complex vectors serialized as phase angles can be scored against this
+   * query vector using {@link #measurePhaseOverlaps}, which is when they are compared using
+   * their phase angles, in {@link ComplexVector.Mode#POLAR_DENSE}.
+   */
+  public static boolean supportsSerializedPhaseOverlap(Vector queryVector) {
+    return queryVector instanceof ComplexVector
+        && ComplexVector.getDominantMode() == ComplexVector.Mode.POLAR_DENSE;
+  }
+
+  /**
+   * Measures the overlap of the query vector with {@code count} consecutive serialized
+   * vectors, the first starting at {@code offset} bytes into the buffer and each
+   * subsequent one {@code stride} bytes after the last.
+   *
+   * @param scores results are written to {@code scores[scoresOffset]} onwards
+   * @throws IllegalArgumentException if the query vector's type is not supported
+   */
+  public static void measureOverlaps(Vector queryVector, ByteBuffer buffer, int offset, int stride,
+      int count, double[] scores, int scoresOffset) {
+    if (queryVector.isZeroVector()) {
+      for (int i = 0; i < count; ++i) scores[scoresOffset + i] = 0;
+      return;
+    }
+    switch (queryVector.getVectorType()) {
+    case REAL:
+      measureRealOverlaps(((RealVector) queryVector).getCoordinates(),
+          buffer, offset, stride, count, scores, scoresOffset);
+      return;
+    case BINARY:
+      measureBinaryOverlaps(((BinaryVector) queryVector).getCoordinates().getBits(),
+          queryVector.getDimension(), buffer, offset, stride, count, scores, scoresOffset);
+      return;
+    default:
+      throw new IllegalArgumentException(
+          "Serialized overlap not supported for vector type " + queryVector.getVectorType());
+    }
+  }
+
+  /**
+   * Measures the overlap of the query vector with {@code count} consecutive complex vectors
+   * serialized as phase angles by {@link ComplexVector#writePhaseAnglesToLuceneStream}, laid
+   * out as in {@link #measureOverlaps}. Scores are the mean cosine of the difference of phase
+   * angles, as in {@link ComplexVector#measureOverlap}. Converts the query vector to dense
+   * polar form.
+   */
+  public static void measurePhaseOverlaps(ComplexVector queryVector, ByteBuffer buffer, int offset,
+      int stride, int count, double[] scores, int scoresOffset) {
+    if (queryVector.isZeroVector()) {
+      for (int i = 0; i < count; ++i) scores[scoresOffset + i] = 0;
+      return;
+    }
+    queryVector.toDensePolar();
+    short[] query = queryVector.getPhaseAngles();
+    int nonZeroEntries = 0;
+    for (int i = 0; i < query.length; ++i) {
+      if (query[i] != CircleLookupTable.ZERO_INDEX) ++nonZeroEntries;
+    }
+    for (int j = 0; j < count; ++j) {
+      int position = offset + j * stride;
+      float sum = 0.0f;
+      for (int i = 0; i < query.length; ++i) {
+        short other = buffer.getShort(position);
+        if (query[i] != CircleLookupTable.ZERO_INDEX && other != CircleLookupTable.ZERO_INDEX) {
+          sum += CircleLookupTable.getCosineOfDifference(query[i], other);
+        }
+        position += 2;
+      }
+      scores[scoresOffset + j] = sum / nonZeroEntries;
+    }
+  }
+
+  /** Cosine similarity, as in {@link RealVector#measureOverlap}. */
+  private static void measureRealOverlaps(float[] query, ByteBuffer buffer, int offset,
+      int stride, int count, double[] scores, int scoresOffset) {
+    double queryNorm = 0;
+    for (int i = 0; i < query.length; ++i) {
+      queryNorm += query[i] * query[i];
+    }
+    for (int j = 0; j < count; ++j) {
+      int position = offset + j * stride;
+      double result = 0;
+      double norm = 0;
+      for (int i = 0; i < query.length; ++i) {
+        float coordinate = buffer.getFloat(position);
+        result += query[i] * coordinate;
+        norm += coordinate * coordinate;
+        position += 4;
+      }
+      scores[scoresOffset + j] = (norm == 0) ? 0 : result / Math.sqrt(queryNorm * norm);
+    }
+  }
+
+  /** Normalized Hamming similarity, as in {@link BinaryVector#measureOverlap}. */
+  private static void measureBinaryOverlaps(long[] query, int dimension, ByteBuffer buffer,
+      int offset, int stride, int count, double[] scores, int scoresOffset) {
+    int numWords = dimension / 64;
+    for (int j = 0; j < count; ++j) {
+      int position = offset + j * stride;
+      long hammingDistance = 0;
+      long anyBitsSet = 0;
+      for (int i = 0; i < numWords; ++i) {
+        long word = buffer.getLong(position);
+        hammingDistance += Long.bitCount(query[i] ^ word);
+        anyBitsSet |= word;
+        position += 8;
+      }
+      scores[scoresOffset + j] = (anyBitsSet == 0)
+          ? 0 : 2 * (0.5 - (hammingDistance / (double) dimension));
+    }
+  }
+}
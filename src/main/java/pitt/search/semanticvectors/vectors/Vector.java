@@ -96,6 +96,19 @@ public interface Vector {
    */
   public abstract void superpose(Vector other, double weight, int[] permutation);
 
+  /**
+   * Superposes the binding of {@code elemental} with {@code binder} onto this vector with the
+   * given weight. Gives the same result, apart from floating point rounding, as
+   * <pre>
+   *   Vector bound = elemental.copy();
+   *   bound.bind(binder);
+   *   this.superpose(bound, weight, null);
+   * </pre>
+   * but without making the copy, and leaves both {@code elemental} and {@code binder} unchanged,
+   * so they can be shared between threads.
+   */
+  public abstract void superposeBound(Vector elemental, Vector binder, double weight);
+
   /**
    * Binds the other vector to this one.
    */
@@ -35,8 +35,13 @@
 
 package pitt.search.semanticvectors.vectors;
 
+import java.io.IOException;
 import java.util.Random;
 
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.vectors.ComplexVector.Encoding;
 import pitt.search.semanticvectors.vectors.ComplexVector.Mode;
 
 /**
@@ -116,4 +121,39 @@ public class VectorFactory {
         throw new IllegalArgumentException("Unrecognized VectorType: " + vectorType);
     }
   }
+
+  /**
+   * Returns the size in bytes taken up by a vector written using
+   * {@link #writeToLuceneStream(Vector, Encoding, IndexOutput)}.
+   */
+  public static int getLuceneByteSize(VectorType vectorType, int dimension, Encoding complexEncoding) {
+    if (vectorType == VectorType.COMPLEX && complexEncoding == Encoding.PHASE) {
+      return 2 * dimension;
+    }
+    return getLuceneByteSize(vectorType, dimension);
+  }
+
+  /**
+   * Writes the vector to the stream, using the given encoding if it is a complex vector.
+   */
+  public static void writeToLuceneStream(Vector vector, Encoding complexEncoding,
+      IndexOutput outputStream) throws IOException {
+    if (vector instanceof ComplexVector && complexEncoding == Encoding.PHASE) {
+      ((ComplexVector) vector).writePhaseAnglesToLuceneStream(outputStream);
+    } else {
+      vector.writeToLuceneStream(outputStream);
+    }
+  }
+
+  /**
+   * Reads the vector from the stream, using the given encoding if it is a complex vector.
+   */
+  public static void readFromLuceneStream(Vector vector, Encoding complexEncoding,
+      IndexInput inputStream) throws IOException {
+    if (vector instanceof ComplexVector && complexEncoding == Encoding.PHASE) {
+      ((ComplexVector) vector).readPhaseAnglesFromLuceneStream(inputStream);
+    } else {
+      vector.readFromLuceneStream(inputStream);
+    }
+  }
 }
@@ -0,0 +1,344 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.logging.Logger;
+
+/**
+ * The inner loops of the overlap and superposition operations over the dense coordinates of
+ * {@link RealVector}, {@link ComplexVector} and {@link BinaryVector}, gathered in one place so
+ * that they can be optimized and benchmarked together.
+ *
+ * <p>
+ * There are two implementations, chosen once at startup by the system property
+ * {@value #IMPLEMENTATION_PROPERTY}:
+ * <ul>
+ * <li>{@link Implementation#UNROLLED} (default) sums the reductions over floats into several
+ * independent accumulators. This breaks the chain of dependent additions, so that successive
+ * multiply-adds can be in flight at once. {@link #xorCount} likewise counts bits into several
+ * independent counters, which gives exactly the same result since the counts are integers.
+ * {@link #addScaled} is unrolled in the same way, and like the scalar version multiplies and adds
+ * in double precision, so that each coordinate is rounded to float once and its result is exactly
+ * the same.
+ * <li>{@link Implementation#SCALAR} is one element per iteration, as the vector classes used
+ * to do inline. Use this to check whether a difference in results or speed comes from the
+ * kernels.
+ * </ul>
+ * Reductions are summed in double precision in both. Since the unrolled kernels add the same
+ * terms in a different order, their reductions can differ from the scalar ones in the last few bits.
+ *
+ * <p>
+ * See {@link VectorKernelsBenchmark} for a comparison of the two.
+ */
+public abstract class VectorKernels {
+  private static final Logger logger = Logger.getLogger(VectorKernels.class.getCanonicalName());
+
+  /** System property used to choose the implementation, "scalar" or "unrolled". */
+  public static final String IMPLEMENTATION_PROPERTY = "semanticvectors.kernels";
+
+  /** The available implementations. */
+  public enum Implementation {
+    /** One element per iteration. */
+    SCALAR,
+    /** Four elements per iteration, into independent accumulators. */
+    UNROLLED
+  }
+
+  private static final VectorKernels SCALAR_KERNELS = new ScalarKernels();
+  private static final VectorKernels UNROLLED_KERNELS = new UnrolledKernels();
+  private static final VectorKernels KERNELS = chooseKernels();
+
+  private static VectorKernels chooseKernels() {
+    String property = System.getProperty(IMPLEMENTATION_PROPERTY, Implementation.UNROLLED.name());
+    try {
+      return get(Implementation.valueOf(property.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      logger.warning("Unrecognized value '" + property + "' for -D" + IMPLEMENTATION_PROPERTY
+          + ", using " + Implementation.UNROLLED);
+      return UNROLLED_KERNELS;
+    }
+  }
+
+  /** Returns the kernels chosen at startup. */
+  public static VectorKernels get() {
+    return KERNELS;
+  }
+
+  /** Returns the kernels with the given implementation. */
+  public static VectorKernels get(Implementation implementation) {
+    switch (implementation) {
+    case SCALAR:
+      return SCALAR_KERNELS;
+    case UNROLLED:
+      return UNROLLED_KERNELS;
+    default:
+      throw new IllegalArgumentException("Unrecognized implementation: " + implementation);
+    }
+  }
+
+  /** Returns which implementation these kernels are. */
+  public abstract Implementation getImplementation();
+
+  /** Returns the sum of a[i] * b[i] for i < length. */
+  public abstract double dotProduct(float[] a, float[] b, int length);
+
+  /** Returns the sum of a[i] * a[i] for i < length. */
+  public abstract double squaredNorm(float[] a, int length);
+
+  /**
+   * Returns the cosine of the angle between the first length elements of a and b, computing
+   * the scalar product and both norms in a single pass.
+   */
+  public abstract double cosine(float[] a, float[] b, int length);
+
+  /**
+   * Returns the mean cosine of the angles between the pairs (a[2i], a[2i + 1]) and
+   * (b[2i], b[2i + 1]) for i < numPairs, counting only pairs in which neither is zero,
+   * or 0 if there are no such pairs. These are the phase angle differences of complex numbers
+   * stored as real / imaginary pairs.
+   */
+  public abstract double complexAngularOverlap(float[] a, float[] b, int numPairs);
+
+  /** Returns the number of bits that differ between the first numWords words of a and b. */
+  public abstract long xorCount(long[] a, long[] b, int numWords);
+
+  /** Adds weight * source[i] to target[i] for i < length. */
+  public abstract void addScaled(float[] target, float[] source, double weight, int length);
+
+  /**
+   * Returns the cosine of the angle between (aRe, aIm) and (bRe, bIm), or NaN if either is zero.
+   * Products are taken in float and summed in double, as in the rest of the kernels.
+   */
+  private static double pairCosine(float aRe, float aIm, float bRe, float bIm) {
+    double dot = aRe * bRe;
+    dot += aIm * bIm;
+    double norm1 = aRe * aRe;
+    norm1 += aIm * aIm;
+    double norm2 = bRe * bRe;
+    norm2 += bIm * bIm;
+    norm1 = Math.sqrt(norm1);
+    norm2 = Math.sqrt(norm2);
+    if (norm1 > 0 && norm2 > 0) {
+      return dot / (norm1 * norm2);
+    }
+    return Double.NaN;
+  }
+
+  private static final class ScalarKernels extends VectorKernels {
+    @Override
+    public Implementation getImplementation() { return Implementation.SCALAR; }
+
+    @Override
+    public double dotProduct(float[] a, float[] b, int length) {
+      double result = 0;
+      for (int i = 0; i < length; ++i) {
+        result += a[i] * b[i];
+      }
+      return result;
+    }
+
+    @Override
+    public double squaredNorm(float[] a, int length) {
+      double result = 0;
+      for (int i = 0; i < length; ++i) {
+        result += a[i] * a[i];
+      }
+      return result;
+    }
+
+    @Override
+    public double cosine(float[] a, float[] b, int length) {
+      double result = 0;
+      double norm1 = 0;
+      double norm2 = 0;
+      for (int i = 0; i < length; ++i) {
+        result += a[i] * b[i];
+        norm1 += a[i] * a[i];
+        norm2 += b[i] * b[i];
+      }
+      return result / Math.sqrt(norm1 * norm2);
+    }
+
+    @Override
+    public double complexAngularOverlap(float[] a, float[] b, int numPairs) {
+      double cumulativeCosine = 0;
+      int nonZeroDimensionPairs = 0;
+      for (int i = 0; i < 2 * numPairs; i += 2) {
+        double cosine = pairCosine(a[i], a[i + 1], b[i], b[i + 1]);
+        if (!Double.isNaN(cosine)) {
+          cumulativeCosine += cosine;
+          ++nonZeroDimensionPairs;
+        }
+      }
+      return (nonZeroDimensionPairs != 0) ? (cumulativeCosine / nonZeroDimensionPairs) : 0;
+    }
+
+    @Override
+    public long xorCount(long[] a, long[] b, int numWords) {
+      long count = 0;
+      for (int i = 0; i < numWords; ++i) {
+        count += Long.bitCount(a[i] ^ b[i]);
+      }
+      return count;
+    }
+
+    @Override
+    public void addScaled(float[] target, float[] source, double weight, int length) {
+      for (int i = 0; i < length; ++i) {
+        target[i] += source[i] * weight;
+      }
+    }
+  }
+
+  private static final class UnrolledKernels extends VectorKernels {
+    @Override
+    public Implementation getImplementation() { return Implementation.UNROLLED; }
+
+    @Override
+    public double dotProduct(float[] a, float[] b, int length) {
+      double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+      int i = 0;
+      for (; i + 3 < length; i += 4) {
+        sum0 += a[i] * b[i];
+        sum1 += a[i + 1] * b[i + 1];
+        sum2 += a[i + 2] * b[i + 2];
+        sum3 += a[i + 3] * b[i + 3];
+      }
+      for (; i < length; ++i) {
+        sum0 += a[i] * b[i];
+      }
+      return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    public double squaredNorm(float[] a, int length) {
+      double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+      int i = 0;
+      for (; i + 3 < length; i += 4) {
+        sum0 += a[i] * a[i];
+        sum1 += a[i + 1] * a[i + 1];
+        sum2 += a[i + 2] * a[i + 2];
+        sum3 += a[i + 3] * a[i + 3];
+      }
+      for (; i < length; ++i) {
+        sum0 += a[i] * a[i];
+      }
+      return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    public double cosine(float[] a, float[] b, int length) {
+      double dot0 = 0, dot1 = 0;
+      double normA0 = 0, normA1 = 0;
+      double normB0 = 0, normB1 = 0;
+      int i = 0;
+      for (; i + 1 < length; i += 2) {
+        float a0 = a[i], a1 = a[i + 1];
+        float b0 = b[i], b1 = b[i + 1];
+        dot0 += a0 * b0;
+        dot1 += a1 * b1;
+        normA0 += a0 * a0;
+        normA1 += a1 * a1;
+        normB0 += b0 * b0;
+        normB1 += b1 * b1;
+      }
+      for (; i < length; ++i) {
+        dot0 += a[i] * b[i];
+        normA0 += a[i] * a[i];
+        normB0 += b[i] * b[i];
+      }
+      return (dot0 + dot1) / Math.sqrt((normA0 + normA1) * (normB0 + normB1));
+    }
+
+    @Override
+    public double complexAngularOverlap(float[] a, float[] b, int numPairs) {
+      double sum0 = 0, sum1 = 0;
+      int count0 = 0, count1 = 0;
+      int i = 0;
+      for (; i + 3 < 2 * numPairs; i += 4) {
+        double cosine0 = pairCosine(a[i], a[i + 1], b[i], b[i + 1]);
+        double cosine1 = pairCosine(a[i + 2], a[i + 3], b[i + 2], b[i + 3]);
+        if (!Double.isNaN(cosine0)) {
+          sum0 += cosine0;
+          ++count0;
+        }
+        if (!Double.isNaN(cosine1)) {
+          sum1 += cosine1;
+          ++count1;
+        }
+      }
+      for (; i < 2 * numPairs; i += 2) {
+        double cosine = pairCosine(a[i], a[i + 1], b[i], b[i + 1]);
+        if (!Double.isNaN(cosine)) {
+          sum0 += cosine;
+          ++count0;
+        }
+      }
+      int nonZeroDimensionPairs = count0 + count1;
+      return (nonZeroDimensionPairs != 0) ? ((sum0 + sum1) / nonZeroDimensionPairs) : 0;
+    }
+
+    @Override
+    public long xorCount(long[] a, long[] b, int numWords) {
+      long count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+      int i = 0;
+      for (; i + 3 < numWords; i += 4) {
+        count0 += Long.bitCount(a[i] ^ b[i]);
+        count1 += Long.bitCount(a[i + 1] ^ b[i + 1]);
+        count2 += Long.bitCount(a[i + 2] ^ b[i + 2]);
+        count3 += Long.bitCount(a[i + 3] ^ b[i + 3]);
+      }
+      for (; i < numWords; ++i) {
+        count0 += Long.bitCount(a[i] ^ b[i]);
+      }
+      return (count0 + count1) + (count2 + count3);
+    }
+
+    @Override
+    public void addScaled(float[] target, float[] source, double weight, int length) {
+      int i = 0;
+      for (; i + 3 < length; i += 4) {
+        target[i] += source[i] * weight;
+        target[i + 1] += source[i + 1] * weight;
+        target[i + 2] += source[i + 2] * weight;
+        target[i + 3] += source[i + 3] * weight;
+      }
+      for (; i < length; ++i) {
+        target[i] += source[i] * weight;
+      }
+    }
+  }
+}
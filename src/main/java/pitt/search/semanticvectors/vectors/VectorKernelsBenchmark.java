@@ -0,0 +1,158 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+/**
+ * Compares the implementations of {@link VectorKernels} on random coordinates, at each of a
+ * range of dimensions. For each kernel, dimension and implementation, prints the mean time
+ * in nanoseconds per call, and the speedup of {@link VectorKernels.Implementation#UNROLLED}
+ * over {@link VectorKernels.Implementation#SCALAR}.
+ *
+ * <p>
+ * The dimension is the number of real coordinates, complex coordinates (so twice as many
+ * floats), or bits, depending on the kernel.
+ *
+ * <p>
+ * Usage: VectorKernelsBenchmark [dimension ...]
+ */
+public class VectorKernelsBenchmark {
+
+  private static final int[] DEFAULT_DIMENSIONS = {200, 512, 1024, 2048, 4096, 8192};
+
+  /** Number of pairs of arrays cycled through, so that not every call hits the same cache lines. */
+  private static final int NUM_ARRAYS = 64;
+
+  /** Approximate number of array elements processed per timed run of a kernel. */
+  private static final long ELEMENTS_PER_RUN = 200000000L;
+
+  private enum Kernel { DOTPRODUCT, SQUAREDNORM, COSINE, COMPLEXANGULAROVERLAP, XORCOUNT, ADDSCALED }
+
+  private final float[][] floats;
+  private final long[][] longs;
+  private final int dimension;
+  private final int numWords;
+  /** Results are accumulated here so that the JIT compiler can't eliminate the calls. */
+  private double sink = 0;
+
+  private VectorKernelsBenchmark(int dimension) {
+    this.dimension = dimension;
+    this.numWords = (dimension + 63) / 64;
+    Random random = new Random(0);
+    floats = new float[NUM_ARRAYS][2 * dimension];
+    longs = new long[NUM_ARRAYS][numWords];
+    for (int i = 0; i < NUM_ARRAYS; ++i) {
+      for (int j = 0; j < 2 * dimension; ++j) {
+        floats[i][j] = (float) random.nextGaussian();
+      }
+      for (int j = 0; j < numWords; ++j) {
+        longs[i][j] = random.nextLong();
+      }
+    }
+  }
+
+  /** Calls the kernel the given number of times and returns the mean nanoseconds per call. */
+  private double time(VectorKernels kernels, Kernel kernel, int numCalls) {
+    long start = System.nanoTime();
+    for (int call = 0; call < numCalls; ++call) {
+      int i = call % NUM_ARRAYS;
+      int j = (call + 1) % NUM_ARRAYS;
+      switch (kernel) {
+      case DOTPRODUCT:
+        sink += kernels.dotProduct(floats[i], floats[j], dimension);
+        break;
+      case SQUAREDNORM:
+        sink += kernels.squaredNorm(floats[i], dimension);
+        break;
+      case COSINE:
+        sink += kernels.cosine(floats[i], floats[j], dimension);
+        break;
+      case COMPLEXANGULAROVERLAP:
+        sink += kernels.complexAngularOverlap(floats[i], floats[j], dimension);
+        break;
+      case XORCOUNT:
+        sink += kernels.xorCount(longs[i], longs[j], numWords);
+        break;
+      case ADDSCALED:
+        // Alternate the sign of the weight so that the coordinates don't grow without bound.
+        kernels.addScaled(floats[i], floats[j], (call & 1) == 0 ? 0.5 : -0.5, dimension);
+        break;
+      }
+    }
+    return (System.nanoTime() - start) / (double) numCalls;
+  }
+
+  private void run() {
+    for (Kernel kernel : Kernel.values()) {
+      int elementsPerCall = kernel == Kernel.XORCOUNT ? numWords
+          : kernel == Kernel.COMPLEXANGULAROVERLAP ? 2 * dimension : dimension;
+      int numCalls = (int) Math.max(1000, ELEMENTS_PER_RUN / elementsPerCall);
+      double[] nanos = new double[VectorKernels.Implementation.values().length];
+      for (VectorKernels.Implementation implementation : VectorKernels.Implementation.values()) {
+        VectorKernels kernels = VectorKernels.get(implementation);
+        // Run once to warm up, and time the second run.
+        time(kernels, kernel, numCalls);
+        nanos[implementation.ordinal()] = time(kernels, kernel, numCalls);
+      }
+      System.out.println(String.format("%-22s %6d  scalar %10.1f ns  unrolled %10.1f ns  speedup %.2fx",
+          kernel.toString().toLowerCase(), dimension,
+          nanos[VectorKernels.Implementation.SCALAR.ordinal()],
+          nanos[VectorKernels.Implementation.UNROLLED.ordinal()],
+          nanos[VectorKernels.Implementation.SCALAR.ordinal()]
+              / nanos[VectorKernels.Implementation.UNROLLED.ordinal()]));
+    }
+  }
+
+  public static void main(String[] args) {
+    int[] dimensions = DEFAULT_DIMENSIONS;
+    if (args.length > 0) {
+      dimensions = new int[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        dimensions[i] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println("Kernels chosen at startup: " + VectorKernels.get().getImplementation());
+    double sink = 0;
+    for (int dimension : dimensions) {
+      VectorKernelsBenchmark benchmark = new VectorKernelsBenchmark(dimension);
+      benchmark.run();
+      sink += benchmark.sink;
+    }
+    // Printed only so that the results are used.
+    System.out.println("(checksum " + sink + ")");
+  }
+}
@@ -48,12 +48,19 @@ public class AllTests {
     suite.addTestSuite(CompoundVectorBuilderTest.class);
     suite.addTestSuite(VectorStoreWriterTest.class);
     suite.addTestSuite(VectorStoreReaderLuceneTest.class);
+    suite.addTestSuite(VectorStoreReaderMappedTest.class);
+    suite.addTestSuite(VectorStoreDenseMatrixTest.class);
+    suite.addTestSuite(VectorStoreProductQuantizedTest.class);
+    suite.addTestSuite(HnswIndexTest.class);
+    suite.addTestSuite(MultiIndexHashTest.class);
+    suite.addTestSuite(PredicationTriplesTest.class);
     suite.addTestSuite(VectorStoreRAMTest.class);
     suite.addTestSuite(VectorStoreDeterministicTest.class);
     // suite.addTestSuite(RealVectorTest.class);  Updated to JUnit 4.
     suite.addTestSuite(BinaryVectorTest.class);
     // suite.addTestSuite(CircleLookupTableTest.class);   Accidentally never checked in - TODO(widdows) redo! 
     suite.addTestSuite(ComplexVectorTest.class);
+    suite.addTestSuite(QuantizedVectorUtilsTest.class);
     suite.addTestSuite(PermutationUtilsTest.class);
     //$JUnit-END$
     return suite;
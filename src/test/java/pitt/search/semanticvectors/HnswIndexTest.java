@@ -0,0 +1,231 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+import junit.framework.TestCase;
+
+public class HnswIndexTest extends TestCase {
+  private static final int NUM_VECTORS = 2000;
+  private static final int NUM_QUERIES = 50;
+  private static final int NUM_RESULTS = 10;
+
+  private Vector makeRandomVector(FlagConfig flagConfig, Random random) {
+    Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+    for (int j = 0; j < 3; ++j) {
+      vector.superpose(VectorFactory.generateRandomVector(flagConfig.vectortype(),
+          flagConfig.dimension(), flagConfig.seedlength(), random), 1, null);
+    }
+    vector.normalize();
+    return vector;
+  }
+
+  private Set<Object> getExactNeighbors(List<ObjectVector> vectors, Vector queryVector) {
+    TopKCollector collector = new TopKCollector(NUM_RESULTS);
+    for (int i = 0; i < vectors.size(); ++i) {
+      collector.offer(queryVector.measureOverlap(vectors.get(i).getVector()), i);
+    }
+    collector.sortDescending();
+    Set<Object> neighbors = new HashSet<Object>();
+    for (int i = 0; i < collector.size(); ++i) {
+      neighbors.add(vectors.get(collector.getIndex(i)).getObject());
+    }
+    return neighbors;
+  }
+
+  /** Returns the proportion of the exact nearest neighbors found using the index. */
+  private double measureRecall(NearestNeighborIndex index, List<ObjectVector> vectors,
+      List<Vector> queries) {
+    int found = 0;
+    for (Vector queryVector : queries) {
+      Set<Object> exactNeighbors = getExactNeighbors(vectors, queryVector);
+      LinkedList<SearchResult> results = index.getNearestNeighbors(queryVector, NUM_RESULTS);
+      assertEquals(NUM_RESULTS, results.size());
+      for (SearchResult result : results) {
+        if (exactNeighbors.contains(result.getObjectVector().getObject())) {
+          ++found;
+        }
+      }
+    }
+    return found / (double) (queries.size() * NUM_RESULTS);
+  }
+
+  private void checkIndex(String[] args) throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      store.putVector("vector" + i, makeRandomVector(flagConfig, random));
+    }
+    List<ObjectVector> vectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      vectors.add(vecEnum.nextElement());
+    }
+
+    // Queries are stored vectors plus noise, so each has a near neighbor that should be found.
+    List<Vector> queries = new ArrayList<Vector>();
+    for (int i = 0; i < NUM_QUERIES; ++i) {
+      Vector queryVector = store.getVector("vector" + (i * 37)).copy();
+      queryVector.superpose(makeRandomVector(flagConfig, random), 1, null);
+      queryVector.normalize();
+      queries.add(queryVector);
+    }
+
+    HnswIndex index = HnswIndex.build(store, flagConfig);
+    int numFound = 0;
+    for (int i = 0; i < NUM_QUERIES; ++i) {
+      double selfScore = queries.get(i).measureOverlap(store.getVector("vector" + (i * 37)));
+      if (index.getNearestNeighbors(queries.get(i), 1).getFirst().getScore() >= selfScore) {
+        ++numFound;
+      }
+    }
+    assertTrue("Found " + numFound + " of " + NUM_QUERIES, numFound >= 0.95 * NUM_QUERIES);
+    double recall = measureRecall(index, vectors, queries);
+    assertTrue("Recall was " + recall, recall >= 0.9);
+
+    File tmpFile = File.createTempFile("vectors", ".hnsw");
+    try {
+      index.writeToFile(tmpFile.getPath());
+      HnswIndex readIndex = HnswIndex.readFromFile(tmpFile.getPath(), store, flagConfig);
+      assertNotNull(readIndex);
+      for (Vector queryVector : queries) {
+        LinkedList<SearchResult> expected = index.getNearestNeighbors(queryVector, NUM_RESULTS);
+        LinkedList<SearchResult> actual = readIndex.getNearestNeighbors(queryVector, NUM_RESULTS);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+          assertEquals(expected.get(i).getObjectVector().getObject(), actual.get(i).getObjectVector().getObject());
+          assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+        }
+      }
+
+      // An index built for a different store is ignored.
+      store.putVector("extra", makeRandomVector(flagConfig, random));
+      assertNull(HnswIndex.readFromFile(tmpFile.getPath(), store, flagConfig));
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testRealIndex() throws Exception {
+    checkIndex(new String[] {"-vectortype", "real", "-dimension", "200", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testBinaryIndex() throws Exception {
+    checkIndex(new String[] {"-vectortype", "binary", "-dimension", "512", "-seedlength", "256"});
+  }
+
+  @Test
+  public void testComplexIndex() throws Exception {
+    checkIndex(new String[] {"-vectortype", "complex", "-dimension", "200", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testReadIndexForRandomAccessStore() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "200", "-seedlength", "10"});
+    Random random = new Random(2);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      store.putVector("vector" + i, makeRandomVector(flagConfig, random));
+    }
+    VectorStoreDenseMatrix denseStore = new VectorStoreDenseMatrix(flagConfig);
+    denseStore.putAllVectors(store);
+    HnswIndex index = HnswIndex.build(store, flagConfig);
+
+    File tmpFile = File.createTempFile("vectors", ".hnsw");
+    try {
+      index.writeToFile(tmpFile.getPath());
+      HnswIndex readIndex = HnswIndex.readFromFile(tmpFile.getPath(), denseStore, flagConfig);
+      assertNotNull(readIndex);
+      for (int i = 0; i < NUM_QUERIES; ++i) {
+        Vector queryVector = store.getVector("vector" + (i * 37));
+        LinkedList<SearchResult> expected = index.getNearestNeighbors(queryVector, NUM_RESULTS);
+        LinkedList<SearchResult> actual = readIndex.getNearestNeighbors(queryVector, NUM_RESULTS);
+        assertEquals(expected.size(), actual.size());
+        for (int j = 0; j < expected.size(); ++j) {
+          assertEquals(expected.get(j).getObjectVector().getObject(), actual.get(j).getObjectVector().getObject());
+          assertEquals(expected.get(j).getScore(), actual.get(j).getScore(), 1e-6);
+        }
+      }
+
+      // An index whose objects aren't those of the store is ignored, even if the counts match.
+      VectorStoreRAM renamedStore = new VectorStoreRAM(flagConfig);
+      Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+      while (vecEnum.hasMoreElements()) {
+        ObjectVector objectVector = vecEnum.nextElement();
+        renamedStore.putVector("renamed" + objectVector.getObject(), objectVector.getVector());
+      }
+      assertNull(HnswIndex.readFromFile(tmpFile.getPath(), renamedStore, flagConfig));
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testSearcherUsesIndex() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "200", "-seedlength", "10"});
+    Random random = new Random(1);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      store.putVector("vector" + i, makeRandomVector(flagConfig, random));
+    }
+    VectorSearcher searcher = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, new String[] {"vector5"});
+    LinkedList<SearchResult> exactResults = searcher.getNearestNeighbors(NUM_RESULTS);
+    searcher.setNearestNeighborIndex(HnswIndex.build(store, flagConfig));
+    LinkedList<SearchResult> indexResults = searcher.getNearestNeighbors(NUM_RESULTS);
+    assertEquals("vector5", indexResults.getFirst().getObjectVector().getObject());
+    assertEquals(exactResults.getFirst().getScore(), indexResults.getFirst().getScore(), 1e-6);
+  }
+}
@@ -0,0 +1,181 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class MultiIndexHashTest extends TestCase {
+  private static final int DIMENSION = 256;
+  private static final int NUM_CLUSTERS = 100;
+  private static final int NUM_VECTORS = 4000;
+  private static final int NUM_RESULTS = 10;
+
+  private FlagConfig flagConfig = FlagConfig.getFlagConfig(
+      new String[] {"-vectortype", "binary", "-dimension", "" + DIMENSION});
+
+  /** Returns a binary vector with the given bits, except for a few flipped at random. */
+  private Vector makeNoisyVector(char[] bits, int numFlips, Random random) {
+    char[] noisyBits = bits.clone();
+    for (int i = 0; i < numFlips; ++i) {
+      int bit = random.nextInt(DIMENSION);
+      noisyBits[bit] = (noisyBits[bit] == '1') ? '0' : '1';
+    }
+    Vector vector = VectorFactory.createZeroVector(VectorType.BINARY, DIMENSION);
+    vector.readFromString(new String(noisyBits));
+    return vector;
+  }
+
+  /** Makes a store of vectors in clusters, so that each vector has some near neighbors. */
+  private VectorStoreRAM makeClusteredStore(Random random, List<char[]> centers) {
+    for (int i = 0; i < NUM_CLUSTERS; ++i) {
+      char[] center = new char[DIMENSION];
+      for (int j = 0; j < DIMENSION; ++j) {
+        center[j] = random.nextBoolean() ? '1' : '0';
+      }
+      centers.add(center);
+    }
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      store.putVector("vector" + i, makeNoisyVector(centers.get(i % NUM_CLUSTERS), 20, random));
+    }
+    store.putVector("zero", VectorFactory.createZeroVector(VectorType.BINARY, DIMENSION));
+    return store;
+  }
+
+  private void checkSameAsExhaustiveSearch(
+      MultiIndexHash index, VectorStore store, Vector queryVector, int numResults) {
+    List<ObjectVector> vectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      vectors.add(vecEnum.nextElement());
+    }
+    TopKCollector collector = new TopKCollector(numResults);
+    for (int i = 0; i < vectors.size(); ++i) {
+      collector.offer(queryVector.measureOverlap(vectors.get(i).getVector()), i);
+    }
+    collector.sortDescending();
+
+    LinkedList<SearchResult> results = index.getNearestNeighbors(queryVector, numResults);
+    assertEquals(collector.size(), results.size());
+    for (int i = 0; i < collector.size(); ++i) {
+      ObjectVector expected = vectors.get(collector.getIndex(i));
+      assertEquals(expected.getObject(), results.get(i).getObjectVector().getObject());
+      assertEquals(collector.getScore(i), results.get(i).getScore(), 0);
+      assertEquals(expected.getVector().writeToString(),
+          results.get(i).getObjectVector().getVector().writeToString());
+    }
+  }
+
+  @Test
+  public void testSameResultsAsExhaustiveSearch() throws Exception {
+    Random random = new Random(0);
+    List<char[]> centers = new ArrayList<char[]>();
+    VectorStoreRAM store = makeClusteredStore(random, centers);
+    MultiIndexHash index = MultiIndexHash.build(store, flagConfig);
+    for (int i = 0; i < 50; ++i) {
+      // Queries near a cluster, which are found by probing.
+      checkSameAsExhaustiveSearch(index, store, makeNoisyVector(centers.get(i), 10, random), NUM_RESULTS);
+    }
+    for (int i = 0; i < 5; ++i) {
+      // Queries far from everything, which fall back to scanning.
+      Vector queryVector = VectorFactory.generateRandomVector(VectorType.BINARY, DIMENSION, DIMENSION / 2, random);
+      checkSameAsExhaustiveSearch(index, store, queryVector, NUM_RESULTS);
+    }
+    checkSameAsExhaustiveSearch(index, store, makeNoisyVector(centers.get(0), 10, random), NUM_VECTORS + 10);
+    checkSameAsExhaustiveSearch(index, store, VectorFactory.createZeroVector(VectorType.BINARY, DIMENSION), NUM_RESULTS);
+  }
+
+  @Test
+  public void testSubstringBitsFlag() throws Exception {
+    Random random = new Random(1);
+    List<char[]> centers = new ArrayList<char[]>();
+    VectorStoreRAM store = makeClusteredStore(random, centers);
+    for (String substringBits : new String[] {"7", "32"}) {
+      flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary",
+          "-dimension", "" + DIMENSION, "-mihsubstringbits", substringBits});
+      MultiIndexHash index = MultiIndexHash.build(store, flagConfig);
+      for (int i = 0; i < 10; ++i) {
+        checkSameAsExhaustiveSearch(index, store, makeNoisyVector(centers.get(i), 10, random), NUM_RESULTS);
+      }
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    Random random = new Random(2);
+    List<char[]> centers = new ArrayList<char[]>();
+    VectorStoreRAM store = makeClusteredStore(random, centers);
+    MultiIndexHash index = MultiIndexHash.build(store, flagConfig);
+    File tmpFile = File.createTempFile("vectors", ".multiindexhash");
+    try {
+      index.writeToFile(tmpFile.getPath());
+      MultiIndexHash readIndex = MultiIndexHash.readFromFile(tmpFile.getPath(), store, flagConfig);
+      assertNotNull(readIndex);
+      for (int i = 0; i < 10; ++i) {
+        checkSameAsExhaustiveSearch(readIndex, store, makeNoisyVector(centers.get(i), 10, random), NUM_RESULTS);
+      }
+      store.putVector("extra", makeNoisyVector(centers.get(0), 10, random));
+      assertNull(MultiIndexHash.readFromFile(tmpFile.getPath(), store, flagConfig));
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testOnlyForBinaryVectors() {
+    FlagConfig realFlagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real"});
+    try {
+      MultiIndexHash.build(new VectorStoreRAM(realFlagConfig), realFlagConfig);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
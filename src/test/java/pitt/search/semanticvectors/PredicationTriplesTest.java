@@ -0,0 +1,100 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class PredicationTriplesTest extends TestCase {
+
+  @Test
+  public void testBuilderAssignsIdsAndCountsDuplicates() {
+    PredicationTriples.Builder builder = new PredicationTriples.Builder();
+    builder.add("mexico", "HAS_CURRENCY", "mexican_peso");
+    builder.add("mexico", "HAS_CAPITAL", "mexico_city");
+    builder.add("mexico", "HAS_CURRENCY", "mexican_peso");
+    PredicationTriples triples = builder.build();
+
+    assertEquals(2, triples.getNumPredications());
+    assertEquals(3, triples.getNumConcepts());
+    assertEquals(2, triples.getNumPredicates());
+    assertEquals("mexico", triples.getConcept(triples.getSubjectId(0)));
+    assertEquals("HAS_CURRENCY", triples.getPredicate(triples.getPredicateId(0)));
+    assertEquals("mexican_peso", triples.getConcept(triples.getObjectId(0)));
+    assertEquals(2, triples.getCount(0));
+    assertEquals(triples.getSubjectId(0), triples.getSubjectId(1));
+    assertEquals("mexico_city", triples.getConcept(triples.getObjectId(1)));
+    assertEquals(1, triples.getCount(1));
+    assertEquals(3, triples.getNumOccurrences());
+    assertEquals("", triples.getSourceFile());
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    PredicationTriples.Builder builder = new PredicationTriples.Builder("triples.txt");
+    for (int i = 0; i < 3000; ++i) {
+      builder.add("concept" + (i % 100), "PREDICATE" + (i % 7), "concept" + (i % 300));
+    }
+    PredicationTriples triples = builder.build();
+    File tmpFile = File.createTempFile("predicationtriples", ".bin");
+    try {
+      triples.writeToFile(tmpFile.getPath());
+      PredicationTriples read = PredicationTriples.readFromFile(tmpFile.getPath());
+      assertEquals("triples.txt", read.getSourceFile());
+      assertEquals(3000, read.getNumOccurrences());
+      assertEquals(triples.getNumConcepts(), read.getNumConcepts());
+      assertEquals(triples.getNumPredicates(), read.getNumPredicates());
+      assertEquals(triples.getNumPredications(), read.getNumPredications());
+      for (int i = 0; i < triples.getNumConcepts(); ++i) {
+        assertEquals(triples.getConcept(i), read.getConcept(i));
+      }
+      for (int i = 0; i < triples.getNumPredicates(); ++i) {
+        assertEquals(triples.getPredicate(i), read.getPredicate(i));
+      }
+      for (int i = 0; i < triples.getNumPredications(); ++i) {
+        assertEquals(triples.getSubjectId(i), read.getSubjectId(i));
+        assertEquals(triples.getPredicateId(i), read.getPredicateId(i));
+        assertEquals(triples.getObjectId(i), read.getObjectId(i));
+        assertEquals(triples.getCount(i), read.getCount(i));
+      }
+    } finally {
+      tmpFile.delete();
+    }
+  }
+}
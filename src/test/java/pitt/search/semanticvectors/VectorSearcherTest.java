@@ -0,0 +1,146 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+public class VectorSearcherTest {
+  private static final double TOL = 0.000001;
+
+  private static VectorStoreRAM makeRandomStore(FlagConfig flagConfig, int numVectors) {
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < numVectors; ++i) {
+      float[] coordinates = new float[flagConfig.dimension()];
+      for (int j = 0; j < coordinates.length; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("vector" + i, new RealVector(coordinates));
+    }
+    return store;
+  }
+
+  private static void assertSameResults(LinkedList<SearchResult> expected, LinkedList<SearchResult> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), TOL);
+      assertEquals(expected.get(i).getObjectVector().getObject(), actual.get(i).getObjectVector().getObject());
+    }
+  }
+
+  private static LinkedList<SearchResult> search(VectorStore store, String[] args, String queryTerm)
+      throws ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    Vector queryVector = store.getVector(queryTerm);
+    return new VectorSearcher.VectorSearcherCosine(store, store, null, flagConfig, queryVector)
+        .getNearestNeighbors(flagConfig.numsearchresults());
+  }
+
+  @Test
+  public void testParallelSearchMatchesSerialSearch() throws ZeroVectorException {
+    String[] serialArgs = {"-dimension", "20", "-numsearchresults", "25"};
+    String[] parallelArgs = {"-dimension", "20", "-numsearchresults", "25", "-numthreads", "4"};
+    VectorStoreRAM store = makeRandomStore(FlagConfig.getFlagConfig(serialArgs), 10000);
+    assertSameResults(search(store, serialArgs, "vector42"), search(store, parallelArgs, "vector42"));
+  }
+
+  @Test
+  public void testParallelSearchMatchesSerialSearchWithStdev() throws ZeroVectorException {
+    String[] serialArgs = {"-dimension", "20", "-stdev"};
+    String[] parallelArgs = {"-dimension", "20", "-stdev", "-numthreads", "3"};
+    VectorStoreRAM store = makeRandomStore(FlagConfig.getFlagConfig(serialArgs), 9000);
+    assertSameResults(search(store, serialArgs, "vector7"), search(store, parallelArgs, "vector7"));
+  }
+
+  private static void checkBatchSearch(VectorStore store, String[] args) throws ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    // Enough queries for several query blocks, mixing overlap and getScore searchers.
+    List<VectorSearcher> searchers = new ArrayList<VectorSearcher>();
+    for (int i = 0; i < 150; ++i) {
+      if (i % 5 == 0) {
+        searchers.add(new VectorSearcher.VectorSearcherMaxSim(
+            store, store, null, flagConfig, new String[] {"vector" + i, "vector" + (i + 1)}));
+      } else {
+        searchers.add(new VectorSearcher.VectorSearcherCosine(
+            store, store, null, flagConfig, store.getVector("vector" + i)));
+      }
+    }
+    List<LinkedList<SearchResult>> batchResults =
+        VectorSearcher.getNearestNeighbors(searchers, flagConfig.numsearchresults());
+    assertEquals(searchers.size(), batchResults.size());
+    for (int i = 0; i < searchers.size(); ++i) {
+      assertSameResults(searchers.get(i).getNearestNeighbors(flagConfig.numsearchresults()),
+          batchResults.get(i));
+    }
+  }
+
+  @Test
+  public void testBatchSearchMatchesSingleSearches() throws ZeroVectorException {
+    String[] args = {"-dimension", "20", "-numsearchresults", "15"};
+    checkBatchSearch(makeRandomStore(FlagConfig.getFlagConfig(args), 3000), args);
+  }
+
+  @Test
+  public void testBatchSearchOfDenseMatrixMatchesSingleSearches() throws ZeroVectorException {
+    String[] args = {"-dimension", "20", "-numsearchresults", "15"};
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    VectorStoreDenseMatrix matrix = new VectorStoreDenseMatrix(flagConfig);
+    matrix.putAllVectors(makeRandomStore(flagConfig, 3000));
+    checkBatchSearch(matrix, args);
+  }
+
+  @Test
+  public void testParallelBatchSearchMatchesSingleSearches() throws ZeroVectorException {
+    String[] args = {"-dimension", "20", "-numsearchresults", "15", "-numthreads", "3", "-stdev"};
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    VectorStoreRAM store = makeRandomStore(flagConfig, 3000);
+    checkBatchSearch(store, args);
+    VectorStoreDenseMatrix matrix = new VectorStoreDenseMatrix(flagConfig);
+    matrix.putAllVectors(store);
+    checkBatchSearch(matrix, args);
+  }
+}
@@ -0,0 +1,148 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+import junit.framework.TestCase;
+
+public class VectorStoreDenseMatrixTest extends TestCase {
+  private static double TOL = 0.0001;
+
+  private VectorStoreRAM makeRandomStore(FlagConfig flagConfig, int numVectors) {
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < numVectors; ++i) {
+      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      for (int j = 0; j < 3; ++j) {
+        vector.superpose(VectorFactory.generateRandomVector(flagConfig.vectortype(),
+            flagConfig.dimension(), flagConfig.seedlength(), random), 1, null);
+      }
+      vector.normalize();
+      store.putVector("vector" + i, vector);
+    }
+    return store;
+  }
+
+  private void checkDenseMatrix(String[] args) throws ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    // More vectors than the initial capacity, so that the arrays have to grow.
+    VectorStoreRAM store = makeRandomStore(flagConfig, 1500);
+    VectorStoreDenseMatrix matrix = new VectorStoreDenseMatrix(flagConfig);
+    matrix.putAllVectors(store);
+    matrix.putVector("zero", VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension()));
+    assertEquals(1501, matrix.getNumVectors());
+    assertTrue(matrix.containsVector("vector7"));
+    assertFalse(matrix.containsVector("vector1500"));
+    assertNull(matrix.getVector("vector1500"));
+    assertTrue(matrix.getVector("zero").isZeroVector());
+
+    Vector queryVector = store.getVector("vector7");
+    double[] scores = new double[matrix.getNumVectors()];
+    matrix.measureOverlaps(queryVector, 0, matrix.getNumVectors(), scores);
+    for (int i = 0; i < matrix.getNumVectors(); ++i) {
+      Object object = matrix.getObjectAt(i);
+      if (object.equals("zero")) {
+        assertEquals(0, scores[i], 0);
+        continue;
+      }
+      // Packed scores should be exactly the same as scores from the original vectors.
+      assertEquals(queryVector.measureOverlap(store.getVector(object)), scores[i], 0);
+      assertEquals(queryVector.measureOverlap(matrix.getVectorAt(i)), scores[i], 0);
+    }
+
+    int count = 0;
+    Enumeration<ObjectVector> vecEnum = matrix.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      if (!objectVector.getObject().equals("zero")) {
+        assertEquals(1, objectVector.getVector().measureOverlap(
+            store.getVector(objectVector.getObject())), TOL);
+      }
+      ++count;
+    }
+    assertEquals(1501, count);
+
+    // Overwriting a vector keeps its position.
+    int position = -1;
+    for (int i = 0; i < matrix.getNumVectors(); ++i) {
+      if (matrix.getObjectAt(i).equals("vector7")) position = i;
+    }
+    matrix.putVector("vector7", store.getVector("vector8"));
+    assertEquals(1501, matrix.getNumVectors());
+    assertEquals("vector7", matrix.getObjectAt(position));
+    assertEquals(1, matrix.getVector("vector7").measureOverlap(store.getVector("vector8")), TOL);
+    matrix.putVector("vector7", store.getVector("vector7"));
+
+    LinkedList<SearchResult> matrixResults = new VectorSearcher.VectorSearcherCosine(
+        store, matrix, null, flagConfig, queryVector).getNearestNeighbors(10);
+    LinkedList<SearchResult> ramResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, queryVector).getNearestNeighbors(10);
+    assertEquals(ramResults.size(), matrixResults.size());
+    assertEquals("vector7", matrixResults.getFirst().getObjectVector().getObject());
+    for (int i = 0; i < ramResults.size(); ++i) {
+      assertEquals(ramResults.get(i).getScore(), matrixResults.get(i).getScore(), TOL);
+    }
+  }
+
+  @Test
+  public void testRealVectors() throws ZeroVectorException {
+    checkDenseMatrix(new String[] {"-vectortype", "real", "-dimension", "200", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testBinaryVectors() throws ZeroVectorException {
+    checkDenseMatrix(new String[] {"-vectortype", "binary", "-dimension", "256", "-seedlength", "128"});
+  }
+
+  @Test
+  public void testComplexVectors() throws ZeroVectorException {
+    checkDenseMatrix(new String[] {"-vectortype", "complex", "-dimension", "100", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testComplexFlatVectors() throws ZeroVectorException {
+    checkDenseMatrix(new String[] {"-vectortype", "complexflat", "-dimension", "100", "-seedlength", "10"});
+  }
+}
@@ -0,0 +1,187 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+import junit.framework.TestCase;
+
+public class VectorStoreProductQuantizedTest extends TestCase {
+  private static double TOL = 0.00001;
+  private static final int DIMENSION = 64;
+  private static final int NUM_VECTORS = 1000;
+
+  /** Makes a store of vectors in clusters, like the vectors of related documents. */
+  private VectorStoreRAM makeClusteredStore(FlagConfig flagConfig) {
+    Random random = new Random(0);
+    float[][] centers = new float[20][DIMENSION];
+    for (float[] center : centers) {
+      for (int i = 0; i < DIMENSION; ++i) {
+        center[i] = (float) random.nextGaussian();
+      }
+    }
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      float[] coordinates = new float[DIMENSION];
+      for (int j = 0; j < DIMENSION; ++j) {
+        coordinates[j] = centers[i % centers.length][j] + 0.3f * (float) random.nextGaussian();
+      }
+      Vector vector = new RealVector(coordinates);
+      vector.normalize();
+      store.putVector("vector" + i, vector);
+    }
+    store.putVector("zero", VectorFactory.createZeroVector(VectorType.REAL, DIMENSION));
+    return store;
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException, ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "" + DIMENSION, "-indexfileformat", "pq"});
+    VectorStoreRAM store = makeClusteredStore(flagConfig);
+    File tmpFile = File.createTempFile("vectors", ".pq");
+    try {
+      VectorStoreWriter.writeVectors(tmpFile.getPath(), flagConfig, store);
+      CloseableVectorStore reader = VectorStoreReader.openVectorStore(tmpFile.getPath(), flagConfig);
+      assertTrue(reader instanceof VectorStoreProductQuantized);
+      VectorStoreProductQuantized pqStore = (VectorStoreProductQuantized) reader;
+      assertEquals(NUM_VECTORS + 1, pqStore.getNumVectors());
+      assertTrue(pqStore.containsVector("vector7"));
+      assertFalse(pqStore.containsVector("vector1000"));
+      assertNull(pqStore.getVector("vector1000"));
+      assertTrue(pqStore.getVector("zero").isZeroVector());
+      assertNull(pqStore.getRerankVectorStore());
+
+      // Reconstructions should be close to the original vectors.
+      for (int i = 0; i < NUM_VECTORS; i += 10) {
+        Vector original = store.getVector("vector" + i);
+        assertTrue(original.measureOverlap(pqStore.getVector("vector" + i)) > 0.9);
+      }
+
+      // Table lookups should give the same scores as the reconstructed vectors.
+      Vector queryVector = store.getVector("vector7");
+      double[] scores = new double[pqStore.getNumVectors()];
+      pqStore.measureOverlaps(queryVector, 0, pqStore.getNumVectors(), scores);
+      for (int i = 0; i < pqStore.getNumVectors(); ++i) {
+        assertEquals(queryVector.measureOverlap(pqStore.getVectorAt(i)), scores[i], TOL);
+      }
+
+      // A scorer reused for several blocks should give the same scores.
+      RandomAccessVectorStore.OverlapScorer scorer = pqStore.getOverlapScorer(queryVector);
+      double[] blockScores = new double[100];
+      for (int from = 0; from < pqStore.getNumVectors(); from += blockScores.length) {
+        int to = Math.min(from + blockScores.length, pqStore.getNumVectors());
+        scorer.measureOverlaps(from, to, blockScores);
+        for (int i = from; i < to; ++i) {
+          assertEquals(scores[i], blockScores[i - from], TOL);
+        }
+      }
+
+      LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+          store, pqStore, null, flagConfig, queryVector).getNearestNeighbors(10);
+      assertEquals(10, results.size());
+      for (SearchResult result : results) {
+        // All the nearest neighbors are in the same cluster as the query.
+        int number = Integer.parseInt(result.getObjectVector().getObject().toString().substring(6));
+        assertEquals(7, number % 20);
+      }
+      reader.close();
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testRerankWithFullPrecisionVectors() throws IOException, ZeroVectorException {
+    File pqFile = File.createTempFile("vectors", ".pq");
+    File fullFile = File.createTempFile("vectors", ".vec");
+    try {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+          "-vectortype", "real", "-dimension", "" + DIMENSION, "-pqsubspaces", "4",
+          "-pqrerankvectorfile", fullFile.getPath(), "-pqrerank", "200"});
+      VectorStoreRAM store = makeClusteredStore(flagConfig);
+      VectorStoreWriter.writeVectorsInProductQuantizedFormat(pqFile.getPath(), flagConfig, store);
+      VectorStoreWriter.writeVectorsInMappedFormat(fullFile.getPath(), flagConfig, store);
+      VectorStoreProductQuantized pqStore = new VectorStoreProductQuantized(pqFile.getPath(), flagConfig);
+      assertNotNull(pqStore.getRerankVectorStore());
+
+      // With enough candidates re-ranked, results are the same as searching the original vectors.
+      for (int i = 0; i < 20; ++i) {
+        Vector queryVector = store.getVector("vector" + i);
+        LinkedList<SearchResult> exactResults = new VectorSearcher.VectorSearcherCosine(
+            store, store, null, flagConfig, queryVector).getNearestNeighbors(10);
+        LinkedList<SearchResult> pqResults = new VectorSearcher.VectorSearcherCosine(
+            store, pqStore, null, flagConfig, queryVector).getNearestNeighbors(10);
+        assertEquals(exactResults.size(), pqResults.size());
+        for (int j = 0; j < exactResults.size(); ++j) {
+          assertEquals(exactResults.get(j).getObjectVector().getObject(),
+              pqResults.get(j).getObjectVector().getObject());
+          assertEquals(exactResults.get(j).getScore(), pqResults.get(j).getScore(), TOL);
+        }
+      }
+      pqStore.close();
+    } finally {
+      pqFile.delete();
+      fullFile.delete();
+    }
+  }
+
+  @Test
+  public void testOnlyForRealVectors() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary"});
+    File tmpFile = File.createTempFile("vectors", ".pq");
+    try {
+      VectorStoreWriter.writeVectorsInProductQuantizedFormat(tmpFile.getPath(), flagConfig,
+          new VectorStoreRAM(flagConfig));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    } finally {
+      tmpFile.delete();
+    }
+  }
+}
@@ -45,7 +45,10 @@ import pitt.search.semanticvectors.VectorStoreReaderLucene;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.NoSuchElementException;
@@ -97,6 +100,73 @@ public class VectorStoreReaderLuceneTest extends TestCase {
     assertEquals(0.707106f, abraham.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
   }
 
+  @Test
+  public void testLookupsUseOffsetIndex() throws IOException {
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(threadLocalIndexInput, FLAG_CONFIG);
+    assertTrue(reader.containsVector("isaac"));
+    assertFalse(reader.containsVector("jacob"));
+    assertNull(reader.getVector("jacob"));
+    // Lookups in either order should find the right vector.
+    assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    assertEquals(0.707106f, reader.getVector("abraham").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+  }
+
+  @Test
+  public void testWritesAndReadsIndexFile() throws IOException {
+    File tmpFile = File.createTempFile("realvectors", ".bin");
+    String indexFileName = VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath());
+    VectorStoreRAM store = new VectorStoreRAM(FLAG_CONFIG);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.7f, 0.7f}));
+    store.putVector("jacob", new RealVector(new float[] {0, 1}));
+    try {
+      VectorStoreWriter.writeVectorsInLuceneFormat(tmpFile.getPath(), FLAG_CONFIG, store);
+      assertTrue(new File(indexFileName).exists());
+      VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), FLAG_CONFIG);
+      assertEquals(3, reader.getNumVectors());
+      assertEquals(1, reader.getVector("jacob").measureOverlap(new RealVector(new float[] {0, 1})), TOL);
+      assertFalse(reader.containsVector("esau"));
+      reader.close();
+    } finally {
+      tmpFile.delete();
+      new File(indexFileName).delete();
+    }
+  }
+
+  @Test
+  public void testIgnoresIndexFileForOtherStore() throws IOException {
+    File tmpFile = File.createTempFile("realvectors", ".bin");
+    File otherFile = File.createTempFile("othervectors", ".bin");
+    File indexFile = new File(VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath()));
+    File otherIndexFile = new File(VectorStoreOffsetIndex.getIndexFileName(otherFile.getPath()));
+    // Stores with the same length and number of vectors, but different objects.
+    VectorStoreRAM store = new VectorStoreRAM(FLAG_CONFIG);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("jacob", new RealVector(new float[] {0, 1}));
+    VectorStoreRAM otherStore = new VectorStoreRAM(FLAG_CONFIG);
+    otherStore.putVector("aaron", new RealVector(new float[] {1, 0}));
+    otherStore.putVector("moses", new RealVector(new float[] {0, 1}));
+    try {
+      VectorStoreWriter.writeVectorsInLuceneFormat(tmpFile.getPath(), FLAG_CONFIG, store);
+      VectorStoreWriter.writeVectorsInLuceneFormat(otherFile.getPath(), FLAG_CONFIG, otherStore);
+      assertEquals(tmpFile.length(), otherFile.length());
+      Files.copy(otherIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), FLAG_CONFIG);
+      assertEquals(2, reader.getNumVectors());
+      assertTrue(reader.containsVector("isaac"));
+      assertEquals(1, reader.getVector("jacob").measureOverlap(new RealVector(new float[] {0, 1})), TOL);
+      assertFalse(reader.containsVector("moses"));
+      reader.close();
+    } finally {
+      tmpFile.delete();
+      otherFile.delete();
+      indexFile.delete();
+      otherIndexFile.delete();
+    }
+  }
+
   @Test
   public void testOpensAndCloses() throws IOException {
     VectorStoreReaderLucene reader;
@@ -0,0 +1,182 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+import junit.framework.TestCase;
+
+public class VectorStoreReaderMappedTest extends TestCase {
+  private static double TOL = 0.0001;
+
+  private VectorStoreRAM makeRandomStore(FlagConfig flagConfig, int numVectors) {
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < numVectors; ++i) {
+      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      for (int j = 0; j < 3; ++j) {
+        vector.superpose(VectorFactory.generateRandomVector(flagConfig.vectortype(),
+            flagConfig.dimension(), flagConfig.seedlength(), random), 1, null);
+      }
+      vector.normalize();
+      store.putVector("vector" + i, vector);
+    }
+    return store;
+  }
+
+  private void checkWriteAndRead(String[] args) throws IOException, ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    VectorStoreRAM store = makeRandomStore(flagConfig, 50);
+    File tmpFile = File.createTempFile("mappedvectors", ".vec");
+    try {
+      VectorStoreWriter.writeVectorsInMappedFormat(tmpFile.getPath(), flagConfig, store);
+      VectorStoreReaderMapped reader = new VectorStoreReaderMapped(tmpFile.getPath(), flagConfig);
+      assertEquals(50, reader.getNumVectors());
+      assertTrue(reader.containsVector("vector7"));
+      assertFalse(reader.containsVector("vector50"));
+      assertNull(reader.getVector("vector50"));
+
+      Vector queryVector = store.getVector("vector7");
+      double[] scores = new double[reader.getNumVectors()];
+      reader.measureOverlaps(queryVector, 0, reader.getNumVectors(), scores);
+      for (int i = 0; i < reader.getNumVectors(); ++i) {
+        Object object = reader.getObjectAt(i);
+        assertEquals(queryVector.measureOverlap(store.getVector(object)), scores[i], TOL);
+        assertEquals(queryVector.measureOverlap(reader.getVectorAt(i)), scores[i], TOL);
+      }
+
+      int count = 0;
+      Enumeration<ObjectVector> vecEnum = reader.getAllVectors();
+      while (vecEnum.hasMoreElements()) {
+        ObjectVector objectVector = vecEnum.nextElement();
+        assertEquals(1, objectVector.getVector().measureOverlap(
+            store.getVector(objectVector.getObject())), TOL);
+        ++count;
+      }
+      assertEquals(50, count);
+
+      // Searching the mapped store should give the same results as searching in memory.
+      LinkedList<SearchResult> mappedResults = new VectorSearcher.VectorSearcherCosine(
+          store, reader, null, flagConfig, queryVector).getNearestNeighbors(10);
+      LinkedList<SearchResult> ramResults = new VectorSearcher.VectorSearcherCosine(
+          store, store, null, flagConfig, queryVector).getNearestNeighbors(10);
+      assertEquals(ramResults.size(), mappedResults.size());
+      assertEquals("vector7", mappedResults.getFirst().getObjectVector().getObject());
+      for (int i = 0; i < ramResults.size(); ++i) {
+        assertEquals(ramResults.get(i).getScore(), mappedResults.get(i).getScore(), TOL);
+      }
+      reader.close();
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testRealVectors() throws IOException, ZeroVectorException {
+    checkWriteAndRead(new String[] {"-vectortype", "real", "-dimension", "200", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testBinaryVectors() throws IOException, ZeroVectorException {
+    checkWriteAndRead(new String[] {"-vectortype", "binary", "-dimension", "256", "-seedlength", "128"});
+  }
+
+  @Test
+  public void testComplexVectorsFallBackToMaterializing() throws IOException, ZeroVectorException {
+    checkWriteAndRead(new String[] {"-vectortype", "complex", "-dimension", "100", "-seedlength", "10"});
+  }
+
+  @Test
+  public void testComplexVectorsWithPhaseEncoding() throws IOException, ZeroVectorException {
+    checkWriteAndRead(new String[] {"-vectortype", "complex", "-dimension", "100", "-seedlength", "10",
+        "-complexencoding", "phase"});
+  }
+
+  private void checkQuantized(String format) throws IOException, ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "200", "-seedlength", "10", "-indexfileformat", format});
+    VectorStoreRAM store = makeRandomStore(flagConfig, 50);
+    store.putVector("zero", VectorFactory.createZeroVector(VectorType.REAL, 200));
+    File tmpFile = File.createTempFile("quantizedvectors", "." + format);
+    try {
+      VectorStoreWriter.writeVectors(tmpFile.getPath(), flagConfig, store);
+      CloseableVectorStore reader = VectorStoreReader.openVectorStore(tmpFile.getPath(), flagConfig);
+      assertTrue(reader instanceof VectorStoreReaderMapped);
+      VectorStoreReaderMapped mappedReader = (VectorStoreReaderMapped) reader;
+      assertEquals(51, mappedReader.getNumVectors());
+      // Header, padding, then the vectors at fewer bytes each than full precision.
+      assertTrue(tmpFile.length() < 51 * 4 * 200);
+      assertTrue(mappedReader.getVector("zero").isZeroVector());
+
+      Vector queryVector = store.getVector("vector7");
+      double[] scores = new double[mappedReader.getNumVectors()];
+      mappedReader.measureOverlaps(queryVector, 0, mappedReader.getNumVectors(), scores);
+      for (int i = 0; i < mappedReader.getNumVectors(); ++i) {
+        Object object = mappedReader.getObjectAt(i);
+        assertEquals(queryVector.measureOverlap(mappedReader.getVectorAt(i)), scores[i], TOL);
+        assertEquals(queryVector.measureOverlap(store.getVector(object)), scores[i], 0.01);
+      }
+
+      LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+          store, mappedReader, null, flagConfig, queryVector).getNearestNeighbors(10);
+      assertEquals("vector7", results.getFirst().getObjectVector().getObject());
+      reader.close();
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  @Test
+  public void testInt8RealVectors() throws IOException, ZeroVectorException {
+    checkQuantized("int8");
+  }
+
+  @Test
+  public void testFloat16RealVectors() throws IOException, ZeroVectorException {
+    checkQuantized("float16");
+  }
+}
@@ -68,6 +68,18 @@ public class VectorStoreWriterTest extends TestCase {
     assertEquals("-vectortype COMPLEX -dimension 2", VectorStoreWriter.generateHeaderString(flagConfig));
   }
 
+  @Test
+  public void testGenerateHeaderStringWithPhaseEncoding() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "complex", "-dimension", "2", "-complexencoding", "phase"});
+    assertEquals("-vectortype COMPLEX -dimension 2 -complexencoding PHASE",
+        VectorStoreWriter.generateHeaderString(flagConfig));
+
+    FlagConfig realConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-complexencoding", "phase"});
+    assertEquals("-vectortype REAL -dimension 2", VectorStoreWriter.generateHeaderString(realConfig));
+  }
+
   @Test
   public void testWriteLuceneVectorStoreAndRead() throws IOException {
     IndexOutput indexOutput = directory.createOutput("realvectors.bin", IOContext.DEFAULT);
@@ -100,7 +100,24 @@ public class PSITest {
     int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
     assertTrue(rank < 3);
   }
+
+  @Test
+  public void testBuildAndSearchRealPSIIndexMultiThreaded() throws IOException, IllegalArgumentException {
+    String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype real -seedlength 500 -numthreads 4 -luceneindexpath predication_index";
+    String searchCmd = "-searchtype boundproduct -queryvectorfile semanticvectors.bin -boundvectorfile predicatevectors.bin -searchvectorfile elementalvectors.bin -matchcase mexico HAS_CURRENCY";
+    int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
+    assertTrue(rank < 3);
+  }
   
+  @Test
+  public void testBuildAndSearchRealPSIIndexFromTriplesFile() throws IOException, IllegalArgumentException {
+    String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype real -seedlength 500 -numthreads 4 "
+        + "-triplesfile predicationtriples.bin -luceneindexpath predication_index";
+    String searchCmd = "-searchtype boundproduct -queryvectorfile semanticvectors.bin -boundvectorfile predicatevectors.bin -searchvectorfile elementalvectors.bin -matchcase mexico HAS_CURRENCY";
+    int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
+    assertTrue(rank < 3);
+  }
+
   @Test
   public void testBuildAndSearchRealPermutationPSIIndex() throws IOException, IllegalArgumentException {
     String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype real -seedlength 500 -realbindmethod permutation -luceneindexpath predication_index";
@@ -35,15 +35,25 @@ package pitt.search.semanticvectors.integrationtests;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 import org.junit.*;
 
 import pitt.search.semanticvectors.BuildIndex;
 import pitt.search.semanticvectors.BuildPositionalIndex;
+import pitt.search.semanticvectors.ElementalVectorStore;
 import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.IncrementalDocVectors;
+import pitt.search.semanticvectors.LuceneUtils;
+import pitt.search.semanticvectors.ObjectVector;
 import pitt.search.semanticvectors.Search;
 import pitt.search.semanticvectors.SearchResult;
+import pitt.search.semanticvectors.VectorStore;
+import pitt.search.semanticvectors.VectorStoreOffsetIndex;
+import pitt.search.semanticvectors.VectorStoreRAM;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
 
 import static org.junit.Assert.*;
 
@@ -112,7 +122,62 @@ public class RegressionTests {
     assertEquals(2, buildSearchGetRank("-dimension 200 -luceneindexpath positional_index",
         "-queryvectorfile termvectors.bin -searchvectorfile termvectors.bin peter", "simon"));
   }
-   
+
+  @Test
+  public void testBuildAndSearchBasicRealIndexMultiThreaded() {
+    assertEquals(2, buildSearchGetRank("-dimension 200 -numthreads 4 -luceneindexpath positional_index",
+        "-queryvectorfile termvectors.bin -searchvectorfile termvectors.bin peter", "simon"));
+  }
+
+  /**
+   * Checks that two real vector stores have the same objects, and that their vectors differ
+   * by no more than the rounding from adding the same terms in a different order.
+   */
+  private void assertSameRealVectors(String expectedFile, String actualFile) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(null);
+    VectorStoreRAM expected = VectorStoreRAM.readFromFile(flagConfig, expectedFile);
+    VectorStoreRAM actual = VectorStoreRAM.readFromFile(flagConfig, actualFile);
+    assertEquals(expected.getNumVectors(), actual.getNumVectors());
+    Enumeration<ObjectVector> vecEnum = expected.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector expectedVector = vecEnum.nextElement();
+      Vector actualVector = actual.getVector(expectedVector.getObject());
+      assertNotNull("Missing vector for " + expectedVector.getObject(), actualVector);
+      assertArrayEquals("Vectors differ for " + expectedVector.getObject(),
+          ((RealVector) expectedVector.getVector()).getCoordinates(),
+          ((RealVector) actualVector).getCoordinates(), 1e-5f);
+    }
+  }
+
+  @Test
+  public void testMultiThreadedBuildMatchesSingleThreaded() throws IOException {
+    String buildArgs = "-dimension 200 -vectortype real -elementalmethod contenthash "
+        + "-luceneindexpath positional_index -termvectorsfile %stermvectors -docvectorsfile %sdocvectors "
+        + "-numthreads %d";
+    BuildIndex.main(String.format(buildArgs, "serial", "serial", 1).split("\\s+"));
+    BuildIndex.main(String.format(buildArgs, "parallel", "parallel", 4).split("\\s+"));
+    assertSameRealVectors("serialtermvectors.bin", "paralleltermvectors.bin");
+    assertSameRealVectors("serialdocvectors.bin", "paralleldocvectors.bin");
+    for (String prefix : new String[] {"serial", "parallel"}) {
+      for (String store : new String[] {"termvectors", "docvectors"}) {
+        assertTrue(new File(prefix + store + ".bin").delete());
+        new File(VectorStoreOffsetIndex.getIndexFileName(prefix + store + ".bin")).delete();
+      }
+    }
+  }
+
+  @Test
+  public void testBuildAndSearchBasicRealIndexWithTermWeightsFile() {
+    // Once to compute and write the term weights, and once to read them back.
+    for (int i = 0; i < 2; ++i) {
+      assertEquals(2, buildSearchGetRank(
+          "-dimension 200 -termweight idf -termweightsfile termweights.bin -luceneindexpath positional_index",
+          "-queryvectorfile termvectors.bin -searchvectorfile termvectors.bin peter", "simon"));
+      assertTrue(new File("termweights.bin").isFile());
+    }
+    assertTrue(new File("termweights.bin").delete());
+  }
+
   @Test
   public void testBuildAndSearchBasicRealIndexDocs() {
     assertTrue(3 > buildSearchGetRank("-dimension 200 -vectortype real -luceneindexpath positional_index",
@@ -120,6 +185,102 @@ public class RegressionTests {
         "src/test/resources/testdata/John/Chapter_21"));
   }
 
+  @Test
+  public void testBuildAndSearchBasicRealIndexDocsMultiThreaded() {
+    assertTrue(3 > buildSearchGetRank(
+        "-dimension 200 -vectortype real -numthreads 4 -luceneindexpath positional_index",
+        "-queryvectorfile termvectors.bin -searchvectorfile docvectors.bin peter",
+        "src/test/resources/testdata/John/Chapter_21"));
+  }
+
+  @Test
+  public void testBuildAndSearchIncrementalRealIndexDocsMultiThreaded() {
+    assertTrue(3 > buildSearchGetRank(
+        "-dimension 200 -vectortype real -docindexing incremental -numthreads 4 -luceneindexpath positional_index",
+        "-queryvectorfile termvectors.bin -searchvectorfile docvectors.bin peter",
+        "src/test/resources/testdata/John/Chapter_21"));
+  }
+
+  /** Passes lookups to another store, and throws once a given number have been made. */
+  private static class StoppingVectorStore implements VectorStore {
+    private final VectorStore vectorStore;
+    private final int maxLookups;
+    private int numLookups = 0;
+
+    StoppingVectorStore(VectorStore vectorStore, int maxLookups) {
+      this.vectorStore = vectorStore;
+      this.maxLookups = maxLookups;
+    }
+
+    @Override
+    public Vector getVector(Object object) {
+      if (numLookups++ == maxLookups) {
+        throw new IllegalStateException("Stopped after " + maxLookups + " lookups.");
+      }
+      return vectorStore.getVector(object);
+    }
+
+    @Override
+    public boolean containsVector(Object object) {
+      return vectorStore.containsVector(object);
+    }
+
+    @Override
+    public Enumeration<ObjectVector> getAllVectors() {
+      return vectorStore.getAllVectors();
+    }
+
+    @Override
+    public int getNumVectors() {
+      return vectorStore.getNumVectors();
+    }
+  }
+
+  private FlagConfig getDocVectorsFlagConfig(String docVectorsFile, String extraArgs) {
+    return FlagConfig.getFlagConfig((
+        "-dimension 200 -vectortype real -elementalmethod contenthash -checkpointinterval 5 "
+        + "-luceneindexpath positional_index -docvectorsfile " + docVectorsFile + extraArgs).split("\\s+"));
+  }
+
+  @Test
+  public void testResumeIncrementalDocVectors() throws IOException {
+    String[] filesToCheck = new String[] {"cleandocvectors.bin", "resumeddocvectors.bin",
+        VectorStoreOffsetIndex.getIndexFileName("cleandocvectors.bin"),
+        VectorStoreOffsetIndex.getIndexFileName("resumeddocvectors.bin")};
+    FlagConfig cleanConfig = getDocVectorsFlagConfig("cleandocvectors", "");
+    VectorStore termVectors = new ElementalVectorStore(cleanConfig);
+
+    // A clean run, counting the term vector lookups.
+    StoppingVectorStore countingStore = new StoppingVectorStore(termVectors, -1);
+    IncrementalDocVectors.createIncrementalDocVectors(
+        countingStore, cleanConfig, new LuceneUtils(cleanConfig));
+
+    // A run stopped three quarters of the way through, after several checkpoints.
+    FlagConfig stoppedConfig = getDocVectorsFlagConfig("resumeddocvectors", "");
+    try {
+      IncrementalDocVectors.createIncrementalDocVectors(
+          new StoppingVectorStore(termVectors, 3 * countingStore.numLookups / 4),
+          stoppedConfig, new LuceneUtils(stoppedConfig));
+      fail("Run should have been stopped.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    File checkpointFile = new File(IncrementalDocVectors.getCheckpointFileName("resumeddocvectors.bin"));
+    assertTrue("Missing checkpoint file: " + checkpointFile, checkpointFile.isFile());
+
+    FlagConfig resumedConfig = getDocVectorsFlagConfig("resumeddocvectors", " -resumedocvectors");
+    IncrementalDocVectors.createIncrementalDocVectors(
+        termVectors, resumedConfig, new LuceneUtils(resumedConfig));
+    assertFalse(checkpointFile.exists());
+    assertFalse(new File("resumeddocvectors.bin.partial").exists());
+
+    assertArrayEquals(Files.readAllBytes(new File(filesToCheck[0]).toPath()),
+        Files.readAllBytes(new File(filesToCheck[1]).toPath()));
+    assertArrayEquals(Files.readAllBytes(new File(filesToCheck[2]).toPath()),
+        Files.readAllBytes(new File(filesToCheck[3]).toPath()));
+    for (String fn : filesToCheck) assertTrue(new File(fn).delete());
+  }
+
   @Test
   public void testBuildAndSearchBasicComplexIndex() {
     assertEquals(2, buildSearchGetRank(
@@ -178,7 +339,28 @@ public class RegressionTests {
         "peter");
     assertTrue(peterRank < 20);
   }
-    
+
+  @Test
+  public void testBuildAndSearchRealPositionalIndexMultiThreaded() {
+    int peterRank = positionalBuildSearchGetRank(
+        "-dimension 200 -vectortype real -seedlength 10 -numthreads 4 -luceneindexpath positional_index",
+        "-queryvectorfile termtermvectors.bin simon",
+        new String[] {"termtermvectors.bin", "docvectors.bin"},
+        "peter");
+    assertTrue(peterRank < 20);
+  }
+
+  @Test
+  public void testBuildAndSearchRealPositionalIndexHogwild() {
+    int peterRank = positionalBuildSearchGetRank(
+        "-dimension 200 -vectortype real -seedlength 10 -numthreads 4 -concurrentsuperposition hogwild "
+        + "-luceneindexpath positional_index",
+        "-queryvectorfile termtermvectors.bin simon",
+        new String[] {"termtermvectors.bin", "docvectors.bin"},
+        "peter");
+    assertTrue(peterRank < 20);
+  }
+
   @Test
   synchronized public void testBuildAndSearchRealPositionalIndexDocs() {
     int chapter6Rank = positionalBuildSearchGetRank(
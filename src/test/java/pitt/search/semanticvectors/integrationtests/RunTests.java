@@ -131,7 +131,7 @@ public class RunTests {
       VerbatimLogger.warning(new File(".").getCanonicalPath() + " already contains predication_index. "
           + "Please delete if you want to run from clean.\n");
     } else {
-      LuceneIndexFromTriples.main(new String[] {triplesTestDataPath});
+      LuceneIndexFromTriples.main(new String[] {"-triplesfile", "predicationtriples.bin", triplesTestDataPath});
     }
       
     testDataPrepared = true;
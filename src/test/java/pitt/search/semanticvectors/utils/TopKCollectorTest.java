@@ -0,0 +1,89 @@
+package pitt.search.semanticvectors.utils;
+
+import org.junit.Assert;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link TopKCollector} class.
+ */
+public class TopKCollectorTest extends TestCase {
+  public static double TOL = 0.00001;
+
+  public void testKeepsBestInDescendingOrder() throws Exception {
+    TopKCollector collector = new TopKCollector(3);
+    double[] scores = new double[] {0.1, 0.5, 0.3, 0.9, 0.2, 0.7};
+    for (int i = 0; i < scores.length; ++i) {
+      collector.offer(scores[i], i, "object" + i);
+    }
+    collector.sortDescending();
+    Assert.assertEquals(3, collector.size());
+    Assert.assertEquals(0.9, collector.getScore(0), TOL);
+    Assert.assertEquals(0.7, collector.getScore(1), TOL);
+    Assert.assertEquals(0.5, collector.getScore(2), TOL);
+    Assert.assertEquals(3, collector.getIndex(0));
+    Assert.assertEquals("object5", collector.getPayload(1));
+  }
+
+  public void testMinScoreIsExclusive() throws Exception {
+    TopKCollector collector = new TopKCollector(5, 0.5);
+    Assert.assertFalse(collector.offer(0.5, 0));
+    Assert.assertTrue(collector.offer(0.6, 1));
+    Assert.assertFalse(collector.offer(0.1, 2));
+    collector.sortDescending();
+    Assert.assertEquals(1, collector.size());
+    Assert.assertEquals(1, collector.getIndex(0));
+  }
+
+  public void testThresholdRisesWhenFull() throws Exception {
+    TopKCollector collector = new TopKCollector(2, 0.1);
+    Assert.assertEquals(0.1, collector.getThreshold(), TOL);
+    collector.offer(0.4, 0);
+    collector.offer(0.8, 1);
+    Assert.assertEquals(0.4, collector.getThreshold(), TOL);
+    collector.offer(0.6, 2);
+    Assert.assertEquals(0.6, collector.getThreshold(), TOL);
+  }
+
+  public void testTiesBrokenByIndex() throws Exception {
+    TopKCollector collector = new TopKCollector(2);
+    collector.offer(0.5, 7);
+    collector.offer(0.5, 3);
+    collector.offer(0.5, 5);
+    collector.sortDescending();
+    Assert.assertEquals(3, collector.getIndex(0));
+    Assert.assertEquals(5, collector.getIndex(1));
+  }
+
+  public void testMergeMatchesSingleCollector() throws Exception {
+    Random random = new Random(0);
+    double[] scores = new double[1000];
+    TopKCollector whole = new TopKCollector(20);
+    TopKCollector firstHalf = new TopKCollector(20);
+    TopKCollector secondHalf = new TopKCollector(20);
+    for (int i = 0; i < scores.length; ++i) {
+      scores[i] = random.nextDouble();
+      whole.offer(scores[i], i);
+      (i < scores.length / 2 ? firstHalf : secondHalf).offer(scores[i], i);
+    }
+    secondHalf.merge(firstHalf);
+    whole.sortDescending();
+    secondHalf.sortDescending();
+
+    double[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < 20; ++i) {
+      Assert.assertEquals(sorted[sorted.length - 1 - i], whole.getScore(i), 0);
+      Assert.assertEquals(whole.getIndex(i), secondHalf.getIndex(i));
+    }
+  }
+
+  public void testZeroResults() throws Exception {
+    TopKCollector collector = new TopKCollector(0);
+    Assert.assertFalse(collector.offer(1.0, 0));
+    collector.sortDescending();
+    Assert.assertEquals(0, collector.size());
+  }
+}
@@ -144,6 +144,38 @@ public class BinaryVectorTest extends TestCase {
     assertTrue(0.45 > vector1.measureOverlap(vector2));
   }
 
+  @Test
+  public void testWeightedSuperpositionMatchesMajorityVote() {
+    int dim = 512;
+    Random random = new Random(0);
+    BinaryVector[] elementalVectors = new BinaryVector[10];
+    for (int i = 0; i < elementalVectors.length; ++i) {
+      elementalVectors[i] = (BinaryVector) VectorFactory.generateRandomVector(
+          VectorType.BINARY, dim, dim/2, random);
+    }
+
+    // Add enough votes that shared weight is trimmed from the voting record along the way,
+    // keeping an odd total so that there are no tied votes.
+    BinaryVector semanticVector = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    int[] counts = new int[dim];
+    int totalVotes = 0;
+    for (int i = 0; i < 301; ++i) {
+      int weight = (i % 2 == 0) ? 1 + 2 * random.nextInt(20) : 2 * (1 + random.nextInt(20));
+      BinaryVector elementalVector = elementalVectors[random.nextInt(elementalVectors.length)];
+      semanticVector.superpose(elementalVector, weight, null);
+      for (int q = 0; q < dim; ++q) {
+        if (elementalVector.bitSet.get(q)) counts[q] += weight;
+      }
+      totalVotes += weight;
+    }
+    assertEquals(1, totalVotes % 2);
+
+    semanticVector.normalizeBSC();
+    for (int q = 0; q < dim; ++q) {
+      assertEquals(2 * counts[q] > totalVotes, semanticVector.bitSet.get(q));
+    }
+  }
+
   @Test
   public void testCreateZeroVectorAndOverlap() {
     Vector zero = VectorFactory.createZeroVector(VectorType.BINARY, 64);
@@ -213,5 +245,31 @@ public class BinaryVectorTest extends TestCase {
       fail();
     }
     directory.close();
-  }  
-}
\ No newline at end of file
+  }
+
+  @Test
+  public void testSuperposeBoundMatchesCopyAndBind() {
+    int dim = 512;
+    Random random = new Random(0);
+    BinaryVector elemental = (BinaryVector) VectorFactory.generateRandomVector(
+        VectorType.BINARY, dim, dim/2, random);
+    BinaryVector binder = (BinaryVector) VectorFactory.generateRandomVector(
+        VectorType.BINARY, dim, dim/2, random);
+    String elementalString = elemental.writeLongToString();
+
+    BinaryVector expected = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    BinaryVector actual = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    for (int i = 0; i < 3; ++i) {
+      BinaryVector bound = elemental.copy();
+      bound.bind(binder);
+      expected.superpose(bound, 1 + i, null);
+      expected.superpose(binder, 1, null);
+      actual.superposeBound(elemental, binder, 1 + i);
+      actual.superpose(binder, 1, null);
+    }
+    expected.normalizeBSC();
+    actual.normalizeBSC();
+    assertEquals(expected.writeLongToString(), actual.writeLongToString());
+    assertEquals(elementalString, elemental.writeLongToString());
+  }
+}
@@ -174,7 +174,38 @@ public class ComplexVectorTest extends TestCase {
     assertEquals(1, cv2.measurePolarDenseOverlap(cv2), TOL);  // Zero entry doesn't contribute.
     assertEquals(1, cv3.measurePolarDenseOverlap(cv3), TOL);
   }
-  
+
+  @Test
+  public void testMeasurePolarOverlapLeavesOtherVectorUnchanged() {
+    Random random = new Random(0);
+    ComplexVector query = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 100, random);
+    ComplexVector sparse = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 10, random);
+    ComplexVector cartesian = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 100, random);
+    cartesian.toCartesian();
+
+    for (ComplexVector other : new ComplexVector[] {sparse, cartesian}) {
+      Mode mode = other.getOpMode();
+      ComplexVector densePolar = other.copy();
+      densePolar.toDensePolar();
+      assertEquals(query.measurePolarDenseOverlap(densePolar), query.measurePolarDenseOverlap(other), TOL);
+      assertEquals(mode, other.getOpMode());
+    }
+  }
+
+  @Test
+  public void testCosineOfDifference() {
+    short RES = CircleLookupTable.PHASE_RESOLUTION;
+    for (short angle1 : new short[] {0, 1, (short) (RES / 4), (short) (RES - 1)}) {
+      for (short angle2 : new short[] {0, 7, (short) (RES / 2), (short) (RES - 1)}) {
+        assertEquals(CircleLookupTable.getRealEntry((short) Math.abs(angle1 - angle2)),
+            CircleLookupTable.getCosineOfDifference(angle1, angle2), 0);
+      }
+    }
+  }
+
   @Test
   public void testConvolve() {
     short RES = CircleLookupTable.PHASE_RESOLUTION;
@@ -250,4 +281,53 @@ public class ComplexVectorTest extends TestCase {
     }
     directory.close();
   }
+
+  @Test
+  public void testReadWritePhaseAngles() throws IOException {
+    ComplexVector cartesian = new ComplexVector(new float[] {1, 0, 0, 1, 0, 0});
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("phasevectors.bin", IOContext.DEFAULT);
+    cartesian.writePhaseAnglesToLuceneStream(indexOutput);
+    indexOutput.close();
+    // Writing phase angles shouldn't change the representation of the vector being written.
+    assertEquals(Mode.CARTESIAN, cartesian.getOpMode());
+
+    IndexInput indexInput = directory.openInput("phasevectors.bin", IOContext.DEFAULT);
+    assertEquals(6, indexInput.length());
+    ComplexVector read = new ComplexVector(3, Mode.CARTESIAN);
+    read.readPhaseAnglesFromLuceneStream(indexInput);
+    indexInput.close();
+    directory.close();
+
+    assertEquals(Mode.POLAR_DENSE, read.getOpMode());
+    assertEquals(0, read.getPhaseAngles()[0]);
+    assertEquals(CircleLookupTable.phaseAngleFromCartesianTrig(0, 1), read.getPhaseAngles()[1]);
+    assertEquals(CircleLookupTable.ZERO_INDEX, read.getPhaseAngles()[2]);
+  }
+
+  @Test
+  public void testSuperposeBoundMatchesCopyAndBind() {
+    Random random = new Random(0);
+    ComplexVector sparseElemental = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 10, random);
+    ComplexVector denseElemental = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 100, random);
+    ComplexVector cartesianBinder = (ComplexVector) VectorFactory.generateRandomVector(
+        VectorType.COMPLEX, 100, 100, random);
+    cartesianBinder.toCartesian();
+    for (ComplexVector elemental : new ComplexVector[] {sparseElemental, denseElemental}) {
+      Mode elementalMode = elemental.getOpMode();
+      ComplexVector bound = elemental.copy();
+      bound.bind(cartesianBinder);
+      ComplexVector expected = new ComplexVector(100, Mode.CARTESIAN);
+      expected.superpose(bound, 0.5, null);
+
+      ComplexVector actual = new ComplexVector(100, Mode.CARTESIAN);
+      actual.superposeBound(elemental, cartesianBinder, 0.5);
+      assertArrayEquals(expected.getCoordinates(), actual.getCoordinates(), 0);
+      // Neither of the vectors being bound should be converted to another mode.
+      assertEquals(elementalMode, elemental.getOpMode());
+      assertEquals(Mode.CARTESIAN, cartesianBinder.getOpMode());
+    }
+  }
 }
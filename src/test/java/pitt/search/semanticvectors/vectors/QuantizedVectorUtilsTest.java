@@ -0,0 +1,76 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class QuantizedVectorUtilsTest extends TestCase {
+
+  @Test
+  public void testHalfPrecisionKnownValues() {
+    assertEquals((short) 0x3C00, QuantizedVectorUtils.floatToHalf(1.0f));
+    assertEquals((short) 0xC000, QuantizedVectorUtils.floatToHalf(-2.0f));
+    assertEquals((short) 0x7BFF, QuantizedVectorUtils.floatToHalf(65504f));
+    assertEquals((short) 0x7C00, QuantizedVectorUtils.floatToHalf(1e6f));
+    assertEquals((short) 0x0001, QuantizedVectorUtils.floatToHalf(5.9604645e-8f));
+    assertEquals((short) 0, QuantizedVectorUtils.floatToHalf(1e-10f));
+    assertEquals(0.333251953125f, QuantizedVectorUtils.halfToFloat(QuantizedVectorUtils.floatToHalf(1 / 3f)));
+    assertTrue(Float.isNaN(QuantizedVectorUtils.halfToFloat(QuantizedVectorUtils.floatToHalf(Float.NaN))));
+  }
+
+  @Test
+  public void testHalfPrecisionRoundTrip() {
+    // Every finite half precision value converts back to itself.
+    for (int i = 0; i < (1 << 16); ++i) {
+      short half = (short) i;
+      float value = QuantizedVectorUtils.halfToFloat(half);
+      if (Float.isNaN(value)) continue;
+      assertEquals(half, QuantizedVectorUtils.floatToHalf(value));
+    }
+  }
+
+  @Test
+  public void testHalfPrecisionRoundsToNearest() {
+    for (float value = -70000f; value < 70000f; value += 0.37f) {
+      float rounded = QuantizedVectorUtils.halfToFloat(QuantizedVectorUtils.floatToHalf(value));
+      if (Math.abs(value) < 65504f) {
+        assertTrue(Math.abs(rounded - value) <= Math.abs(value) / 2048 + 1e-7);
+      }
+    }
+  }
+}
@@ -251,4 +251,31 @@ public class RealVectorTest {
           dimension, StatUtils.getMean(scores), StatUtils.getVariance(scores)));
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSuperposeBoundMatchesCopyAndBind() {
+    Random random = new Random(0);
+    RealVector.RealBindMethod bindMethod = RealVector.BIND_METHOD;
+    try {
+      for (RealVector.RealBindMethod method : RealVector.RealBindMethod.values()) {
+        RealVector.BIND_METHOD = method;
+        Vector elemental = VectorFactory.generateRandomVector(VectorType.REAL, 100, 10, random);
+        Vector binder = VectorFactory.generateRandomVector(VectorType.REAL, 100, 10, random);
+        binder.normalize();
+        String elementalString = elemental.writeToString();
+        Vector bound = elemental.copy();
+        bound.bind(binder);
+        Vector expected = VectorFactory.createZeroVector(VectorType.REAL, 100);
+        expected.superpose(bound, 0.5, null);
+
+        Vector actual = VectorFactory.createZeroVector(VectorType.REAL, 100);
+        actual.superposeBound(elemental, binder, 0.5);
+        assertArrayEquals(((RealVector) expected).getCoordinates(),
+            ((RealVector) actual).getCoordinates(), (float) TOL);
+        assertEquals(elementalString, elemental.writeToString());
+      }
+    } finally {
+      RealVector.BIND_METHOD = bindMethod;
+    }
+  }
+}
@@ -77,4 +77,30 @@ public class RealVectorUtilsTest {
     assertEquals(1, vector1.measureOverlap(inverseConvolution), 0.25);
     System.out.println(vector1.measureOverlap(inverseConvolution));
   }
+
+  @Test
+  public void testMultiplyComplex() {
+    float[] first = new float[] {1, 2, 0, 1};
+    float[] second = new float[] {3, -1, 0, 1};
+    float[] product = new float[4];
+    RealVectorUtils.multiplyComplex(first, second, product, 2);
+    assertArrayEquals(new float[] {5, 5, -1, 0}, product, (float) TOL);
+    RealVectorUtils.multiplyComplex(first, second, first, 2);
+    assertArrayEquals(product, first, 0);
+  }
+
+  @Test
+  public void testFftConvolutionNoticesChangedVector() {
+    RealVector vector1 = new RealVector(new float[] {1, 0, 1});
+    RealVector vector2 = new RealVector(new float[] {1, 1, 0});
+    assertTrue(RealVectorUtils.fftConvolution(vector1, vector2).toString().contains("2.0 1.0 1.0"));
+
+    // The spectrum of vector2 is cached, so must be worked out again when vector2 changes.
+    vector2.superpose(new RealVector(new float[] {0, 0, 1}), 1, null);
+    RealVector convolution = RealVectorUtils.fftConvolution(vector1, vector2);
+    float[] coordinates = convolution.getCoordinates();
+    assertEquals(2, coordinates[0], TOL);
+    assertEquals(2, coordinates[1], TOL);
+    assertEquals(2, coordinates[2], TOL);
+  }
 }
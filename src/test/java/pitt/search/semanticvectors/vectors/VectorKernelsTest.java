@@ -0,0 +1,113 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VectorKernelsTest {
+  private static final double TOL = 0.00001;
+
+  private static final VectorKernels SCALAR = VectorKernels.get(VectorKernels.Implementation.SCALAR);
+  private static final VectorKernels UNROLLED = VectorKernels.get(VectorKernels.Implementation.UNROLLED);
+
+  /** Lengths that exercise both the unrolled loops and their remainders. */
+  private static final int[] LENGTHS = {0, 1, 2, 3, 5, 8, 63, 64, 65, 200, 1027};
+
+  private static float[] randomFloats(Random random, int length) {
+    float[] floats = new float[length];
+    for (int i = 0; i < length; ++i) {
+      floats[i] = (float) random.nextGaussian();
+    }
+    return floats;
+  }
+
+  @Test
+  public void testImplementationsAgree() {
+    Random random = new Random(0);
+    for (int length : LENGTHS) {
+      float[] a = randomFloats(random, 2 * length);
+      float[] b = randomFloats(random, 2 * length);
+      assertEquals(SCALAR.dotProduct(a, b, length), UNROLLED.dotProduct(a, b, length), TOL);
+      assertEquals(SCALAR.squaredNorm(a, length), UNROLLED.squaredNorm(a, length), TOL);
+      if (length > 0) {
+        assertEquals(SCALAR.cosine(a, b, length), UNROLLED.cosine(a, b, length), TOL);
+      }
+      assertEquals(SCALAR.complexAngularOverlap(a, b, length),
+          UNROLLED.complexAngularOverlap(a, b, length), TOL);
+
+      float[] scalarTarget = a.clone();
+      float[] unrolledTarget = a.clone();
+      SCALAR.addScaled(scalarTarget, b, 0.3, length);
+      UNROLLED.addScaled(unrolledTarget, b, 0.3, length);
+      // Each coordinate is computed the same way, so the results are exactly the same.
+      assertArrayEquals(scalarTarget, unrolledTarget, 0);
+
+      long[] bitsA = new long[length];
+      long[] bitsB = new long[length];
+      for (int i = 0; i < length; ++i) {
+        bitsA[i] = random.nextLong();
+        bitsB[i] = random.nextLong();
+      }
+      assertEquals(SCALAR.xorCount(bitsA, bitsB, length), UNROLLED.xorCount(bitsA, bitsB, length));
+    }
+  }
+
+  @Test
+  public void testKnownValues() {
+    for (VectorKernels kernels : new VectorKernels[] {SCALAR, UNROLLED}) {
+      float[] a = {1, 0, 3, 4, 0, 0};
+      float[] b = {0, 2, 3, 4, 1, 1};
+      assertEquals(25, kernels.dotProduct(a, b, 6), TOL);
+      assertEquals(26, kernels.squaredNorm(a, 6), TOL);
+      assertEquals(25 / Math.sqrt(26 * 31), kernels.cosine(a, b, 6), TOL);
+      // The pairs are at right angles, the same and zero in a, so the last is not counted.
+      assertEquals(0.5, kernels.complexAngularOverlap(a, b, 3), TOL);
+      assertEquals(2, kernels.xorCount(new long[] {5, -1}, new long[] {6, -1}, 2));
+    }
+  }
+
+  @Test
+  public void testComplexAngularOverlapOfZeroVectorsIsZero() {
+    for (VectorKernels kernels : new VectorKernels[] {SCALAR, UNROLLED}) {
+      assertEquals(0, kernels.complexAngularOverlap(new float[8], new float[8], 4), 0);
+    }
+  }
+}